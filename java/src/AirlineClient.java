@@ -0,0 +1,165 @@
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+
+/**
+ * This class is the client of AirlineDaemon.  It connects to the daemon's
+ * Unix domain socket, sends what is typed to the menu and prints what the
+ * menu prints, until the menu exits or the input ends.
+ *
+ * The client only copies bytes; it does not load the JDBC driver or any
+ * other class of the program, so it starts as fast as the JVM does.  When
+ * no daemon is listening it exits with status 1, which scripts/client.sh
+ * uses to fall back to the standalone program.
+ *
+ * Everything typed, passwords included, goes to whoever listens on the
+ * socket, so the client only connects when the socket and its directory
+ * belong to the user running it; otherwise it exits with status 2.
+ *
+ * Usage: java AirlineClient [socketPath]
+ */
+public class AirlineClient {
+
+   /**
+    * @return the socket AirlineDaemon listens on and AirlineClient connects
+    *         to: airline.daemon.socket, by default daemon.sock in the
+    *         directory airline-<user> of the temporary directory
+    */
+   static Path defaultSocket() {
+      String path = System.getProperty("airline.daemon.socket");
+      if (path != null)
+         return Paths.get(path);
+      return Paths.get(System.getProperty("java.io.tmpdir"), "airline-" + System.getProperty("user.name"), "daemon.sock");
+   }
+
+   /**
+    * Creates the directory of a socket with mode 0700, or checks that the
+    * existing one belongs to the user and nobody else can use it.
+    *
+    * @param dir the directory the socket is in
+    * @throws java.io.IOException when it cannot be created or is not private
+    */
+   static void privateDirectory(Path dir) throws IOException {
+      try {
+         Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+         return;
+      } catch (FileAlreadyExistsException e) {
+         // checked below
+      } catch (UnsupportedOperationException e) {
+         // not a POSIX file system
+         Files.createDirectories(dir);
+      }
+      checkPrivate(dir);
+   }//end privateDirectory
+
+   /**
+    * Checks that a directory belongs to the user and nobody else can use it.
+    *
+    * @param dir the directory to check
+    * @throws java.io.IOException when it is not private
+    */
+   static void checkPrivate(Path dir) throws IOException {
+      if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS) || !ownedByUser(dir))
+         throw new IOException(dir + " is not a directory of " + System.getProperty("user.name"));
+      try {
+         for (PosixFilePermission permission : Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS))
+            if (!permission.name().startsWith("OWNER_"))
+               throw new IOException(dir + " can be used by other users; make it mode 0700");
+      } catch (UnsupportedOperationException e) {
+         // not a POSIX file system; ownership is all there is to check
+      }
+   }//end checkPrivate
+
+   /**
+    * @return whether the file, not what it links to, belongs to the user running the program
+    */
+   static boolean ownedByUser(Path file) throws IOException {
+      UserPrincipal user = FileSystems.getDefault().getUserPrincipalLookupService()
+         .lookupPrincipalByName(System.getProperty("user.name"));
+      return Files.getOwner(file, LinkOption.NOFOLLOW_LINKS).equals(user);
+   }
+
+   public static void main(String[] args) {
+      if (args.length > 1) {
+         System.err.println("Usage: java AirlineClient [socketPath]");
+         return;
+      }
+      Path socket = args.length > 0 ? Paths.get(args[0]) : defaultSocket();
+
+      // no one else may be able to listen on the socket or put another in its place
+      try {
+         if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            checkPrivate(socket.toAbsolutePath().getParent());
+            if (!ownedByUser(socket))
+               throw new IOException(socket + " is not a socket of " + System.getProperty("user.name"));
+         }
+      } catch (IOException e) {
+         System.err.println("Error - Not connecting to " + socket + ": " + e.getMessage());
+         System.exit(2);
+         return;
+      }
+
+      SocketChannel channel;
+      try {
+         channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+         channel.connect(UnixDomainSocketAddress.of(socket));
+      } catch (IOException e) {
+         System.err.println("Error - No daemon listening on " + socket + ": " + e.getMessage());
+         System.exit(1);
+         return;
+      }
+
+      // what is typed goes to the daemon; the end of the input is passed on
+      Thread input = new Thread(() -> {
+         InputStream stdin = new FileInputStream(FileDescriptor.in);
+         byte[] buffer = new byte[4096];
+         try {
+            for (int n = stdin.read(buffer); n >= 0; n = stdin.read(buffer)) {
+               ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+               while (bytes.hasRemaining())
+                  channel.write(bytes);
+            }
+            channel.shutdownOutput();
+         } catch (IOException e) {
+            // the daemon closed the session
+         }
+      }, "client-input");
+      input.setDaemon(true);
+      input.start();
+
+      // the menu's output is printed as it comes, until the daemon ends the session
+      OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+      ByteBuffer buffer = ByteBuffer.allocate(65536);
+      try {
+         while (channel.read(buffer) >= 0) {
+            stdout.write(buffer.array(), 0, buffer.position());
+            stdout.flush();
+            buffer.clear();
+         }
+      } catch (IOException e) {
+         System.err.println("Error - Lost the daemon: " + e.getMessage());
+      } finally {
+         try {
+            channel.close();
+         } catch (IOException e) {
+            // ignored.
+         }
+      }
+   }//end main
+}//end AirlineClient
@@ -0,0 +1,420 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the features of AirlineManagement as JSON over HTTP, on
+ * the HTTP server that ships with the JDK.  Every request runs on its own
+ * virtual thread when the runtime has them, and on a bounded thread pool
+ * otherwise; either way the statements go through the connection pool of the
+ * AirlineManagement instance, so the pool size (airline.pool.max) is what
+ * bounds the load put on the database.
+ *
+ *    POST /login           login, password        -> {"token":..,"login":..,"role":..}
+ *    POST /logout                                 -> {}
+ *    POST /users           login, password[, role] -> {"login":..}
+ *    GET  /features                               -> the features the caller may run
+ *    GET|POST /features/n  the feature arguments  -> the feature result
+ *
+ * Arguments are taken from the query string and from a form encoded body,
+ * named as in FeatureCatalog (flightNumber, date, ...).  Every call but
+ * /login and /users needs the header "Authorization: Bearer <token>" with a
+ * token returned by /login, and a feature is only run for the role the menu
+ * allows it for.  /users creates Customer users for anyone; a user of any
+ * other role (Management, Pilot, Technician) can only be created with the
+ * token of a Management user.  Errors come back as {"error":..} with status
+ * 400 for bad arguments, 401 for a missing or unknown token, 403 for the
+ * wrong role, 404 for an unknown path, 405 for the wrong method, 409 when
+ * /users is given a login that is taken and 500 when the database reports
+ * an error.
+ *
+ * The server listens on airline.http.host, by default 127.0.0.1 so only
+ * this machine can reach it; set it to 0.0.0.0 to listen on every address.
+ *
+ * Sessions live in memory and expire after airline.http.sessionTimeout
+ * seconds without use (default 1800).
+ */
+public class AirlineHttpServer {
+
+   /**
+    * A logged in user.
+    */
+   static final class Session {
+      final String login;
+      final String role;
+      volatile long lastUsed;
+
+      Session(String login, String role) {
+         this.login = login;
+         this.role = role;
+         this.lastUsed = System.nanoTime();
+      }
+   }//end Session
+
+   /**
+    * Reports a request that cannot be served, with the status to answer.
+    */
+   static final class HttpError extends Exception {
+      private static final long serialVersionUID = 1L;
+
+      final int status;
+
+      HttpError(int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }//end HttpError
+
+   private static final long SESSION_TIMEOUT_NANOS =
+      TimeUnit.SECONDS.toNanos(Long.getLong("airline.http.sessionTimeout", 1800));
+   private static final int MAX_BODY = 64 * 1024;
+   static final String HOST = System.getProperty("airline.http.host", "127.0.0.1");
+
+   // the roles a user can be created with
+   private static final String[] ROLES = {
+      FeatureCatalog.MANAGEMENT, FeatureCatalog.CUSTOMER, FeatureCatalog.PILOT, FeatureCatalog.TECHNICIAN
+   };
+
+   private final AirlineManagement _esql;
+   private final HttpServer _server;
+   private final ExecutorService _executor;
+   private final Map<String, Session> _sessions = new ConcurrentHashMap<String, Session>();
+   private final SecureRandom _random = new SecureRandom();
+
+   /**
+    * Creates a server on the port of airline.http.host; call start() to
+    * accept requests.
+    *
+    * @param esql the database the features run against
+    * @param port the TCP port to listen on
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public AirlineHttpServer(AirlineManagement esql, int port) throws IOException {
+      this._esql = esql;
+      this._server = HttpServer.create(new InetSocketAddress(HOST, port), Integer.getInteger("airline.http.backlog", 128));
+      this._executor = newExecutor(esql.getPool().getMaxSize());
+      this._server.setExecutor(this._executor);
+      this._server.createContext("/login", wrap(this::login));
+      this._server.createContext("/logout", wrap(this::logout));
+      this._server.createContext("/users", wrap(this::createUser));
+      this._server.createContext("/features", wrap(this::feature));
+      this._server.createContext("/", wrap(x -> { throw new HttpError(404, "no such resource"); }));
+   }
+
+   /*
+    * One virtual thread per request when the runtime has them; otherwise a
+    * fixed pool a few times the size of the connection pool, since a request
+    * mostly waits on the database.
+    */
+   static ExecutorService newExecutor(int poolSize) {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+         return Executors.newFixedThreadPool(Integer.getInteger("airline.http.threads", poolSize * 4));
+      }
+   }
+
+   public void start() {
+      this._server.start();
+   }
+
+   /**
+    * Stops accepting requests, waits up to the delay for running ones and
+    * stops the request threads.  The AirlineManagement instance stays open.
+    */
+   public void stop(int delaySeconds) {
+      this._server.stop(delaySeconds);
+      this._executor.shutdownNow();
+   }
+
+   public int getPort() {
+      return this._server.getAddress().getPort();
+   }
+
+   /**
+    * Handles one exchange and returns the body to answer with 200.
+    */
+   interface Route {
+      Object handle(HttpExchange exchange) throws Exception;
+   }
+
+   private HttpHandler wrap(final Route route) {
+      return exchange -> {
+         int status = 200;
+         Object body;
+         try {
+            body = route.handle(exchange);
+         } catch (HttpError e) {
+            status = e.status;
+            body = error(e.getMessage());
+         } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+         } catch (SQLException e) {
+            status = 500;
+            body = error(e.getMessage());
+         } catch (Exception e) {
+            status = 500;
+            body = error(String.valueOf(e));
+         }
+         byte[] bytes = Json.toJson(body).getBytes(StandardCharsets.UTF_8);
+         try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+               out.write(bytes);
+            }
+         } finally {
+            exchange.close();
+         }
+      };
+   }//end wrap
+
+   private static Map<String, Object> error(String message) {
+      Map<String, Object> body = new LinkedHashMap<String, Object>();
+      body.put("error", message);
+      return body;
+   }
+
+   private Object login(HttpExchange exchange) throws Exception {
+      requireMethod(exchange, "POST");
+      Map<String, String> params = params(exchange);
+      ColumnarResult result;
+      long startedAt = FeatureMetrics.beginLogin();
+      try {
+         result = this._esql.executeQueryAndReturnColumns(
+            AirlineManagement.LOGIN_SQL, required(params, "login"), required(params, "password"));
+      } catch (Exception e) {
+         FeatureMetrics.failed();
+         throw e;
+      } finally {
+         FeatureMetrics.end(startedAt);
+      }
+      if (result.getRowCount() == 0)
+         throw new HttpError(401, "Login failed. Check your username/password.");
+
+      Session session = new Session(params.get("login"), result.getString(0, 0).trim());
+      String token = newToken();
+      this._sessions.put(token, session);
+      expireSessions();
+
+      Map<String, Object> body = new LinkedHashMap<String, Object>();
+      body.put("token", token);
+      body.put("login", session.login);
+      body.put("role", session.role);
+      return body;
+   }//end login
+
+   private Object logout(HttpExchange exchange) throws Exception {
+      requireMethod(exchange, "POST");
+      session(exchange);
+      this._sessions.remove(token(exchange));
+      return new LinkedHashMap<String, Object>();
+   }
+
+   private Object createUser(HttpExchange exchange) throws Exception {
+      requireMethod(exchange, "POST");
+      Map<String, String> params = params(exchange);
+      String login = required(params, "login");
+      String role = role(params.getOrDefault("role", FeatureCatalog.CUSTOMER));
+      // only management hands out the roles that can see other people's data
+      if (!role.equals(FeatureCatalog.CUSTOMER) && !session(exchange).role.equalsIgnoreCase(FeatureCatalog.MANAGEMENT))
+         throw new HttpError(403, "only Management can create " + role + " users");
+      boolean created;
+      long startedAt = FeatureMetrics.beginCreateUser();
+      try {
+         created = AirlineManagement.createUser(this._esql, login, required(params, "password"), role);
+      } catch (Exception e) {
+         FeatureMetrics.failed();
+         throw e;
+      } finally {
+         FeatureMetrics.end(startedAt);
+      }
+      if (!created)
+         throw new HttpError(409, "login " + login + " is already taken");
+      Map<String, Object> body = new LinkedHashMap<String, Object>();
+      body.put("login", login);
+      return body;
+   }
+
+   private Object feature(HttpExchange exchange) throws Exception {
+      Session session = session(exchange);
+      String path = exchange.getRequestURI().getPath();
+      String rest = path.length() > "/features".length() ? path.substring("/features/".length()) : "";
+
+      if (rest.isEmpty()) {
+         requireMethod(exchange, "GET");
+         List<Object> features = new ArrayList<Object>();
+         for (FeatureCatalog.Feature feature : FeatureCatalog.all()) {
+            if (!feature.allows(session.role))
+               continue;
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put("number", feature.number);
+            item.put("name", feature.name);
+            item.put("params", feature.params);
+            item.put("write", feature.write);
+            features.add(item);
+         }
+         return features;
+      }
+
+      FeatureCatalog.Feature feature = null;
+      try {
+         feature = FeatureCatalog.get(Integer.parseInt(rest));
+      } catch (NumberFormatException e) {
+         // unknown below
+      }
+      if (feature == null)
+         throw new HttpError(404, "no such feature: " + rest);
+      if (feature.write)
+         requireMethod(exchange, "POST");
+      else if (!"GET".equals(exchange.getRequestMethod()) && !"POST".equals(exchange.getRequestMethod()))
+         throw new HttpError(405, "method not allowed");
+      if (!feature.allows(session.role))
+         throw new HttpError(403, "Access denied. You do not have permission to perform this action.");
+
+      Map<String, String> params = params(exchange);
+      String[] args = new String[feature.params.length];
+      for (int i = 0; i < args.length; ++i)
+         args[i] = required(params, feature.params[i]);
+      return feature.run(this._esql, args);
+   }//end feature
+
+   private Session session(HttpExchange exchange) throws HttpError {
+      String token = token(exchange);
+      Session session = token == null ? null : this._sessions.get(token);
+      long now = System.nanoTime();
+      if (session == null || now - session.lastUsed > SESSION_TIMEOUT_NANOS) {
+         if (token != null)
+            this._sessions.remove(token);
+         throw new HttpError(401, "missing or expired token, POST /login first");
+      }
+      session.lastUsed = now;
+      return session;
+   }
+
+   private static String token(HttpExchange exchange) {
+      String header = exchange.getRequestHeaders().getFirst("Authorization");
+      if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7))
+         return null;
+      return header.substring(7).trim();
+   }
+
+   private String newToken() {
+      byte[] bytes = new byte[24];
+      this._random.nextBytes(bytes);
+      StringBuilder token = new StringBuilder(48);
+      for (byte b : bytes)
+         token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      return token.toString();
+   }
+
+   private void expireSessions() {
+      long now = System.nanoTime();
+      this._sessions.values().removeIf(s -> now - s.lastUsed > SESSION_TIMEOUT_NANOS);
+   }
+
+   private static void requireMethod(HttpExchange exchange, String method) throws HttpError {
+      if (!method.equals(exchange.getRequestMethod()))
+         throw new HttpError(405, "use " + method);
+   }
+
+   /*
+    * The role as the menu stores it, whatever its case.
+    */
+   private static String role(String name) {
+      for (String role : ROLES)
+         if (role.equalsIgnoreCase(name.trim()))
+            return role;
+      throw new IllegalArgumentException("unknown role " + name + ", expected one of " + String.join(", ", ROLES));
+   }
+
+   private static String required(Map<String, String> params, String name) {
+      String value = params.get(name);
+      if (value == null || value.trim().isEmpty())
+         throw new IllegalArgumentException("missing parameter " + name);
+      return value;
+   }
+
+   /*
+    * Query string parameters, overridden by those of a form encoded body.
+    */
+   static Map<String, String> params(HttpExchange exchange) throws IOException {
+      Map<String, String> params = new HashMap<String, String>();
+      parseForm(exchange.getRequestURI().getRawQuery(), params);
+      if ("POST".equals(exchange.getRequestMethod())) {
+         ByteArrayOutputStream body = new ByteArrayOutputStream();
+         try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+               body.write(buffer, 0, n);
+               if (body.size() > MAX_BODY)
+                  throw new IllegalArgumentException("request body too large");
+            }
+         }
+         parseForm(body.toString("UTF-8"), params);
+      }
+      return params;
+   }
+
+   static void parseForm(String form, Map<String, String> params) {
+      if (form == null || form.isEmpty())
+         return;
+      for (String pair : form.split("&")) {
+         if (pair.isEmpty())
+            continue;
+         int eq = pair.indexOf('=');
+         String name = eq < 0 ? pair : pair.substring(0, eq);
+         String value = eq < 0 ? "" : pair.substring(eq + 1);
+         params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+      }
+   }
+
+   /**
+    * Usage: java AirlineManagement serve dbname port user [httpPort]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3 || args.length > 4) {
+         System.err.println("Usage: java AirlineManagement serve <dbname> <port> <user> [httpPort]");
+         return;
+      }
+      AirlineManagement esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(args[0], args[1], args[2], "");
+         int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : Integer.getInteger("airline.http.port", 8080);
+         final AirlineHttpServer server = new AirlineHttpServer(esql, httpPort);
+         final AirlineManagement db = esql;
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            db.cleanup();
+         }, "http-shutdown"));
+         server.start();
+         System.out.println("Serving on " + HOST + ":" + server.getPort() + ", pool " + esql.getPool());
+      } catch (Exception e) {
+         System.err.println("Cannot start the server: " + e.getMessage());
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+}//end AirlineHttpServer
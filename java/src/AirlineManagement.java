@@ -14,6 +14,8 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.Types;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -23,6 +25,9 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.lang.Math;
 
 /**
@@ -31,13 +36,69 @@ import java.lang.Math;
  *
  */
 public class AirlineManagement {
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all features.
+   private ConnectionPool _pool = null;
+
+   // books seats for feature15, shared so its counters cover every booking.
+   private final BookingEngine _bookings = new BookingEngine(this);
+
+   // Flight, Plane, Schedule, Pilot and Technician held in memory.
+   private final ReferenceCache _reference = new ReferenceCache(this);
+
+   // flights by route for feature12, built on first use from _reference.
+   private volatile RouteIndex _routes = null;
+
+   // seat sales by flight and day for feature11, kept current by the engines above.
+   private final SalesRollup _sales = new SalesRollup(this);
+
+   // on-time record of every flight for feature12.
+   private final OnTimeStats _onTime = new OnTimeStats(this);
+
+   // connections for feature12 when no direct flight exists.
+   private final ItinerarySearch _itineraries = new ItinerarySearch(this);
+
+   // statements over airline.slowQuery.millis, written with their plans.
+   private final SlowQueryLog _slowQueries = new SlowQueryLog(this);
+
+   // itineraries feature12 lists, and how they are ranked.
+   static final int ITINERARY_COUNT = Integer.getInteger("airline.itinerary.count", 5);
+   static final ItinerarySearch.Rank ITINERARY_RANK =
+      ItinerarySearch.Rank.valueOf(System.getProperty("airline.itinerary.rankBy", "DURATION").toUpperCase());
+
+   // cancels reservations and promotes waitlisted customers.
+   private final CancellationEngine _cancellations = new CancellationEngine(this);
+
+   // hand out new MaintenanceRequest and Repair keys for feature16 and feature19.
+   private final IdAllocator _requestIds = new IdAllocator(this, "MaintenanceRequest", "RequestID", ID_BLOCK_SIZE);
+   private final IdAllocator _repairIds = new IdAllocator(this, "Repair", "RepairID", ID_BLOCK_SIZE);
+
+   // ids reserved per sequence value by the id allocators.
+   static final int ID_BLOCK_SIZE = Integer.getInteger("airline.idBlockSize", 50);
+
+   // rows fetched per round trip when a result is streamed.
+   static final int FETCH_SIZE = Integer.getInteger("airline.fetchSize", 500);
+
+   // cleared the first time the driver rejects setFetchSize; the bundled
+   // pg73 driver does not implement it, so results are then read whole.
+   private static volatile boolean fetchSizeSupported = true;
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
    static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+                                new InputStreamReader(System.in)) {
+      @Override
+      public String readLine() throws java.io.IOException {
+         // time spent waiting for the user is not part of a feature's latency
+         long started = System.nanoTime();
+         try {
+            // a daemon session reads from its client instead of System.in
+            AirlineDaemon.Session session = AirlineDaemon.currentSession();
+            return session != null ? session.readLine() : super.readLine();
+         } finally {
+            FeatureMetrics.waited(System.nanoTime() - started);
+         }
+      }
+   };
 
    /**
     * Creates a new instance of AirlineManagement
@@ -53,11 +114,17 @@ public class AirlineManagement {
       System.out.print("Connecting to database...");
       try{
          // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         // prepareThreshold: executions of a cached PreparedStatement before the
+         // driver switches it to a named server-side statement.  The bundled
+         // lib/pg73jdbc3.jar predates the parameter and ignores it; it takes
+         // effect with a driver of 8.0 or later on the classpath
+         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname
+                    + "?prepareThreshold=" + Integer.getInteger("airline.prepareThreshold", 3);
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the connection pool, this obtains the first physical connection
+         this._pool = new ConnectionPool(url, user, passwd);
+         FeatureMetrics.install();
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -66,6 +133,71 @@ public class AirlineManagement {
       }//end catch
    }//end AirlineManagement
 
+   /**
+    * @return the connection pool used by this instance
+    */
+   public ConnectionPool getPool() {
+      return this._pool;
+   }
+
+   /**
+    * @return the booking engine used by this instance
+    */
+   public BookingEngine getBookingEngine() {
+      return this._bookings;
+   }
+
+   /**
+    * @return the cache of the reference tables used by this instance
+    */
+   public ReferenceCache getReferenceCache() {
+      return this._reference;
+   }
+
+   /**
+    * @return the route index used by feature12, built on first use
+    * @throws java.sql.SQLException when the reference tables cannot be loaded
+    */
+   public RouteIndex getRouteIndex() throws SQLException {
+      RouteIndex routes = this._routes;
+      if (routes == null) {
+         synchronized (this._reference) {
+            routes = this._routes;
+            if (routes == null)
+               this._routes = routes = new RouteIndex(this._reference);
+         }
+      }
+      return routes;
+   }
+
+   /**
+    * @return the sales rollup used by feature11
+    */
+   public SalesRollup getSalesRollup() {
+      return this._sales;
+   }
+
+   /**
+    * @return the on-time record used by feature12
+    */
+   public OnTimeStats getOnTimeStats() {
+      return this._onTime;
+   }
+
+   /**
+    * @return the connection search used by feature12
+    */
+   public ItinerarySearch getItinerarySearch() {
+      return this._itineraries;
+   }
+
+   /**
+    * @return the cancellation engine used by this instance
+    */
+   public CancellationEngine getCancellationEngine() {
+      return this._cancellations;
+   }
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -74,14 +206,26 @@ public class AirlineManagement {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         // creates a statement object
+         Statement stmt = pc.getConnection().createStatement ();
+         try {
+            // issues the update instruction
+            rows = stmt.executeUpdate (sql);
+         } finally {
+            // close the instruction
+            stmt.close ();
+         }
+      } catch (SQLException e) {
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.UPDATE, sql, null, started, rows);
+      }
    }//end executeUpdate
 
    /**
@@ -94,37 +238,26 @@ public class AirlineManagement {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         // creates a statement object
+         Statement stmt = pc.getConnection().createStatement ();
+         try {
+            // issues the query instruction and outputs the rows
+            rows = printResult(stmt.executeQuery (query));
+            return (int) rows;
+         } finally {
+            stmt.close();
+         }
+      } catch (SQLException e) {
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.PRINT, query, null, started, rows);
+      }
    }//end executeQuery
 
    /**
@@ -137,31 +270,27 @@ public class AirlineManagement {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         // creates a statement object
+         Statement stmt = pc.getConnection().createStatement ();
+         try {
+            // issues the query instruction and saves the rows
+            List<List<String>> result = readResult(stmt.executeQuery (query));
+            rows = result.size();
+            return result;
+         } finally {
+            stmt.close ();
+         }
+      } catch (SQLException e) {
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.RESULT, query, null, started, rows);
+      }
    }//end executeQueryAndReturnResult
 
    /**
@@ -173,22 +302,431 @@ public class AirlineManagement {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         // creates a statement object
+         Statement stmt = pc.getConnection().createStatement ();
+         try {
+            // issues the query instruction and counts the rows
+            rows = countResult(stmt.executeQuery (query));
+            return (int) rows;
+         } finally {
+            stmt.close ();
+         }
+      } catch (SQLException e) {
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.COUNT, query, null, started, rows);
+      }
+   }
+
+   /**
+    * Method to execute a parameterized update SQL statement.  The SQL uses ?
+    * placeholders which are bound, in order, to the given values.  The
+    * statement is prepared once per connection and reused from its cache.
+    *
+    * @param sql the SQL string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         int count = prepare(pc, sql, params).executeUpdate ();
+         rows = count;
+         return count;
+      } catch (SQLException e) {
+         pc.getStatementCache().evict(sql);
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.UPDATE, sql, params, started, rows);
+      }
+   }//end executeUpdate
+
+   /**
+    * Method to execute a parameterized query and output the results to
+    * standard out.  Rows are printed as the cursor returns them; with a
+    * driver that supports setFetchSize they are also read from the server in
+    * batches, so memory use does not grow with the result.
+    *
+    * @param query the query string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      boolean failed = true;
+      try (ResultCursor cursor = executeQueryAndStreamResult(query, params);
+           TableRenderer table = new TableRenderer(TableRenderer.tabSeparated(cursor.getColumnNames().size()))) {
+         // iterates through the cursor and output the rows to standard out.
+         boolean outputHeader = true;
+         for (List<String> row : cursor) {
+            if (outputHeader) {
+               table.header(cursor.getColumnNames().toArray());
+               outputHeader = false;
+            }
+            table.row(row);
+         }//end for
+         failed = false;
+         return cursor.getRowCount();
+      } catch (IllegalStateException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw e;
+      } finally {
+         FeatureMetrics.call(FeatureMetrics.PRINT, started, failed);
+      }
+   }//end executeQueryAndPrintResult
+
+   /**
+    * Method to execute a parameterized query and stream its rows instead of
+    * loading them all.  When the driver supports setFetchSize the rows are
+    * read through a server-side cursor (autocommit off, fetch size
+    * airline.fetchSize, default 500), so only one batch of rows is held in
+    * memory at a time.  The bundled pg73 driver does not, and there the
+    * driver reads the whole result when the query runs and the cursor only
+    * iterates over it.  The returned cursor keeps a pooled connection until
+    * it is closed.
+    *
+    * @param query the query string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return an open cursor over the rows of the query
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultCursor executeQueryAndStreamResult (String query, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      Connection connection = pc.getConnection();
+      try {
+         PreparedStatement ps = prepare(pc, query, params);
+         boolean streaming = setFetchSize(ps, FETCH_SIZE);
+         if (streaming)
+            connection.setAutoCommit(false);
+         ResultCursor cursor = new ResultCursor(this._pool, pc, query, ps, ps.executeQuery (), streaming);
+         // the rows are counted as the cursor reads them
+         this._slowQueries.statement(FeatureMetrics.STREAM, query, params, started, SlowQueryLog.STREAMED);
+         return cursor;
+      } catch (SQLException e) {
+         this._slowQueries.statement(FeatureMetrics.STREAM, query, params, started, -1);
+         pc.getStatementCache().evict(query);
+         this._pool.discardIfBroken(pc, e);
+         try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+         } catch (SQLException ignored) {
+            // the connection is released below either way.
+         }
+         this._pool.release(pc);
+         throw e;
+      }
+   }//end executeQueryAndStreamResult
+
+   /**
+    * Sets the fetch size of a statement if the driver supports it.  The
+    * first rejection is remembered so later queries skip the call.
+    *
+    * @param ps the statement to configure
+    * @param fetchSize the rows to fetch per round trip
+    * @return true when the fetch size was set and rows will be read in batches
+    */
+   private static boolean setFetchSize (PreparedStatement ps, int fetchSize) {
+      if (!fetchSizeSupported)
+         return false;
+      try {
+         ps.setFetchSize(fetchSize);
+         return true;
+      } catch (SQLException e) {
+         fetchSizeSupported = false;
+         return false;
+      }
+   }//end setFetchSize
+
+   /**
+    * Method to execute a parameterized query and return the results as a
+    * list of records.  Each record in turn is a list of attribute values.
+    *
+    * @param query the query string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         List<List<String>> result = readResult(prepare(pc, query, params).executeQuery ());
+         rows = result.size();
+         return result;
+      } catch (SQLException e) {
+         pc.getStatementCache().evict(query);
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.RESULT, query, params, started, rows);
+      }
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute a parameterized query and return the results column
+    * by column in primitive arrays typed from the result metadata.  Numbers,
+    * dates and booleans are read without going through strings.
+    *
+    * @param query the query string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the query result as typed columns
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ColumnarResult executeQueryAndReturnColumns (String query, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         ColumnarResult result = ColumnarResult.read(prepare(pc, query, params).executeQuery ());
+         rows = result.getRowCount();
+         return result;
+      } catch (SQLException e) {
+         pc.getStatementCache().evict(query);
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.COLUMNS, query, params, started, rows);
+      }
+   }//end executeQueryAndReturnColumns
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to execute a parameterized statement that changes data and
+    * returns rows, and return those rows as typed columns.  Statements that
+    * depend on each other are sent as one: an INSERT ... RETURNING gives back
+    * what a confirming SELECT would read, and a WITH query can chain an
+    * insert, update or delete into the statement that reads its result, so
+    * the whole action costs a single round trip.  The statement runs in its
+    * own implicit transaction.
+    *
+    * @param sql the SQL string with ? placeholders, e.g. INSERT ... RETURNING
+    * @param params the values bound to the placeholders
+    * @return the rows returned by the statement
+    * @throws java.sql.SQLException when the statement failed
+    */
+   public ColumnarResult executeUpdateAndReturnColumns (String sql, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         ColumnarResult result = ColumnarResult.read(prepare(pc, sql, params).executeQuery ());
+         rows = result.getRowCount();
+         return result;
+      } catch (SQLException e) {
+         pc.getStatementCache().evict(sql);
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.RETURNING, sql, params, started, rows);
+      }
+   }//end executeUpdateAndReturnColumns
 
-       int rowCount = 0;
+   /**
+    * Method to execute a parameterized query and return the number of rows.
+    *
+    * @param query the query string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      long rows = -1;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         int count = countResult(prepare(pc, query, params).executeQuery ());
+         rows = count;
+         return count;
+      } catch (SQLException e) {
+         pc.getStatementCache().evict(query);
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+         this._slowQueries.statement(FeatureMetrics.COUNT, query, params, started, rows);
+      }
+   }//end executeQuery
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+   /**
+    * Method to run several statements as one transaction on a single pooled
+    * connection.  The transaction commits when the work returns and rolls
+    * back when it throws.
+    *
+    * @param work the statements to run
+    * @return the value returned by the work
+    * @throws java.sql.SQLException when a statement or the commit failed
+    */
+   public <T> T executeInTransaction (Transaction.Work<T> work) throws SQLException {
+      long started = System.nanoTime();
+      boolean failed = true;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      Connection connection = pc.getConnection();
+      try {
+         connection.setAutoCommit(false);
+         T result = work.run(new Transaction(pc, this._slowQueries));
+         connection.commit();
+         failed = false;
+         return result;
+      } catch (SQLException | RuntimeException e) {
+         try {
+            connection.rollback();
+         } catch (SQLException ignored) {
+            // the failure below is reported instead.
+         }
+         if (e instanceof SQLException)
+            this._pool.discardIfBroken(pc, (SQLException) e);
+         throw e;
+      } finally {
+         try {
+            connection.setAutoCommit(true);
+         } catch (SQLException e) {
+            this._pool.discardIfBroken(pc, e);
+         }
+         this._pool.release(pc);
+         FeatureMetrics.call(FeatureMetrics.TRANSACTION, started, failed);
+      }
+   }//end executeInTransaction
+
+   /*
+    * Fetches the cached statement for the SQL text on the borrowed
+    * connection and binds the parameters to it.
+    */
+   static PreparedStatement prepare(ConnectionPool.PooledConnection pc, String sql, Object[] params) throws SQLException {
+      PreparedStatement ps = pc.getStatementCache().prepare(pc.getConnection(), sql);
+      for (int i = 0; i < params.length; ++i) {
+         if (params[i] == null)
+            ps.setNull(i + 1, Types.NULL);
+         else
+            ps.setObject(i + 1, params[i]);
+      }
+      return ps;
    }
 
+   /*
+    * Outputs every row of the result set to standard out and closes it.
+    */
+   private static int printResult(ResultSet rs) throws SQLException {
+      try {
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+         int rowCount = 0;
+
+         // iterates through the result set and output them to standard out.
+         boolean outputHeader = true;
+         Object[] values = new Object[numCol];
+         try (TableRenderer table = new TableRenderer(TableRenderer.tabSeparated(numCol))) {
+            while (rs.next()){
+               if(outputHeader){
+                  for(int i = 1; i <= numCol; i++){
+                     values[i - 1] = rsmd.getColumnName(i);
+                  }
+                  table.header(values);
+                  outputHeader = false;
+               }
+               for (int i=1; i<=numCol; ++i)
+                  values[i - 1] = rs.getString (i);
+               table.row(values);
+               ++rowCount;
+            }//end while
+         }
+         return rowCount;
+      } finally {
+         rs.close();
+      }
+   }//end printResult
+
+   /*
+    * Saves every row of the result set as a list of strings and closes it.
+    */
+   static List<List<String>> readResult(ResultSet rs) throws SQLException {
+      try {
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>(numCol);
+            for (int i=1; i<=numCol; ++i)
+               record.add(rs.getString (i));
+            result.add(record);
+         }//end while
+         return result;
+      } finally {
+         rs.close();
+      }
+   }//end readResult
+
+   /*
+    * Counts the rows of the result set and closes it.
+    */
+   private static int countResult(ResultSet rs) throws SQLException {
+      try {
+         int rowCount = 0;
+         // iterates through the result set and count nuber of results.
+         while (rs.next()){
+            rowCount++;
+         }//end while
+         return rowCount;
+      } finally {
+         rs.close();
+      }
+   }//end countResult
+
+   /**
+    * Parses a date typed by the user so it can be bound as a DATE parameter.
+    *
+    * @param input the date in YYYY-MM-DD format
+    * @return the date as a java.sql.Date
+    * @throws IllegalArgumentException when the input is not a valid date
+    */
+   public static java.sql.Date parseDate(String input) {
+      try {
+         return java.sql.Date.valueOf(input.trim());
+      } catch (RuntimeException e) {
+         throw new IllegalArgumentException("Invalid date '" + input + "', expected YYYY-MM-DD");
+      }
+   }//end parseDate
+
+   /**
+    * Parses an on-time status typed by the user.
+    *
+    * @param input yes or no, or blank when the status is not known
+    * @return the status, or null when it is not known
+    * @throws IllegalArgumentException when the input is neither
+    */
+   public static Boolean parseStatus(String input) {
+      String status = input == null ? "" : input.trim().toLowerCase();
+      if (status.isEmpty())
+         return null;
+      if (status.equals("y") || status.equals("yes") || status.equals("true"))
+         return Boolean.TRUE;
+      if (status.equals("n") || status.equals("no") || status.equals("false"))
+         return Boolean.FALSE;
+      throw new IllegalArgumentException("Invalid status '" + input + "', expected yes or no");
+   }//end parseStatus
+
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
@@ -199,25 +737,61 @@ public class AirlineManagement {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         Statement stmt = pc.getConnection().createStatement ();
+         try {
+            ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+            if (rs.next())
+               return rs.getInt(1);
+            return -1;
+         } finally {
+            stmt.close ();
+         }
+      } catch (SQLException e) {
+         this._pool.discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         this._pool.release(pc);
+      }
+   }
+
+   /**
+    * Method to advance a sequence and return its new value.  Unlike
+    * getCurrSeqVal this does not depend on an earlier nextval in the same
+    * session, so it works with any pooled connection.
+    *
+    * @param sequence name of the DB sequence
+    * @return next value of the sequence
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long getNextSeqVal(String sequence) throws SQLException {
+      ColumnarResult result = executeQueryAndReturnColumns("SELECT nextval(?)", sequence);
+      return result.getLong(0, 0);
+   }
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   /**
+    * @return the id allocator for MaintenanceRequest.RequestID
+    */
+   public IdAllocator getRequestIds() {
+      return this._requestIds;
+   }
+
+   /**
+    * @return the id allocator for Repair.RepairID
+    */
+   public IdAllocator getRepairIds() {
+      return this._repairIds;
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to close the physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      this._slowQueries.close();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -226,12 +800,80 @@ public class AirlineManagement {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
+      // subcommands
+      if (args.length > 0 && args[0].equalsIgnoreCase("load")) {
+         BulkLoader.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("serve")) {
+         AirlineHttpServer.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("migrate")) {
+         SchemaMigrator.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("plancheck")) {
+         QueryPlanCheck.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("httpcheck")) {
+         HttpServiceCheck.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("bench")) {
+         FeatureBenchmark.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("generate")) {
+         DataGenerator.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("export")) {
+         ResultExporter.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("batch")) {
+         BatchRunner.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("daemon")) {
+         AirlineDaemon.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+      if (args.length > 0 && args[0].equalsIgnoreCase("client")) {
+         AirlineClient.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }//end if
+
       if (args.length != 3) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             AirlineManagement.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user>\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " load <dbname> <port> <user> [dataDir] [--parallel N] [--truncate]\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " serve <dbname> <port> <user> [httpPort]\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " migrate <dbname> <port> <user>\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " plancheck <dbname> <port> <user>\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " httpcheck <dbname> <port> <user>\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " bench [<dbname> <port> <user>] [--time S] [--threads N] [--writes] [--out file]\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " generate <dbname> <port> <user> [--scale F] [--seed N] [--parallel N] [--truncate]\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " export <dbname> <port> <user> <manifest|flights|stats> <args> [--format csv|json] [--gzip] [--out file]\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " batch <dbname> <port> <user> <commandFile> [--parallel N] [--batch N] [--results file]\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " daemon <dbname> <port> <user> [socketPath]\n" +
+            "   or: ... " + AirlineManagement.class.getName () +
+            " client [socketPath]");
          return;
       }//end if
 
@@ -247,105 +889,7 @@ public class AirlineManagement {
          String user = args[2];
          esql = new AirlineManagement(dbname, dbport, user, "");
 
-         boolean keepon = true;
-         while (keepon) {
-            // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
-            String authorisedUser = null;
-
-            switch (readChoice()) {
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
-               case 9: keepon = false; break;
-               default: System.out.println("Unrecognized choice!"); break;
-            }//end switch
-
-            if (authorisedUser != null) {
-               String[] authParts = authorisedUser.split("\\|");
-               String username = authParts[0];
-               String role = authParts[1];
-
-               boolean usermenu = true;
-               while (usermenu) {
-                  System.out.println("MAIN MENU");
-                  System.out.println("---------");
-
-                  //**the following functionalities should only be able to be used by Management**
-                  System.out.println("1. View Flights");
-                  System.out.println("2. View Flight Schedule");
-                  System.out.println("3. View Flight Seats");
-                  System.out.println("4. View Flight Status");
-                  System.out.println("5. View Flights of the Day");
-                  System.out.println("6. View Flight Passengers");
-                  System.out.println("7. View Travelers Using Flight Reservation Number");
-                  System.out.println("8. View Plane Stats");
-                  System.out.println("9. View Technician Repairs");
-                  System.out.println("10. View Flight Repairs");
-                  System.out.println("11. View Flight Stats");
-                  System.out.println(".........................");
-                  System.out.println(".........................");
-
-                  //**the following functionalities should only be able to be used by customers**
-                  System.out.println("12. Search Flights");
-                  System.out.println("13. View Flight Cost");
-                  System.out.println("14. View Plane Type");
-                  System.out.println("15. Make a Reservation");
-                  System.out.println(".........................");
-                  System.out.println(".........................");
-
-                  //**the following functionalities should only be able to be used by Pilots**
-                  System.out.println("16. Maintenance Request");
-                  System.out.println(".........................");
-                  System.out.println(".........................");
-
-                  //**the following functionalities should only be able to be used by Technicians**
-                  System.out.println("17. Show Repair Dates");
-                  System.out.println("18. Show Maintenance Requests");
-                  System.out.println("19. Log Repair");
-                  System.out.println(".........................");
-                  System.out.println(".........................");
-
-                  System.out.println("20. Log out");
-
-                  int choice = readChoice();
-                  switch (choice) {
-                     // Management-only features
-                     case 1: if (role.equalsIgnoreCase("Management")) feature1(esql); else showDenied(); break;
-                     case 2: if (role.equalsIgnoreCase("Management")) feature2(esql); else showDenied(); break;
-                     case 3: if (role.equalsIgnoreCase("Management")) feature3(esql); else showDenied(); break;
-                     case 4: if (role.equalsIgnoreCase("Management")) feature4(esql); else showDenied(); break;
-                     case 5: if (role.equalsIgnoreCase("Management")) feature5(esql); else showDenied(); break;
-                     case 6: if (role.equalsIgnoreCase("Management")) feature6(esql); else showDenied(); break;
-                     case 7: if (role.equalsIgnoreCase("Management")) feature7(esql); else showDenied(); break;
-                     case 8: if (role.equalsIgnoreCase("Management")) feature8(esql); else showDenied(); break;
-                     case 9: if (role.equalsIgnoreCase("Management")) feature9(esql); else showDenied(); break;
-                     case 10: if (role.equalsIgnoreCase("Management")) feature10(esql); else showDenied(); break;
-                     case 11: if (role.equalsIgnoreCase("Management")) feature11(esql); else showDenied(); break;
-
-                     // Customer-only features
-                     case 12: if (role.equalsIgnoreCase("Customer")) feature12(esql); else showDenied(); break;
-                     case 13: if (role.equalsIgnoreCase("Customer")) feature13(esql); else showDenied(); break;
-                     case 14: if (role.equalsIgnoreCase("Customer")) feature14(esql); else showDenied(); break;
-                     case 15: if (role.equalsIgnoreCase("Customer")) feature15(esql); else showDenied(); break;
-
-                     // Pilot-only feature
-                     case 16: if (role.equalsIgnoreCase("Pilot")) feature16(esql); else showDenied(); break;
-
-                     // Technician-only features
-                     case 17: if (role.equalsIgnoreCase("Technician")) feature17(esql); else showDenied(); break;
-                     case 18: if (role.equalsIgnoreCase("Technician")) feature18(esql); else showDenied(); break;
-                     case 19: if (role.equalsIgnoreCase("Technician")) feature19(esql); else showDenied(); break;
-
-                     case 20: usermenu = false; break;
-                     default: System.out.println("Unrecognized choice!"); break;
-                  }//end switch
-               }//end usermenu
-            }//end if authorisedUser
-         }//end while
+         runMenu(esql);
       } catch (Exception e) {
          System.err.println(e.getMessage());
       } finally {
@@ -362,6 +906,133 @@ public class AirlineManagement {
       }//end try
    }
 
+   /**
+    * Method to run the menus until the user exits, reading the choices from
+    * in and printing to System.out.  The interactive program runs one menu;
+    * AirlineDaemon runs one per client session.
+    *
+    * @param esql the database the features run against
+    * @throws java.io.UncheckedIOException when the input ends before the user exits
+    */
+   public static void runMenu(AirlineManagement esql) {
+      boolean keepon = true;
+      while (keepon) {
+         // These are sample SQL statements
+         System.out.println("MAIN MENU");
+         System.out.println("---------");
+         System.out.println("1. Create user");
+         System.out.println("2. Log in");
+         System.out.println("9. < EXIT");
+         String authorisedUser = null;
+
+         switch (readChoice()) {
+            case 1: {
+               long startedAt = FeatureMetrics.beginCreateUser();
+               CreateUser(esql);
+               FeatureMetrics.end(startedAt);
+            } break;
+            case 2: {
+               long startedAt = FeatureMetrics.beginLogin();
+               authorisedUser = LogIn(esql);
+               FeatureMetrics.end(startedAt);
+            } break;
+            case 9: keepon = false; break;
+            default: System.out.println("Unrecognized choice!"); break;
+         }//end switch
+
+         if (authorisedUser != null) {
+            String[] authParts = authorisedUser.split("\\|");
+            String username = authParts[0];
+            String role = authParts[1];
+
+            boolean usermenu = true;
+            while (usermenu) {
+               System.out.println("MAIN MENU");
+               System.out.println("---------");
+
+               //**the following functionalities should only be able to be used by Management**
+               System.out.println("1. View Flights");
+               System.out.println("2. View Flight Schedule");
+               System.out.println("3. View Flight Seats");
+               System.out.println("4. View Flight Status");
+               System.out.println("5. View Flights of the Day");
+               System.out.println("6. View Flight Passengers");
+               System.out.println("7. View Travelers Using Flight Reservation Number");
+               System.out.println("8. View Plane Stats");
+               System.out.println("9. View Technician Repairs");
+               System.out.println("10. View Flight Repairs");
+               System.out.println("11. View Flight Stats");
+               System.out.println("22. Cancel a Flight");
+               System.out.println("23. Update Flight Status");
+               System.out.println(".........................");
+               System.out.println(".........................");
+
+               //**the following functionalities should only be able to be used by customers**
+               System.out.println("12. Search Flights");
+               System.out.println("13. View Flight Cost");
+               System.out.println("14. View Plane Type");
+               System.out.println("15. Make a Reservation");
+               System.out.println("21. Cancel a Reservation");
+               System.out.println(".........................");
+               System.out.println(".........................");
+
+               //**the following functionalities should only be able to be used by Pilots**
+               System.out.println("16. Maintenance Request");
+               System.out.println(".........................");
+               System.out.println(".........................");
+
+               //**the following functionalities should only be able to be used by Technicians**
+               System.out.println("17. Show Repair Dates");
+               System.out.println("18. Show Maintenance Requests");
+               System.out.println("19. Log Repair");
+               System.out.println(".........................");
+               System.out.println(".........................");
+
+               System.out.println("20. Log out");
+
+               int choice = readChoice();
+               // features are timed from here; a denied choice is discarded
+               long startedAt = FeatureMetrics.begin(choice);
+               switch (choice) {
+                  // Management-only features
+                  case 1: if (role.equalsIgnoreCase("Management")) feature1(esql); else showDenied(); break;
+                  case 2: if (role.equalsIgnoreCase("Management")) feature2(esql); else showDenied(); break;
+                  case 3: if (role.equalsIgnoreCase("Management")) feature3(esql); else showDenied(); break;
+                  case 4: if (role.equalsIgnoreCase("Management")) feature4(esql); else showDenied(); break;
+                  case 5: if (role.equalsIgnoreCase("Management")) feature5(esql); else showDenied(); break;
+                  case 6: if (role.equalsIgnoreCase("Management")) feature6(esql); else showDenied(); break;
+                  case 7: if (role.equalsIgnoreCase("Management")) feature7(esql); else showDenied(); break;
+                  case 8: if (role.equalsIgnoreCase("Management")) feature8(esql); else showDenied(); break;
+                  case 9: if (role.equalsIgnoreCase("Management")) feature9(esql); else showDenied(); break;
+                  case 10: if (role.equalsIgnoreCase("Management")) feature10(esql); else showDenied(); break;
+                  case 11: if (role.equalsIgnoreCase("Management")) feature11(esql); else showDenied(); break;
+                  case 22: if (role.equalsIgnoreCase("Management")) feature22(esql); else showDenied(); break;
+                  case 23: if (role.equalsIgnoreCase("Management")) feature23(esql); else showDenied(); break;
+
+                  // Customer-only features
+                  case 12: if (role.equalsIgnoreCase("Customer")) feature12(esql); else showDenied(); break;
+                  case 13: if (role.equalsIgnoreCase("Customer")) feature13(esql); else showDenied(); break;
+                  case 14: if (role.equalsIgnoreCase("Customer")) feature14(esql); else showDenied(); break;
+                  case 15: if (role.equalsIgnoreCase("Customer")) feature15(esql); else showDenied(); break;
+                  case 21: if (role.equalsIgnoreCase("Customer")) feature21(esql); else showDenied(); break;
+
+                  // Pilot-only feature
+                  case 16: if (role.equalsIgnoreCase("Pilot")) feature16(esql); else showDenied(); break;
+
+                  // Technician-only features
+                  case 17: if (role.equalsIgnoreCase("Technician")) feature17(esql); else showDenied(); break;
+                  case 18: if (role.equalsIgnoreCase("Technician")) feature18(esql); else showDenied(); break;
+                  case 19: if (role.equalsIgnoreCase("Technician")) feature19(esql); else showDenied(); break;
+
+                  case 20: usermenu = false; break;
+                  default: System.out.println("Unrecognized choice!"); break;
+               }//end switch
+               FeatureMetrics.end(startedAt);
+            }//end usermenu
+         }//end if authorisedUser
+      }//end while
+   }//end runMenu
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -378,8 +1049,17 @@ public class AirlineManagement {
       // returns only if a correct value is given.
       do {
          System.out.print("Please make your choice: ");
-         try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
+         String line;
+         try {
+            line = in.readLine();
+         } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+         }//end try
+         // asking again would never end once the input is exhausted
+         if (line == null)
+            throw new java.io.UncheckedIOException(new java.io.EOFException("End of input"));
+         try { // parse the integer and break.
+            input = Integer.parseInt(line);
             break;
          }catch (Exception e) {
             System.out.println("Your input is invalid!");
@@ -392,6 +1072,21 @@ public class AirlineManagement {
    /*
     * Creates a new user
     **/
+   // inserts the user unless the login is taken, in one round trip
+   static final String CREATE_USER_SQL =
+      "INSERT INTO Users (login, password, userType) " +
+      "SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM Users WHERE login = ?) " +
+      "RETURNING login";
+
+   /**
+    * Inserts a user.
+    *
+    * @return false when the login is already taken
+    */
+   static boolean createUser(AirlineManagement esql, String login, String password, String userType) throws SQLException {
+      return esql.executeUpdateAndReturnColumns(CREATE_USER_SQL, login, password, userType, login).getRowCount() == 1;
+   }
+
     public static void CreateUser(AirlineManagement esql){
       try {
          System.out.print("Enter username: ");
@@ -403,14 +1098,12 @@ public class AirlineManagement {
          System.out.print("Enter user role (Customer, Technician, Pilot, Management): ");
          String userType = in.readLine();
    
-         String query = String.format(
-            "INSERT INTO Users (login, password, userType) VALUES ('%s', '%s', '%s')",
-            login, password, userType
-         );
-   
-         esql.executeUpdate(query);
-         System.out.println("User created successfully!");
+         if (createUser(esql, login, password, userType))
+            System.out.println("User created successfully!");
+         else
+            System.out.println("Username " + login + " is already taken.");
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println("Error during user creation: " + e.getMessage());
       }
    } //end CreateUser
@@ -421,6 +1114,9 @@ public class AirlineManagement {
     * Check log in credentials for an existing user
     * @return User login or null is the user does not exist
     **/
+   static final String LOGIN_SQL =
+      "SELECT userType FROM Users WHERE login = ? AND password = ?";
+
     public static String LogIn(AirlineManagement esql){
       try {
          System.out.print("Enter username: ");
@@ -429,12 +1125,7 @@ public class AirlineManagement {
          System.out.print("Enter password: ");
          String password = in.readLine();
    
-         String query = String.format(
-            "SELECT userType FROM Users WHERE login = '%s' AND password = '%s'",
-            login, password
-         );
-   
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
+         List<List<String>> result = esql.executeQueryAndReturnResult(LOGIN_SQL, login, password);
          if (result.size() > 0) {
             String userType = result.get(0).get(0);
             System.out.println("Login successful. Role: " + userType);
@@ -444,38 +1135,40 @@ public class AirlineManagement {
             return null;
          }
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println("Error during login: " + e.getMessage());
          return null;
       }
    }//end
 
    public static void showDenied() {
+      FeatureMetrics.discard();
       System.out.println("Access denied. You do not have permission to perform this action.");
    }   
 
    // Rest of the functions definition go in here
+   //
+   // Each feature's SQL is kept in a FEATUREn_SQL constant with ? placeholders
+   // so the same text is reused, and stays in the statement cache, on every call.
 
    // management
 
    public static void feature1(AirlineManagement esql) {
       try {
-         String query = "SELECT " +
-                        "FlightNumber, " +
-                        "PlaneID, " +
-                        "DepartureCity, " +
-                        "ArrivalCity " +
-                        "FROM Flight;";
+         // served from the reference cache, no round trip
+         List<ReferenceCache.Flight> flights = esql.getReferenceCache().getFlights();
    
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         try (TableRenderer table = new TableRenderer("%-15s %-10s %-20s %-20s%n")) {
+            table.header("FlightNumber", "PlaneID", "DepartureCity", "ArrivalCity");
    
-         System.out.printf("%-15s %-10s %-20s %-20s%n", "FlightNumber", "PlaneID", "DepartureCity", "ArrivalCity");
-   
-         for (List<String> row : results) {
-            System.out.printf("%-15s %-10s %-20s %-20s%n", row.get(0), row.get(1), row.get(2), row.get(3));
+            for (ReferenceCache.Flight flight : flights) {
+               table.row(flight.flightNumber, flight.planeId, flight.departureCity, flight.arrivalCity);
+            }
          }
    
-         System.out.println("total row(s): " + results.size());
+         System.out.println("total row(s): " + flights.size());
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
@@ -487,38 +1180,35 @@ public class AirlineManagement {
          System.out.print("\tEnter flight number: ");
          String input = in.readLine();
    
-         String query = "SELECT " +
-                        "    s.DayOfWeek, " +
-                        "    s.DepartureTime, " +
-                        "    s.ArrivalTime " +
-                        "FROM Schedule s " +
-                        "WHERE s.FlightNumber = '" + input + "' " +
-                        "ORDER BY CASE s.DayOfWeek " +
-                        "    WHEN 'Sunday' THEN 1 " +
-                        "    WHEN 'Monday' THEN 2 " +
-                        "    WHEN 'Tuesday' THEN 3 " +
-                        "    WHEN 'Wednesday' THEN 4 " +
-                        "    WHEN 'Thursday' THEN 5 " +
-                        "    WHEN 'Friday' THEN 6 " +
-                        "    WHEN 'Saturday' THEN 7 " +
-                        "END;";
-   
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
-   
-         System.out.printf("%-15s%-17s%-17s\n", "DayOfWeek", "DepartureTime", "ArrivalTime");
-   
-         for (List<String> row : results) {
-            System.out.printf("%-15s%-17s%-17s\n", 
-               row.get(0), row.get(1), row.get(2));
+         // served from the reference cache, ordered Sunday to Saturday
+         List<ReferenceCache.Schedule> schedule = esql.getReferenceCache().getSchedule(input);
+   
+         try (TableRenderer table = new TableRenderer("%-15s%-17s%-17s\n")) {
+            table.header("DayOfWeek", "DepartureTime", "ArrivalTime");
+   
+            for (ReferenceCache.Schedule day : schedule) {
+               table.row(day.dayOfWeek, day.departureTime, day.arrivalTime);
+            }
          }
    
-         System.out.println("total row(s): " + results.size());
+         System.out.println("total row(s): " + schedule.size());
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }   
 
    // management #2
+   static final String FEATURE3_SQL =
+      "SELECT " +
+      "    fi.FlightNumber, " +
+      "    fi.FlightDate, " +
+      "    fi.SeatsSold, " +
+      "    (fi.SeatsTotal - fi.SeatsSold) AS SeatsAvailable " +
+      "FROM FlightInstance fi " +
+      "WHERE fi.FlightNumber = ? " +
+      "AND fi.FlightDate = ?";
+
    public static void feature3(AirlineManagement esql) {
       try {
          System.out.print("\tEnter Flight Number: ");
@@ -526,31 +1216,33 @@ public class AirlineManagement {
          System.out.print("\tEnter Date (YYYY-MM-DD): ");
          String date = in.readLine();
    
-         String query = "SELECT " +
-                        "    fi.FlightNumber, " +
-                        "    fi.FlightDate, " +
-                        "    fi.SeatsSold, " +
-                        "    (fi.SeatsTotal - fi.SeatsSold) AS SeatsAvailable " +
-                        "FROM FlightInstance fi " +
-                        "WHERE fi.FlightNumber = '" + input + "' " +
-                        "AND fi.FlightDate = '" + date + "';";
-   
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         List<List<String>> results = esql.executeQueryAndReturnResult(FEATURE3_SQL, input, parseDate(date));
    
-         System.out.printf("%-15s%-15s%-15s%-17s\n", "FlightNumber", "FlightDate", "SeatsSold", "SeatsAvailable");
+         try (TableRenderer table = new TableRenderer("%-15s%-15s%-15s%-17s\n")) {
+            table.header("FlightNumber", "FlightDate", "SeatsSold", "SeatsAvailable");
    
-         for (List<String> row : results) {
-            System.out.printf("%-15s%-15s%-15s%-17s\n", 
-               row.get(0), row.get(1), row.get(2), row.get(3));
+            table.rows(results);
          }
    
          System.out.println("total row(s): " + results.size());
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }   
 
    // management #3
+   static final String FEATURE4_SQL =
+      "SELECT " +
+      "    f.FlightNumber, " +
+      "    fi.FlightDate, " +
+      "    fi.DepartedOnTime, " +
+      "    fi.ArrivedOnTime " +
+      "FROM FlightInstance fi " +
+      "JOIN Flight f ON fi.FlightNumber = f.FlightNumber " +
+      "WHERE f.FlightNumber = ? " +
+      "AND fi.FlightDate = ?";
+
    public static void feature4(AirlineManagement esql) {
       try {
          System.out.print("\tEnter Flight Number: ");
@@ -558,73 +1250,74 @@ public class AirlineManagement {
          System.out.print("\tEnter Date (YYYY-MM-DD): ");
          String date = in.readLine();
    
-         String query = "SELECT " +
-                        "    f.FlightNumber, " +
-                        "    fi.FlightDate, " +
-                        "    fi.DepartedOnTime, " +
-                        "    fi.ArrivedOnTime " +
-                        "FROM FlightInstance fi " +
-                        "JOIN Flight f ON fi.FlightNumber = f.FlightNumber " +
-                        "WHERE f.FlightNumber = '" + input + "' " +
-                        "AND fi.FlightDate = '" + date + "';";
-   
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         List<List<String>> results = esql.executeQueryAndReturnResult(FEATURE4_SQL, input, parseDate(date));
    
-         System.out.printf("%-15s%-15s%-18s%-18s\n", "FlightNumber", "FlightDate", "DepartedOnTime", "ArrivedOnTime");
+         try (TableRenderer table = new TableRenderer("%-15s%-15s%-18s%-18s\n")) {
+            table.header("FlightNumber", "FlightDate", "DepartedOnTime", "ArrivedOnTime");
    
-         for (List<String> row : results) {
-            System.out.printf("%-15s%-15s%-18s%-18s\n", 
-               row.get(0), row.get(1), row.get(2), row.get(3));
+            table.rows(results);
          }
    
          System.out.println("total row(s): " + results.size());
    
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
    
 
    // management #4
+   static final String FEATURE5_SQL =
+      "SELECT " +
+      "    fi.FlightInstanceID, " +
+      "    fi.FlightNumber, " +
+      "    fi.FlightDate, " +
+      "    f.DepartureCity, " +
+      "    f.ArrivalCity, " +
+      "    fi.DepartedOnTime, " +
+      "    fi.ArrivedOnTime " +
+      "FROM FlightInstance fi " +
+      "JOIN Flight f ON fi.FlightNumber = f.FlightNumber " +
+      "WHERE fi.FlightDate = ? " +
+      "ORDER BY fi.FlightNumber";
+
    public static void feature5(AirlineManagement esql) {
       try {
          System.out.print("\tEnter Date (YYYY-MM-DD): ");
          String input = in.readLine();
    
-         String query = "SELECT " +
-                        "    fi.FlightInstanceID, " +
-                        "    fi.FlightNumber, " +
-                        "    fi.FlightDate, " +
-                        "    f.DepartureCity, " +
-                        "    f.ArrivalCity, " +
-                        "    fi.DepartedOnTime, " +
-                        "    fi.ArrivedOnTime " +
-                        "FROM FlightInstance fi " +
-                        "JOIN Flight f ON fi.FlightNumber = f.FlightNumber " +
-                        "WHERE fi.FlightDate = '" + input + "' " +
-                        "ORDER BY fi.FlightNumber;";
-   
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
-   
-         // prints header with padding
-         System.out.printf("%-18s%-15s%-15s%-18s%-18s%-18s%-18s\n", "FlightInstanceID", "FlightNumber", "FlightDate", "DepartureCity", "ArrivalCity", "DepartedOnTime", "ArrivedOnTime");
-   
-         // prints rows with matching padding
-         for (List<String> row : results) {
-            System.out.printf("%-18s%-15s%-15s%-18s%-18s%-18s%-18s\n",
-               row.get(0), row.get(1), row.get(2),
-               row.get(3), row.get(4), row.get(5), row.get(6));
-         }
+         // streams the day's flights, each row is printed as it is fetched
+         try (ResultCursor results = esql.executeQueryAndStreamResult(FEATURE5_SQL, parseDate(input))) {
+            try (TableRenderer table = new TableRenderer("%-18s%-15s%-15s%-18s%-18s%-18s%-18s\n")) {
+               // prints header with padding
+               table.header("FlightInstanceID", "FlightNumber", "FlightDate", "DepartureCity", "ArrivalCity", "DepartedOnTime", "ArrivedOnTime");
    
-         System.out.println("total row(s): " + results.size());
+               // prints rows with matching padding
+               table.rows(results);
+            }
+   
+            System.out.println("total row(s): " + results.getRowCount());
+         }
    
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
    
 
    // management #5
+   static final String FEATURE6_SQL =
+      "SELECT " +
+      "c.CustomerID, c.FirstName, c.LastName, r.Status, fi.FlightNumber, fi.FlightDate " +
+      "FROM Reservation r " +
+      "JOIN Customer c ON r.CustomerID = c.CustomerID " +
+      "JOIN FlightInstance fi ON r.FlightInstanceID = fi.FlightInstanceID " +
+      "WHERE fi.FlightNumber = ? " +
+      "AND fi.FlightDate = ? " +
+      "ORDER BY r.Status, c.LastName, c.FirstName";
+
    public static void feature6(AirlineManagement esql) {
       try {
          System.out.print("\tEnter Flight Number: ");
@@ -632,55 +1325,50 @@ public class AirlineManagement {
          System.out.print("\tEnter Date (YYYY-MM-DD): ");
          String date = in.readLine();
   
-         String query = "SELECT " +
-                         "c.CustomerID, c.FirstName, c.LastName, r.Status, fi.FlightNumber, fi.FlightDate " +
-                         "FROM Reservation r " +
-                         "JOIN Customer c ON r.CustomerID = c.CustomerID " +
-                         "JOIN FlightInstance fi ON r.FlightInstanceID = fi.FlightInstanceID " +
-                         "WHERE fi.FlightNumber = '" + input + "' " +
-                         "AND fi.FlightDate = '" + date + "' " +
-                         "ORDER BY r.Status, c.LastName, c.FirstName;";
-  
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
-  
-         System.out.printf("%-12s %-12s %-12s %-10s %-14s %-12s%n", "CustomerID", "FirstName", "LastName", "Status", "FlightNumber", "FlightDate");
+         // streams the manifest, each passenger is printed as it is fetched
+         try (ResultCursor results = esql.executeQueryAndStreamResult(FEATURE6_SQL, input, parseDate(date))) {
+            try (TableRenderer table = new TableRenderer("%-12s %-12s %-12s %-10s %-14s %-12s%n")) {
+               table.header("CustomerID", "FirstName", "LastName", "Status", "FlightNumber", "FlightDate");
 
-         for (List<String> row : results) {
-            System.out.printf("%-12s %-12s %-12s %-10s %-14s %-12s%n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4), row.get(5));
-         }
+               table.rows(results);
+            }
   
-         System.out.println("total row(s): " + results.size());
+            System.out.println("total row(s): " + results.getRowCount());
+         }
   
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
   }
   
 
    // management #6
+   static final String FEATURE7_SQL =
+      "SELECT " +
+      "r.ReservationID, c.CustomerID, c.FirstName, c.LastName, c.Gender, " +
+      "c.DOB, c.Address, c.Phone, c.Zip, r.Status, r.FlightInstanceID " +
+      "FROM Reservation r " +
+      "JOIN Customer c ON r.CustomerID = c.CustomerID " +
+      "WHERE r.ReservationID = ?";
+
    public static void feature7(AirlineManagement esql) {
       try {
          System.out.print("\tEnter Reservation Number: ");
          String input = in.readLine();
   
-         String query = "SELECT " +
-                        "r.ReservationID, c.CustomerID, c.FirstName, c.LastName, c.Gender, " +
-                        "c.DOB, c.Address, c.Phone, c.Zip, r.Status, r.FlightInstanceID " +
-                        "FROM Reservation r " +
-                        "JOIN Customer c ON r.CustomerID = c.CustomerID " +
-                        "WHERE r.ReservationID = '" + input + "';";
-  
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         List<List<String>> results = esql.executeQueryAndReturnResult(FEATURE7_SQL, input);
   
-         System.out.printf("%-15s %-12s %-12s %-12s %-8s %-12s %-20s %-15s %-8s %-10s %-15s%n", "ReservationID", "CustomerID", "FirstName", "LastName", "Gender", "DOB", "Address", "Phone", "Zip", "Status", "FlightInstanceID");
+         try (TableRenderer table = new TableRenderer("%-15s %-12s %-12s %-12s %-8s %-12s %-20s %-15s %-8s %-10s %-15s%n")) {
+            table.header("ReservationID", "CustomerID", "FirstName", "LastName", "Gender", "DOB", "Address", "Phone", "Zip", "Status", "FlightInstanceID");
   
-         for (List<String> row : results) {
-            System.out.printf("%-15s %-12s %-12s %-12s %-8s %-12s %-20s %-15s %-8s %-10s %-15s%n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4), row.get(5), row.get(6), row.get(7), row.get(8), row.get(9), row.get(10));
+            table.rows(results);
          }
   
          System.out.println("total row(s): " + results.size());
   
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
@@ -692,56 +1380,69 @@ public class AirlineManagement {
          System.out.print("\tEnter Plane Number: ");
          String input = in.readLine();
    
-         String query = "SELECT " +
-                        "PlaneID, Make, Model, LastRepairDate " +
-                        "FROM Plane " +
-                        "WHERE PlaneID = '" + input + "';";
+         // served from the reference cache, no round trip
+         ReferenceCache.Plane plane = esql.getReferenceCache().getPlane(input);
    
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         try (TableRenderer table = new TableRenderer("%-10s %-15s %-15s %-15s%n")) {
+            table.header("PlaneID", "Make", "Model", "LastRepairDate");
    
-         System.out.printf("%-10s %-15s %-15s %-15s%n", "PlaneID", "Make", "Model", "LastRepairDate");
-   
-         for (List<String> row : results) {
-            System.out.printf("%-10s %-15s %-15s %-15s%n", row.get(0), row.get(1), row.get(2), row.get(3));
+            if (plane != null) {
+               table.row(plane.planeId, plane.make, plane.model, plane.lastRepairDate);
+            }
          }
    
-         System.out.println("total row(s): " + results.size());
+         System.out.println("total row(s): " + (plane == null ? 0 : 1));
    
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
    
 
    // management #8
+   static final String FEATURE9_SQL =
+      "SELECT " +
+      "r.RepairID, r.PlaneID, p.Make, p.Model, r.RepairCode, r.RepairDate " +
+      "FROM Repair r " +
+      "JOIN Plane p ON r.PlaneID = p.PlaneID " +
+      "WHERE r.TechnicianID = ?";
+
    public static void feature9(AirlineManagement esql) {
       try {
          System.out.print("\tEnter Technician ID: ");
          String input = in.readLine();
    
-         String query = "SELECT " +
-                        "r.RepairID, r.PlaneID, p.Make, p.Model, r.RepairCode, r.RepairDate " +
-                        "FROM Repair r " +
-                        "JOIN Plane p ON r.PlaneID = p.PlaneID " +
-                        "WHERE r.TechnicianID = '" + input + "';";
+         List<List<String>> results = esql.executeQueryAndReturnResult(FEATURE9_SQL, input);
    
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         try (TableRenderer table = new TableRenderer("%-10s %-10s %-15s %-15s %-12s %-15s%n")) {
+            table.header("RepairID", "PlaneID", "Make", "Model", "RepairCode", "RepairDate");
    
-         System.out.printf("%-10s %-10s %-15s %-15s %-12s %-15s%n", "RepairID", "PlaneID", "Make", "Model", "RepairCode", "RepairDate");
-   
-         for (List<String> row : results) {
-            System.out.printf("%-10s %-10s %-15s %-15s %-12s %-15s%n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4), row.get(5));
+            table.rows(results);
          }
    
          System.out.println("total row(s): " + results.size());
    
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
    
 
    // management #9
+   static final String FEATURE10_SQL =
+      "SELECT \n" +
+      "    RepairDate,\n" +
+      "    RepairCode\n" +
+      "FROM \n" +
+      "    Repair\n" +
+      "WHERE \n" +
+      "    PlaneID = ?\n" +
+      "    AND RepairDate BETWEEN ? AND ?\n" +
+      "ORDER BY \n" +
+      "    RepairDate";
+
    public static void feature10(AirlineManagement esql) {
       try{
          System.out.print("\tEnter Plane ID: ");
@@ -750,25 +1451,35 @@ public class AirlineManagement {
          String start = in.readLine();
          System.out.print("\tEnter End Date (YYYY-MM-DD): ");
          String end = in.readLine();
-         String query = "SELECT \n" +
-                        "    RepairDate,\n" +
-                        "    RepairCode\n" +
-                        "FROM \n" +
-                        "    Repair\n" +
-                        "WHERE \n" +
-                        "    PlaneID = '" + input + "'\n" +
-                        "    AND RepairDate BETWEEN '" + start + "' AND '" + end + "'\n" +
-                        "ORDER BY \n" +
-                        "    RepairDate;";
-
-         int rowCount = esql.executeQueryAndPrintResult(query);
+
+         int rowCount = esql.executeQueryAndPrintResult(FEATURE10_SQL, input, parseDate(start), parseDate(end));
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
+         FeatureMetrics.failed();
          System.err.println (e.getMessage());
       }
    }
 
    // management #10
+   /**
+    * Method to total the seats of a flight over a date range, both dates
+    * included, from the sales rollup.
+    *
+    * @return one row keyed like the columns of feature11: numdays,
+    *         totalticketssold, totalticketsunsold (the sums are null when
+    *         no instance falls in the range, as SUM gives)
+    * @throws java.sql.SQLException when the rollup cannot be loaded
+    */
+   static Map<String, Object> flightSales(AirlineManagement esql, String flightNumber,
+                                          java.sql.Date start, java.sql.Date end) throws SQLException {
+      SalesRollup.Totals totals = esql.getSalesRollup().getRange(flightNumber, start.toLocalDate(), end.toLocalDate());
+      Map<String, Object> row = new LinkedHashMap<String, Object>();
+      row.put("numdays", totals.instances);
+      row.put("totalticketssold", totals.instances == 0 ? null : totals.seatsSold);
+      row.put("totalticketsunsold", totals.instances == 0 ? null : totals.seatsUnsold);
+      return row;
+   }
+
    public static void feature11(AirlineManagement esql) {
       try {
          System.out.print("\tEnter Flight Number: ");
@@ -778,32 +1489,147 @@ public class AirlineManagement {
          System.out.print("\tEnter End Date (YYYY-MM-DD): ");
          String end = in.readLine();
    
-         String query = "SELECT " +
-                        "COUNT(*) AS NumDays, " +
-                        "SUM(SeatsSold) AS TotalTicketsSold, " +
-                        "SUM(SeatsTotal - SeatsSold) AS TotalTicketsUnsold " +
-                        "FROM FlightInstance " +
-                        "WHERE FlightNumber = '" + input + "' " +
-                        "AND FlightDate BETWEEN '" + start + "' AND '" + end + "';";
-   
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         // combines a few rollup entries instead of scanning FlightInstance
+         Map<String, Object> row = flightSales(esql, input, parseDate(start), parseDate(end));
    
-         System.out.printf("%-10s %-20s %-20s%n", "NumDays", "TotalTicketsSold", "TotalTicketsUnsold");
-   
-         for (List<String> row : results) {
-            System.out.printf("%-10s %-20s %-20s%n", row.get(0), row.get(1), row.get(2));
+         try (TableRenderer table = new TableRenderer("%-10s %-20s %-20s%n")) {
+            table.header("NumDays", "TotalTicketsSold", "TotalTicketsUnsold");
+            table.row(row.get("numdays"), row.get("totalticketssold"), row.get("totalticketsunsold"));
          }
-   
-         System.out.println("total row(s): " + results.size());
+         System.out.println("total row(s): 1");
 
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }   
 
+   // management #11
+   public static void feature22(AirlineManagement esql) {
+      try {
+         System.out.print("\tEnter Flight Number: ");
+         String input = in.readLine();
+         System.out.print("\tEnter Flight Date (YYYY-MM-DD): ");
+         String date = in.readLine();
+
+         // in short batches, so bookings of other flights are not held up
+         long cancelled = esql.getCancellationEngine().cancelFlight(input, parseDate(date));
+
+         if (cancelled < 0)
+            System.out.println("Flight instance not found.");
+         else
+            System.out.println("Cancelled " + cancelled + " reservation(s).");
+
+      } catch(Exception e) {
+         FeatureMetrics.failed();
+         System.err.println(e.getMessage());
+      }
+   }
+
+   // management #12
+   public static void feature23(AirlineManagement esql) {
+      try {
+         System.out.print("\tEnter Flight Instance ID: ");
+         String input = in.readLine();
+         System.out.print("\tDeparted On Time (yes/no, blank if unknown): ");
+         String departed = in.readLine();
+         System.out.print("\tArrived On Time (yes/no, blank if unknown): ");
+         String arrived = in.readLine();
+
+         // the on-time record of feature12 follows the change
+         boolean found = esql.getOnTimeStats().updateStatus(Integer.parseInt(input.trim()),
+                                                            parseStatus(departed), parseStatus(arrived));
+
+         if (found)
+            System.out.println("Flight status updated.");
+         else
+            System.out.println("Flight instance not found.");
+
+      } catch(Exception e) {
+         FeatureMetrics.failed();
+         System.err.println(e.getMessage());
+      }
+   }
+
    // customer
 
    // customer #1
+   /**
+    * Method to find the flights between two cities on a date, with their
+    * schedule for that day and on-time history.  The flights come from the
+    * route index and their on-time record from OnTimeStats, so no query
+    * runs.  City names are matched without regard to case.
+    *
+    * @return one row per flight and number of stops, keyed like the columns
+    *         of feature12: flightnumber, departuretime, arrivaltime,
+    *         numofstops, ontimedeparturepercentage, ontimearrivalpercentage,
+    *         then the same two percentages over the last 30 and 90 days
+    *         (ontimedeparture30d, ontimearrival30d, ontimedeparture90d,
+    *         ontimearrival90d), null when the window has no instances
+    * @throws java.sql.SQLException when the history cannot be read
+    */
+   static List<Map<String, Object>> searchFlights(AirlineManagement esql, String departure,
+                                                  String destination, java.sql.Date date) throws SQLException {
+      List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+      OnTimeStats onTime = esql.getOnTimeStats();
+      for (RouteIndex.Entry entry : esql.getRouteIndex().search(departure, destination, date.toLocalDate())) {
+         Map<Integer, OnTimeStats.Summary> last30 = byStops(onTime.getLastDays(entry.flightNumber, 30));
+         Map<Integer, OnTimeStats.Summary> last90 = byStops(onTime.getLastDays(entry.flightNumber, 90));
+         for (OnTimeStats.Summary stats : onTime.getOverall(entry.flightNumber)) {
+            OnTimeStats.Summary stats30 = last30.get(stats.numOfStops);
+            OnTimeStats.Summary stats90 = last90.get(stats.numOfStops);
+            Map<String, Object> row = new LinkedHashMap<String, Object>();
+            row.put("flightnumber", entry.flightNumber);
+            row.put("departuretime", entry.departureTime);
+            row.put("arrivaltime", entry.arrivalTime);
+            row.put("numofstops", stats.numOfStops);
+            row.put("ontimedeparturepercentage", stats.getDeparturePercentage());
+            row.put("ontimearrivalpercentage", stats.getArrivalPercentage());
+            row.put("ontimedeparture30d", stats30 == null ? null : stats30.getDeparturePercentage());
+            row.put("ontimearrival30d", stats30 == null ? null : stats30.getArrivalPercentage());
+            row.put("ontimedeparture90d", stats90 == null ? null : stats90.getDeparturePercentage());
+            row.put("ontimearrival90d", stats90 == null ? null : stats90.getArrivalPercentage());
+            rows.add(row);
+         }
+      }
+      return rows;
+   }//end searchFlights
+
+   private static Map<Integer, OnTimeStats.Summary> byStops(List<OnTimeStats.Summary> summaries) {
+      Map<Integer, OnTimeStats.Summary> byStops = new HashMap<Integer, OnTimeStats.Summary>();
+      for (OnTimeStats.Summary stats : summaries)
+         byStops.put(stats.numOfStops, stats);
+      return byStops;
+   }
+
+   /**
+    * Method to find itineraries of connecting flights between two cities,
+    * for when no direct flight exists.
+    *
+    * @return one row per itinerary, best first, with its legs, departure
+    *         and arrival times, duration in minutes and total fare
+    * @throws java.sql.SQLException when the routes or fares cannot be read
+    */
+   static List<Map<String, Object>> searchConnections(AirlineManagement esql, String departure,
+                                                      String destination, java.sql.Date date) throws SQLException {
+      List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+      for (ItinerarySearch.Itinerary it : esql.getItinerarySearch().search(
+              departure, destination, date.toLocalDate(), ITINERARY_RANK, ITINERARY_COUNT)) {
+         ItinerarySearch.Leg first = it.legs.get(0);
+         ItinerarySearch.Leg last = it.legs.get(it.legs.size() - 1);
+         Map<String, Object> row = new LinkedHashMap<String, Object>();
+         row.put("itinerary", it.describe());
+         row.put("departuretime", first.flight.departureTime);
+         row.put("arrivaltime", last.flight.arrivalTime);
+         row.put("arrivaldate", last.date.plusDays(last.arrives / (24 * 60) - last.departs / (24 * 60)).toString());
+         row.put("legs", it.legs.size());
+         row.put("durationminutes", it.durationMinutes);
+         row.put("totalfare", Math.round(it.totalFare * 100) / 100.0);
+         rows.add(row);
+      }
+      return rows;
+   }//end searchConnections
+
    public static void feature12(AirlineManagement esql) {
       try {
          System.out.print("\tEnter departure city: ");
@@ -813,45 +1639,88 @@ public class AirlineManagement {
          System.out.print("\tEnter date (YYYY-MM-DD): ");
          String date = in.readLine().trim();
    
-         String query = 
-            "SELECT f.FlightNumber, " +
-            "       s.DepartureTime, s.ArrivalTime, fi.NumOfStops, " +
-            "       ROUND(AVG(CASE WHEN fi.DepartedOnTime THEN 1 ELSE 0 END) * 100, 2) AS OnTimeDeparturePercentage, " +
-            "       ROUND(AVG(CASE WHEN fi.ArrivedOnTime THEN 1 ELSE 0 END) * 100, 2) AS OnTimeArrivalPercentage " +
-            "FROM Flight f " +
-            "JOIN FlightInstance fi ON f.FlightNumber = fi.FlightNumber " +
-            "JOIN Schedule s ON f.FlightNumber = s.FlightNumber " +
-            "WHERE f.DepartureCity = '" + departure + "' " +
-            "AND f.ArrivalCity = '" + destination + "' " +
-            "AND TRIM(TO_CHAR(DATE '" + date + "', 'Day')) = s.DayOfWeek " +
-            "GROUP BY f.FlightNumber, s.DepartureTime, s.ArrivalTime, fi.NumOfStops;";
-   
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
-   
-         System.out.printf("%-15s %-15s %-15s %-15s %-25s %-25s%n",
-            "FlightNumber", "DepartureTime", "ArrivalTime", "NumOfStops", "OnTimeDeparture(%)", "OnTimeArrival(%)");
-   
-         for (List<String> row : results) {
-            System.out.printf("%-15s %-15s %-15s %-15s %-25s %-25s%n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4), row.get(5));
+         // complete a partly typed city when only one city matches
+         RouteIndex routes = esql.getRouteIndex();
+         departure = completeCity(routes, departure);
+         destination = completeCity(routes, destination);
+         if (departure == null || destination == null)
+            return;
+   
+         List<Map<String, Object>> results = searchFlights(esql, departure, destination, parseDate(date));
+         if (results.isEmpty()) {
+            printConnections(searchConnections(esql, departure, destination, parseDate(date)));
+            return;
+         }
+   
+         try (TableRenderer table = new TableRenderer("%-15s %-15s %-15s %-15s %-25s %-25s %-17s %-17s %-17s %-17s%n")) {
+            table.header("FlightNumber", "DepartureTime", "ArrivalTime", "NumOfStops", "OnTimeDeparture(%)", "OnTimeArrival(%)",
+                         "Departure30d(%)", "Arrival30d(%)", "Departure90d(%)", "Arrival90d(%)");
+   
+            for (Map<String, Object> row : results) {
+               table.row(row.get("flightnumber"), row.get("departuretime"), row.get("arrivaltime"),
+                  row.get("numofstops"), row.get("ontimedeparturepercentage"), row.get("ontimearrivalpercentage"),
+                  row.get("ontimedeparture30d"), row.get("ontimearrival30d"),
+                  row.get("ontimedeparture90d"), row.get("ontimearrival90d"));
+            }
          }
    
          System.out.println("total row(s): " + results.size());
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
 
+   private static void printConnections(List<Map<String, Object>> connections) {
+      if (connections.isEmpty()) {
+         System.out.println("No direct flight and no connection found.");
+         return;
+      }
+      System.out.println("No direct flight. Connections, by " + ITINERARY_RANK.name().toLowerCase() + ":");
+      try (TableRenderer table = new TableRenderer("%-4d %-10s %-10s %-12s %-12s %-10s%n")) {
+         table.header("#", "Departure", "Arrival", "ArrivalDate", "Duration", "Fare");
+         int n = 0;
+         for (Map<String, Object> row : connections) {
+            int minutes = (Integer) row.get("durationminutes");
+            table.row(++n, row.get("departuretime"), row.get("arrivaltime"), row.get("arrivaldate"),
+               String.format("%dh%02dm", minutes / 60, minutes % 60), row.get("totalfare"));
+            table.line("     " + row.get("itinerary"));
+         }
+      }
+      System.out.println("total itinerary(s): " + connections.size());
+   }
+
+   /*
+    * The city as known to the route index.  A prefix shared by several
+    * cities lists them and returns null.
+    */
+   private static String completeCity(RouteIndex routes, String typed) {
+      String city = routes.findCity(typed);
+      if (city != null || typed.isEmpty())
+         return city != null ? city : typed;
+      List<String> matches = routes.citiesStartingWith(typed);
+      if (matches.size() == 1)
+         return matches.get(0);
+      if (matches.size() > 1) {
+         System.out.println("Which city did you mean: " + String.join(", ", matches) + "?");
+         return null;
+      }
+      return typed;
+   }
+
    // customer #2
+   static final String FEATURE13_SQL =
+      "SELECT TicketCost FROM FlightInstance WHERE FlightNumber = ?";
+
    public static void feature13(AirlineManagement esql) {
       try {
          System.out.print("\tEnter flight number: ");
          String flightNumber = in.readLine().trim();
   
-         String query = "SELECT TicketCost FROM FlightInstance WHERE FlightNumber = '" + flightNumber + "';";
-  
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = esql.executeQueryAndPrintResult(FEATURE13_SQL, flightNumber);
          System.out.println("total row(s): " + rowCount);
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
   }  
@@ -862,20 +1731,20 @@ public class AirlineManagement {
          System.out.print("\tEnter flight number: ");
          String input = in.readLine().trim();
    
-         String query = "SELECT p.Make, p.Model " +
-                        "FROM Flight f, Plane p " +
-                        "WHERE f.PlaneID = p.PlaneID AND f.FlightNumber = '" + input + "';";
-   
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         // the Flight to Plane join, answered from the reference cache
+         ReferenceCache.Plane plane = esql.getReferenceCache().getPlaneOfFlight(input);
    
-         System.out.printf("%-20s %-20s%n", "Make", "Model");
+         try (TableRenderer table = new TableRenderer("%-20s %-20s%n")) {
+            table.header("Make", "Model");
    
-         for (List<String> row : results) {
-            System.out.printf("%-20s %-20s%n", row.get(0), row.get(1));
+            if (plane != null) {
+               table.row(plane.make, plane.model);
+            }
          }
    
-         System.out.println("total row(s): " + results.size());
+         System.out.println("total row(s): " + (plane == null ? 0 : 1));
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
@@ -893,56 +1762,98 @@ public class AirlineManagement {
          System.out.print("Enter customer ID: ");
          String customerID = in.readLine();
    
-         // check if the flight instance exists
-         String checkFlightQuery = String.format(
-            "SELECT FlightInstanceID, SeatsTotal, SeatsSold FROM FlightInstance WHERE FlightNumber = '%s' AND FlightDate = DATE '%s'",
-            flightNumber, flightDate
-         );
-         List<List<String>> flightData = esql.executeQueryAndReturnResult(checkFlightQuery);
+         // checks capacity, takes a seat or waitlists, and inserts the
+         // reservation in a single statement
+         BookingEngine.Booking booking = esql.getBookingEngine().book(
+            flightNumber, parseDate(flightDate), Integer.parseInt(customerID.trim()));
    
-         if (flightData.isEmpty()) {
+         if (booking == null) {
             System.out.println("Flight instance not found.");
             return;
          }
    
-         int flightInstanceID = Integer.parseInt(flightData.get(0).get(0));
-         int seatsTotal = Integer.parseInt(flightData.get(0).get(1));
-         int seatsSold = Integer.parseInt(flightData.get(0).get(2));
-   
-         String status;
-         if (seatsSold < seatsTotal) {
-            status = "reserved";
-   
-            // update seats sold
-            String updateSeatsQuery = String.format(
-               "UPDATE FlightInstance SET SeatsSold = SeatsSold + 1 WHERE FlightInstanceID = %d",
-               flightInstanceID
-            );
-            esql.executeUpdate(updateSeatsQuery);
-         } else {
-            status = "waitlist";
-         }
-   
-         String reservationID = "R" + System.currentTimeMillis();
-   
-         // insert the reservation
-         String insertReservationQuery = String.format(
-            "INSERT INTO Reservation (ReservationID, CustomerID, FlightInstanceID, Status) " +
-            "VALUES ('%s', %s, %d, '%s')",
-            reservationID, customerID, flightInstanceID, status
-         );
-         esql.executeUpdate(insertReservationQuery);
-   
-         System.out.printf("Reservation made with status: %s\n", status);
+         System.out.printf("Reservation made with status: %s\n", booking.status);
+         System.out.printf("Reservation ID: %s\n", booking.reservationId);
    
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println("Error making reservation: " + e.getMessage());
       }
    }
+
+   // customer #5
+   public static void feature21(AirlineManagement esql) {
+      try {
+         System.out.print("Enter reservation ID: ");
+         String reservationID = in.readLine().trim();
+
+         // a reserved seat goes to the oldest waitlisted reservation, if any
+         CancellationEngine.Cancellation cancellation = esql.getCancellationEngine().cancel(reservationID);
+
+         if (cancellation == null) {
+            System.out.println("Reservation not found or already cancelled.");
+            return;
+         }
+
+         System.out.printf("Reservation %s cancelled (was %s)\n", cancellation.reservationId, cancellation.previousStatus);
+         if (cancellation.promotedReservationId != null)
+            System.out.printf("Seat given to waitlisted reservation %s\n", cancellation.promotedReservationId);
+
+      } catch (Exception e) {
+         FeatureMetrics.failed();
+         System.err.println("Error cancelling reservation: " + e.getMessage());
+      }
+   }
    
    // pilot
 
    //pilot #1
+   // the request comes back as stored, so no confirming SELECT is needed
+   static final String FEATURE16_INSERT_SQL =
+      "INSERT INTO MaintenanceRequest (RequestID, PlaneID, RepairCode, RequestDate, PilotID) " +
+      "VALUES (?, ?, ?, ?, ?) " +
+      "RETURNING RequestID, PlaneID, RepairCode, RequestDate";
+   // the insert without its RETURNING clause, which a batch cannot return
+   static final String FEATURE16_BATCH_SQL =
+      FEATURE16_INSERT_SQL.substring(0, FEATURE16_INSERT_SQL.lastIndexOf("RETURNING")).trim();
+
+   /**
+    * Inserts a maintenance request under a new RequestID, in one round trip.
+    *
+    * @return the request as stored: requestid, planeid, repaircode, requestdate
+    */
+   static ColumnarResult submitMaintenanceRequest(AirlineManagement esql, String pilotID, String planeID,
+                                                  String repairCode, java.sql.Date date) throws SQLException {
+      // taken from the block reserved in memory, no round trip
+      int newRequestID = esql.getRequestIds().nextIntId();
+      return esql.executeUpdateAndReturnColumns(FEATURE16_INSERT_SQL,
+                                                maintenanceRequestRow(newRequestID, pilotID, planeID, repairCode, date));
+   }
+
+   /**
+    * Inserts maintenance requests under new RequestIDs as one JDBC batch in
+    * one transaction; none is kept when one fails.
+    *
+    * @return the RequestID of each request, in order
+    */
+   static int[] submitMaintenanceRequests(AirlineManagement esql, String[] pilotIDs, String[] planeIDs,
+                                          String[] repairCodes, java.sql.Date[] dates) throws SQLException {
+      int[] ids = new int[pilotIDs.length];
+      final List<Object[]> rows = new ArrayList<Object[]>(ids.length);
+      for (int i = 0; i < ids.length; ++i) {
+         ids[i] = esql.getRequestIds().nextIntId();
+         rows.add(maintenanceRequestRow(ids[i], pilotIDs[i], planeIDs[i], repairCodes[i], dates[i]));
+      }
+      esql.executeInTransaction(tx -> tx.executeBatch(FEATURE16_BATCH_SQL, rows));
+      return ids;
+   }
+
+   // the parameters of FEATURE16_INSERT_SQL, in its column order
+   private static Object[] maintenanceRequestRow(int requestID, String pilotID, String planeID,
+                                                 String repairCode, java.sql.Date date) {
+      return new Object[] { requestID, planeID, repairCode, date, pilotID };
+   }
+
    public static void feature16(AirlineManagement esql) {
       try {
          System.out.print("\tEnter your Pilot ID: ");
@@ -954,34 +1865,21 @@ public class AirlineManagement {
          System.out.print("\tEnter date of request (YYYY-MM-DD): ");
          String date = in.readLine().trim();
    
-         String getMaxIdQuery = "SELECT MAX(RequestID) FROM MaintenanceRequest;";
-         List<List<String>> result = esql.executeQueryAndReturnResult(getMaxIdQuery);
-         int newRequestID = (result.get(0).get(0) != null) ? Integer.parseInt(result.get(0).get(0)) + 1 : 1;
-   
-         String insertQuery = String.format(
-            "INSERT INTO MaintenanceRequest (RequestID, PlaneID, RepairCode, RequestDate, PilotID) " +
-            "VALUES (%d, '%s', '%s', DATE '%s', '%s');",
-            newRequestID, planeID, repairCode, date, pilotID
-         );
-         esql.executeUpdate(insertQuery);
-   
-         String confirmQuery = String.format(
-            "SELECT PlaneID, RepairCode, RequestDate FROM MaintenanceRequest WHERE RequestID = %d;",
-            newRequestID
-         );
+         ColumnarResult request = submitMaintenanceRequest(esql, pilotID, planeID, repairCode, parseDate(date));
    
-         List<List<String>> confirmResults = esql.executeQueryAndReturnResult(confirmQuery);
+         try (TableRenderer table = new TableRenderer("%-12s%-15s%-15s\n")) {
+            table.header("PlaneID", "RepairCode", "RequestDate");
    
-         System.out.printf("%-12s%-15s%-15s\n", "PlaneID", "RepairCode", "RequestDate");
-   
-         for (List<String> row : confirmResults) {
-            System.out.printf("%-12s%-15s%-15s\n", row.get(0), row.get(1), row.get(2));
+            for (int r = 0; r < request.getRowCount(); ++r) {
+               table.row(request.getString(r, 1), request.getString(r, 2), request.getString(r, 3));
+            }
          }
    
          System.out.println("Maintenance request submitted.");
-         System.out.println("Total rows: " + confirmResults.size());
+         System.out.println("Total rows: " + request.getRowCount());
    
       } catch (Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }   
@@ -989,6 +1887,12 @@ public class AirlineManagement {
    // technician
 
    //technician #1
+   static final String FEATURE17_SQL =
+      "SELECT RepairDate, RepairCode " +
+      "FROM Repair " +
+      "WHERE PlaneID = ? " +
+      "AND RepairDate BETWEEN ? AND ?";
+
    public static void feature17(AirlineManagement esql) {
       try {
          System.out.print("\tEnter plane ID: ");
@@ -1000,46 +1904,87 @@ public class AirlineManagement {
          System.out.print("\tEnter end date (YYYY-MM-DD): ");
          String endDate = in.readLine().trim();
    
-         String query = String.format(
-            "SELECT RepairDate, RepairCode " +
-            "FROM Repair " +
-            "WHERE PlaneID = '%s' " +
-            "AND RepairDate BETWEEN DATE '%s' AND DATE '%s';",
-            planeID, startDate, endDate
-         );
-   
-         int rowCount = esql.executeQueryAndPrintResult(query);
+         int rowCount = esql.executeQueryAndPrintResult(FEATURE17_SQL, planeID, parseDate(startDate), parseDate(endDate));
          System.out.println("Total row(s): " + rowCount);
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println("Error: " + e.getMessage());
       }
    }
    
    
    //technician #2
+   static final String FEATURE18_SQL =
+      "SELECT RequestID, PlaneID, RepairCode, RequestDate, PilotID FROM MaintenanceRequest WHERE PilotID = ?";
+
    public static void feature18(AirlineManagement esql) {
       try {
          System.out.print("\tEnter pilot ID: ");
          String pilotID = in.readLine().trim();
    
-         String query = "SELECT RequestID, PlaneID, RepairCode, RequestDate, PilotID FROM MaintenanceRequest WHERE PilotID = '" + pilotID + "';";
-   
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         List<List<String>> results = esql.executeQueryAndReturnResult(FEATURE18_SQL, pilotID);
    
-         System.out.printf("%-10s%-12s%-15s%-15s%-10s\n", "RequestID", "PlaneID", "RepairCode", "RequestDate", "PilotID");
+         try (TableRenderer table = new TableRenderer("%-10s%-12s%-15s%-15s%-10s\n")) {
+            table.header("RequestID", "PlaneID", "RepairCode", "RequestDate", "PilotID");
    
-         for (List<String> row : results) {
-            System.out.printf("%-10s%-12s%-15s%-15s%-10s\n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4));
+            table.rows(results);
          }
    
          System.out.println("total row(s): " + results.size());
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println(e.getMessage());
       }
    }
    
    
    //technician #3
+   // the repair comes back as stored, so no confirming SELECT is needed
+   static final String FEATURE19_INSERT_SQL =
+      "INSERT INTO Repair (RepairID, TechnicianID, PlaneID, RepairCode, RepairDate) " +
+      "VALUES (?, ?, ?, ?, ?) " +
+      "RETURNING RepairID, PlaneID, RepairCode, RepairDate";
+   // the insert without its RETURNING clause, which a batch cannot return
+   static final String FEATURE19_BATCH_SQL =
+      FEATURE19_INSERT_SQL.substring(0, FEATURE19_INSERT_SQL.lastIndexOf("RETURNING")).trim();
+
+   /**
+    * Inserts a repair under a new RepairID, in one round trip.
+    *
+    * @return the repair as stored: repairid, planeid, repaircode, repairdate
+    */
+   static ColumnarResult logRepair(AirlineManagement esql, String techID, String planeID,
+                                   String repairCode, java.sql.Date repairDate) throws SQLException {
+      // taken from the block reserved in memory, no round trip
+      int newID = esql.getRepairIds().nextIntId();
+      return esql.executeUpdateAndReturnColumns(FEATURE19_INSERT_SQL,
+                                                repairRow(newID, techID, planeID, repairCode, repairDate));
+   }
+
+   /**
+    * Inserts repairs under new RepairIDs as one JDBC batch in one
+    * transaction; none is kept when one fails.
+    *
+    * @return the RepairID of each repair, in order
+    */
+   static int[] logRepairs(AirlineManagement esql, String[] techIDs, String[] planeIDs,
+                           String[] repairCodes, java.sql.Date[] repairDates) throws SQLException {
+      int[] ids = new int[techIDs.length];
+      final List<Object[]> rows = new ArrayList<Object[]>(ids.length);
+      for (int i = 0; i < ids.length; ++i) {
+         ids[i] = esql.getRepairIds().nextIntId();
+         rows.add(repairRow(ids[i], techIDs[i], planeIDs[i], repairCodes[i], repairDates[i]));
+      }
+      esql.executeInTransaction(tx -> tx.executeBatch(FEATURE19_BATCH_SQL, rows));
+      return ids;
+   }
+
+   // the parameters of FEATURE19_INSERT_SQL, in its column order
+   private static Object[] repairRow(int repairID, String techID, String planeID,
+                                     String repairCode, java.sql.Date repairDate) {
+      return new Object[] { repairID, techID, planeID, repairCode, repairDate };
+   }
+
    public static void feature19(AirlineManagement esql) {
       try {
          System.out.print("\tEnter technician ID: ");
@@ -1054,26 +1999,20 @@ public class AirlineManagement {
          System.out.print("\tEnter repair date (YYYY-MM-DD): ");
          String repairDate = in.readLine().trim();
    
-         String getMaxIdQuery = "SELECT MAX(RepairID) FROM Repair;";
-         List<List<String>> result = esql.executeQueryAndReturnResult(getMaxIdQuery);
-         int newID = (result.get(0).get(0) != null) ? Integer.parseInt(result.get(0).get(0)) + 1 : 1;
-   
-         String insertQuery = String.format(
-            "INSERT INTO Repair (RepairID, TechnicianID, PlaneID, RepairCode, RepairDate) " +
-            "VALUES (%d, '%s', '%s', '%s', DATE '%s');",
-            newID, techID, planeID, repairCode, repairDate
-         );
-         esql.executeUpdate(insertQuery);
+         ColumnarResult repair = logRepair(esql, techID, planeID, repairCode, parseDate(repairDate));
 
-         String confirmQuery = String.format(
-            "SELECT PlaneID, RepairCode, RepairDate FROM Repair WHERE RepairID = %d;",
-            newID
-         );
-         int rowCount = esql.executeQueryAndPrintResult(confirmQuery);
+         // printed as executeQueryAndPrintResult prints the columns after repairid
+         try (TableRenderer table = new TableRenderer(TableRenderer.tabSeparated(3))) {
+            if (repair.getRowCount() > 0)
+               table.header(repair.getColumnName(1), repair.getColumnName(2), repair.getColumnName(3));
+            for (int r = 0; r < repair.getRowCount(); ++r)
+               table.row(repair.getString(r, 1), repair.getString(r, 2), repair.getString(r, 3));
+         }
    
          System.out.println("Repair logged successfully.");
-         System.out.println("Total rows: " + rowCount);
+         System.out.println("Total rows: " + repair.getRowCount());
       } catch(Exception e) {
+         FeatureMetrics.failed();
          System.err.println("Error: " + e.getMessage());
       }
    }
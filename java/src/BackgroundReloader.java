@@ -0,0 +1,77 @@
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class reloads an in-memory copy of the database (ReferenceCache,
+ * OnTimeStats, SalesRollup) in the background once it is older than its
+ * time to live.  The caller that finds the copy stale keeps answering from
+ * it and only starts the reload; at most one reload of each copy is queued
+ * or running at a time.  A reload that fails leaves the old copy in place,
+ * and the next read that finds it stale tries again.
+ *
+ * The reloads of every copy run on one daemon thread, off the callers'
+ * threads.
+ */
+public class BackgroundReloader {
+
+   /**
+    * Loads the copy again and records when it did.
+    */
+   public interface Reload {
+      void run() throws SQLException;
+   }
+
+   private static final ExecutorService RELOAD = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "cache-reload");
+      t.setDaemon(true);
+      return t;
+   });
+
+   private final long _ttlNanos;
+   private final Reload _reload;
+   private final AtomicBoolean _reloading = new AtomicBoolean();
+
+   /**
+    * @param ttlNanos how long a load is used before it is reloaded, 0 for ever
+    * @param reload loads the copy again
+    */
+   public BackgroundReloader(long ttlNanos, Reload reload) {
+      this._ttlNanos = ttlNanos;
+      this._reload = reload;
+   }
+
+   /**
+    * @param loadedAt the System.nanoTime() the copy was loaded at
+    * @return whether a copy loaded then is older than the time to live
+    */
+   public boolean isExpired(long loadedAt) {
+      return this._ttlNanos > 0 && System.nanoTime() - loadedAt > this._ttlNanos;
+   }
+
+   /**
+    * Starts a reload when the copy loaded at loadedAt has expired.
+    */
+   public void reloadIfExpired(long loadedAt) {
+      if (isExpired(loadedAt))
+         reloadInBackground();
+   }
+
+   /**
+    * Starts a reload unless one is already queued or running.
+    */
+   public void reloadInBackground() {
+      if (!this._reloading.compareAndSet(false, true))
+         return;
+      RELOAD.execute(() -> {
+         try {
+            this._reload.run();
+         } catch (SQLException e) {
+            // keep serving the stale copy; the next read tries again
+         } finally {
+            this._reloading.set(false);
+         }
+      });
+   }
+}//end BackgroundReloader
@@ -0,0 +1,532 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class runs feature commands from a file instead of the menu, for
+ * scripted workloads such as thousands of bookings or a nightly sequence of
+ * reports.  Each line is one command, either as text:
+ *
+ *    15 F100 2025-05-01 42
+ *    feature12 "New York" Chicago 2025-05-01
+ *
+ * or as a JSON object naming the arguments as FeatureCatalog does:
+ *
+ *    {"feature": 15, "flightNumber": "F100", "date": "2025-05-01", "customerId": 42}
+ *
+ * Blank lines and lines starting with # are skipped.  Commands run through
+ * FeatureCatalog, the same statements as the menu, without role checks, on
+ * --parallel threads (default 4, at most the pool size).  With parallel
+ * threads commands do not run in file order.
+ *
+ * Consecutive commands of feature15, feature16 or feature19 are grouped, up
+ * to --batch commands (default 100), and sent as one JDBC batch in one
+ * transaction.  When a batch fails its commands are run one by one, so only
+ * the bad ones are reported.
+ *
+ * With --results every command's outcome is written to the file as a JSON
+ * line.  A summary of the commands, errors and throughput per feature is
+ * printed at the end.
+ *
+ * Usage: java AirlineManagement batch <dbname> <port> <user> <commandFile>
+ *           [--parallel N] [--batch N] [--results file]
+ */
+public class BatchRunner {
+
+   // features whose consecutive commands are sent as one batch
+   private static final int BOOKING = 15;
+   private static final int MAINTENANCE_REQUEST = 16;
+   private static final int REPAIR = 19;
+
+   // errors listed in the summary
+   private static final int MAX_LISTED_ERRORS = 20;
+
+   /**
+    * One line of the command file.
+    */
+   static final class Command {
+      final int line;
+      final FeatureCatalog.Feature feature;
+      final String[] args;
+
+      Command(int line, FeatureCatalog.Feature feature, String[] args) {
+         this.line = line;
+         this.feature = feature;
+         this.args = args;
+      }
+   }//end Command
+
+   private final AirlineManagement _esql;
+   private final int _parallelism;
+   private final int _batchSize;
+   private final Writer _results;
+
+   // per feature, 0 for lines that could not be parsed
+   private final AtomicLongArray _commands = new AtomicLongArray(FeatureMetrics.LAST_FEATURE + 1);
+   private final AtomicLongArray _errors = new AtomicLongArray(FeatureMetrics.LAST_FEATURE + 1);
+   private final LongAdder _batches = new LongAdder();
+   private final List<String> _errorLines = new ArrayList<String>();
+
+   /**
+    * @param esql the database the commands run against
+    * @param parallelism the number of commands run at the same time
+    * @param batchSize the most writes sent in one batch, 1 to send each on its own
+    * @param results where each outcome is written as a JSON line, or null
+    */
+   public BatchRunner(AirlineManagement esql, int parallelism, int batchSize, Writer results) {
+      this._esql = esql;
+      this._parallelism = Math.max(1, Math.min(parallelism, esql.getPool().getMaxSize()));
+      this._batchSize = Math.max(1, batchSize);
+      this._results = results;
+   }
+
+   /**
+    * Runs every command of the file and waits for them to finish.
+    *
+    * @param commands the command file
+    * @return the number of commands run, parse errors included
+    * @throws java.io.IOException when the file cannot be read
+    */
+   public long run(BufferedReader commands) throws IOException {
+      ExecutorService executor = Executors.newFixedThreadPool(this._parallelism, r -> {
+         Thread t = new Thread(r, "batch-runner");
+         t.setDaemon(true);
+         return t;
+      });
+      // bounds the commands read ahead of the ones running
+      final Semaphore inFlight = new Semaphore(this._parallelism * 2);
+      long count = 0;
+      try {
+         List<Command> pending = new ArrayList<Command>();
+         int lineNumber = 0;
+         for (String line = commands.readLine(); line != null; line = commands.readLine()) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+               continue;
+            ++count;
+            Command command;
+            try {
+               command = parse(line, lineNumber);
+            } catch (IllegalArgumentException e) {
+               failed(lineNumber, 0, e.getMessage());
+               continue;
+            }
+            if (!pending.isEmpty() && (pending.get(0).feature != command.feature || pending.size() == this._batchSize)) {
+               submit(executor, inFlight, pending);
+               pending = new ArrayList<Command>();
+            }
+            if (isBatched(command.feature.number) && this._batchSize > 1) {
+               pending.add(command);
+            } else {
+               List<Command> single = new ArrayList<Command>(1);
+               single.add(command);
+               submit(executor, inFlight, single);
+            }
+         }
+         if (!pending.isEmpty())
+            submit(executor, inFlight, pending);
+      } finally {
+         executor.shutdown();
+         try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+      return count;
+   }//end run
+
+   private void submit(ExecutorService executor, final Semaphore inFlight, final List<Command> unit) {
+      inFlight.acquireUninterruptibly();
+      executor.execute(() -> {
+         try {
+            if (unit.size() > 1)
+               runBatch(unit);
+            else
+               runOne(unit.get(0));
+         } finally {
+            inFlight.release();
+         }
+      });
+   }
+
+   private static boolean isBatched(int feature) {
+      return feature == BOOKING || feature == MAINTENANCE_REQUEST || feature == REPAIR;
+   }
+
+   private void runOne(Command command) {
+      this._commands.incrementAndGet(command.feature.number);
+      try {
+         succeeded(command, command.feature.run(this._esql, command.args));
+      } catch (SQLException | RuntimeException e) {
+         failed(command.line, command.feature.number, e.getMessage());
+      }
+   }
+
+   /*
+    * Sends consecutive writes of one feature as one batch, or each on its
+    * own when the batch fails.
+    */
+   private void runBatch(List<Command> unit) {
+      int feature = unit.get(0).feature.number;
+      List<Object> outcomes;
+      long started = FeatureMetrics.begin(feature);
+      try {
+         outcomes = feature == BOOKING ? book(unit) : insert(feature, unit);
+      } catch (SQLException | RuntimeException e) {
+         // the commands are recorded as they run again
+         FeatureMetrics.discard();
+         for (Command command : unit)
+            runOne(command);
+         return;
+      }
+      FeatureMetrics.endBatch(started, unit.size());
+      this._batches.increment();
+      this._commands.addAndGet(feature, unit.size());
+      for (int i = 0; i < unit.size(); ++i)
+         succeeded(unit.get(i), outcomes.get(i));
+   }
+
+   private List<Object> book(List<Command> unit) throws SQLException {
+      int count = unit.size();
+      String[] flights = new String[count];
+      java.sql.Date[] dates = new java.sql.Date[count];
+      int[] customers = new int[count];
+      for (int i = 0; i < count; ++i) {
+         String[] a = unit.get(i).args;
+         flights[i] = a[0];
+         dates[i] = FeatureCatalog.date(a[1]);
+         customers[i] = FeatureCatalog.integer(a[2]);
+      }
+      BookingEngine.Booking[] bookings = this._esql.getBookingEngine().bookBatch(flights, dates, customers);
+
+      // the outcome feature15 reports
+      List<Object> outcomes = new ArrayList<Object>(count);
+      for (BookingEngine.Booking booking : bookings) {
+         Map<String, Object> out = new LinkedHashMap<String, Object>();
+         out.put("found", booking != null);
+         if (booking != null) {
+            out.put("reservationId", booking.reservationId);
+            out.put("flightInstanceId", booking.flightInstanceId);
+            out.put("status", booking.status);
+         }
+         outcomes.add(out);
+      }
+      return outcomes;
+   }//end book
+
+   private List<Object> insert(int feature, List<Command> unit) throws SQLException {
+      int count = unit.size();
+      String[] people = new String[count];
+      String[] planes = new String[count];
+      String[] codes = new String[count];
+      java.sql.Date[] dates = new java.sql.Date[count];
+      for (int i = 0; i < count; ++i) {
+         // pilotId or technicianId, planeId, repairCode, date
+         String[] a = unit.get(i).args;
+         people[i] = a[0];
+         planes[i] = a[1];
+         codes[i] = a[2];
+         dates[i] = FeatureCatalog.date(a[3]);
+      }
+      int[] ids = feature == MAINTENANCE_REQUEST
+                  ? AirlineManagement.submitMaintenanceRequests(this._esql, people, planes, codes, dates)
+                  : AirlineManagement.logRepairs(this._esql, people, planes, codes, dates);
+
+      // the ids feature16 and feature19 report
+      List<Object> outcomes = new ArrayList<Object>(count);
+      for (int id : ids) {
+         Map<String, Object> out = new LinkedHashMap<String, Object>();
+         out.put(feature == MAINTENANCE_REQUEST ? "requestId" : "repairId", id);
+         outcomes.add(out);
+      }
+      return outcomes;
+   }//end insert
+
+   private void succeeded(Command command, Object result) {
+      if (this._results == null)
+         return;
+      Map<String, Object> line = new LinkedHashMap<String, Object>();
+      line.put("line", command.line);
+      line.put("feature", command.feature.number);
+      line.put("result", result);
+      writeResult(Json.toJson(line));
+   }
+
+   private void failed(int lineNumber, int feature, String message) {
+      this._errors.incrementAndGet(feature);
+      synchronized (this._errorLines) {
+         if (this._errorLines.size() < MAX_LISTED_ERRORS)
+            this._errorLines.add("line " + lineNumber + (feature == 0 ? "" : ": feature" + feature) + ": " + message);
+      }
+      if (this._results == null)
+         return;
+      Map<String, Object> line = new LinkedHashMap<String, Object>();
+      line.put("line", lineNumber);
+      if (feature != 0)
+         line.put("feature", feature);
+      line.put("error", message);
+      writeResult(Json.toJson(line));
+   }
+
+   private void writeResult(String json) {
+      synchronized (this._results) {
+         try {
+            this._results.write(json);
+            this._results.write('\n');
+         } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+         }
+      }
+   }
+
+   /**
+    * Prints the commands and errors per feature and the throughput.
+    *
+    * @param nanos the time the run took
+    */
+   public void printSummary(long nanos) {
+      long commands = 0;
+      long errors = 0;
+      System.out.printf("%-12s %10s %10s%n", "Feature", "Commands", "Errors");
+      for (int f = 0; f < this._commands.length(); ++f) {
+         long run = this._commands.get(f);
+         long failed = this._errors.get(f);
+         commands += f == 0 ? failed : run;
+         errors += failed;
+         if (run > 0 || failed > 0)
+            System.out.printf("%-12s %10d %10d%n", f == 0 ? "unparsed" : "feature" + f, f == 0 ? failed : run, failed);
+      }
+      System.out.printf("Ran %d commands in %.2f s (%.0f commands/s), %d errors, %d batches%n",
+                        commands, nanos / 1e9, commands * 1e9 / Math.max(1, nanos), errors, this._batches.sum());
+      synchronized (this._errorLines) {
+         for (String line : this._errorLines)
+            System.out.println("   " + line);
+         if (errors > this._errorLines.size())
+            System.out.println("   ... " + (errors - this._errorLines.size()) + " more");
+      }
+   }//end printSummary
+
+   /**
+    * Parses one line of the command file.
+    *
+    * @throws IllegalArgumentException when the line is not a known feature with its arguments
+    */
+   static Command parse(String line, int lineNumber) {
+      String featureName;
+      String[] args;
+      if (line.startsWith("{")) {
+         Map<String, String> fields = parseObject(line);
+         featureName = fields.get("feature");
+         if (featureName == null)
+            throw new IllegalArgumentException("missing \"feature\"");
+         FeatureCatalog.Feature feature = feature(featureName);
+         args = new String[feature.params.length];
+         for (int i = 0; i < args.length; ++i) {
+            args[i] = fields.get(feature.params[i]);
+            if (args[i] == null)
+               throw new IllegalArgumentException("feature" + feature.number + " needs \"" + feature.params[i] + "\"");
+         }
+         return new Command(lineNumber, feature, args);
+      }
+      List<String> tokens = tokenize(line);
+      FeatureCatalog.Feature feature = feature(tokens.get(0));
+      args = tokens.subList(1, tokens.size()).toArray(new String[0]);
+      if (args.length != feature.params.length)
+         throw new IllegalArgumentException("feature" + feature.number + (feature.params.length == 0
+                                            ? " takes no arguments"
+                                            : " takes " + feature.params.length + " argument(s): "
+                                              + String.join(", ", feature.params)));
+      return new Command(lineNumber, feature, args);
+   }//end parse
+
+   private static FeatureCatalog.Feature feature(String name) {
+      String number = name.regionMatches(true, 0, "feature", 0, 7) ? name.substring(7) : name;
+      FeatureCatalog.Feature feature = null;
+      try {
+         feature = FeatureCatalog.get(Integer.parseInt(number.trim()));
+      } catch (NumberFormatException e) {
+         // reported below
+      }
+      if (feature == null)
+         throw new IllegalArgumentException("unknown feature " + name);
+      return feature;
+   }
+
+   /*
+    * Splits a text command on white space; "double quoted" words may hold spaces.
+    */
+   static List<String> tokenize(String line) {
+      List<String> tokens = new ArrayList<String>();
+      int i = 0;
+      while (i < line.length()) {
+         char c = line.charAt(i);
+         if (Character.isWhitespace(c)) {
+            ++i;
+         } else if (c == '"') {
+            int end = line.indexOf('"', i + 1);
+            if (end < 0)
+               throw new IllegalArgumentException("unterminated quote");
+            tokens.add(line.substring(i + 1, end));
+            i = end + 1;
+         } else {
+            int end = i;
+            while (end < line.length() && !Character.isWhitespace(line.charAt(end)))
+               ++end;
+            tokens.add(line.substring(i, end));
+            i = end;
+         }
+      }
+      return tokens;
+   }//end tokenize
+
+   /*
+    * Reads a flat JSON object whose values are strings, numbers, booleans or
+    * null, as the text of each value.
+    */
+   static Map<String, String> parseObject(String json) {
+      Map<String, String> fields = new LinkedHashMap<String, String>();
+      int[] pos = { skip(json, 1) };
+      if (json.charAt(0) != '{')
+         throw new IllegalArgumentException("expected a JSON object");
+      if (pos[0] < json.length() && json.charAt(pos[0]) == '}')
+         return fields;
+      while (true) {
+         String name = string(json, pos);
+         pos[0] = skip(json, pos[0]);
+         expect(json, pos, ':');
+         pos[0] = skip(json, pos[0]);
+         String value;
+         if (pos[0] < json.length() && json.charAt(pos[0]) == '"') {
+            value = string(json, pos);
+         } else {
+            int end = pos[0];
+            while (end < json.length() && ",} \t".indexOf(json.charAt(end)) < 0)
+               ++end;
+            value = json.substring(pos[0], end);
+            pos[0] = end;
+            if (value.isEmpty())
+               throw new IllegalArgumentException("missing value of \"" + name + "\"");
+            if (value.equals("null"))
+               value = null;
+         }
+         fields.put(name, value);
+         pos[0] = skip(json, pos[0]);
+         if (pos[0] < json.length() && json.charAt(pos[0]) == ',') {
+            pos[0] = skip(json, pos[0] + 1);
+            continue;
+         }
+         expect(json, pos, '}');
+         return fields;
+      }
+   }//end parseObject
+
+   private static String string(String json, int[] pos) {
+      expect(json, pos, '"');
+      StringBuilder out = new StringBuilder();
+      while (pos[0] < json.length()) {
+         char c = json.charAt(pos[0]++);
+         if (c == '"')
+            return out.toString();
+         if (c != '\\') {
+            out.append(c);
+            continue;
+         }
+         if (pos[0] >= json.length())
+            break;
+         char e = json.charAt(pos[0]++);
+         switch (e) {
+            case 'n': out.append('\n'); break;
+            case 'r': out.append('\r'); break;
+            case 't': out.append('\t'); break;
+            case 'b': out.append('\b'); break;
+            case 'f': out.append('\f'); break;
+            case 'u':
+               if (pos[0] + 4 > json.length())
+                  throw new IllegalArgumentException("bad \\u escape");
+               out.append((char) Integer.parseInt(json.substring(pos[0], pos[0] + 4), 16));
+               pos[0] += 4;
+               break;
+            default: out.append(e);
+         }
+      }
+      throw new IllegalArgumentException("unterminated string");
+   }
+
+   private static void expect(String json, int[] pos, char c) {
+      if (pos[0] >= json.length() || json.charAt(pos[0]) != c)
+         throw new IllegalArgumentException("expected '" + c + "' at column " + (pos[0] + 1));
+      ++pos[0];
+   }
+
+   private static int skip(String json, int pos) {
+      while (pos < json.length() && Character.isWhitespace(json.charAt(pos)))
+         ++pos;
+      return pos;
+   }
+
+   public static void main(String[] args) {
+      List<String> positional = new ArrayList<String>();
+      int parallelism = 4;
+      int batchSize = 100;
+      String resultsFile = null;
+      for (int i = 0; i < args.length; ++i) {
+         if (args[i].equals("--parallel") && i + 1 < args.length)
+            parallelism = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--batch") && i + 1 < args.length)
+            batchSize = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--results") && i + 1 < args.length)
+            resultsFile = args[++i];
+         else
+            positional.add(args[i]);
+      }
+      if (positional.size() != 4) {
+         System.err.println("Usage: java AirlineManagement batch <dbname> <port> <user> <commandFile> "
+                            + "[--parallel N] [--batch N] [--results file]");
+         return;
+      }
+
+      AirlineManagement esql = null;
+      Writer results = null;
+      try (BufferedReader commands = new BufferedReader(new InputStreamReader(
+              new FileInputStream(positional.get(3)), StandardCharsets.UTF_8), 1 << 16)) {
+         if (resultsFile != null)
+            results = new java.io.BufferedWriter(new OutputStreamWriter(
+               new FileOutputStream(resultsFile), StandardCharsets.UTF_8), 1 << 16);
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(positional.get(0), positional.get(1), positional.get(2), "");
+         BatchRunner runner = new BatchRunner(esql, parallelism, batchSize, results);
+         long start = System.nanoTime();
+         runner.run(commands);
+         runner.printSummary(System.nanoTime() - start);
+      } catch (Exception e) {
+         System.err.println("Error - Batch run failed: " + e.getMessage());
+      } finally {
+         try {
+            if (results != null)
+               results.close();
+         } catch (IOException e) {
+            System.err.println("Error - Unable to write " + resultsFile + ": " + e.getMessage());
+         }
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+}//end BatchRunner
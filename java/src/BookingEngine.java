@@ -0,0 +1,257 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class books seats on flight instances.  The capacity check, the seat
+ * count update and the reservation insert run as one statement, so a booking
+ * costs one round trip and concurrent bookings can never oversell a flight:
+ * the UPDATE of the FlightInstance row takes its row lock, and a booking that
+ * had to wait for that lock re-checks SeatsSold < SeatsTotal against the
+ * committed count before taking the seat.  When no seat is left the
+ * reservation is inserted with status waitlist.  A flight instance marked
+ * Cancelled takes no bookings; the instance row is locked before it is
+ * checked, so a booking that waited for CancellationEngine to mark it sees
+ * the mark.
+ *
+ * Seats sold are reported to the SalesRollup of the instance once the
+ * booking is committed, with the txid of the booking.
+ *
+ * Reservation ids come from a ReservationIdGenerator (node airline.nodeId).
+ * Serialization failures and deadlocks (SQLState 40001, 40P01), as well as a
+ * reservation id that is already taken, are retried with exponential backoff
+ * and jitter up to airline.booking.maxAttempts times (default 8).
+ *
+ * bookBatch() books many seats with one JDBC batch for a scripted workload;
+ * it does not retry, its caller falls back to book() for each seat instead.
+ *
+ * One engine is shared by all callers of an AirlineManagement instance and is
+ * safe to use from many threads; its counters can be read to measure booking
+ * throughput under load.
+ */
+public class BookingEngine {
+
+   /**
+    * The outcome of a booking.
+    */
+   public static class Booking {
+      public final String reservationId;
+      public final int flightInstanceId;
+      public final String status;
+
+      Booking(String reservationId, int flightInstanceId, String status) {
+         this.reservationId = reservationId;
+         this.flightInstanceId = flightInstanceId;
+         this.status = status;
+      }
+
+      public boolean isReserved() {
+         return STATUS_RESERVED.equals(this.status);
+      }
+   }//end Booking
+
+   static final String STATUS_RESERVED = "reserved";
+   static final String STATUS_WAITLIST = "waitlist";
+
+   static final String BOOK_SQL =
+      "WITH target AS ( " +
+      "   SELECT FlightInstanceID FROM FlightInstance " +
+      "   WHERE FlightNumber = ? AND FlightDate = ? AND NOT Cancelled " +
+      "   LIMIT 1 FOR NO KEY UPDATE " +
+      "), seat AS ( " +
+      "   UPDATE FlightInstance fi SET SeatsSold = fi.SeatsSold + 1 " +
+      "   FROM target t " +
+      "   WHERE fi.FlightInstanceID = t.FlightInstanceID AND fi.SeatsSold < fi.SeatsTotal " +
+      "   RETURNING fi.FlightInstanceID " +
+      ") " +
+      "INSERT INTO Reservation (ReservationID, CustomerID, FlightInstanceID, Status) " +
+      "SELECT ?, ?, t.FlightInstanceID, " +
+      "       CASE WHEN EXISTS (SELECT 1 FROM seat) THEN '" + STATUS_RESERVED + "' " +
+      "            ELSE '" + STATUS_WAITLIST + "' END " +
+      "FROM target t " +
+      "RETURNING FlightInstanceID, Status, txid_current()";
+
+   // the booking statement without its RETURNING clause, which a batch cannot return
+   static final String BOOK_BATCH_SQL = BOOK_SQL.substring(0, BOOK_SQL.lastIndexOf("RETURNING"));
+   static final String BOOKED_SQL =
+      "SELECT ReservationID, FlightInstanceID, Status, txid_current() FROM Reservation " +
+      "WHERE ReservationID = ANY (string_to_array(?, ','))";
+
+   private static final int MAX_ATTEMPTS = Integer.getInteger("airline.booking.maxAttempts", 8);
+   private static final long BASE_BACKOFF_MICROS = 200;
+   private static final long MAX_BACKOFF_MICROS = 50000;
+
+   private final AirlineManagement _esql;
+   private final ReservationIdGenerator _ids = new ReservationIdGenerator(Integer.getInteger("airline.nodeId", 0));
+
+   private final LongAdder _reserved = new LongAdder();
+   private final LongAdder _waitlisted = new LongAdder();
+   private final LongAdder _notFound = new LongAdder();
+   private final LongAdder _retries = new LongAdder();
+   private final LongAdder _failures = new LongAdder();
+   private final LongAdder _latencyNanos = new LongAdder();
+
+   public BookingEngine(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Books a seat for the customer on the flight instance, or puts the
+    * customer on its waitlist when the flight is full.
+    *
+    * @param flightNumber the flight number
+    * @param flightDate the date of the flight instance
+    * @param customerId the customer making the reservation
+    * @return the booking, or null when no such flight instance exists or
+    *         it was cancelled
+    * @throws java.sql.SQLException when the booking fails for good
+    */
+   public Booking book(String flightNumber, Date flightDate, int customerId) throws SQLException {
+      long start = System.nanoTime();
+      try {
+         for (int attempt = 1; ; ++attempt) {
+            String reservationId = nextReservationId();
+            try {
+               ColumnarResult result = this._esql.executeQueryAndReturnColumns(
+                  BOOK_SQL, flightNumber, flightDate, reservationId, customerId);
+               if (result.getRowCount() == 0) {
+                  this._notFound.increment();
+                  return null;
+               }
+               Booking booking = new Booking(reservationId, result.getInt(0, 0), result.getString(0, 1));
+               if (booking.isReserved()) {
+                  this._reserved.increment();
+                  this._esql.getSalesRollup().seatsSold(flightNumber, flightDate.toLocalDate(), 1, result.getLong(0, 2));
+               }
+               else {
+                  this._waitlisted.increment();
+               }
+               return booking;
+            } catch (SQLException e) {
+               if (attempt >= MAX_ATTEMPTS || !isRetryable(e)) {
+                  this._failures.increment();
+                  throw e;
+               }
+               this._retries.increment();
+               backoff(attempt);
+            }
+         }
+      } finally {
+         this._latencyNanos.add(System.nanoTime() - start);
+      }
+   }//end book
+
+   /**
+    * Books a seat, or a waitlist place, for each request in one transaction:
+    * the bookings are sent as one JDBC batch, ordered by flight so that
+    * concurrent batches lock the flight instances in the same order, and
+    * their outcome is read back with one query.
+    *
+    * @param flightNumbers the flight number of each booking
+    * @param flightDates the date of each booking
+    * @param customerIds the customer of each booking
+    * @return the bookings in request order, null where no such flight
+    *         instance exists or it was cancelled
+    * @throws java.sql.SQLException when the batch fails; none of it is kept
+    */
+   public Booking[] bookBatch(String[] flightNumbers, Date[] flightDates, int[] customerIds) throws SQLException {
+      long start = System.nanoTime();
+      int count = flightNumbers.length;
+      String[] ids = new String[count];
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; ++i) {
+         ids[i] = nextReservationId();
+         order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparing((Integer i) -> flightNumbers[i]).thenComparing(i -> flightDates[i]));
+      List<Object[]> rows = new ArrayList<Object[]>(count);
+      for (int i : order)
+         rows.add(new Object[] { flightNumbers[i], flightDates[i], ids[i], customerIds[i] });
+
+      ColumnarResult booked = this._esql.executeInTransaction(tx -> {
+         tx.executeBatch(BOOK_BATCH_SQL, rows);
+         return tx.executeQueryAndReturnColumns(BOOKED_SQL, String.join(",", ids));
+      });
+
+      Map<String, Integer> rowOf = new HashMap<String, Integer>();
+      for (int r = 0; r < booked.getRowCount(); ++r)
+         rowOf.put(booked.getString(r, 0).trim(), r);
+      Booking[] bookings = new Booking[count];
+      for (int i = 0; i < count; ++i) {
+         Integer r = rowOf.get(ids[i]);
+         if (r == null) {
+            this._notFound.increment();
+            continue;
+         }
+         bookings[i] = new Booking(ids[i], booked.getInt(r, 1), booked.getString(r, 2));
+         if (bookings[i].isReserved()) {
+            this._reserved.increment();
+            this._esql.getSalesRollup().seatsSold(flightNumbers[i], flightDates[i].toLocalDate(), 1, booked.getLong(r, 3));
+         }
+         else {
+            this._waitlisted.increment();
+         }
+      }
+      // a failed batch is not timed, the bookings are timed when book() makes them
+      this._latencyNanos.add(System.nanoTime() - start);
+      return bookings;
+   }//end bookBatch
+
+   /**
+    * @return a new reservation id
+    */
+   protected String nextReservationId() {
+      return this._ids.next();
+   }
+
+   /*
+    * Serialization failure, deadlock, or a unique violation on the generated
+    * reservation id.
+    */
+   static boolean isRetryable(SQLException e) {
+      String state = e.getSQLState();
+      return "40001".equals(state) || "40P01".equals(state) || "23505".equals(state);
+   }
+
+   /*
+    * Sleeps for a random time up to an exponentially growing bound.
+    */
+   static void backoff(int attempt) throws SQLException {
+      long bound = Math.min(MAX_BACKOFF_MICROS, BASE_BACKOFF_MICROS << Math.min(attempt, 16));
+      long micros = ThreadLocalRandom.current().nextLong(bound / 2, bound + 1);
+      try {
+         Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while retrying a booking");
+      }
+   }
+
+   public long getReservedCount() { return this._reserved.sum(); }
+   public long getWaitlistedCount() { return this._waitlisted.sum(); }
+   public long getNotFoundCount() { return this._notFound.sum(); }
+   public long getRetryCount() { return this._retries.sum(); }
+   public long getFailureCount() { return this._failures.sum(); }
+
+   /**
+    * @return the mean time a call to book() took, retries included, in microseconds
+    */
+   public double getAverageLatencyMicros() {
+      long calls = this._reserved.sum() + this._waitlisted.sum() + this._notFound.sum() + this._failures.sum();
+      return calls == 0 ? 0.0 : this._latencyNanos.sum() / 1e3 / calls;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("reserved=%d waitlisted=%d notFound=%d retries=%d failures=%d avgLatency=%.1fus",
+                           getReservedCount(), getWaitlistedCount(), getNotFoundCount(),
+                           getRetryCount(), getFailureCount(), getAverageLatencyMicros());
+   }
+}//end BookingEngine
@@ -0,0 +1,418 @@
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class measures the latency and throughput of feature1 .. feature19
+ * and of the client side work around every query: turning a result set
+ * into rows (executeQueryAndReturnResult) or columns (ColumnarResult), and
+ * rendering rows with printf, as the menu did, or with TableRenderer.  The
+ * results are written as JSON so runs can be compared from one release to
+ * the next.  Without --out the JSON is all that goes to stdout; everything
+ * else the run prints goes to stderr.
+ *
+ * Usage: java AirlineManagement bench [<dbname> <port> <user>]
+ *           [--time S] [--warmup S] [--threads N] [--writes] [--out file]
+ *
+ * Without a database only the client side benchmarks run.  Features run
+ * through FeatureCatalog with arguments sampled from the data, so the
+ * database should be loaded (BulkLoader) first.  Features 15, 16 and 19
+ * insert rows and only run with --writes.  Features 21, 22 and 23 are never
+ * run: they cancel reservations and flights or overwrite a flight's status,
+ * so after the first call they would measure no-ops on damaged data.
+ *
+ * Each benchmark warms up for --warmup seconds (default 2), then runs for
+ * --time seconds (default 5) on --threads threads (default 1), timing every
+ * operation; latencies are reported in microseconds as the mean, the 50th,
+ * 90th and 99th percentiles and the maximum.  Results are folded into a
+ * volatile field so the JIT cannot discard the work.
+ */
+public class FeatureBenchmark {
+
+   /**
+    * The measurements of one benchmark.
+    */
+   static final class Result {
+      final String name;
+      final long operations;
+      final long errors;
+      final double seconds;
+      final long[] latencies;
+      final String lastError;
+
+      Result(String name, long[] latencies, long errors, double seconds, String lastError) {
+         this.name = name;
+         this.operations = latencies.length;
+         this.errors = errors;
+         this.seconds = seconds;
+         this.latencies = latencies;
+         this.lastError = lastError;
+      }
+
+      Map<String, Object> toMap() {
+         Map<String, Object> out = new LinkedHashMap<String, Object>();
+         out.put("name", this.name);
+         out.put("operations", this.operations);
+         out.put("errors", this.errors);
+         out.put("opsPerSecond", round(this.operations / Math.max(this.seconds, 1e-9)));
+         long sum = 0;
+         for (long nanos : this.latencies)
+            sum += nanos;
+         out.put("meanMicros", round(this.operations == 0 ? 0 : sum / 1e3 / this.operations));
+         out.put("p50Micros", percentile(0.50));
+         out.put("p90Micros", percentile(0.90));
+         out.put("p99Micros", percentile(0.99));
+         out.put("maxMicros", percentile(1.0));
+         if (this.lastError != null)
+            out.put("lastError", this.lastError);
+         return out;
+      }
+
+      private double percentile(double p) {
+         if (this.latencies.length == 0)
+            return 0;
+         int i = (int) Math.ceil(p * this.latencies.length) - 1;
+         return round(this.latencies[Math.max(0, i)] / 1e3);
+      }
+
+      private static double round(double value) {
+         return Math.round(value * 1000) / 1000.0;
+      }
+   }//end Result
+
+   // rows and columns of the synthetic results, shaped like feature5's
+   static final int RESULT_ROWS = Integer.getInteger("airline.bench.resultRows", 1000);
+   private static final String[] RESULT_COLUMNS =
+      { "flightinstanceid", "flightnumber", "flightdate", "departurecity", "arrivalcity", "departedontime", "arrivedontime" };
+   private static final int[] RESULT_TYPES =
+      { Types.INTEGER, Types.VARCHAR, Types.DATE, Types.VARCHAR, Types.VARCHAR, Types.BOOLEAN, Types.BOOLEAN };
+
+   private static volatile long sink;
+
+   private final long _warmupNanos;
+   private final long _timeNanos;
+   private final int _threads;
+
+   FeatureBenchmark(double warmupSeconds, double timeSeconds, int threads) {
+      this._warmupNanos = (long) (warmupSeconds * 1e9);
+      this._timeNanos = (long) (timeSeconds * 1e9);
+      this._threads = threads;
+   }
+
+   /**
+    * Runs the operation on every thread for the warm-up and then the
+    * measured time, timing each call.
+    */
+   Result measure(String name, final Callable<?> operation) throws InterruptedException {
+      System.err.printf("%-32s", name);
+      final long warmupEnd = System.nanoTime() + this._warmupNanos;
+      final AtomicLong errors = new AtomicLong();
+      final String[] lastError = new String[1];
+      final long[][] perThread = new long[this._threads][];
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(this._threads);
+      final long[] window = new long[2];
+      for (int t = 0; t < this._threads; ++t) {
+         final int thread = t;
+         Thread worker = new Thread(() -> {
+            long[] latencies = new long[1024];
+            int count = 0;
+            long folded = 0;
+            try {
+               start.await();
+               while (System.nanoTime() < warmupEnd)
+                  folded += run(operation, null, lastError);
+               long end = System.nanoTime() + this._timeNanos;
+               long now;
+               while ((now = System.nanoTime()) < end) {
+                  folded += run(operation, errors, lastError);
+                  if (count == latencies.length)
+                     latencies = Arrays.copyOf(latencies, count * 2);
+                  latencies[count++] = System.nanoTime() - now;
+               }
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            } finally {
+               perThread[thread] = Arrays.copyOf(latencies, count);
+               sink += folded;
+               done.countDown();
+            }
+         }, "bench-" + t);
+         worker.start();
+      }
+      start.countDown();
+      window[0] = System.nanoTime();
+      done.await();
+      window[1] = System.nanoTime();
+
+      int total = 0;
+      for (long[] latencies : perThread)
+         total += latencies.length;
+      long[] all = new long[total];
+      int pos = 0;
+      for (long[] latencies : perThread) {
+         System.arraycopy(latencies, 0, all, pos, latencies.length);
+         pos += latencies.length;
+      }
+      Arrays.sort(all);
+      double seconds = Math.max(1e-9, (window[1] - window[0] - this._warmupNanos) / 1e9);
+      Result result = new Result(name, all, errors.get(), seconds, lastError[0]);
+      System.err.printf("%10.0f ops/s  p50 %8.1f us  p99 %8.1f us%s%n",
+                        total / seconds, result.percentile(0.5), result.percentile(0.99),
+                        errors.get() > 0 ? "  errors " + errors.get() : "");
+      return result;
+   }//end measure
+
+   private static long run(Callable<?> operation, AtomicLong errors, String[] lastError) {
+      try {
+         Object value = operation.call();
+         return System.identityHashCode(value);
+      } catch (Exception e) {
+         // failures while warming up are not counted
+         if (errors != null) {
+            errors.incrementAndGet();
+            lastError[0] = e.getMessage();
+         }
+         return 0;
+      }
+   }
+
+   /**
+    * Runs feature1 .. feature19 through FeatureCatalog with arguments
+    * sampled from the database.  Features without arguments here are skipped.
+    */
+   List<Result> features(final AirlineManagement esql, boolean writes) throws Exception {
+      ColumnarResult sample = esql.executeQueryAndReturnColumns(QueryPlanCheck.SAMPLE_SQL);
+      if (sample.getRowCount() == 0)
+         throw new IllegalStateException("FlightInstance is empty, load a dataset first");
+      String flight = sample.getString(0, 1).trim();
+      LocalDate day = sample.getDate(0, 2);
+      String date = day.toString();
+      String yearLater = day.plusYears(1).toString();
+      String plane = sample.getString(0, 4).trim();
+      String reservation = text(sample, 5, "R0001");
+      String customer = text(sample, 6, "1");
+      String technician = text(sample, 7, "T001");
+      String pilot = text(sample, 8, "P001");
+      ReferenceCache.Flight route = esql.getReferenceCache().getFlight(flight);
+      String from = route == null ? "" : route.departureCity;
+      String to = route == null ? "" : route.arrivalCity;
+
+      // the arguments of every feature that is benchmarked, by feature number
+      Map<Integer, String[]> args = new HashMap<Integer, String[]>();
+      args.put(1, new String[] {});
+      args.put(2, new String[] { flight });
+      args.put(3, new String[] { flight, date });
+      args.put(4, new String[] { flight, date });
+      args.put(5, new String[] { date });
+      args.put(6, new String[] { flight, date });
+      args.put(7, new String[] { reservation });
+      args.put(8, new String[] { plane });
+      args.put(9, new String[] { technician });
+      args.put(10, new String[] { plane, date, yearLater });
+      args.put(11, new String[] { flight, date, yearLater });
+      args.put(12, new String[] { from, to, date });
+      args.put(13, new String[] { flight });
+      args.put(14, new String[] { flight });
+      args.put(15, new String[] { flight, date, customer });
+      args.put(16, new String[] { pilot, plane, "RC001", date });
+      args.put(17, new String[] { plane, date, yearLater });
+      args.put(18, new String[] { pilot });
+      args.put(19, new String[] { technician, plane, "RC001", date });
+
+      List<Result> results = new ArrayList<Result>();
+      for (final FeatureCatalog.Feature feature : FeatureCatalog.all()) {
+         if (feature.write && !writes)
+            continue;
+         final String[] a = args.get(feature.number);
+         if (a == null) {
+            System.err.printf("%-32s%s%n", "feature" + feature.number, "skipped");
+            continue;
+         }
+         results.add(measure("feature" + feature.number, () -> feature.run(esql, a)));
+      }
+      return results;
+   }//end features
+
+   /**
+    * Measures the client side of a query on a result set held in memory, so
+    * the numbers do not depend on the database.
+    */
+   List<Result> clientSide() throws Exception {
+      final Object[][] rows = syntheticRows(RESULT_ROWS);
+      final List<List<String>> strings = AirlineManagement.readResult(resultSet(rows));
+      final PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream(), false);
+
+      List<Result> results = new ArrayList<Result>();
+      results.add(measure("materialize rows x" + RESULT_ROWS,
+                          () -> AirlineManagement.readResult(resultSet(rows))));
+      results.add(measure("materialize columns x" + RESULT_ROWS,
+                          () -> ColumnarResult.read(resultSet(rows))));
+      results.add(measure("printf render x" + RESULT_ROWS, () -> {
+         nowhere.printf("%-18s%-15s%-15s%-18s%-18s%-18s%-18s\n", "FlightInstanceID", "FlightNumber", "FlightDate",
+                        "DepartureCity", "ArrivalCity", "DepartedOnTime", "ArrivedOnTime");
+         for (List<String> row : strings)
+            nowhere.printf("%-18s%-15s%-15s%-18s%-18s%-18s%-18s\n",
+                           row.get(0), row.get(1), row.get(2), row.get(3), row.get(4), row.get(5), row.get(6));
+         return strings.size();
+      }));
+      final WritableByteChannel discard = Channels.newChannel(OutputStream.nullOutputStream());
+      results.add(measure("table render x" + RESULT_ROWS, () -> {
+         try (TableRenderer table = new TableRenderer("%-18s%-15s%-15s%-18s%-18s%-18s%-18s\n", discard)) {
+            table.header("FlightInstanceID", "FlightNumber", "FlightDate",
+                         "DepartureCity", "ArrivalCity", "DepartedOnTime", "ArrivedOnTime");
+            return table.rows(strings);
+         }
+      }));
+      return results;
+   }//end clientSide
+
+   /*
+    * Rows like the ones feature5 returns, as the driver would hand them out.
+    */
+   static Object[][] syntheticRows(int count) {
+      String[] cities = { "New York", "Miami", "Chicago", "Los Angeles", "Seattle", "Dallas" };
+      Object[][] rows = new Object[count][];
+      LocalDate first = LocalDate.of(2025, 5, 1);
+      for (int r = 0; r < count; ++r)
+         rows[r] = new Object[] {
+            r + 1, "F" + (100 + r % 50), java.sql.Date.valueOf(first.plusDays(r % 60)),
+            cities[r % cities.length], cities[(r + 1) % cities.length], r % 3 != 0, r % 4 != 0
+         };
+      return rows;
+   }
+
+   /*
+    * A forward only result set over the rows, answering the calls the
+    * readers make.
+    */
+   static ResultSet resultSet(final Object[][] rows) {
+      final ResultSetMetaData meta = (ResultSetMetaData) Proxy.newProxyInstance(
+         FeatureBenchmark.class.getClassLoader(), new Class<?>[] { ResultSetMetaData.class },
+         (proxy, method, a) -> {
+            switch (method.getName()) {
+               case "getColumnCount": return RESULT_COLUMNS.length;
+               case "getColumnName":
+               case "getColumnLabel": return RESULT_COLUMNS[(Integer) a[0] - 1];
+               case "getColumnType": return RESULT_TYPES[(Integer) a[0] - 1];
+               default: return method.getReturnType() == int.class ? 0 : null;
+            }
+         });
+      final int[] row = { -1 };
+      return (ResultSet) Proxy.newProxyInstance(
+         FeatureBenchmark.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+         (proxy, method, a) -> {
+            switch (method.getName()) {
+               case "next": return ++row[0] < rows.length;
+               case "getMetaData": return meta;
+               case "getFetchSize": return rows.length;
+               case "wasNull": return false;
+               case "close": return null;
+               case "getString": return String.valueOf(rows[row[0]][(Integer) a[0] - 1]);
+               case "getInt": return (Integer) rows[row[0]][(Integer) a[0] - 1];
+               case "getDate": return rows[row[0]][(Integer) a[0] - 1];
+               case "getBoolean": return rows[row[0]][(Integer) a[0] - 1];
+               default: return method.getReturnType() == boolean.class ? false
+                             : method.getReturnType() == int.class ? 0 : null;
+            }
+         });
+   }//end resultSet
+
+   private static String text(ColumnarResult sample, int col, String otherwise) {
+      return sample.isNull(0, col) ? otherwise : sample.getString(0, col).trim();
+   }
+
+   public static void main(String[] args) {
+      List<String> positional = new ArrayList<String>();
+      double warmup = 2;
+      double time = 5;
+      int threads = 1;
+      boolean writes = false;
+      String out = null;
+      for (int i = 0; i < args.length; ++i) {
+         if (args[i].equals("--time") && i + 1 < args.length)
+            time = Double.parseDouble(args[++i]);
+         else if (args[i].equals("--warmup") && i + 1 < args.length)
+            warmup = Double.parseDouble(args[++i]);
+         else if (args[i].equals("--threads") && i + 1 < args.length)
+            threads = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--writes"))
+            writes = true;
+         else if (args[i].equals("--out") && i + 1 < args.length)
+            out = args[++i];
+         else
+            positional.add(args[i]);
+      }
+      if (positional.size() != 0 && positional.size() != 3) {
+         System.err.println("Usage: java AirlineManagement bench [<dbname> <port> <user>] "
+                            + "[--time S] [--warmup S] [--threads N] [--writes] [--out file]");
+         return;
+      }
+
+      // without --out the report is the only thing on stdout, so it can be
+      // piped; the connection messages go to stderr
+      PrintStream stdout = System.out;
+      if (out == null)
+         System.setOut(System.err);
+
+      FeatureBenchmark bench = new FeatureBenchmark(warmup, time, threads);
+      AirlineManagement esql = null;
+      try {
+         List<Result> results = new ArrayList<Result>(bench.clientSide());
+         if (positional.size() == 3) {
+            Class.forName("org.postgresql.Driver");
+            esql = new AirlineManagement(positional.get(0), positional.get(1), positional.get(2), "");
+            results.addAll(bench.features(esql, writes));
+         }
+
+         Map<String, Object> report = new LinkedHashMap<String, Object>();
+         report.put("timestamp", Instant.now().toString());
+         report.put("javaVersion", System.getProperty("java.version"));
+         report.put("threads", threads);
+         report.put("warmupSeconds", warmup);
+         report.put("timeSeconds", time);
+         List<Map<String, Object>> benchmarks = new ArrayList<Map<String, Object>>();
+         for (Result result : results)
+            benchmarks.add(result.toMap());
+         report.put("benchmarks", benchmarks);
+
+         String json = Json.toJson(report);
+         if (out == null) {
+            stdout.println(json);
+            stdout.flush();
+         } else {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8)) {
+               writer.write(json);
+               writer.write('\n');
+            }
+            System.err.println("Wrote " + out);
+         }
+      } catch (Exception e) {
+         System.err.println("Error - Benchmark failed: " + e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+         System.setOut(stdout);
+      }
+   }//end main
+}//end FeatureBenchmark
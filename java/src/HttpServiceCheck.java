@@ -0,0 +1,224 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class checks AirlineHttpServer against a database.  It starts the
+ * server on a free port of the loopback address and calls it the way a
+ * client would:
+ *
+ *    POST /users creates a Customer without a token, and a Management user
+ *       cannot be created that way (401);
+ *    POST /login answers a token and the role for a user of every role,
+ *       and 401 for a wrong password;
+ *    one feature of every role runs with the token of that role: feature 3
+ *       for Management, 13 for Customer, 16 for Pilot and 17 for Technician;
+ *    a feature called without a token answers 401, and with the token of
+ *       another role 403;
+ *    a token no longer works after POST /logout.
+ *
+ * The users it logs in with are created under random logins and deleted at
+ * the end, as is the maintenance request feature 16 files.  The features
+ * run with a flight instance, plane, pilot and repair code taken from the
+ * data, so a dataset must be loaded.  Every call is printed with its
+ * status; the process exits with status 1 when any call answers otherwise
+ * than expected.
+ *
+ * Usage: java AirlineManagement httpcheck <dbname> <port> <user>
+ */
+public class HttpServiceCheck {
+
+   // one row of data the features are called with
+   static final String SAMPLE_SQL =
+      "SELECT fi.FlightNumber, fi.FlightDate, f.PlaneID, " +
+      "       (SELECT PilotID FROM Pilot LIMIT 1), " +
+      "       (SELECT RepairCode FROM Repair LIMIT 1) " +
+      "FROM FlightInstance fi JOIN Flight f ON f.FlightNumber = fi.FlightNumber " +
+      "LIMIT 1";
+   static final String DELETE_USER_SQL = "DELETE FROM Users WHERE login = ?";
+   static final String DELETE_REQUEST_SQL = "DELETE FROM MaintenanceRequest WHERE RequestID = ?";
+
+   private static final Pattern TOKEN = Pattern.compile("\"token\":\"([0-9a-f]+)\"");
+   private static final Pattern REQUEST_ID = Pattern.compile("\"requestId\":(\\d+)");
+
+   private final AirlineManagement _esql;
+   private final HttpClient _client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+   private final List<String> _failures = new ArrayList<String>();
+   private String _base;
+
+   public HttpServiceCheck(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Runs every call against a server of its own.
+    *
+    * @return the calls that did not answer as expected
+    * @throws java.sql.SQLException when the sample data or the users cannot be read or written
+    * @throws java.io.IOException when the server cannot be started or reached
+    * @throws InterruptedException when interrupted while waiting for an answer
+    */
+   public List<String> check() throws SQLException, IOException, InterruptedException {
+      ColumnarResult sample = this._esql.executeQueryAndReturnColumns(SAMPLE_SQL);
+      if (sample.getRowCount() == 0)
+         throw new SQLException("FlightInstance is empty, load a dataset first");
+      String flight = sample.getString(0, 0);
+      String date = sample.getDate(0, 1).toString();
+      String plane = sample.getString(0, 2);
+      String pilot = sample.isNull(0, 3) ? "P001" : sample.getString(0, 3);
+      String repairCode = sample.isNull(0, 4) ? "RC001" : sample.getString(0, 4);
+
+      String suffix = Long.toHexString(new SecureRandom().nextLong() & Long.MAX_VALUE);
+      String password = "pw" + suffix;
+      Map<String, String> logins = new LinkedHashMap<String, String>();
+      for (String role : new String[] { FeatureCatalog.MANAGEMENT, FeatureCatalog.CUSTOMER,
+                                        FeatureCatalog.PILOT, FeatureCatalog.TECHNICIAN })
+         logins.put(role, "httpcheck_" + role.toLowerCase(Locale.ROOT) + "_" + suffix);
+
+      AirlineHttpServer server = new AirlineHttpServer(this._esql, 0);
+      server.start();
+      this._base = "http://" + AirlineHttpServer.HOST + ":" + server.getPort();
+      String requestId = null;
+      try {
+         // the customer signs up over HTTP, the other roles are set up directly
+         expect("POST /users Customer", 200,
+                post("/users", null, "login", logins.get(FeatureCatalog.CUSTOMER), "password", password));
+         expect("POST /users Management without token", 401,
+                post("/users", null, "login", "httpcheck_denied_" + suffix, "password", password,
+                     "role", FeatureCatalog.MANAGEMENT));
+         for (Map.Entry<String, String> login : logins.entrySet())
+            if (!login.getKey().equals(FeatureCatalog.CUSTOMER))
+               AirlineManagement.createUser(this._esql, login.getValue(), password, login.getKey());
+
+         Map<String, String> tokens = new LinkedHashMap<String, String>();
+         for (Map.Entry<String, String> login : logins.entrySet()) {
+            HttpResponse<String> response = post("/login", null, "login", login.getValue(), "password", password);
+            expect("POST /login " + login.getKey(), 200, response);
+            Matcher token = TOKEN.matcher(response.body());
+            if (token.find() && response.body().contains("\"role\":\"" + login.getKey() + "\""))
+               tokens.put(login.getKey(), token.group(1));
+            else
+               this._failures.add("POST /login " + login.getKey() + ": no token or wrong role in " + response.body());
+         }
+         expect("POST /login wrong password", 401,
+                post("/login", null, "login", logins.get(FeatureCatalog.CUSTOMER), "password", password + "x"));
+         if (tokens.size() < logins.size())
+            return this._failures;
+
+         expect("GET /features/3 Management", 200,
+                get("/features/3", tokens.get(FeatureCatalog.MANAGEMENT), "flightNumber", flight, "date", date));
+         expect("GET /features/13 Customer", 200,
+                get("/features/13", tokens.get(FeatureCatalog.CUSTOMER), "flightNumber", flight));
+         HttpResponse<String> filed = post("/features/16", tokens.get(FeatureCatalog.PILOT),
+                                           "pilotId", pilot, "planeId", plane, "repairCode", repairCode, "date", date);
+         expect("POST /features/16 Pilot", 200, filed);
+         Matcher id = REQUEST_ID.matcher(filed.body());
+         if (id.find())
+            requestId = id.group(1);
+         expect("GET /features/17 Technician", 200,
+                get("/features/17", tokens.get(FeatureCatalog.TECHNICIAN), "planeId", plane,
+                    "startDate", date, "endDate", date));
+
+         expect("GET /features/13 without token", 401, get("/features/13", null, "flightNumber", flight));
+         expect("GET /features/13 Technician", 403,
+                get("/features/13", tokens.get(FeatureCatalog.TECHNICIAN), "flightNumber", flight));
+         expect("POST /features/16 Customer", 403,
+                post("/features/16", tokens.get(FeatureCatalog.CUSTOMER), "pilotId", pilot, "planeId", plane,
+                     "repairCode", repairCode, "date", date));
+
+         expect("POST /logout Customer", 200, post("/logout", tokens.get(FeatureCatalog.CUSTOMER)));
+         expect("GET /features/13 after logout", 401,
+                get("/features/13", tokens.get(FeatureCatalog.CUSTOMER), "flightNumber", flight));
+         return this._failures;
+      } finally {
+         server.stop(0);
+         if (requestId != null)
+            this._esql.executeUpdate(DELETE_REQUEST_SQL, Integer.valueOf(requestId));
+         for (String login : logins.values())
+            this._esql.executeUpdate(DELETE_USER_SQL, login);
+         this._esql.executeUpdate(DELETE_USER_SQL, "httpcheck_denied_" + suffix);
+      }
+   }//end check
+
+   private void expect(String call, int status, HttpResponse<String> response) {
+      boolean ok = response.statusCode() == status;
+      System.out.printf("%-40s %d %s%n", call, response.statusCode(), ok ? "ok" : "expected " + status);
+      if (!ok)
+         this._failures.add(call + ": " + response.statusCode() + " " + response.body());
+   }
+
+   private HttpResponse<String> get(String path, String token, String... params)
+         throws IOException, InterruptedException {
+      return send(HttpRequest.newBuilder(URI.create(this._base + path + "?" + form(params))).GET(), token);
+   }
+
+   private HttpResponse<String> post(String path, String token, String... params)
+         throws IOException, InterruptedException {
+      return send(HttpRequest.newBuilder(URI.create(this._base + path))
+                     .header("Content-Type", "application/x-www-form-urlencoded")
+                     .POST(HttpRequest.BodyPublishers.ofString(form(params))), token);
+   }
+
+   private HttpResponse<String> send(HttpRequest.Builder request, String token)
+         throws IOException, InterruptedException {
+      if (token != null)
+         request.header("Authorization", "Bearer " + token);
+      return this._client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+   }
+
+   /*
+    * The name/value pairs form encoded.
+    */
+   private static String form(String... params) {
+      StringBuilder out = new StringBuilder();
+      for (int i = 0; i + 1 < params.length; i += 2) {
+         if (out.length() > 0)
+            out.append('&');
+         out.append(URLEncoder.encode(params[i], StandardCharsets.UTF_8)).append('=')
+            .append(URLEncoder.encode(params[i + 1], StandardCharsets.UTF_8));
+      }
+      return out.toString();
+   }
+
+   public static void main(String[] args) {
+      if (args.length != 3) {
+         System.err.println("Usage: java AirlineManagement httpcheck <dbname> <port> <user>");
+         System.exit(2);
+      }
+      AirlineManagement esql = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(args[0], args[1], args[2], "");
+         List<String> failures = new HttpServiceCheck(esql).check();
+         if (failures.isEmpty()) {
+            System.out.println("Every call answered as expected");
+         } else {
+            System.out.println("Calls that did not answer as expected:");
+            for (String failure : failures)
+               System.out.println("   " + failure);
+            status = 1;
+         }
+      } catch (Exception e) {
+         System.err.println("Error - HTTP check failed: " + e.getMessage());
+         status = 2;
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+      System.exit(status);
+   }//end main
+}//end HttpServiceCheck
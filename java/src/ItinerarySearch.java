@@ -0,0 +1,310 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class finds itineraries of one or more flights between two cities,
+ * for customers whose cities no single flight connects.  Flights are the
+ * edges of a graph whose nodes are cities; RouteIndex keeps its adjacency
+ * list (the entries leaving each city, with their times and days of the
+ * week), so a search does no database work apart from reading the fares
+ * once in a while.
+ *
+ * An itinerary starts on the travel date.  Each further leg must leave at
+ * least airline.itinerary.minConnection minutes (default 45) after the
+ * previous one lands and at most airline.itinerary.maxLayover minutes
+ * (default 1440) after it, possibly on a later day, and on a day of the week
+ * its schedule has.  A flight landing before it departs lands the next day.
+ * No city is visited twice and at most airline.itinerary.maxLegs flights
+ * (default 3) are taken.
+ *
+ * The search is best first on the ranking, total duration or total fare,
+ * both of which only grow as legs are added; the first k itineraries to
+ * reach the destination are therefore the k best.  A partial itinerary is
+ * dropped only when k others already expanded dominate it: they land in the
+ * same city at the same minute, so every connection it could make they can
+ * make too, rank no worse, took no more legs and visited no city it did not.
+ * Each of them continues into an itinerary at least as good as any it could
+ * give, so dropping it loses nothing from the k best.  Arrivals that differ
+ * do not dominate each other, even when one is earlier, since the layover
+ * is bounded on both sides and an earlier arrival can miss a connection a
+ * later one makes.  This mostly collapses the many routes that feed into
+ * the same flight, which is what makes a search grow.
+ *
+ * Fares are the average TicketCost of each flight over its instances,
+ * reloaded after airline.cache.ttl seconds; a flight without instances
+ * cannot be booked and is left out.
+ */
+public class ItinerarySearch {
+
+   /**
+    * How itineraries are ranked.
+    */
+   public enum Rank { DURATION, COST }
+
+   /**
+    * One flight of an itinerary.
+    */
+   public static final class Leg {
+      public final RouteIndex.Entry flight;
+      public final LocalDate date;
+      // minutes from midnight of the travel date
+      public final int departs;
+      public final int arrives;
+      public final double fare;
+
+      Leg(RouteIndex.Entry flight, LocalDate date, int departs, int arrives, double fare) {
+         this.flight = flight;
+         this.date = date;
+         this.departs = departs;
+         this.arrives = arrives;
+         this.fare = fare;
+      }
+   }//end Leg
+
+   /**
+    * A sequence of connecting flights.
+    */
+   public static final class Itinerary {
+      public final List<Leg> legs;
+      public final int durationMinutes;
+      public final double totalFare;
+
+      Itinerary(List<Leg> legs) {
+         this.legs = Collections.unmodifiableList(legs);
+         this.durationMinutes = legs.get(legs.size() - 1).arrives - legs.get(0).departs;
+         double fare = 0;
+         for (Leg leg : legs)
+            fare += leg.fare;
+         this.totalFare = fare;
+      }
+
+      /**
+       * @return the flights as "F100 New York 13:00 -> Miami 16:00 (2025-05-05)", joined by " | "
+       */
+      public String describe() {
+         StringBuilder out = new StringBuilder();
+         for (Leg leg : this.legs) {
+            if (out.length() > 0)
+               out.append(" | ");
+            out.append(leg.flight.flightNumber).append(' ')
+               .append(leg.flight.departureCity).append(' ').append(leg.flight.departureTime).append(" -> ")
+               .append(leg.flight.arrivalCity).append(' ').append(leg.flight.arrivalTime)
+               .append(" (").append(leg.date).append(')');
+         }
+         return out.toString();
+      }
+   }//end Itinerary
+
+   static final String FARES_SQL =
+      "SELECT FlightNumber, AVG(TicketCost) FROM FlightInstance GROUP BY FlightNumber";
+
+   static final int MIN_CONNECTION = Integer.getInteger("airline.itinerary.minConnection", 45);
+   static final int MAX_LAYOVER = Integer.getInteger("airline.itinerary.maxLayover", 1440);
+   static final int MAX_LEGS = Integer.getInteger("airline.itinerary.maxLegs", 3);
+
+   private static final int DAY = 24 * 60;
+
+   /*
+    * A partial itinerary, linked back to its first leg.
+    */
+   private static final class Label implements Comparable<Label> {
+      final Label previous;
+      final Leg leg;
+      final int legs;
+      final double rank;
+
+      Label(Label previous, Leg leg, Rank by) {
+         this.previous = previous;
+         this.leg = leg;
+         this.legs = previous == null ? 1 : previous.legs + 1;
+         double fare = (previous == null ? 0 : previous.fareSoFar()) + leg.fare;
+         this.rank = by == Rank.COST ? fare : leg.arrives - first().departs;
+      }
+
+      Leg first() {
+         Label label = this;
+         while (label.previous != null)
+            label = label.previous;
+         return label.leg;
+      }
+
+      double fareSoFar() {
+         double fare = 0;
+         for (Label label = this; label != null; label = label.previous)
+            fare += label.leg.fare;
+         return fare;
+      }
+
+      boolean visited(String cityKey) {
+         for (Label label = this; label != null; label = label.previous)
+            if (key(label.leg.flight.departureCity).equals(cityKey))
+               return true;
+         return false;
+      }
+
+      /*
+       * Whether every continuation of other is open to this label and ends
+       * no better: same city and minute, rank and legs no higher, and no
+       * city visited that other did not visit.
+       */
+      boolean dominates(Label other) {
+         if (this.leg.arrives != other.leg.arrives || this.rank > other.rank || this.legs > other.legs)
+            return false;
+         for (Label label = this; label != null; label = label.previous)
+            if (!other.visited(key(label.leg.flight.departureCity)))
+               return false;
+         return true;
+      }
+
+      List<Leg> legs() {
+         List<Leg> legs = new ArrayList<Leg>(this.legs);
+         for (Label label = this; label != null; label = label.previous)
+            legs.add(0, label.leg);
+         return legs;
+      }
+
+      @Override
+      public int compareTo(Label other) {
+         int c = Double.compare(this.rank, other.rank);
+         return c != 0 ? c : Integer.compare(this.leg.arrives, other.leg.arrives);
+      }
+   }//end Label
+
+   private final AirlineManagement _esql;
+   private final long _faresTtlNanos = TimeUnit.SECONDS.toNanos(Long.getLong("airline.cache.ttl", 300));
+   private volatile Map<String, Double> _fares;
+   private volatile long _faresLoadedAt;
+
+   public ItinerarySearch(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Finds the best itineraries between two cities leaving on a date.
+    *
+    * @param from the departure city, in any case
+    * @param to the arrival city, in any case
+    * @param date the travel date; the first flight leaves that day
+    * @param by the ranking
+    * @param k the number of itineraries wanted
+    * @return at most k itineraries, best first
+    * @throws java.sql.SQLException when the routes or fares cannot be read
+    */
+   public List<Itinerary> search(String from, String to, LocalDate date, Rank by, int k) throws SQLException {
+      RouteIndex routes = this._esql.getRouteIndex();
+      Map<String, Double> fares = fares();
+      String target = key(to);
+      List<Itinerary> found = new ArrayList<Itinerary>(k);
+      if (k <= 0 || key(from).equals(target))
+         return found;
+
+      PriorityQueue<Label> queue = new PriorityQueue<Label>();
+      // the labels expanded, by city and minute of arrival
+      Map<String, List<Label>> expanded = new HashMap<String, List<Label>>();
+
+      // first legs: flights leaving on the travel date
+      for (RouteIndex.Entry entry : routes.departuresFrom(from)) {
+         Leg leg = leg(entry, date, 0, 0, fares);
+         if (leg != null)
+            queue.add(new Label(null, leg, by));
+      }
+
+      while (!queue.isEmpty() && found.size() < k) {
+         Label label = queue.poll();
+         String city = key(label.leg.flight.arrivalCity);
+         if (city.equals(target)) {
+            found.add(new Itinerary(label.legs()));
+            continue;
+         }
+         if (label.legs >= MAX_LEGS)
+            continue;
+         // dropped when k expanded labels reach every itinerary it could, at least as well
+         List<Label> seen = expanded.computeIfAbsent(city + '\n' + label.leg.arrives, c -> new ArrayList<Label>());
+         if (dominated(label, seen, k))
+            continue;
+         seen.add(label);
+
+         int earliest = label.leg.arrives + MIN_CONNECTION;
+         int latest = label.leg.arrives + MAX_LAYOVER;
+         for (RouteIndex.Entry entry : routes.departuresFrom(city)) {
+            if (label.visited(key(entry.arrivalCity)))
+               continue;
+            Leg leg = leg(entry, date, earliest, latest, fares);
+            if (leg != null)
+               queue.add(new Label(label, leg, by));
+         }
+      }
+      return found;
+   }//end search
+
+   private static boolean dominated(Label label, List<Label> expanded, int k) {
+      int dominating = 0;
+      for (Label other : expanded)
+         if (other.dominates(label) && ++dominating >= k)
+            return true;
+      return false;
+   }
+
+   /*
+    * The first departure of the entry between earliest and latest (minutes
+    * from midnight of the travel date), or null when it has none.  With
+    * latest 0 only a departure on the travel date itself is taken.
+    */
+   private static Leg leg(RouteIndex.Entry entry, LocalDate date, int earliest, int latest,
+                          Map<String, Double> fares) {
+      if (entry.departureMinute < 0 || entry.arrivalMinute < 0)
+         return null;
+      Double fare = fares.get(entry.flightNumber.trim());
+      if (fare == null)
+         return null;
+      int firstDay = Math.floorDiv(earliest, DAY);
+      int lastDay = latest == 0 ? 0 : Math.floorDiv(latest, DAY);
+      for (int day = firstDay; day <= lastDay; ++day) {
+         int departs = day * DAY + entry.departureMinute;
+         if (departs < earliest || (latest != 0 && departs > latest))
+            continue;
+         LocalDate legDate = date.plusDays(day);
+         if (!entry.fliesOn(legDate.getDayOfWeek()))
+            continue;
+         int arrives = day * DAY + entry.arrivalMinute;
+         if (entry.arrivalMinute < entry.departureMinute)
+            arrives += DAY;
+         return new Leg(entry, legDate, departs, arrives, fare);
+      }
+      return null;
+   }//end leg
+
+   /*
+    * The average fare of each flight, reloaded once it is older than the
+    * reference cache time to live.
+    */
+   private Map<String, Double> fares() throws SQLException {
+      Map<String, Double> fares = this._fares;
+      if (fares != null && (this._faresTtlNanos <= 0 || System.nanoTime() - this._faresLoadedAt < this._faresTtlNanos))
+         return fares;
+      synchronized (this) {
+         if (this._fares == fares) {
+            ColumnarResult rows = this._esql.executeQueryAndReturnColumns(FARES_SQL);
+            Map<String, Double> loaded = new HashMap<String, Double>(rows.getRowCount() * 2);
+            for (int r = 0; r < rows.getRowCount(); ++r)
+               if (!rows.isNull(r, 0) && !rows.isNull(r, 1))
+                  loaded.put(rows.getString(r, 0).trim(), rows.getDouble(r, 1));
+            this._fares = loaded;
+            this._faresLoadedAt = System.nanoTime();
+         }
+         return this._fares;
+      }
+   }//end fares
+
+   private static String key(String city) {
+      return city == null ? "" : city.trim().toLowerCase(Locale.ROOT);
+   }
+}//end ItinerarySearch
@@ -0,0 +1,483 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps the on-time record of every flight, so feature12 can
+ * show on-time percentages without averaging the whole FlightInstance
+ * history on each search.
+ *
+ * The record is kept per flight, number of stops and flight date in the
+ * summary table FlightOnTimeDaily (instances, departed on time, arrived on
+ * time), and mirrored in memory.  In memory each (flight, stops) pair has
+ * running totals over its whole history and over the last 30 and 90 days,
+ * so reading them costs the same however long the history is; the window
+ * totals are recomputed from the daily buckets once per calendar day.
+ *
+ * The trigger flightinstance_ontime keeps the summary table up to date
+ * with every insert, delete and status change of FlightInstance, whoever
+ * makes it: this process, another one, or a COPY of BulkLoader.  Schema
+ * version 4 installs it (java AirlineManagement migrate); a search does not,
+ * since that takes DDL rights and locks FlightInstance against bookings.
+ * Until it is installed the record of a flight is aggregated from
+ * FlightInstance on each read, and the trigger is looked for again once
+ * airline.ontime.ttl seconds have passed.  A TRUNCATE fires no row trigger,
+ * so code that truncates FlightInstance calls rebuild() after it.
+ *
+ * The in-memory totals are read from the summary table on first use and
+ * again, in the background, once they are older than airline.ontime.ttl
+ * seconds (default 60, 0 turns it off).  updateStatus(), the status change
+ * of feature23, applies its bucket at once; a bucket applied while a
+ * reload runs is applied to the reload too, unless its snapshot already
+ * saw the change (see TxnSnapshot).
+ *
+ * A NULL NumOfStops is counted as 0 stops; a NULL status counts as not on
+ * time, as AVG(CASE WHEN ... THEN 1 ELSE 0 END) did.
+ */
+public class OnTimeStats {
+
+   /**
+    * The on-time record of a flight with a given number of stops.
+    */
+   public static final class Summary {
+      public final int numOfStops;
+      public final long instances;
+      public final long departedOnTime;
+      public final long arrivedOnTime;
+
+      Summary(int numOfStops, long instances, long departedOnTime, long arrivedOnTime) {
+         this.numOfStops = numOfStops;
+         this.instances = instances;
+         this.departedOnTime = departedOnTime;
+         this.arrivedOnTime = arrivedOnTime;
+      }
+
+      /**
+       * @return the percentage of instances that departed on time, rounded to 2 places
+       */
+      public BigDecimal getDeparturePercentage() {
+         return percentage(this.departedOnTime, this.instances);
+      }
+
+      /**
+       * @return the percentage of instances that arrived on time, rounded to 2 places
+       */
+      public BigDecimal getArrivalPercentage() {
+         return percentage(this.arrivedOnTime, this.instances);
+      }
+
+      private static BigDecimal percentage(long count, long total) {
+         if (total == 0)
+            return null;
+         return BigDecimal.valueOf(count * 100).divide(BigDecimal.valueOf(total), 2, RoundingMode.HALF_UP);
+      }
+   }//end Summary
+
+   static final String CREATE_SQL =
+      "CREATE TABLE IF NOT EXISTS FlightOnTimeDaily ( " +
+      "   FlightNumber TEXT NOT NULL, " +
+      "   FlightDate DATE NOT NULL, " +
+      "   NumOfStops INTEGER NOT NULL, " +
+      "   Instances INTEGER NOT NULL, " +
+      "   DepartedOnTime INTEGER NOT NULL, " +
+      "   ArrivedOnTime INTEGER NOT NULL, " +
+      "   PRIMARY KEY (FlightNumber, FlightDate, NumOfStops) " +
+      ")";
+
+   // the aggregate of FlightInstance the summary holds
+   private static final String AGGREGATE =
+      "SELECT FlightNumber, FlightDate, COALESCE(NumOfStops, 0), COUNT(*), " +
+      "       SUM(CASE WHEN DepartedOnTime THEN 1 ELSE 0 END), " +
+      "       SUM(CASE WHEN ArrivedOnTime THEN 1 ELSE 0 END) " +
+      "FROM FlightInstance ";
+
+   static final String REBUILD_DELETE_SQL = "DELETE FROM FlightOnTimeDaily";
+   static final String REBUILD_INSERT_SQL =
+      "INSERT INTO FlightOnTimeDaily " + AGGREGATE +
+      "WHERE FlightNumber IS NOT NULL AND FlightDate IS NOT NULL " +
+      "GROUP BY FlightNumber, FlightDate, COALESCE(NumOfStops, 0)";
+
+   // moves an instance out of its old bucket and into its new one
+   static final String TRIGGER_FUNCTION_SQL =
+      "CREATE OR REPLACE FUNCTION flightontimedaily_count() RETURNS trigger AS $$ " +
+      "BEGIN " +
+      "   IF TG_OP IN ('UPDATE', 'DELETE') THEN " +
+      "      UPDATE FlightOnTimeDaily SET Instances = Instances - 1, " +
+      "             DepartedOnTime = DepartedOnTime - CASE WHEN OLD.DepartedOnTime THEN 1 ELSE 0 END, " +
+      "             ArrivedOnTime = ArrivedOnTime - CASE WHEN OLD.ArrivedOnTime THEN 1 ELSE 0 END " +
+      "      WHERE FlightNumber = OLD.FlightNumber AND FlightDate = OLD.FlightDate " +
+      "        AND NumOfStops = COALESCE(OLD.NumOfStops, 0); " +
+      "   END IF; " +
+      "   IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.FlightNumber IS NOT NULL AND NEW.FlightDate IS NOT NULL THEN " +
+      "      INSERT INTO FlightOnTimeDaily " +
+      "      VALUES (NEW.FlightNumber, NEW.FlightDate, COALESCE(NEW.NumOfStops, 0), 1, " +
+      "              CASE WHEN NEW.DepartedOnTime THEN 1 ELSE 0 END, " +
+      "              CASE WHEN NEW.ArrivedOnTime THEN 1 ELSE 0 END) " +
+      "      ON CONFLICT (FlightNumber, FlightDate, NumOfStops) DO UPDATE " +
+      "      SET Instances = FlightOnTimeDaily.Instances + 1, " +
+      "          DepartedOnTime = FlightOnTimeDaily.DepartedOnTime + EXCLUDED.DepartedOnTime, " +
+      "          ArrivedOnTime = FlightOnTimeDaily.ArrivedOnTime + EXCLUDED.ArrivedOnTime; " +
+      "   END IF; " +
+      "   RETURN NULL; " +
+      "END $$ LANGUAGE plpgsql";
+   static final String DROP_TRIGGER_SQL =
+      "DROP TRIGGER IF EXISTS flightinstance_ontime ON FlightInstance";
+   // SeatsSold is left out, so bookings do not fire it
+   static final String CREATE_TRIGGER_SQL =
+      "CREATE TRIGGER flightinstance_ontime " +
+      "AFTER INSERT OR DELETE OR UPDATE OF FlightNumber, FlightDate, NumOfStops, DepartedOnTime, ArrivedOnTime " +
+      "ON FlightInstance FOR EACH ROW EXECUTE FUNCTION flightontimedaily_count()";
+   static final String TRIGGER_EXISTS_SQL =
+      "SELECT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'flightinstance_ontime' " +
+      "               AND tgrelid = 'flightinstance'::regclass)";
+   // keeps FlightInstance still while the summary is filled
+   static final String LOCK_INSTANCES_SQL =
+      "LOCK TABLE FlightInstance IN SHARE ROW EXCLUSIVE MODE";
+
+   /**
+    * Creates the summary table and its trigger and fills the table from
+    * FlightInstance, in one transaction.
+    */
+   static final String[] INSTALL_SQL = {
+      CREATE_SQL,
+      LOCK_INSTANCES_SQL,
+      TRIGGER_FUNCTION_SQL,
+      DROP_TRIGGER_SQL,
+      CREATE_TRIGGER_SQL,
+      REBUILD_DELETE_SQL,
+      REBUILD_INSERT_SQL,
+   };
+
+   // the record of one flight, read from FlightInstance while the trigger is missing
+   static final String FLIGHT_SQL =
+      "SELECT COALESCE(NumOfStops, 0), COUNT(*), " +
+      "       SUM(CASE WHEN DepartedOnTime THEN 1 ELSE 0 END), " +
+      "       SUM(CASE WHEN ArrivedOnTime THEN 1 ELSE 0 END) " +
+      "FROM FlightInstance " +
+      "WHERE FlightNumber = ? AND FlightDate IS NOT NULL ";
+   static final String FLIGHT_OVERALL_SQL =
+      FLIGHT_SQL + "GROUP BY COALESCE(NumOfStops, 0) ORDER BY 1";
+   static final String FLIGHT_WINDOW_SQL =
+      FLIGHT_SQL + "AND FlightDate > ? AND FlightDate <= ? GROUP BY COALESCE(NumOfStops, 0) ORDER BY 1";
+   static final String UPDATE_STATUS_SQL =
+      "UPDATE FlightInstance SET DepartedOnTime = ?, ArrivedOnTime = ? WHERE FlightInstanceID = ?";
+
+   static final String LOAD_SQL =
+      "SELECT FlightNumber, FlightDate, NumOfStops, Instances, DepartedOnTime, ArrivedOnTime " +
+      "FROM FlightOnTimeDaily";
+
+   // the trigger moves the instance between buckets
+   static final String UPDATE_INSTANCE_SQL =
+      "UPDATE FlightInstance SET DepartedOnTime = ?, ArrivedOnTime = ? WHERE FlightInstanceID = ? " +
+      "RETURNING FlightNumber, FlightDate, COALESCE(NumOfStops, 0)";
+   static final String BUCKET_SQL =
+      "SELECT Instances, DepartedOnTime, ArrivedOnTime, txid_current() FROM FlightOnTimeDaily " +
+      "WHERE FlightNumber = ? AND FlightDate = ? AND NumOfStops = ?";
+
+   static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("airline.ontime.ttl", 60));
+
+   // the rolling windows kept up to date, in days
+   static final int[] WINDOWS = { 30, 90 };
+
+   /*
+    * The record of one flight with one number of stops.  Guarded by itself.
+    */
+   private static final class Counter {
+      final long[] total = new long[3];
+      final TreeMap<Long, long[]> days = new TreeMap<Long, long[]>();
+      final long[][] windows = new long[WINDOWS.length][3];
+      long windowsDay = Long.MIN_VALUE;
+
+      /*
+       * Replaces the bucket of a day and returns the previous one.
+       */
+      long[] put(long day, long[] bucket) {
+         long[] old = bucket[0] == 0 ? this.days.remove(day) : this.days.put(day, bucket);
+         for (int i = 0; i < 3; ++i)
+            this.total[i] += bucket[i] - (old == null ? 0 : old[i]);
+         this.windowsDay = Long.MIN_VALUE;
+         return old;
+      }
+
+      long[] window(int w, long today) {
+         if (this.windowsDay != today) {
+            for (int i = 0; i < WINDOWS.length; ++i) {
+               long[] sums = this.windows[i];
+               sums[0] = sums[1] = sums[2] = 0;
+               for (long[] bucket : this.days.subMap(today - WINDOWS[i], false, today, true).values())
+                  for (int j = 0; j < 3; ++j)
+                     sums[j] += bucket[j];
+            }
+            this.windowsDay = today;
+         }
+         return this.windows[w];
+      }
+   }//end Counter
+
+   /*
+    * A daily bucket applied in memory, with the transaction that wrote it.
+    */
+   private static final class Bucket {
+      final String flightNumber;
+      final int stops;
+      final long day;
+      final long[] counts;
+      final long txid;
+
+      Bucket(String flightNumber, int stops, long day, long[] counts, long txid) {
+         this.flightNumber = flightNumber;
+         this.stops = stops;
+         this.day = day;
+         this.counts = counts;
+         this.txid = txid;
+      }
+   }//end Bucket
+
+   // an instance without flight number or date, which the summary leaves out
+   private static final Bucket NOT_COUNTED = new Bucket(null, 0, 0, null, 0);
+
+   private final AirlineManagement _esql;
+   private final Object _loadLock = new Object();
+   private final BackgroundReloader _reloader = new BackgroundReloader(TTL_NANOS, this::reload);
+   private volatile Map<String, TreeMap<Integer, Counter>> _flights;
+   private volatile long _loadedAt;
+   // when the trigger was last found missing, 0 when it was not
+   private volatile long _missingAt;
+
+   // buckets applied while a load runs, null when none runs; guarded by _pendingLock
+   private final Object _pendingLock = new Object();
+   private List<Bucket> _pending;
+
+   public OnTimeStats(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @return the record of the flight over its whole history, one summary
+    *         per number of stops in increasing order, empty for a flight
+    *         without instances
+    * @throws java.sql.SQLException when the summary cannot be loaded
+    */
+   public List<Summary> getOverall(String flightNumber) throws SQLException {
+      return summaries(flightNumber, -1);
+   }
+
+   /**
+    * @param days 30 or 90
+    * @return the record of the flight over the last days up to today, one
+    *         summary per number of stops with instances in that window
+    * @throws java.sql.SQLException when the summary cannot be loaded
+    */
+   public List<Summary> getLastDays(String flightNumber, int days) throws SQLException {
+      for (int w = 0; w < WINDOWS.length; ++w)
+         if (WINDOWS[w] == days)
+            return summaries(flightNumber, w);
+      throw new IllegalArgumentException("on-time windows are " + WINDOWS[0] + " and " + WINDOWS[1] + " days");
+   }
+
+   private List<Summary> summaries(String flightNumber, int window) throws SQLException {
+      Map<String, TreeMap<Integer, Counter>> flights = flights();
+      if (flights == null)
+         return aggregate(flightNumber, window);
+      TreeMap<Integer, Counter> byStops = flights.get(key(flightNumber));
+      if (byStops == null)
+         return Collections.emptyList();
+      long today = LocalDate.now().toEpochDay();
+      List<Summary> summaries = new ArrayList<Summary>(1);
+      synchronized (byStops) {
+         for (Map.Entry<Integer, Counter> entry : byStops.entrySet()) {
+            long[] sums = window < 0 ? entry.getValue().total : entry.getValue().window(window, today);
+            if (sums[0] > 0)
+               summaries.add(new Summary(entry.getKey(), sums[0], sums[1], sums[2]));
+         }
+      }
+      return summaries;
+   }
+
+   /*
+    * The summaries of a flight aggregated from FlightInstance, for a
+    * database without the summary table.
+    */
+   private List<Summary> aggregate(String flightNumber, int window) throws SQLException {
+      LocalDate today = LocalDate.now();
+      ColumnarResult rows = window < 0
+         ? this._esql.executeQueryAndReturnColumns(FLIGHT_OVERALL_SQL, key(flightNumber))
+         : this._esql.executeQueryAndReturnColumns(FLIGHT_WINDOW_SQL, key(flightNumber),
+                                                   Date.valueOf(today.minusDays(WINDOWS[window])), Date.valueOf(today));
+      List<Summary> summaries = new ArrayList<Summary>(rows.getRowCount());
+      for (int r = 0; r < rows.getRowCount(); ++r)
+         summaries.add(new Summary(rows.getInt(r, 0), rows.getLong(r, 1), rows.getLong(r, 2), rows.getLong(r, 3)));
+      return summaries;
+   }
+
+   /**
+    * Sets whether a flight instance departed and arrived on time, and
+    * updates the record of its flight.
+    *
+    * @param flightInstanceId the flight instance
+    * @param departedOnTime the departure status, or null when unknown
+    * @param arrivedOnTime the arrival status, or null when unknown
+    * @return whether the flight instance exists
+    * @throws java.sql.SQLException when the update fails
+    */
+   public boolean updateStatus(final int flightInstanceId, final Boolean departedOnTime,
+                               final Boolean arrivedOnTime) throws SQLException {
+      if (flights() == null)
+         return this._esql.executeUpdate(UPDATE_STATUS_SQL, departedOnTime, arrivedOnTime, flightInstanceId) > 0;
+      Bucket bucket = this._esql.executeInTransaction(tx -> {
+         ColumnarResult instance = tx.executeQueryAndReturnColumns(UPDATE_INSTANCE_SQL,
+                                                                   departedOnTime, arrivedOnTime, flightInstanceId);
+         if (instance.getRowCount() == 0)
+            return null;
+         if (instance.isNull(0, 0) || instance.isNull(0, 1))
+            return NOT_COUNTED;
+         String flightNumber = instance.getString(0, 0);
+         Date flightDate = Date.valueOf(instance.getDate(0, 1));
+         int stops = instance.getInt(0, 2);
+         ColumnarResult counts = tx.executeQueryAndReturnColumns(BUCKET_SQL, flightNumber, flightDate, stops);
+         if (counts.getRowCount() == 0)
+            return NOT_COUNTED;
+         long[] sums = { counts.getLong(0, 0), counts.getLong(0, 1), counts.getLong(0, 2) };
+         return new Bucket(flightNumber, stops, flightDate.toLocalDate().toEpochDay(), sums, counts.getLong(0, 3));
+      });
+      if (bucket == null)
+         return false;
+      if (bucket != NOT_COUNTED)
+         apply(bucket);
+      return true;
+   }//end updateStatus
+
+   /**
+    * Installs the trigger if needed, fills the summary table again from
+    * FlightInstance and reloads it.
+    *
+    * @throws java.sql.SQLException when the summary cannot be rebuilt
+    */
+   public void rebuild() throws SQLException {
+      synchronized (this._loadLock) {
+         install();
+         reload();
+      }
+   }
+
+   /**
+    * Reloads the in-memory totals from the summary table.
+    *
+    * @throws java.sql.SQLException when the summary cannot be read
+    */
+   public void reload() throws SQLException {
+      synchronized (this._loadLock) {
+         synchronized (this._pendingLock) {
+            this._pending = new ArrayList<Bucket>();
+         }
+         try {
+            final Map<String, TreeMap<Integer, Counter>> flights = new ConcurrentHashMap<String, TreeMap<Integer, Counter>>();
+            TxnSnapshot snapshot = this._esql.executeInTransaction(tx -> {
+               TxnSnapshot taken = TxnSnapshot.take(tx);
+               ColumnarResult rows = tx.executeQueryAndReturnColumns(LOAD_SQL);
+               for (int r = 0; r < rows.getRowCount(); ++r) {
+                  long[] bucket = { rows.getLong(r, 3), rows.getLong(r, 4), rows.getLong(r, 5) };
+                  counter(flights, rows.getString(r, 0), rows.getInt(r, 2)).put(rows.getEpochDay(r, 1), bucket);
+               }
+               return taken;
+            });
+            synchronized (this._pendingLock) {
+               for (Bucket bucket : this._pending)
+                  if (!snapshot.sees(bucket.txid))
+                     put(flights, bucket);
+               this._flights = flights;
+               this._loadedAt = System.nanoTime();
+            }
+         } finally {
+            synchronized (this._pendingLock) {
+               this._pending = null;
+            }
+         }
+      }
+   }//end reload
+
+   /*
+    * The current totals, loading them if there are none and starting a
+    * background reload when they are stale.  Null while the trigger is not
+    * installed.
+    */
+   private Map<String, TreeMap<Integer, Counter>> flights() throws SQLException {
+      Map<String, TreeMap<Integer, Counter>> flights = this._flights;
+      if (flights == null) {
+         synchronized (this._loadLock) {
+            if (this._flights == null) {
+               if (!installed())
+                  return null;
+               reload();
+            }
+            return this._flights;
+         }
+      }
+      this._reloader.reloadIfExpired(this._loadedAt);
+      return flights;
+   }//end flights
+
+   /*
+    * Whether the trigger exists.  A missing trigger is looked for again
+    * once the totals would have been reloaded.
+    */
+   private boolean installed() throws SQLException {
+      long missingAt = this._missingAt;
+      if (missingAt != 0 && System.nanoTime() - missingAt < TTL_NANOS)
+         return false;
+      if (this._esql.executeQueryAndReturnColumns(TRIGGER_EXISTS_SQL).getBoolean(0, 0)) {
+         this._missingAt = 0;
+         return true;
+      }
+      this._missingAt = System.nanoTime();
+      return false;
+   }
+
+   private void install() throws SQLException {
+      this._esql.executeInTransaction(tx -> {
+         for (String statement : INSTALL_SQL)
+            tx.executeUpdate(statement);
+         return null;
+      });
+   }
+
+   /*
+    * Applies a committed bucket to the current totals, and to the load
+    * running, if any.
+    */
+   private void apply(Bucket bucket) {
+      Map<String, TreeMap<Integer, Counter>> flights;
+      synchronized (this._pendingLock) {
+         if (this._pending != null)
+            this._pending.add(bucket);
+         flights = this._flights;
+      }
+      if (flights != null)
+         put(flights, bucket);
+   }
+
+   private static void put(Map<String, TreeMap<Integer, Counter>> flights, Bucket bucket) {
+      TreeMap<Integer, Counter> byStops = flights.computeIfAbsent(key(bucket.flightNumber), k -> new TreeMap<Integer, Counter>());
+      synchronized (byStops) {
+         byStops.computeIfAbsent(bucket.stops, s -> new Counter()).put(bucket.day, bucket.counts);
+      }
+   }
+
+   private static Counter counter(Map<String, TreeMap<Integer, Counter>> flights, String flightNumber, int stops) {
+      return flights.computeIfAbsent(key(flightNumber), k -> new TreeMap<Integer, Counter>())
+                    .computeIfAbsent(stops, s -> new Counter());
+   }
+
+   private static String key(String flightNumber) {
+      return flightNumber == null ? "" : flightNumber.trim();
+   }
+}//end OnTimeStats
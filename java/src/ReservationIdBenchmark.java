@@ -0,0 +1,81 @@
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class measures how fast ReservationIdGenerator hands out ids from
+ * many threads at once and checks that none of them repeat.
+ *
+ * Usage: java ReservationIdBenchmark [threads] [idsPerThread] [nodes]
+ *
+ * Each of the given nodes gets its own generator, as separate application
+ * instances would, and the threads are spread over them.  Every id is kept,
+ * so memory use is 8 bytes per id.
+ */
+public class ReservationIdBenchmark {
+
+   public static void main(String[] args) throws Exception {
+      int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+      final int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+      int nodes = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+      final ReservationIdGenerator[] generators = new ReservationIdGenerator[nodes];
+      for (int n = 0; n < nodes; ++n)
+         generators[n] = new ReservationIdGenerator(n);
+
+      // warm up the generator so the measured run is compiled code
+      for (int i = 0; i < 5000000; ++i)
+         generators[0].nextId();
+
+      final long[][] ids = new long[threads][perThread];
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int t = 0; t < threads; ++t) {
+         final long[] out = ids[t];
+         final ReservationIdGenerator generator = generators[t % nodes];
+         Thread worker = new Thread(() -> {
+            try {
+               start.await();
+               for (int i = 0; i < perThread; ++i)
+                  out[i] = generator.nextId();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            } finally {
+               done.countDown();
+            }
+         }, "id-benchmark-" + t);
+         worker.start();
+      }
+
+      long begin = System.nanoTime();
+      start.countDown();
+      done.await();
+      long nanos = System.nanoTime() - begin;
+
+      long total = (long) threads * perThread;
+      long[] all = new long[(int) total];
+      int pos = 0;
+      int outOfOrder = 0;
+      for (long[] out : ids) {
+         for (int i = 0; i < out.length; ++i) {
+            if (i > 0 && out[i] <= out[i - 1] && ReservationIdGenerator.nodeOf(out[i]) == ReservationIdGenerator.nodeOf(out[i - 1]))
+               ++outOfOrder;
+            all[pos++] = out[i];
+         }
+      }
+      Arrays.sort(all);
+      long duplicates = 0;
+      for (int i = 1; i < all.length; ++i)
+         if (all[i] == all[i - 1])
+            ++duplicates;
+
+      String first = ReservationIdGenerator.format(all[0]);
+      String last = ReservationIdGenerator.format(all[all.length - 1]);
+
+      System.out.printf("threads=%d nodes=%d ids=%d time=%.3f s%n", threads, nodes, total, nanos / 1e9);
+      System.out.printf("throughput=%.0f ids/s%n", total * 1e9 / nanos);
+      System.out.printf("duplicates=%d outOfOrderPerThread=%d%n", duplicates, outOfOrder);
+      System.out.printf("range=%s..%s textOrderMatches=%b%n", first, last, first.compareTo(last) < 0);
+      if (duplicates > 0 || outOfOrder > 0)
+         System.exit(1);
+   }//end main
+}//end ReservationIdBenchmark
@@ -0,0 +1,103 @@
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class generates ReservationIDs that are unique across threads and
+ * across application instances, without locks or database round trips.
+ *
+ * Each id is a 63-bit number laid out like a Snowflake id:
+ *
+ *    41 bits  milliseconds since 2025-01-01T00:00:00Z (good for ~69 years)
+ *    10 bits  node id, one per running instance (airline.nodeId, 0..1023)
+ *    12 bits  sequence within the millisecond
+ *
+ * The timestamp and sequence are advanced together with one compare-and-set
+ * on an AtomicLong.  When more than 4096 ids are asked for within one
+ * millisecond the generator borrows the next millisecond instead of waiting,
+ * and if the clock moves backwards it keeps counting from the last value, so
+ * ids never repeat and always increase.
+ *
+ * Ids are rendered as "R" followed by the number in 13 upper-case base-36
+ * digits, e.g. R00B8K2Z1M7QR.  The width is fixed, so the text sorts in the
+ * same order as the numbers and new reservations land at the right-hand end
+ * of the Reservation primary key index.
+ */
+public class ReservationIdGenerator {
+   static final long EPOCH_MILLIS = Instant.parse("2025-01-01T00:00:00Z").toEpochMilli();
+   static final int NODE_BITS = 10;
+   static final int SEQUENCE_BITS = 12;
+   static final long MAX_NODE = (1L << NODE_BITS) - 1;
+   static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+   static final int TEXT_DIGITS = 13;
+
+   private final long _node;
+   // (milliseconds since EPOCH_MILLIS << SEQUENCE_BITS) | sequence of the last id
+   private final AtomicLong _state = new AtomicLong();
+
+   /**
+    * @param nodeId the id of this application instance, 0..1023
+    */
+   public ReservationIdGenerator(int nodeId) {
+      if (nodeId < 0 || nodeId > MAX_NODE)
+         throw new IllegalArgumentException("node id must be between 0 and " + MAX_NODE);
+      this._node = nodeId;
+   }
+
+   /**
+    * @return a new id as a number
+    */
+   public long nextId() {
+      while (true) {
+         long now = System.currentTimeMillis() - EPOCH_MILLIS;
+         long prev = this._state.get();
+         long prevMillis = prev >>> SEQUENCE_BITS;
+         long next;
+         if (now > prevMillis)
+            next = now << SEQUENCE_BITS;
+         else if ((prev & SEQUENCE_MASK) < SEQUENCE_MASK)
+            next = prev + 1;
+         else
+            next = (prevMillis + 1) << SEQUENCE_BITS;
+         if (this._state.compareAndSet(prev, next))
+            return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS))
+                   | (this._node << SEQUENCE_BITS)
+                   | (next & SEQUENCE_MASK);
+      }
+   }//end nextId
+
+   /**
+    * @return a new id in its ReservationID text form
+    */
+   public String next() {
+      return format(nextId());
+   }
+
+   /**
+    * @param id an id returned by nextId()
+    * @return the id as "R" plus 13 base-36 digits
+    */
+   public static String format(long id) {
+      char[] text = new char[TEXT_DIGITS + 1];
+      text[0] = 'R';
+      for (int i = TEXT_DIGITS; i >= 1; --i) {
+         int digit = (int) (id % 36);
+         text[i] = (char) (digit < 10 ? '0' + digit : 'A' + digit - 10);
+         id /= 36;
+      }
+      return new String(text);
+   }
+
+   /**
+    * @return the time the id was generated, in epoch milliseconds
+    */
+   public static long timestampOf(long id) {
+      return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+   }
+
+   /**
+    * @return the node that generated the id
+    */
+   public static int nodeOf(long id) {
+      return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE);
+   }
+}//end ReservationIdGenerator
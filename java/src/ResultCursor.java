@@ -0,0 +1,134 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class returns the rows of a query one at a time instead of building
+ * a list of them.  When the driver supports setFetchSize it holds a pooled
+ * connection with autocommit turned off and a fetch size set, so the
+ * PostgreSQL driver reads the result through a server-side cursor,
+ * fetchSize rows per round trip.  The bundled pg73 driver does not, and then
+ * the driver has already read the whole result and the cursor only walks it.
+ *
+ * The cursor keeps its connection until it is closed, so it must always be
+ * used in a try-with-resources block:
+ *
+ *    try (ResultCursor cursor = esql.executeQueryAndStreamResult(sql, params)) {
+ *       for (List<String> row : cursor) ...
+ *    }
+ *
+ * Errors raised while fetching are rethrown as IllegalStateException with
+ * the SQLException as the cause.
+ */
+public class ResultCursor implements Iterator<List<String>>, Iterable<List<String>>, AutoCloseable {
+   private final ConnectionPool _pool;
+   private final ConnectionPool.PooledConnection _pc;
+   private final String _sql;
+   private final PreparedStatement _stmt;
+   private final ResultSet _rs;
+   private final int _numCol;
+   private final boolean _streaming;
+   private final List<String> _columnNames;
+   private boolean _hasNext;
+   private int _rowCount = 0;
+   private boolean _closed = false;
+
+   ResultCursor(ConnectionPool pool, ConnectionPool.PooledConnection pc, String sql,
+                PreparedStatement stmt, ResultSet rs, boolean streaming) throws SQLException {
+      this._pool = pool;
+      this._streaming = streaming;
+      this._pc = pc;
+      this._sql = sql;
+      this._stmt = stmt;
+      this._rs = rs;
+      ResultSetMetaData rsmd = rs.getMetaData ();
+      this._numCol = rsmd.getColumnCount ();
+      List<String> names = new ArrayList<String>(this._numCol);
+      for (int i = 1; i <= this._numCol; ++i)
+         names.add(rsmd.getColumnName(i));
+      this._columnNames = names;
+      this._hasNext = rs.next();
+   }
+
+   /**
+    * @return the names of the result columns
+    */
+   public List<String> getColumnNames() {
+      return this._columnNames;
+   }
+
+   /**
+    * @return the number of rows returned by next() so far
+    */
+   public int getRowCount() {
+      return this._rowCount;
+   }
+
+   @Override
+   public Iterator<List<String>> iterator() {
+      return this;
+   }
+
+   @Override
+   public boolean hasNext() {
+      return this._hasNext;
+   }
+
+   @Override
+   public List<String> next() {
+      if (!this._hasNext)
+         throw new NoSuchElementException();
+      try {
+         List<String> record = new ArrayList<String>(this._numCol);
+         for (int i = 1; i <= this._numCol; ++i)
+            record.add(this._rs.getString(i));
+         this._hasNext = this._rs.next();
+         ++this._rowCount;
+         return record;
+      } catch (SQLException e) {
+         this._hasNext = false;
+         this._pool.discardIfBroken(this._pc, e);
+         throw new IllegalStateException(e.getMessage(), e);
+      }
+   }//end next
+
+   /**
+    * Closes the result, ends the transaction of a server-side cursor and
+    * hands the connection back to the pool.
+    */
+   @Override
+   public void close() {
+      if (this._closed)
+         return;
+      this._closed = true;
+      FeatureMetrics.rowsFetched(this._rowCount);
+      Connection connection = this._pc.getConnection();
+      try {
+         this._rs.close();
+         if (this._streaming) {
+            this._stmt.setFetchSize(0);
+            connection.commit();
+            connection.setAutoCommit(true);
+         }
+      } catch (SQLException e) {
+         // a cursor that cannot be closed cleanly leaves the session in an
+         // unknown transaction state, so the connection is not reused.
+         this._pc.getStatementCache().evict(this._sql);
+         this._pool.discardIfBroken(this._pc, e);
+         try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+         } catch (SQLException ignored) {
+            this._pool.discardIfBroken(this._pc, new SQLException(ignored.getMessage(), "08000"));
+         }
+      } finally {
+         this._pool.release(this._pc);
+      }
+   }//end close
+}//end ResultCursor
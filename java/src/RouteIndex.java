@@ -0,0 +1,286 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * This class answers "which flights go from city A to city B on a given
+ * day" from memory.  It maps each (DepartureCity, ArrivalCity) pair to the
+ * flights serving it; a flight appears once per distinct pair of departure
+ * and arrival times in its schedule, with a 7-bit mask of the days of the
+ * week it flies at those times (bit 0 is Sunday, bit 6 Saturday).
+ *
+ * City names are matched without regard to case, and citiesStartingWith()
+ * finds the cities whose name starts with a prefix, for completing what a
+ * customer typed.
+ *
+ * The same entries are also kept by departure city, which is the adjacency
+ * list ItinerarySearch walks to find connections.
+ *
+ * The index follows a ReferenceCache: it registers as its listener and
+ * replaces only the entries of flights whose row or schedule changed, so a
+ * reload of the reference tables does not rebuild it.  Searches are lock
+ * free; updates are serialized and publish new arrays.
+ */
+public class RouteIndex implements ReferenceCache.Listener {
+
+   /**
+    * A flight serving a route at fixed times on some days of the week.
+    */
+   public static final class Entry {
+      public final String flightNumber;
+      public final String departureCity;
+      public final String arrivalCity;
+      public final String departureTime;
+      public final String arrivalTime;
+      public final int dayMask;
+      // minutes after midnight, -1 when the time cannot be read
+      public final int departureMinute;
+      public final int arrivalMinute;
+
+      Entry(String flightNumber, String departureCity, String arrivalCity,
+            String departureTime, String arrivalTime, int dayMask) {
+         this.flightNumber = flightNumber;
+         this.departureCity = departureCity;
+         this.arrivalCity = arrivalCity;
+         this.departureTime = departureTime;
+         this.arrivalTime = arrivalTime;
+         this.dayMask = dayMask;
+         this.departureMinute = minuteOf(departureTime);
+         this.arrivalMinute = minuteOf(arrivalTime);
+      }
+
+      /**
+       * @return whether the flight flies on the day at these times
+       */
+      public boolean fliesOn(DayOfWeek day) {
+         return (this.dayMask & dayBit(day)) != 0;
+      }
+   }//end Entry
+
+   private static final Entry[] NO_ENTRIES = new Entry[0];
+
+   private final ReferenceCache _cache;
+
+   // route key -> entries of every flight on the route, ordered by flight number
+   private final Map<String, Entry[]> _routes = new ConcurrentHashMap<String, Entry[]>();
+   // departure city -> entries of every flight leaving it, the adjacency of the route graph
+   private final Map<String, Entry[]> _departures = new ConcurrentHashMap<String, Entry[]>();
+   // lower case city -> city as written, for prefix lookup
+   private final ConcurrentSkipListMap<String, String> _cities = new ConcurrentSkipListMap<String, String>();
+
+   // owned by the updating thread (guarded by this)
+   private final Map<String, Entry[]> _byFlight = new HashMap<String, Entry[]>();
+   private final Map<String, Integer> _cityUses = new HashMap<String, Integer>();
+
+   /**
+    * Builds the index from the flights of the cache and keeps it current.
+    *
+    * @throws java.sql.SQLException when the reference tables cannot be loaded
+    */
+   public RouteIndex(ReferenceCache cache) throws java.sql.SQLException {
+      this._cache = cache;
+      // loads the tables if needed; addListener then replays every flight
+      cache.getFlights();
+      cache.addListener(this);
+   }
+
+   /**
+    * @return the flights from one city to the other on the date, ordered by
+    *         flight number and departure time
+    * @throws java.sql.SQLException when stale reference tables cannot be reloaded
+    */
+   public List<Entry> search(String departureCity, String arrivalCity, LocalDate date) throws java.sql.SQLException {
+      // lets the cache notice a stale load and reload it in the background
+      this._cache.getFlights();
+      Entry[] entries = this._routes.get(routeKey(departureCity, arrivalCity));
+      if (entries == null)
+         return Collections.emptyList();
+      int bit = dayBit(date.getDayOfWeek());
+      List<Entry> found = new ArrayList<Entry>(entries.length);
+      for (Entry entry : entries)
+         if ((entry.dayMask & bit) != 0)
+            found.add(entry);
+      return found;
+   }//end search
+
+   /**
+    * @return every entry of the route, whatever the day
+    */
+   public List<Entry> route(String departureCity, String arrivalCity) {
+      Entry[] entries = this._routes.get(routeKey(departureCity, arrivalCity));
+      return entries == null ? Collections.<Entry>emptyList() : Arrays.asList(entries);
+   }
+
+   /**
+    * @return every entry leaving the city, whatever the destination and day
+    */
+   public List<Entry> departuresFrom(String city) {
+      Entry[] entries = this._departures.get(cityKey(city));
+      return entries == null ? Collections.<Entry>emptyList() : Arrays.asList(entries);
+   }
+
+   /**
+    * @return the city as written in Flight, matched without regard to case,
+    *         or null when no flight serves it
+    */
+   public String findCity(String name) {
+      return name == null ? null : this._cities.get(cityKey(name));
+   }
+
+   /**
+    * @return the cities whose name starts with the prefix, without regard
+    *         to case, in alphabetical order
+    */
+   public List<String> citiesStartingWith(String prefix) {
+      String from = cityKey(prefix);
+      NavigableMap<String, String> range = this._cities.subMap(from, true, from + Character.MAX_VALUE, false);
+      return new ArrayList<String>(range.values());
+   }
+
+   /**
+    * @return the number of routes in the index
+    */
+   public int getRouteCount() {
+      return this._routes.size();
+   }
+
+   @Override
+   public synchronized void flightChanged(String flightNumber, ReferenceCache.Flight flight,
+                                          List<ReferenceCache.Schedule> schedule) {
+      String key = flightNumber.trim();
+      Entry[] old = this._byFlight.remove(key);
+      if (old != null) {
+         removeEntries(this._routes, old[0].flightNumber, routeKey(old[0].departureCity, old[0].arrivalCity));
+         removeEntries(this._departures, old[0].flightNumber, cityKey(old[0].departureCity));
+         uncountCity(old[0].departureCity);
+         uncountCity(old[0].arrivalCity);
+      }
+      if (flight == null || flight.departureCity == null || flight.arrivalCity == null)
+         return;
+
+      Entry[] entries = entriesOf(flight, schedule);
+      if (entries.length == 0)
+         return;
+      this._byFlight.put(key, entries);
+      addEntries(this._routes, routeKey(flight.departureCity, flight.arrivalCity), entries);
+      addEntries(this._departures, cityKey(flight.departureCity), entries);
+      countCity(flight.departureCity);
+      countCity(flight.arrivalCity);
+   }//end flightChanged
+
+   /*
+    * One entry per distinct (departure, arrival) time pair of the schedule.
+    */
+   private static Entry[] entriesOf(ReferenceCache.Flight flight, List<ReferenceCache.Schedule> schedule) {
+      List<Entry> entries = new ArrayList<Entry>(2);
+      for (ReferenceCache.Schedule day : schedule) {
+         int number = day.dayNumber();
+         if (number > 7)
+            continue;
+         int bit = 1 << (number - 1);
+         boolean merged = false;
+         for (int i = 0; i < entries.size() && !merged; ++i) {
+            Entry e = entries.get(i);
+            if (e.departureTime != null && e.departureTime.equals(day.departureTime)
+                && e.arrivalTime != null && e.arrivalTime.equals(day.arrivalTime)) {
+               entries.set(i, new Entry(e.flightNumber, e.departureCity, e.arrivalCity,
+                                        e.departureTime, e.arrivalTime, e.dayMask | bit));
+               merged = true;
+            }
+         }
+         if (!merged)
+            entries.add(new Entry(flight.flightNumber, flight.departureCity, flight.arrivalCity,
+                                  day.departureTime, day.arrivalTime, bit));
+      }
+      return entries.toArray(NO_ENTRIES);
+   }//end entriesOf
+
+   private static void removeEntries(Map<String, Entry[]> map, String flightNumber, String key) {
+      Entry[] current = map.get(key);
+      if (current == null)
+         return;
+      List<Entry> kept = new ArrayList<Entry>(current.length);
+      for (Entry e : current)
+         if (!e.flightNumber.equals(flightNumber))
+            kept.add(e);
+      if (kept.isEmpty())
+         map.remove(key);
+      else
+         map.put(key, kept.toArray(NO_ENTRIES));
+   }
+
+   private static void addEntries(Map<String, Entry[]> map, String key, Entry[] entries) {
+      Entry[] current = map.get(key);
+      Entry[] merged = current == null ? entries.clone() : concat(current, entries);
+      Arrays.sort(merged, (a, b) -> {
+         int c = a.flightNumber.compareTo(b.flightNumber);
+         return c != 0 ? c : Integer.compare(a.departureMinute, b.departureMinute);
+      });
+      map.put(key, merged);
+   }
+
+   private static Entry[] concat(Entry[] a, Entry[] b) {
+      Entry[] all = Arrays.copyOf(a, a.length + b.length);
+      System.arraycopy(b, 0, all, a.length, b.length);
+      return all;
+   }
+
+   private void countCity(String city) {
+      String key = cityKey(city);
+      this._cityUses.merge(key, 1, Integer::sum);
+      this._cities.put(key, city);
+   }
+
+   private void uncountCity(String city) {
+      String key = cityKey(city);
+      Integer uses = this._cityUses.get(key);
+      if (uses == null || uses <= 1) {
+         this._cityUses.remove(key);
+         this._cities.remove(key);
+      } else {
+         this._cityUses.put(key, uses - 1);
+      }
+   }
+
+   /**
+    * @return the minutes after midnight of a time written H:MM or HH:MM:SS,
+    *         or -1 when it cannot be read
+    */
+   static int minuteOf(String time) {
+      if (time == null)
+         return -1;
+      String t = time.trim();
+      int colon = t.indexOf(':');
+      if (colon < 1 || t.length() < colon + 3)
+         return -1;
+      try {
+         int hours = Integer.parseInt(t.substring(0, colon));
+         int minutes = Integer.parseInt(t.substring(colon + 1, colon + 3));
+         return hours < 0 || hours > 23 || minutes < 0 || minutes > 59 ? -1 : hours * 60 + minutes;
+      } catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   static int dayBit(DayOfWeek day) {
+      // DayOfWeek runs Monday (1) to Sunday (7); the mask starts on Sunday
+      return 1 << (day.getValue() % 7);
+   }
+
+   private static String cityKey(String city) {
+      return city.trim().toLowerCase(Locale.ROOT);
+   }
+
+   private static String routeKey(String departureCity, String arrivalCity) {
+      return cityKey(departureCity) + '\n' + cityKey(arrivalCity);
+   }
+}//end RouteIndex
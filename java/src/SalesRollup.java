@@ -0,0 +1,322 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps the seat sales of every flight rolled up by day and by
+ * month, so feature11 can report any date range without scanning
+ * FlightInstance.
+ *
+ * For each flight the daily totals (instances, seats sold, seats unsold)
+ * sit in arrays indexed by day, and a Fenwick tree over each array gives
+ * the sum of any prefix by adding up at most log2(days) entries; a range of
+ * dates is the difference of two prefixes.  Ten years of daily data answer
+ * a range with about 24 additions, and a change to one day touches as many
+ * entries.  Monthly totals are kept alongside for monthly reports.
+ *
+ * The rollup is read from FlightInstance on first use, and again in the
+ * background once it is older than airline.sales.ttl seconds (default 60,
+ * 0 turns it off), so it picks up the flight instances added and the seats
+ * sold by other processes.  In between it follows the seats BookingEngine
+ * sells and CancellationEngine releases in this process, which report each
+ * change once its transaction commits, with the transaction's txid.  A
+ * change reported while a load runs is applied to the load too, unless its
+ * snapshot already saw the transaction (see TxnSnapshot), so no change is
+ * lost or counted twice.  A change to a day without instances in memory is
+ * for an instance added since the last load; it is left to the next load,
+ * which it starts.
+ *
+ * SalesRollupCheck compares the rollup with brute-force sums.
+ */
+public class SalesRollup {
+
+   /**
+    * The sales of a flight over some dates.
+    */
+   public static final class Totals {
+      public final long instances;
+      public final long seatsSold;
+      public final long seatsUnsold;
+
+      Totals(long instances, long seatsSold, long seatsUnsold) {
+         this.instances = instances;
+         this.seatsSold = seatsSold;
+         this.seatsUnsold = seatsUnsold;
+      }
+   }//end Totals
+
+   static final String LOAD_SQL =
+      "SELECT FlightNumber, FlightDate, COUNT(*), SUM(SeatsSold), SUM(SeatsTotal - SeatsSold) " +
+      "FROM FlightInstance " +
+      "GROUP BY FlightNumber, FlightDate";
+
+   static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("airline.sales.ttl", 60));
+
+   private static final Totals NONE = new Totals(0, 0, 0);
+
+   // measures kept per day: instances, seats sold, seats unsold
+   private static final int MEASURES = 3;
+
+   /*
+    * The rollup of one flight.  Guarded by itself.
+    */
+   static final class Flight {
+      long base;
+      long[][] daily;
+      long[][] tree;
+      final TreeMap<Integer, long[]> months = new TreeMap<Integer, long[]>();
+
+      void add(long day, long[] delta) {
+         ensure(day);
+         int i = (int) (day - this.base);
+         for (int m = 0; m < MEASURES; ++m) {
+            this.daily[m][i] += delta[m];
+            long[] tree = this.tree[m];
+            for (int j = i; j < tree.length; j |= j + 1)
+               tree[j] += delta[m];
+         }
+         long[] month = this.months.computeIfAbsent(monthOf(day), k -> new long[MEASURES]);
+         for (int m = 0; m < MEASURES; ++m)
+            month[m] += delta[m];
+      }
+
+      /*
+       * The sum of each measure over the days up to and including index i.
+       */
+      long prefix(int m, int i) {
+         long sum = 0;
+         long[] tree = this.tree[m];
+         for (int j = Math.min(i, tree.length - 1); j >= 0; j = (j & (j + 1)) - 1)
+            sum += tree[j];
+         return sum;
+      }
+
+      /*
+       * Whether the rollup holds an instance of the flight on the day.
+       */
+      boolean flies(long day) {
+         return this.daily != null && day >= this.base && day < this.base + this.daily[0].length
+                && this.daily[0][(int) (day - this.base)] > 0;
+      }
+
+      Totals range(long fromDay, long toDay) {
+         if (this.daily == null)
+            return NONE;
+         long from = Math.max(fromDay, this.base);
+         long to = Math.min(toDay, this.base + this.daily[0].length - 1);
+         if (from > to)
+            return NONE;
+         long[] sums = new long[MEASURES];
+         for (int m = 0; m < MEASURES; ++m)
+            sums[m] = prefix(m, (int) (to - this.base)) - (from == this.base ? 0 : prefix(m, (int) (from - this.base) - 1));
+         return new Totals(sums[0], sums[1], sums[2]);
+      }
+
+      /*
+       * Widens the arrays to cover the day, leaving room to grow on both
+       * sides, and rebuilds the trees from the daily values.
+       */
+      private void ensure(long day) {
+         if (this.daily != null && day >= this.base && day < this.base + this.daily[0].length)
+            return;
+         boolean empty = this.daily == null;
+         long end = empty ? day : this.base + this.daily[0].length - 1;
+         long first = empty ? day : Math.min(day, this.base);
+         long last = Math.max(day, end);
+         long slack = Math.max(32, (last - first) / 2);
+         long newBase = empty || day < this.base ? first - slack : this.base;
+         long newEnd = empty || day > end ? last + slack : end;
+         int size = Math.toIntExact(newEnd - newBase + 1);
+         long[][] daily = new long[MEASURES][size];
+         if (this.daily != null)
+            for (int m = 0; m < MEASURES; ++m)
+               System.arraycopy(this.daily[m], 0, daily[m], (int) (this.base - newBase), this.daily[m].length);
+         this.base = newBase;
+         this.daily = daily;
+         this.tree = new long[MEASURES][];
+         for (int m = 0; m < MEASURES; ++m) {
+            long[] tree = Arrays.copyOf(daily[m], size);
+            for (int i = 0; i < size; ++i) {
+               int parent = i | (i + 1);
+               if (parent < size)
+                  tree[parent] += tree[i];
+            }
+            this.tree[m] = tree;
+         }
+      }//end ensure
+   }//end Flight
+
+   /*
+    * Seats sold or released by a committed transaction.
+    */
+   private static final class Sale {
+      final String flightNumber;
+      final long day;
+      final long seats;
+      final long txid;
+
+      Sale(String flightNumber, long day, long seats, long txid) {
+         this.flightNumber = flightNumber;
+         this.day = day;
+         this.seats = seats;
+         this.txid = txid;
+      }
+   }//end Sale
+
+   private final AirlineManagement _esql;
+   private final Object _loadLock = new Object();
+   private final BackgroundReloader _reloader = new BackgroundReloader(TTL_NANOS, this::reload);
+   private volatile Map<String, Flight> _flights;
+   private volatile long _loadedAt;
+   private volatile boolean _stale;
+
+   // sales reported while a load runs, null when none runs; guarded by _pendingLock
+   private final Object _pendingLock = new Object();
+   private List<Sale> _pending;
+
+   public SalesRollup(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @return the sales of the flight on the dates from start to end, both
+    *         included, as feature11 reports them
+    * @throws java.sql.SQLException when the rollup cannot be loaded
+    */
+   public Totals getRange(String flightNumber, LocalDate start, LocalDate end) throws SQLException {
+      Flight flight = flights().get(key(flightNumber));
+      if (flight == null)
+         return NONE;
+      synchronized (flight) {
+         return flight.range(start.toEpochDay(), end.toEpochDay());
+      }
+   }
+
+   /**
+    * @return the sales of the flight in the month
+    * @throws java.sql.SQLException when the rollup cannot be loaded
+    */
+   public Totals getMonth(String flightNumber, YearMonth month) throws SQLException {
+      Flight flight = flights().get(key(flightNumber));
+      if (flight == null)
+         return NONE;
+      synchronized (flight) {
+         long[] sums = flight.months.get(month.getYear() * 12 + month.getMonthValue() - 1);
+         return sums == null ? NONE : new Totals(sums[0], sums[1], sums[2]);
+      }
+   }
+
+   /**
+    * Records seats sold (positive) or released (negative) on an instance of
+    * the flight, once the change is committed.
+    *
+    * @param txid what txid_current() returned in the committed transaction
+    */
+   public void seatsSold(String flightNumber, LocalDate date, long seats, long txid) {
+      if (seats == 0)
+         return;
+      Sale sale = new Sale(key(flightNumber), date.toEpochDay(), seats, txid);
+      Map<String, Flight> flights;
+      synchronized (this._pendingLock) {
+         if (this._pending != null)
+            this._pending.add(sale);
+         flights = this._flights;
+      }
+      // not loaded yet, the load sees the change or has it pending
+      if (flights != null && !add(flights, sale))
+         this._stale = true;
+   }
+
+   /**
+    * Reads the rollup again from FlightInstance.
+    *
+    * @throws java.sql.SQLException when FlightInstance cannot be read
+    */
+   public void reload() throws SQLException {
+      synchronized (this._loadLock) {
+         synchronized (this._pendingLock) {
+            this._pending = new ArrayList<Sale>();
+         }
+         try {
+            final Map<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+            TxnSnapshot snapshot = this._esql.executeInTransaction(tx -> {
+               TxnSnapshot taken = TxnSnapshot.take(tx);
+               ColumnarResult rows = tx.executeQueryAndReturnColumns(LOAD_SQL);
+               for (int r = 0; r < rows.getRowCount(); ++r) {
+                  if (rows.isNull(r, 0) || rows.isNull(r, 1))
+                     continue;
+                  Flight flight = flights.computeIfAbsent(key(rows.getString(r, 0)), k -> new Flight());
+                  flight.add(rows.getEpochDay(r, 1),
+                             new long[] { rows.getLong(r, 2), (long) rows.getDouble(r, 3), (long) rows.getDouble(r, 4) });
+               }
+               return taken;
+            });
+            boolean complete = true;
+            synchronized (this._pendingLock) {
+               for (Sale sale : this._pending)
+                  if (!snapshot.sees(sale.txid))
+                     complete &= add(flights, sale);
+               this._flights = flights;
+               this._loadedAt = System.nanoTime();
+               this._stale = !complete;
+            }
+         } finally {
+            synchronized (this._pendingLock) {
+               this._pending = null;
+            }
+         }
+      }
+   }//end reload
+
+   /*
+    * The current rollup, loading it if there is none and starting a
+    * background reload when it is stale.
+    */
+   private Map<String, Flight> flights() throws SQLException {
+      Map<String, Flight> flights = this._flights;
+      if (flights == null) {
+         synchronized (this._loadLock) {
+            if (this._flights == null)
+               reload();
+            return this._flights;
+         }
+      }
+      if (this._stale || this._reloader.isExpired(this._loadedAt))
+         this._reloader.reloadInBackground();
+      return flights;
+   }//end flights
+
+   /*
+    * Applies a sale to a rollup, unless the rollup has no instance of the
+    * flight on its day.
+    *
+    * @return whether the sale was applied
+    */
+   private static boolean add(Map<String, Flight> flights, Sale sale) {
+      Flight flight = flights.get(sale.flightNumber);
+      if (flight == null)
+         return false;
+      synchronized (flight) {
+         if (!flight.flies(sale.day))
+            return false;
+         flight.add(sale.day, new long[] { 0, sale.seats, -sale.seats });
+         return true;
+      }
+   }
+
+   private static int monthOf(long epochDay) {
+      LocalDate date = LocalDate.ofEpochDay(epochDay);
+      return date.getYear() * 12 + date.getMonthValue() - 1;
+   }
+
+   private static String key(String flightNumber) {
+      return flightNumber == null ? "" : flightNumber.trim();
+   }
+}//end SalesRollup
@@ -0,0 +1,97 @@
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * This class checks the rollup of SalesRollup against brute-force sums.  It
+ * fills the rollup of one flight with random daily sales over some years,
+ * in random order so the arrays grow on both sides, applies random seat
+ * changes, and then compares random date ranges and every month with sums
+ * over the plain daily values.  It prints the mismatches and the time a
+ * range takes, and exits with status 1 when any sum differs.
+ *
+ * Usage: java SalesRollupCheck [ranges] [years] [seed]
+ */
+public class SalesRollupCheck {
+
+   public static void main(String[] args) {
+      int ranges = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+      int years = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+      long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+      Random random = new Random(seed);
+
+      long first = LocalDate.of(2020, 1, 1).toEpochDay();
+      int days = years * 365;
+      long[][] daily = new long[3][days];
+      SalesRollup.Flight flight = new SalesRollup.Flight();
+
+      // instances first, from the middle outwards, as loads and new instances arrive
+      for (int n = 0; n < days; ++n) {
+         int i = n % 2 == 0 ? days / 2 + n / 2 : days / 2 - 1 - n / 2;
+         if (i < 0 || i >= days || random.nextInt(4) == 0)
+            continue;
+         long instances = 1 + random.nextInt(2);
+         long total = instances * 150;
+         long sold = random.nextInt((int) total + 1);
+         add(flight, daily, first, i, new long[] { instances, sold, total - sold });
+      }
+      // then seats sold and released on days that have instances
+      for (int n = 0; n < days; ++n) {
+         int i = random.nextInt(days);
+         if (daily[0][i] == 0)
+            continue;
+         long seats = daily[2][i] > 0 && random.nextBoolean() ? 1 : (daily[1][i] > 0 ? -1 : 0);
+         add(flight, daily, first, i, new long[] { 0, seats, -seats });
+      }
+
+      int mismatches = 0;
+      long nanos = 0;
+      for (int n = 0; n < ranges; ++n) {
+         // ranges may start before and end after the data
+         int from = random.nextInt(days + 60) - 30;
+         int to = from + random.nextInt(days + 60 - from);
+         long[] expected = new long[3];
+         for (int i = Math.max(from, 0); i <= Math.min(to, days - 1); ++i)
+            for (int m = 0; m < 3; ++m)
+               expected[m] += daily[m][i];
+         long start = System.nanoTime();
+         SalesRollup.Totals totals = flight.range(first + from, first + to);
+         nanos += System.nanoTime() - start;
+         if (totals.instances != expected[0] || totals.seatsSold != expected[1] || totals.seatsUnsold != expected[2]) {
+            ++mismatches;
+            System.out.printf("range %s..%s: %d %d %d, expected %d %d %d%n",
+                              LocalDate.ofEpochDay(first + from), LocalDate.ofEpochDay(first + to),
+                              totals.instances, totals.seatsSold, totals.seatsUnsold,
+                              expected[0], expected[1], expected[2]);
+         }
+      }
+
+      int months = 0;
+      for (LocalDate month = LocalDate.ofEpochDay(first); month.toEpochDay() < first + days; month = month.plusMonths(1)) {
+         long[] expected = new long[3];
+         for (long day = month.toEpochDay(); day < month.plusMonths(1).toEpochDay() && day < first + days; ++day)
+            for (int m = 0; m < 3; ++m)
+               expected[m] += daily[m][(int) (day - first)];
+         long[] sums = flight.months.get(month.getYear() * 12 + month.getMonthValue() - 1);
+         if (sums == null)
+            sums = new long[3];
+         for (int m = 0; m < 3; ++m)
+            if (sums[m] != expected[m]) {
+               ++mismatches;
+               System.out.println("month " + month.getYear() + "-" + month.getMonthValue() + " measure " + m
+                                  + ": " + sums[m] + ", expected " + expected[m]);
+            }
+         ++months;
+      }
+
+      System.out.printf("%d ranges and %d months over %d days, %d mismatches, %.2f us per range%n",
+                        ranges, months, days, mismatches, nanos / 1e3 / Math.max(1, ranges));
+      if (mismatches > 0)
+         System.exit(1);
+   }//end main
+
+   private static void add(SalesRollup.Flight flight, long[][] daily, long first, int i, long[] delta) {
+      for (int m = 0; m < 3; ++m)
+         daily[m][i] += delta[m];
+      flight.add(first + i, delta);
+   }
+}//end SalesRollupCheck
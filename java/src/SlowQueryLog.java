@@ -0,0 +1,314 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * This class logs the statements that take longer than
+ * airline.slowQuery.millis milliseconds (default 1000, -1 turns the log
+ * off).  Each entry has the SQL, its bind values, the duration, the rows
+ * fetched, the helper that ran it and the feature that issued it, followed
+ * by the plan PostgreSQL reports for it.
+ *
+ * The request thread only compares the duration with the threshold and, for
+ * a slow statement, queues the entry.  A background thread runs the EXPLAIN
+ * and writes the entry, so a slow statement is not made slower by its
+ * logging.  A plain SELECT is explained with EXPLAIN (ANALYZE, BUFFERS),
+ * which runs it.  INSERT, UPDATE, DELETE, WITH (which may hold any of them)
+ * and a SELECT that locks rows or calls nextval get a plain EXPLAIN: running
+ * them would take the row locks of live transactions, fire triggers or
+ * consume sequence values, which a rollback does not undo.  The EXPLAIN runs
+ * on a connection of its own, outside the pool, so a long plan never keeps
+ * a connection from the requests.  It runs in a transaction that is always
+ * rolled back, under a statement timeout of
+ * airline.slowQuery.explainTimeoutMillis (default 30000); a statement is
+ * explained at most once per airline.slowQuery.explainInterval seconds
+ * (default 60).  Entries arriving faster than they can be written are
+ * dropped and counted.
+ *
+ * Entries go to airline.slowQuery.file (default slow-queries.log).  When it
+ * grows past airline.slowQuery.maxBytes (default 10 MB) it is renamed to
+ * .1, older files move up one number and the one past
+ * airline.slowQuery.files (default 5) is deleted.
+ *
+ * Statements on Users carry logins and plaintext passwords, so their bind
+ * values are written as ? and they are never explained.
+ */
+public class SlowQueryLog {
+
+   // rows of a streamed statement, which are read after it is logged
+   static final long STREAMED = -2;
+
+   static final long THRESHOLD_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(Long.getLong("airline.slowQuery.millis", 1000));
+   static final long EXPLAIN_TIMEOUT_MILLIS = Long.getLong("airline.slowQuery.explainTimeoutMillis", 30000);
+   static final long EXPLAIN_INTERVAL_NANOS =
+      TimeUnit.SECONDS.toNanos(Long.getLong("airline.slowQuery.explainInterval", 60));
+   static final long MAX_BYTES = Long.getLong("airline.slowQuery.maxBytes", 10L * 1024 * 1024);
+   static final int FILES = Integer.getInteger("airline.slowQuery.files", 5);
+
+   private static final Object[] NO_PARAMS = new Object[0];
+
+   // what a SELECT does that EXPLAIN ANALYZE must not repeat
+   private static final Pattern SIDE_EFFECTS =
+      Pattern.compile("\\bFOR\\s+(NO\\s+KEY\\s+UPDATE|UPDATE|KEY\\s+SHARE|SHARE)\\b|\\bnextval\\s*\\(",
+                      Pattern.CASE_INSENSITIVE);
+
+   // statements whose bind values are credentials
+   private static final Pattern SENSITIVE = Pattern.compile("\\bUsers\\b", Pattern.CASE_INSENSITIVE);
+
+   /*
+    * A slow statement waiting to be written.
+    */
+   private static final class Entry {
+      final LocalDateTime at = LocalDateTime.now();
+      final String feature;
+      final String helper;
+      final String sql;
+      final String params;
+      final Object[] values;
+      final boolean sensitive;
+      final long nanos;
+      final long rows;
+
+      Entry(String feature, String helper, String sql, Object[] values, long nanos, long rows) {
+         this.feature = feature;
+         this.helper = helper;
+         this.sql = sql;
+         this.sensitive = SENSITIVE.matcher(sql).find();
+         if (this.sensitive) {
+            // the values are not kept, so they cannot reach the log
+            String[] redacted = new String[values.length];
+            Arrays.fill(redacted, "?");
+            this.values = NO_PARAMS;
+            this.params = Arrays.toString(redacted);
+         } else {
+            this.values = values.clone();
+            this.params = Arrays.deepToString(values);
+         }
+         this.nanos = nanos;
+         this.rows = rows;
+      }
+   }//end Entry
+
+   private final AirlineManagement _esql;
+   private final File _file = new File(System.getProperty("airline.slowQuery.file", "slow-queries.log"));
+   private final BlockingQueue<Entry> _queue = new ArrayBlockingQueue<Entry>(1000);
+   private final Map<String, Long> _explainedAt = new ConcurrentHashMap<String, Long>();
+   private final LongAdder _logged = new LongAdder();
+   private final LongAdder _dropped = new LongAdder();
+   private Thread _writer;
+   // the connection the plans are read on, used by the writer thread only
+   private Connection _explainConnection;
+   private volatile boolean _closed = false;
+
+   public SlowQueryLog(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Records a statement in FeatureMetrics and queues it for the log when
+    * it was slow.
+    *
+    * @param helper the FeatureMetrics helper that ran it
+    * @param sql the statement
+    * @param params its bind values, or null
+    * @param started System.nanoTime() before it was sent
+    * @param rows the rows fetched or changed, -1 when it failed, STREAMED when a cursor reads them later
+    */
+   void statement(int helper, String sql, Object[] params, long started, long rows) {
+      long nanos = FeatureMetrics.statement(helper, started, rows == STREAMED ? 0 : rows);
+      if (THRESHOLD_NANOS < 0 || nanos < THRESHOLD_NANOS || this._closed)
+         return;
+      Entry entry = new Entry(FeatureMetrics.currentFeature(), FeatureMetrics.helper(helper).getName(), sql,
+                              params == null ? NO_PARAMS : params, nanos, rows);
+      if (this._queue.offer(entry))
+         startWriter();
+      else
+         this._dropped.increment();
+   }
+
+   /**
+    * @return the entries written so far
+    */
+   public long getLoggedCount() {
+      return this._logged.sum();
+   }
+
+   /**
+    * @return the entries dropped because the log fell behind
+    */
+   public long getDroppedCount() {
+      return this._dropped.sum();
+   }
+
+   /**
+    * Writes the entries still queued, without plans, and stops the writer.
+    */
+   public void close() {
+      Thread writer;
+      synchronized (this) {
+         this._closed = true;
+         writer = this._writer;
+      }
+      if (writer == null)
+         return;
+      writer.interrupt();
+      try {
+         writer.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private synchronized void startWriter() {
+      if (this._writer != null || this._closed)
+         return;
+      this._writer = new Thread(this::writeEntries, "slow-query-log");
+      this._writer.setDaemon(true);
+      this._writer.start();
+   }
+
+   private void writeEntries() {
+      while (true) {
+         Entry entry;
+         try {
+            entry = this._queue.take();
+         } catch (InterruptedException e) {
+            break;
+         }
+         write(entry, explain(entry));
+      }
+      for (Entry entry = this._queue.poll(); entry != null; entry = this._queue.poll())
+         write(entry, "   (not captured: shutting down)\n");
+      closeExplainConnection();
+   }
+
+   private void closeExplainConnection() {
+      if (this._explainConnection == null)
+         return;
+      try {
+         this._explainConnection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+      this._explainConnection = null;
+   }
+
+   /*
+    * The plan of the entry's statement, or a note saying why there is none.
+    */
+   private String explain(Entry entry) {
+      String verb = entry.sql.trim().split("\\s+", 2)[0].toUpperCase(Locale.ROOT);
+      if (!verb.equals("SELECT") && !verb.equals("WITH") && !verb.equals("INSERT")
+          && !verb.equals("UPDATE") && !verb.equals("DELETE"))
+         return "   (not captured: " + verb + " cannot be explained)\n";
+      if (entry.sensitive)
+         return "   (not captured: its bind values are credentials)\n";
+      long now = System.nanoTime();
+      Long last = this._explainedAt.get(entry.sql);
+      if (last != null && now - last < EXPLAIN_INTERVAL_NANOS)
+         return "   (not captured: explained less than " + TimeUnit.NANOSECONDS.toSeconds(EXPLAIN_INTERVAL_NANOS)
+                + " s ago)\n";
+      this._explainedAt.put(entry.sql, now);
+
+      try {
+         if (this._explainConnection == null)
+            this._explainConnection = this._esql.getPool().openUnpooled();
+         Connection connection = this._explainConnection;
+         connection.setAutoCommit(false);
+         try {
+            Statement timeout = connection.createStatement();
+            try {
+               timeout.execute("SET LOCAL statement_timeout = " + EXPLAIN_TIMEOUT_MILLIS);
+            } finally {
+               timeout.close();
+            }
+            boolean analyze = verb.equals("SELECT") && !SIDE_EFFECTS.matcher(entry.sql).find();
+            PreparedStatement ps = connection.prepareStatement((analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ")
+                                                               + entry.sql);
+            try {
+               for (int i = 0; i < entry.values.length; ++i) {
+                  if (entry.values[i] == null)
+                     ps.setNull(i + 1, Types.NULL);
+                  else
+                     ps.setObject(i + 1, entry.values[i]);
+               }
+               StringBuilder plan = new StringBuilder(512);
+               ResultSet rs = ps.executeQuery();
+               while (rs.next())
+                  plan.append("   ").append(rs.getString(1)).append('\n');
+               rs.close();
+               return plan.toString();
+            } finally {
+               ps.close();
+            }
+         } finally {
+            // EXPLAIN ANALYZE ran the statement; nothing it did is kept
+            connection.rollback();
+            connection.setAutoCommit(true);
+         }
+      } catch (SQLException e) {
+         // the connection may be broken; the next plan opens a new one
+         closeExplainConnection();
+         return "   (not captured: " + e.getMessage() + ")\n";
+      }
+   }//end explain
+
+   private void write(Entry entry, String plan) {
+      StringBuilder text = new StringBuilder(1024);
+      text.append(entry.at).append(" feature=").append(entry.feature).append(" helper=").append(entry.helper)
+          .append(String.format(" duration=%.1fms", entry.nanos / 1e6)).append(" rows=")
+          .append(entry.rows == STREAMED ? "streamed" : entry.rows < 0 ? "failed" : String.valueOf(entry.rows))
+          .append('\n')
+          .append("sql: ").append(entry.sql.replaceAll("\\s+", " ").trim()).append('\n')
+          .append("params: ").append(entry.params).append('\n')
+          .append("plan:\n").append(plan).append('\n');
+      try {
+         roll(text.length());
+         try (Writer out = new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8)) {
+            out.write(text.toString());
+         }
+         this._logged.increment();
+      } catch (IOException e) {
+         System.err.println("Unable to write the slow query log " + this._file + ": " + e.getMessage());
+      }
+   }
+
+   /*
+    * Moves the log aside when the entry would take it past its size limit.
+    */
+   private void roll(int adding) throws IOException {
+      if (this._file.length() + adding <= MAX_BYTES || this._file.length() == 0)
+         return;
+      String name = this._file.getPath();
+      File oldest = new File(name + "." + FILES);
+      if (oldest.exists() && !oldest.delete())
+         throw new IOException("Cannot delete " + oldest);
+      for (int i = FILES - 1; i >= 1; --i) {
+         File from = new File(name + "." + i);
+         if (from.exists() && !from.renameTo(new File(name + "." + (i + 1))))
+            throw new IOException("Cannot rename " + from);
+      }
+      if (FILES > 0 ? !this._file.renameTo(new File(name + ".1")) : !this._file.delete())
+         throw new IOException("Cannot roll " + this._file);
+   }
+}//end SlowQueryLog
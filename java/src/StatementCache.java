@@ -0,0 +1,99 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the most recently used PreparedStatements of one physical
+ * connection, keyed by their SQL text.  Reusing the same PreparedStatement
+ * lets the PostgreSQL driver switch it to a named server-side statement once
+ * it has been executed prepareThreshold times, after which the server skips
+ * the parse and plan step.  The bundled lib/pg73jdbc3.jar predates server
+ * side prepares and sends every execution as a new statement; with it the
+ * cache only saves creating the PreparedStatement on the client.
+ *
+ * A cache belongs to exactly one connection and is only used by the caller
+ * that currently holds that connection, so it needs no locking.
+ */
+public class StatementCache {
+   private final int _capacity;
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+   private long _hits = 0;
+   private long _misses = 0;
+
+   /**
+    * @param capacity the number of statements kept open before the least
+    *        recently used one is closed
+    */
+   public StatementCache(int capacity) {
+      this._capacity = capacity;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= StatementCache.this._capacity)
+               return false;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }
+
+   /**
+    * Returns the cached statement for the SQL text, preparing it on the
+    * connection if it is not cached yet.  The caller must not close it.
+    *
+    * @param connection the connection this cache belongs to
+    * @param sql the SQL text with ? placeholders
+    * @return a prepared statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+      PreparedStatement ps = this._statements.get(sql);
+      if (ps != null) {
+         ++this._hits;
+         ps.clearParameters();
+         return ps;
+      }
+      ++this._misses;
+      ps = connection.prepareStatement(sql);
+      this._statements.put(sql, ps);
+      return ps;
+   }
+
+   /**
+    * Closes and forgets the statement for the SQL text, for example after it
+    * failed and may be left in an unusable state.
+    *
+    * @param sql the SQL text the statement was prepared from
+    */
+   public void evict(String sql) {
+      closeQuietly(this._statements.remove(sql));
+   }
+
+   /**
+    * Closes every cached statement.
+    */
+   public void close() {
+      Iterator<PreparedStatement> it = this._statements.values().iterator();
+      while (it.hasNext()) {
+         closeQuietly(it.next());
+         it.remove();
+      }
+   }
+
+   public int size() { return this._statements.size(); }
+   public long getHitCount() { return this._hits; }
+   public long getMissCount() { return this._misses; }
+
+   private static void closeQuietly(PreparedStatement ps) {
+      if (ps == null)
+         return;
+      try {
+         ps.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+}//end StatementCache
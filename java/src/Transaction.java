@@ -0,0 +1,103 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class runs statements on the single pooled connection of a
+ * transaction started by AirlineManagement.executeInTransaction.  It offers
+ * the parameterized calls of AirlineManagement, and uses the same statement
+ * cache, but every statement takes part in the same transaction.
+ */
+public class Transaction {
+
+   /**
+    * The statements of a transaction.  Returning normally commits, throwing
+    * rolls back.
+    */
+   public interface Work<T> {
+      T run(Transaction tx) throws SQLException;
+   }
+
+   private final ConnectionPool.PooledConnection _pc;
+   private final SlowQueryLog _slowQueries;
+
+   Transaction(ConnectionPool.PooledConnection pc, SlowQueryLog slowQueries) {
+      this._pc = pc;
+      this._slowQueries = slowQueries;
+   }
+
+   /**
+    * @param sql the SQL string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate(String sql, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      long rows = -1;
+      try {
+         int count = AirlineManagement.prepare(this._pc, sql, params).executeUpdate();
+         rows = count;
+         return count;
+      } catch (SQLException e) {
+         this._pc.getStatementCache().evict(sql);
+         throw e;
+      } finally {
+         this._slowQueries.statement(FeatureMetrics.TX_STATEMENT, sql, params, started, rows);
+      }
+   }
+
+   /**
+    * Sends the statement once per parameter row, as one JDBC batch.
+    *
+    * @param sql the SQL string with ? placeholders
+    * @param rows the values bound to the placeholders, one array per execution
+    * @return the number of rows affected by each execution
+    * @throws java.sql.SQLException when an execution failed
+    */
+   public int[] executeBatch(String sql, List<Object[]> rows) throws SQLException {
+      long started = System.nanoTime();
+      long affected = -1;
+      try {
+         PreparedStatement ps = null;
+         for (Object[] params : rows) {
+            ps = AirlineManagement.prepare(this._pc, sql, params);
+            ps.addBatch();
+         }
+         if (ps == null)
+            return new int[0];
+         int[] counts = ps.executeBatch();
+         affected = 0;
+         // a driver may report SUCCESS_NO_INFO instead of a count
+         for (int count : counts)
+            affected += Math.max(count, 0);
+         return counts;
+      } catch (SQLException e) {
+         this._pc.getStatementCache().evict(sql);
+         throw e;
+      } finally {
+         this._slowQueries.statement(FeatureMetrics.TX_STATEMENT, sql, null, started, affected);
+      }
+   }
+
+   /**
+    * @param query the query string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the query result as typed columns
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ColumnarResult executeQueryAndReturnColumns(String query, Object... params) throws SQLException {
+      long started = System.nanoTime();
+      long rows = -1;
+      try {
+         ColumnarResult result = ColumnarResult.read(AirlineManagement.prepare(this._pc, query, params).executeQuery());
+         rows = result.getRowCount();
+         return result;
+      } catch (SQLException e) {
+         this._pc.getStatementCache().evict(query);
+         throw e;
+      } finally {
+         this._slowQueries.statement(FeatureMetrics.TX_STATEMENT, query, params, started, rows);
+      }
+   }
+}//end Transaction
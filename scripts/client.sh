@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+#open a menu session on the daemon started by daemon.sh
+#the client only copies bytes, so the JIT and class data sharing settings favour a fast start
+java -XX:TieredStopAtLevel=1 -Xshare:auto -XX:+UseSerialGC -cp $DIR/../classes AirlineClient "$@"
+status=$?
+if [ $status -ne 1 ]; then
+   exit $status
+fi
+
+#no daemon is running (status 1): run the program on its own
+exec $DIR/compile.sh
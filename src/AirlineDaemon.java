@@ -0,0 +1,303 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class keeps one program running for many menu sessions, so a session
+ * does not pay for starting the JVM, loading the JDBC driver and opening a
+ * connection, and finds the statements compiled, the pool connected and the
+ * reference tables loaded.  It listens on a Unix domain socket; each client
+ * that connects, usually AirlineClient, gets the menu of the interactive
+ * program, reading from and printing to the client.
+ *
+ * The menu code reads AirlineManagement.in and prints to System.out and
+ * System.err.  The daemon replaces System.out and System.err with streams
+ * that hand each call to the PrintStream of the printing thread's session,
+ * or to the daemon's own console for any other thread, and
+ * AirlineManagement.in reads from the session of its thread.  Every session
+ * has its own PrintStream and lock, so a client that stops reading stalls
+ * only its own session.  Output is sent to the client when the menu waits
+ * for input and when the session ends.
+ *
+ * At most airline.daemon.sessions sessions (default 16) run at a time;
+ * clients past that wait until one ends.  Every session uses the daemon's
+ * database login, so the socket is bound inside a directory only the owner
+ * can use (created with mode 0700, or checked when it exists), and it is
+ * removed when the daemon stops.
+ *
+ * Usage: java AirlineManagement daemon <dbname> <port> <user> [socketPath]
+ */
+public class AirlineDaemon {
+
+   static final int MAX_SESSIONS = Integer.getInteger("airline.daemon.sessions", 16);
+
+   /**
+    * The client connection of a menu session.
+    */
+   static final class Session {
+      private final BufferedReader _in;
+      private final OutputStream _out;
+      private final PrintStream _print;
+
+      Session(SocketChannel channel) {
+         this._in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel)));
+         this._out = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+         this._print = new PrintStream(this._out, false);
+      }
+
+      /**
+       * Sends what was printed so far and reads the next line typed.
+       *
+       * @return the line, or null when the client ended its input
+       */
+      String readLine() throws IOException {
+         this._out.flush();
+         return this._in.readLine();
+      }
+   }//end Session
+
+   private static final ThreadLocal<Session> SESSION = new ThreadLocal<Session>();
+
+   /**
+    * @return the session run by this thread, or null outside the daemon
+    */
+   static Session currentSession() {
+      return SESSION.get();
+   }
+
+   /*
+    * Hands each call to the PrintStream of the calling thread's session, or
+    * to the console, and takes no lock of its own, so the sessions never
+    * wait for one another.  Only the console is flushed on flush(); a
+    * session is flushed when it reads, so a menu goes out in one write
+    * rather than one per line.
+    */
+   private static final class SessionPrintStream extends PrintStream {
+      private final PrintStream _console;
+
+      SessionPrintStream(PrintStream console) {
+         super(console, false);
+         this._console = console;
+      }
+
+      private PrintStream target() {
+         Session session = SESSION.get();
+         return session != null ? session._print : this._console;
+      }
+
+      @Override public void write(int b) { target().write(b); }
+      @Override public void write(byte[] b, int off, int len) { target().write(b, off, len); }
+      @Override public void print(boolean b) { target().print(b); }
+      @Override public void print(char c) { target().print(c); }
+      @Override public void print(int i) { target().print(i); }
+      @Override public void print(long l) { target().print(l); }
+      @Override public void print(float f) { target().print(f); }
+      @Override public void print(double d) { target().print(d); }
+      @Override public void print(char[] s) { target().print(s); }
+      @Override public void print(String s) { target().print(s); }
+      @Override public void print(Object obj) { target().print(obj); }
+      @Override public void println() { target().println(); }
+      @Override public void println(boolean x) { target().println(x); }
+      @Override public void println(char x) { target().println(x); }
+      @Override public void println(int x) { target().println(x); }
+      @Override public void println(long x) { target().println(x); }
+      @Override public void println(float x) { target().println(x); }
+      @Override public void println(double x) { target().println(x); }
+      @Override public void println(char[] x) { target().println(x); }
+      @Override public void println(String x) { target().println(x); }
+      @Override public void println(Object x) { target().println(x); }
+      @Override public PrintStream format(String format, Object... args) { target().format(format, args); return this; }
+      @Override public PrintStream format(Locale l, String format, Object... args) { target().format(l, format, args); return this; }
+      @Override public PrintStream append(CharSequence csq) { target().append(csq); return this; }
+      @Override public PrintStream append(CharSequence csq, int start, int end) { target().append(csq, start, end); return this; }
+      @Override public PrintStream append(char c) { target().append(c); return this; }
+      @Override public boolean checkError() { return target().checkError(); }
+
+      @Override
+      public void flush() {
+         if (SESSION.get() == null)
+            this._console.flush();
+      }
+
+      @Override
+      public void close() {
+         // the console outlives the daemon, a session is closed by serve()
+         flush();
+      }
+   }//end SessionPrintStream
+
+   private final AirlineManagement _esql;
+   private final Path _socket;
+   private final ServerSocketChannel _server;
+   private final ExecutorService _sessions;
+   private final AtomicInteger _sessionCount = new AtomicInteger();
+
+   /**
+    * Binds the socket.  Sessions are served once start() is called.
+    *
+    * @param esql the database the sessions use
+    * @param socket the path of the socket
+    * @throws java.io.IOException when the socket cannot be bound, or another daemon listens on it
+    */
+   public AirlineDaemon(AirlineManagement esql, Path socket) throws IOException {
+      this._esql = esql;
+      this._socket = socket;
+      // bound inside the private directory, the socket is never reachable by others
+      AirlineClient.privateDirectory(socket.toAbsolutePath().getParent());
+      if (Files.exists(socket)) {
+         // left behind by a daemon that did not stop cleanly, unless one still answers
+         boolean listening;
+         try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            listening = probe.isConnected();
+         } catch (IOException e) {
+            listening = false;
+         }
+         if (listening)
+            throw new IOException("A daemon is already listening on " + socket);
+         Files.delete(socket);
+      }
+      this._server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      this._server.bind(UnixDomainSocketAddress.of(socket));
+      try {
+         Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+      } catch (UnsupportedOperationException e) {
+         // not a POSIX file system; the directory's permissions apply
+      }
+      this._sessions = Executors.newFixedThreadPool(MAX_SESSIONS, r -> {
+         Thread t = new Thread(r, "daemon-session-" + this._sessionCount.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      });
+   }
+
+   /**
+    * Loads the reference tables and route index so the first session does
+    * not wait for them.
+    */
+   public void warmUp() {
+      try {
+         this._esql.getReferenceCache().refresh();
+         this._esql.getRouteIndex();
+      } catch (SQLException e) {
+         System.err.println("Unable to preload the reference tables: " + e.getMessage());
+      }
+   }
+
+   /**
+    * Accepts clients until the socket is closed, serving each on a session
+    * thread.
+    */
+   public void start() {
+      while (this._server.isOpen()) {
+         final SocketChannel channel;
+         try {
+            channel = this._server.accept();
+         } catch (IOException e) {
+            if (this._server.isOpen())
+               System.err.println("Unable to accept a client: " + e.getMessage());
+            break;
+         }
+         this._sessions.execute(() -> serve(channel));
+      }
+   }
+
+   private void serve(SocketChannel channel) {
+      Session session = new Session(channel);
+      SESSION.set(session);
+      try {
+         AirlineManagement.Greeting();
+         AirlineManagement.runMenu(this._esql);
+         System.out.println("Bye !");
+      } catch (UncheckedIOException e) {
+         // the client went away; its session ends here
+      } catch (RuntimeException e) {
+         System.err.println(e.getMessage());
+      } finally {
+         // a client that went away leaves the error in the stream
+         session._print.flush();
+         SESSION.remove();
+         try {
+            channel.close();
+         } catch (IOException e) {
+            // ignored.
+         }
+      }
+   }//end serve
+
+   /**
+    * Stops accepting clients, ends the sessions and removes the socket.
+    */
+   public void stop() {
+      try {
+         this._server.close();
+      } catch (IOException e) {
+         // ignored.
+      }
+      this._sessions.shutdownNow();
+      try {
+         this._sessions.awaitTermination(2, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      try {
+         Files.deleteIfExists(this._socket);
+      } catch (IOException e) {
+         System.err.println("Unable to remove " + this._socket + ": " + e.getMessage());
+      }
+   }
+
+   /**
+    * Makes System.out and System.err write to the session of the printing
+    * thread.
+    */
+   static void routeOutput() {
+      System.setOut(new SessionPrintStream(System.out));
+      System.setErr(new SessionPrintStream(System.err));
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 3 || args.length > 4) {
+         System.err.println("Usage: java AirlineManagement daemon <dbname> <port> <user> [socketPath]");
+         return;
+      }
+      Path socket = args.length > 3 ? Paths.get(args[3]) : AirlineClient.defaultSocket();
+      AirlineManagement esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(args[0], args[1], args[2], "");
+         final AirlineDaemon daemon = new AirlineDaemon(esql, socket);
+         daemon.warmUp();
+         routeOutput();
+         final AirlineManagement db = esql;
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.stop();
+            db.cleanup();
+         }, "daemon-shutdown"));
+         System.out.println("Listening on " + socket + ", pool " + esql.getPool());
+         daemon.start();
+      } catch (Exception e) {
+         System.err.println("Cannot start the daemon: " + e.getMessage());
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+}//end AirlineDaemon
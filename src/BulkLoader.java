@@ -0,0 +1,534 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class loads the seed CSV files (data/*.csv) into the database through
+ * the PostgreSQL COPY protocol.  Each table is streamed straight from its
+ * source into COPY ... FROM STDIN, so nothing is materialized in memory.
+ * With a driver that has no copy API, such as the bundled pg73 driver, the
+ * rows are sent as batched INSERTs instead, one transaction per table.
+ *
+ * Tables are loaded as soon as the tables they reference are loaded, with
+ * independent tables running in parallel:
+ *
+ *    Plane, Pilot, Technician, Customer
+ *    Flight                        after Plane
+ *    Schedule, FlightInstance      after Flight
+ *    Reservation                   after Customer and FlightInstance
+ *    Repair                        after Plane and Technician
+ *    MaintenanceRequest            after Plane and Pilot
+ *
+ * Values written as M/D/YY or M/D/YYYY (FlightInstance.csv uses 5/5/25) are
+ * rewritten to ISO dates on the fly.  The first line of every source must be
+ * the CSV header naming the table columns.  After a table with an id
+ * allocator is loaded its hi/lo sequence is moved past the loaded ids (see
+ * IdAllocator.realign).
+ *
+ * Usage: java AirlineManagement load <dbname> <port> <user> [dataDir] [--parallel N] [--truncate]
+ */
+public class BulkLoader {
+
+   /**
+    * Supplies the CSV text of one table, header line first.
+    */
+   public interface Source {
+      Reader open() throws IOException;
+   }
+
+   /**
+    * The rows loaded into one table and how long it took.
+    */
+   public static class TableStats {
+      public final String table;
+      public final long rows;
+      public final long nanos;
+
+      TableStats(String table, long rows, long nanos) {
+         this.table = table;
+         this.rows = rows;
+         this.nanos = nanos;
+      }
+
+      public double rowsPerSecond() {
+         return this.nanos == 0 ? 0.0 : this.rows * 1e9 / this.nanos;
+      }
+   }//end TableStats
+
+   // load order: every table is listed after the tables it references.
+   static final String[][] TABLES = {
+      { "Plane" },
+      { "Pilot" },
+      { "Technician" },
+      { "Customer" },
+      { "Flight", "Plane" },
+      { "Schedule", "Flight" },
+      { "FlightInstance", "Flight" },
+      { "Reservation", "Customer", "FlightInstance" },
+      { "Repair", "Plane", "Technician" },
+      { "MaintenanceRequest", "Plane", "Pilot" },
+   };
+
+   // rows sent per executeBatch when INSERTs stand in for COPY
+   static final int INSERT_BATCH_SIZE = Integer.getInteger("airline.load.batchSize", 1000);
+
+   private final ConnectionPool _pool;
+   private final int _parallelism;
+
+   /**
+    * @param pool the pool the COPY connections are borrowed from
+    * @param parallelism the number of tables loaded at the same time
+    */
+   public BulkLoader(ConnectionPool pool, int parallelism) {
+      this._pool = pool;
+      this._parallelism = Math.max(1, Math.min(parallelism, pool.getMaxSize()));
+   }
+
+   /**
+    * Returns the sources for the CSV files of a data directory, one file per
+    * table named after it (Plane.csv, Flight.csv, ...).  Missing files are
+    * skipped.
+    *
+    * @param dataDir the directory holding the CSV files
+    * @return the sources keyed by table name
+    */
+   public static Map<String, Source> fileSources(File dataDir) {
+      Map<String, Source> sources = new LinkedHashMap<String, Source>();
+      for (String[] table : TABLES) {
+         final File file = new File(dataDir, table[0] + ".csv");
+         if (file.isFile())
+            sources.put(table[0], () -> new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+      }
+      return sources;
+   }
+
+   /**
+    * Loads every table that has a source, in foreign key order.
+    *
+    * @param sources the CSV sources keyed by table name
+    * @param truncate whether the loaded tables are emptied first
+    * @return the statistics of each loaded table in load order
+    * @throws java.sql.SQLException when a table fails to load
+    */
+   public List<TableStats> load(final Map<String, Source> sources, boolean truncate) throws SQLException {
+      if (truncate)
+         truncate(sources);
+
+      ExecutorService executor = Executors.newFixedThreadPool(this._parallelism, r -> {
+         Thread t = new Thread(r, "bulk-loader");
+         t.setDaemon(true);
+         return t;
+      });
+      try {
+         Map<String, CompletableFuture<TableStats>> loads = new LinkedHashMap<String, CompletableFuture<TableStats>>();
+         for (final String[] table : TABLES) {
+            List<CompletableFuture<TableStats>> dependencies = new ArrayList<CompletableFuture<TableStats>>();
+            for (int i = 1; i < table.length; ++i)
+               if (loads.containsKey(table[i]))
+                  dependencies.add(loads.get(table[i]));
+
+            final Source source = sources.get(table[0]);
+            CompletableFuture<TableStats> load = CompletableFuture
+               .allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+               .thenApplyAsync(ignored -> source == null ? null : loadTable(table[0], source), executor);
+            loads.put(table[0], load);
+         }
+
+         List<TableStats> stats = new ArrayList<TableStats>();
+         for (CompletableFuture<TableStats> load : loads.values()) {
+            TableStats table = load.join();
+            if (table != null)
+               stats.add(table);
+         }
+         return stats;
+      } catch (CompletionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof CompletionException && cause.getCause() != null)
+            cause = cause.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         throw new SQLException(cause.getMessage(), cause);
+      } finally {
+         executor.shutdownNow();
+      }
+   }//end load
+
+   private TableStats loadTable(String table, Source source) {
+      long start = System.nanoTime();
+      ConnectionPool.PooledConnection pc = null;
+      try (BufferedReader csv = new BufferedReader(source.open(), 1 << 16)) {
+         String header = csv.readLine();
+         if (header == null)
+            return new TableStats(table, 0, System.nanoTime() - start);
+         String columns = header.trim();
+
+         pc = this._pool.borrow();
+         long rows = PgCopy.isSupported()
+            ? PgCopy.copyIn(pc.getConnection(), "COPY " + table + " (" + columns + ") FROM STDIN WITH (FORMAT csv)",
+                            new NormalizingReader(csv))
+            : insert(pc.getConnection(), table, columns, new BufferedReader(new NormalizingReader(csv), 1 << 16));
+         IdAllocator.realign(pc.getConnection(), table);
+         TableStats stats = new TableStats(table, rows, System.nanoTime() - start);
+         System.out.printf("%-20s %12d rows %10.2f s %12.0f rows/s%n",
+                           table, stats.rows, stats.nanos / 1e9, stats.rowsPerSecond());
+         return stats;
+      } catch (SQLException e) {
+         if (pc != null)
+            this._pool.discardIfBroken(pc, e);
+         throw new CompletionException(new SQLException("Loading " + table + " failed: " + e.getMessage(), e));
+      } catch (IOException e) {
+         throw new CompletionException(new SQLException("Reading " + table + " failed: " + e.getMessage(), e));
+      } finally {
+         this._pool.release(pc);
+      }
+   }//end loadTable
+
+   /*
+    * Loads the CSV rows with batched INSERTs in one transaction, for drivers
+    * without the copy API.  Every value is sent as text and cast on the
+    * server to the type of its column, which is how COPY reads it too.
+    */
+   static long insert(Connection connection, String table, String columns, BufferedReader csv)
+         throws SQLException, IOException {
+      String[] types = columnTypes(connection, table, columns);
+      StringBuilder sql = new StringBuilder(64 + columns.length() + 16 * types.length);
+      sql.append("INSERT INTO ").append(table).append(" (").append(columns).append(") VALUES (");
+      for (int i = 0; i < types.length; ++i)
+         sql.append(i == 0 ? "?::" : ", ?::").append(types[i]);
+      sql.append(')');
+
+      boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      PreparedStatement ps = connection.prepareStatement(sql.toString());
+      try {
+         List<String> record = new ArrayList<String>(types.length);
+         long rows = 0;
+         int batched = 0;
+         while (readRecord(csv, record)) {
+            if (record.size() != types.length)
+               throw new SQLException("Row " + (rows + 1) + " has " + record.size() + " values, expected "
+                                      + types.length);
+            for (int i = 0; i < types.length; ++i) {
+               if (record.get(i) == null)
+                  ps.setNull(i + 1, Types.VARCHAR);
+               else
+                  ps.setString(i + 1, record.get(i));
+            }
+            ps.addBatch();
+            ++rows;
+            if (++batched == INSERT_BATCH_SIZE) {
+               ps.executeBatch();
+               batched = 0;
+            }
+         }
+         if (batched > 0)
+            ps.executeBatch();
+         connection.commit();
+         return rows;
+      } catch (SQLException | IOException e) {
+         connection.rollback();
+         throw e;
+      } finally {
+         ps.close();
+         connection.setAutoCommit(autoCommit);
+      }
+   }//end insert
+
+   /*
+    * The type names of the listed columns of the table, as casts accept them.
+    */
+   private static String[] columnTypes(Connection connection, String table, String columns) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery("SELECT " + columns + " FROM " + table + " WHERE false");
+         ResultSetMetaData rsmd = rs.getMetaData();
+         String[] types = new String[rsmd.getColumnCount()];
+         for (int i = 0; i < types.length; ++i)
+            types[i] = rsmd.getColumnTypeName(i + 1);
+         rs.close();
+         return types;
+      } finally {
+         stmt.close();
+      }
+   }
+
+   /*
+    * Reads the next CSV record into record, with an unquoted empty field as
+    * null the way COPY reads it.  Quoted fields may hold commas, doubled
+    * quotes and line breaks; blank lines are skipped.
+    *
+    * @return false at the end of the input
+    */
+   static boolean readRecord(Reader in, List<String> record) throws IOException {
+      record.clear();
+      int c = in.read();
+      while (c == '\n' || c == '\r')
+         c = in.read();
+      if (c < 0)
+         return false;
+      StringBuilder field = new StringBuilder(32);
+      boolean quoted = false;
+      boolean wasQuoted = false;
+      for (int previous = -1; ; previous = c, c = in.read()) {
+         if (c == '"') {
+            // a quote right after a closing quote is a doubled quote
+            if (!quoted && previous == '"')
+               field.append('"');
+            quoted = !quoted;
+            wasQuoted = true;
+         } else if (quoted) {
+            if (c < 0)
+               throw new IOException("The CSV ends inside a quoted field");
+            field.append((char) c);
+         } else if (c == ',' || c == '\n' || c < 0) {
+            record.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+            field.setLength(0);
+            wasQuoted = false;
+            if (c != ',')
+               return true;
+         } else if (c != '\r') {
+            field.append((char) c);
+         }
+      }
+   }//end readRecord
+
+   private void truncate(Map<String, Source> sources) throws SQLException {
+      StringBuilder tables = new StringBuilder();
+      for (String[] table : TABLES) {
+         if (!sources.containsKey(table[0]))
+            continue;
+         if (tables.length() > 0)
+            tables.append(", ");
+         tables.append(table[0]);
+      }
+      if (tables.length() == 0)
+         return;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      try {
+         java.sql.Statement stmt = pc.getConnection().createStatement();
+         try {
+            stmt.executeUpdate("TRUNCATE " + tables + " CASCADE");
+         } finally {
+            stmt.close();
+         }
+      } finally {
+         this._pool.release(pc);
+      }
+   }//end truncate
+
+   /**
+    * Rewrites CSV records as they are read, turning M/D/YY and M/D/YYYY
+    * dates into YYYY-MM-DD.  Records without a '/' are passed through
+    * untouched.  A record is normalized as a whole, so a quoted field that
+    * spans lines is never mistaken for the end of its record.
+    */
+   static class NormalizingReader extends Reader {
+      private final BufferedReader _in;
+      private final StringBuilder _line = new StringBuilder(256);
+      private int _pos = 0;
+      private boolean _eof = false;
+
+      NormalizingReader(BufferedReader in) {
+         this._in = in;
+      }
+
+      @Override
+      public int read(char[] buf, int off, int len) throws IOException {
+         if (len == 0)
+            return 0;
+         int written = 0;
+         while (written < len) {
+            if (this._pos == this._line.length()) {
+               if (this._eof || !fill())
+                  break;
+            }
+            int n = Math.min(len - written, this._line.length() - this._pos);
+            this._line.getChars(this._pos, this._pos + n, buf, off + written);
+            this._pos += n;
+            written += n;
+         }
+         return written == 0 ? -1 : written;
+      }
+
+      /*
+       * Reads the next CSV record, which runs over several lines when a
+       * quoted field holds a line break: while the quotes seen so far do not
+       * pair up, the line ended inside a quoted field.
+       */
+      private boolean fill() throws IOException {
+         String line = this._in.readLine();
+         this._line.setLength(0);
+         this._pos = 0;
+         if (line == null) {
+            this._eof = true;
+            return false;
+         }
+         if (quotes(line) % 2 != 0) {
+            StringBuilder record = new StringBuilder(line);
+            int quotes = quotes(line);
+            while (quotes % 2 != 0 && (line = this._in.readLine()) != null) {
+               record.append('\n').append(line);
+               quotes += quotes(line);
+            }
+            line = record.toString();
+         }
+         if (line.indexOf('/') < 0)
+            this._line.append(line);
+         else
+            normalize(line, this._line);
+         this._line.append('\n');
+         return true;
+      }
+
+      private static int quotes(String line) {
+         int count = 0;
+         for (int i = line.indexOf('"'); i >= 0; i = line.indexOf('"', i + 1))
+            ++count;
+         return count;
+      }
+
+      @Override
+      public void close() throws IOException {
+         this._in.close();
+      }
+   }//end NormalizingReader
+
+   /*
+    * Appends the record to out with every unquoted M/D/YY(YY) field
+    * rewritten as an ISO date.  Quoted fields are copied as they are.
+    */
+   static void normalize(String line, StringBuilder out) {
+      int start = 0;
+      int n = line.length();
+      while (start <= n) {
+         int end;
+         if (start < n && line.charAt(start) == '"') {
+            // quoted field: runs to the closing quote that is not doubled
+            end = start + 1;
+            while (end < n) {
+               if (line.charAt(end) == '"') {
+                  if (end + 1 < n && line.charAt(end + 1) == '"')
+                     end += 2;
+                  else
+                     break;
+               } else {
+                  ++end;
+               }
+            }
+            end = line.indexOf(',', Math.min(end, n));
+            if (end < 0)
+               end = n;
+            out.append(line, start, end);
+         } else {
+            end = line.indexOf(',', start);
+            if (end < 0)
+               end = n;
+            appendField(line, start, end, out);
+         }
+         if (end < n)
+            out.append(',');
+         start = end + 1;
+      }
+   }//end normalize
+
+   private static void appendField(String line, int start, int end, StringBuilder out) {
+      int slash1 = line.indexOf('/', start);
+      int slash2 = slash1 < 0 ? -1 : line.indexOf('/', slash1 + 1);
+      if (slash1 < 0 || slash2 < 0 || slash2 >= end
+          || !digits(line, start, slash1, 1, 2)
+          || !digits(line, slash1 + 1, slash2, 1, 2)
+          || !(digits(line, slash2 + 1, end, 2, 2) || digits(line, slash2 + 1, end, 4, 4))) {
+         out.append(line, start, end);
+         return;
+      }
+      int month = Integer.parseInt(line.substring(start, slash1));
+      int day = Integer.parseInt(line.substring(slash1 + 1, slash2));
+      int year = Integer.parseInt(line.substring(slash2 + 1, end));
+      if (end - slash2 - 1 == 2)
+         year += year < 70 ? 2000 : 1900;
+      out.append(year).append('-');
+      if (month < 10)
+         out.append('0');
+      out.append(month).append('-');
+      if (day < 10)
+         out.append('0');
+      out.append(day);
+   }
+
+   private static boolean digits(String s, int from, int to, int minLength, int maxLength) {
+      int length = to - from;
+      if (length < minLength || length > maxLength)
+         return false;
+      for (int i = from; i < to; ++i)
+         if (!Character.isDigit(s.charAt(i)))
+            return false;
+      return true;
+   }
+
+   /**
+    * Entry point of the load subcommand.
+    *
+    * @param args dbname port user [dataDir] [--parallel N] [--truncate]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println("Usage: java AirlineManagement load <dbname> <port> <user> "
+                            + "[dataDir] [--parallel N] [--truncate]");
+         return;
+      }
+      File dataDir = new File("data");
+      int parallelism = Runtime.getRuntime().availableProcessors();
+      boolean truncate = false;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--parallel") && i + 1 < args.length)
+            parallelism = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--truncate"))
+            truncate = true;
+         else
+            dataDir = new File(args[i]);
+      }
+
+      AirlineManagement esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(args[0], args[1], args[2], "");
+         BulkLoader loader = new BulkLoader(esql.getPool(), parallelism);
+
+         long start = System.nanoTime();
+         List<TableStats> stats = loader.load(fileSources(dataDir), truncate);
+         long nanos = System.nanoTime() - start;
+         long rows = 0;
+         for (TableStats table : stats)
+            rows += table.rows;
+         System.out.printf("Loaded %d rows into %d tables in %.2f s (%.0f rows/s)%n",
+                           rows, stats.size(), nanos / 1e9, rows * 1e9 / Math.max(1, nanos));
+
+         // the on-time summary is derived from FlightInstance
+         esql.getOnTimeStats().rebuild();
+      } catch (Exception e) {
+         System.err.println("Error - Bulk load failed: " + e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+}//end BulkLoader
@@ -0,0 +1,262 @@
+import java.sql.SQLException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class cancels reservations and promotes customers from the waitlist.
+ *
+ * Cancelling a reserved seat promotes the oldest waitlisted reservation of
+ * the same flight instance (earliest BookedAt, see SchemaMigrator) to
+ * reserved in the same transaction, so the seat is never counted free while
+ * someone is waiting for it.  Only when nobody is waiting is SeatsSold
+ * decremented.  ReservationIDs are not used for the order: legacy ids,
+ * "R" + milliseconds and ReservationIdGenerator ids do not sort together.
+ *
+ * Operations on one flight instance are ordered twice over:
+ *  - in memory, by a fair lock taken from a fixed set of stripes keyed by
+ *    FlightInstanceID, so cancellations of one flight run in arrival order
+ *    without one lock per flight;
+ *  - in the database, by locking the FlightInstance row first, the same row
+ *    BookingEngine updates before it inserts a reservation.  The lock is FOR
+ *    NO KEY UPDATE, the lock that UPDATE takes, so it does not block the KEY
+ *    SHARE lock a Reservation insert takes on the row through its foreign
+ *    key.  All writers take the locks in the same order, which rules out
+ *    deadlocks between them, and
+ *    waitlist rows are picked with FOR UPDATE SKIP LOCKED so a promotion never
+ *    waits on a row another transaction is already moving.
+ *
+ * A whole flight instance, for example a cancelled flight, is cancelled in
+ * batches of airline.cancel.batchSize reservations (default 500), each in a
+ * short transaction so the locks are held only briefly.  The first batch
+ * also marks the instance Cancelled, so no booking made between two batches
+ * can land on it (see BookingEngine).
+ *
+ * Customers cancel a reservation with feature21 and management cancels a
+ * flight with feature22, from the menu, FeatureCatalog, the HTTP server and
+ * the batch runner.
+ */
+public class CancellationEngine {
+
+   /**
+    * The outcome of a cancellation.
+    */
+   public static class Cancellation {
+      public final String reservationId;
+      public final int flightInstanceId;
+      public final String previousStatus;
+      // the waitlisted reservation that took the seat, or null
+      public final String promotedReservationId;
+
+      Cancellation(String reservationId, int flightInstanceId, String previousStatus, String promotedReservationId) {
+         this.reservationId = reservationId;
+         this.flightInstanceId = flightInstanceId;
+         this.previousStatus = previousStatus;
+         this.promotedReservationId = promotedReservationId;
+      }
+   }//end Cancellation
+
+   static final String STATUS_CANCELLED = "cancelled";
+
+   static final String FIND_SQL =
+      "SELECT FlightInstanceID FROM Reservation WHERE ReservationID = ?";
+   static final String FIND_INSTANCE_SQL =
+      "SELECT FlightInstanceID FROM FlightInstance WHERE FlightNumber = ? AND FlightDate = ?";
+   static final String LOCK_FLIGHT_SQL =
+      "SELECT SeatsSold, FlightNumber, FlightDate FROM FlightInstance WHERE FlightInstanceID = ? " +
+      "FOR NO KEY UPDATE";
+   static final String CANCEL_SQL =
+      "UPDATE Reservation r SET Status = '" + STATUS_CANCELLED + "' " +
+      "FROM (SELECT ReservationID, Status FROM Reservation WHERE ReservationID = ? FOR UPDATE) old " +
+      "WHERE r.ReservationID = old.ReservationID AND old.Status <> '" + STATUS_CANCELLED + "' " +
+      "RETURNING old.Status";
+   static final String PROMOTE_SQL =
+      "UPDATE Reservation SET Status = '" + BookingEngine.STATUS_RESERVED + "' " +
+      "WHERE ReservationID = ( " +
+      "   SELECT ReservationID FROM Reservation " +
+      "   WHERE FlightInstanceID = ? AND Status = '" + BookingEngine.STATUS_WAITLIST + "' " +
+      "   ORDER BY BookedAt, ReservationID LIMIT 1 FOR UPDATE SKIP LOCKED) " +
+      "RETURNING ReservationID";
+   static final String RELEASE_SEATS_SQL =
+      "UPDATE FlightInstance SET SeatsSold = GREATEST(SeatsSold - ?, 0) WHERE FlightInstanceID = ? " +
+      "RETURNING SeatsSold, txid_current()";
+   static final String CANCEL_BATCH_SQL =
+      "UPDATE Reservation r SET Status = '" + STATUS_CANCELLED + "' " +
+      "FROM ( " +
+      "   SELECT ReservationID, Status FROM Reservation " +
+      "   WHERE FlightInstanceID = ? AND Status <> '" + STATUS_CANCELLED + "' " +
+      "   ORDER BY ReservationID LIMIT ? FOR UPDATE SKIP LOCKED) old " +
+      "WHERE r.ReservationID = old.ReservationID " +
+      "RETURNING old.Status";
+   static final String MARK_CANCELLED_SQL =
+      "UPDATE FlightInstance SET Cancelled = true WHERE FlightInstanceID = ? AND NOT Cancelled";
+   static final String REMAINING_SQL =
+      "SELECT COUNT(*) FROM Reservation WHERE FlightInstanceID = ? AND Status <> '" + STATUS_CANCELLED + "'";
+
+   static final int BATCH_SIZE = Integer.getInteger("airline.cancel.batchSize", 500);
+
+   private static final int STRIPES = 64;
+   private static final int MAX_ATTEMPTS = Integer.getInteger("airline.booking.maxAttempts", 8);
+
+   private final AirlineManagement _esql;
+   private final ReentrantLock[] _stripes = new ReentrantLock[STRIPES];
+
+   public CancellationEngine(AirlineManagement esql) {
+      this._esql = esql;
+      for (int i = 0; i < STRIPES; ++i)
+         this._stripes[i] = new ReentrantLock(true);
+   }
+
+   /**
+    * Cancels one reservation.  When it held a seat, the oldest waitlisted
+    * reservation of the flight instance is promoted in the same transaction.
+    *
+    * @param reservationId the reservation to cancel
+    * @return the cancellation, or null when the reservation does not exist
+    *         or was already cancelled
+    * @throws java.sql.SQLException when the cancellation fails
+    */
+   public Cancellation cancel(final String reservationId) throws SQLException {
+      ColumnarResult found = this._esql.executeQueryAndReturnColumns(FIND_SQL, reservationId);
+      if (found.getRowCount() == 0)
+         return null;
+      final int flightInstanceId = found.getInt(0, 0);
+
+      ReentrantLock lock = stripe(flightInstanceId);
+      lock.lock();
+      try {
+         for (int attempt = 1; ; ++attempt) {
+            try {
+               final ColumnarResult[] released = new ColumnarResult[2];
+               Cancellation cancellation = this._esql.executeInTransaction(tx -> {
+                  ColumnarResult flight = tx.executeQueryAndReturnColumns(LOCK_FLIGHT_SQL, flightInstanceId);
+
+                  ColumnarResult cancelled = tx.executeQueryAndReturnColumns(CANCEL_SQL, reservationId);
+                  if (cancelled.getRowCount() == 0)
+                     return null;
+                  String previous = cancelled.getString(0, 0);
+
+                  String promoted = null;
+                  if (BookingEngine.STATUS_RESERVED.equals(previous)) {
+                     ColumnarResult next = tx.executeQueryAndReturnColumns(PROMOTE_SQL, flightInstanceId);
+                     if (next.getRowCount() > 0)
+                        promoted = next.getString(0, 0);
+                     else {
+                        released[0] = flight;
+                        released[1] = tx.executeQueryAndReturnColumns(RELEASE_SEATS_SQL, 1, flightInstanceId);
+                     }
+                  }
+                  return new Cancellation(reservationId, flightInstanceId, previous, promoted);
+               });
+               reportReleased(released);
+               return cancellation;
+            } catch (SQLException e) {
+               if (attempt >= MAX_ATTEMPTS || !BookingEngine.isRetryable(e))
+                  throw e;
+               BookingEngine.backoff(attempt);
+            }
+         }
+      } finally {
+         lock.unlock();
+      }
+   }//end cancel
+
+   /**
+    * Cancels every reservation of a flight on a date, BATCH_SIZE reservations
+    * per transaction.
+    *
+    * @param flightNumber the flight
+    * @param flightDate the date it flies
+    * @return the number of reservations cancelled, or -1 when the flight does
+    *         not fly on that date
+    * @throws java.sql.SQLException when a batch fails
+    */
+   public long cancelFlight(String flightNumber, java.sql.Date flightDate) throws SQLException {
+      ColumnarResult found = this._esql.executeQueryAndReturnColumns(FIND_INSTANCE_SQL, flightNumber, flightDate);
+      if (found.getRowCount() == 0)
+         return -1;
+      return cancelFlightInstance(found.getInt(0, 0), BATCH_SIZE);
+   }
+
+   /**
+    * Cancels every reservation of a flight instance, batchSize reservations
+    * per transaction.  Nobody is promoted, since the whole flight is gone.
+    * The instance is marked cancelled in the transaction of the first batch,
+    * from then on it takes no bookings.
+    *
+    * @param flightInstanceId the flight instance to cancel
+    * @param batchSize the number of reservations cancelled per transaction
+    * @return the number of reservations cancelled
+    * @throws java.sql.SQLException when a batch fails
+    */
+   public long cancelFlightInstance(final int flightInstanceId, final int batchSize) throws SQLException {
+      if (batchSize < 1)
+         throw new IllegalArgumentException("batch size must be positive");
+
+      ReentrantLock lock = stripe(flightInstanceId);
+      lock.lock();
+      try {
+         long total = 0;
+         int attempt = 0;
+         while (true) {
+            int done;
+            final ColumnarResult[] released = new ColumnarResult[2];
+            try {
+               done = this._esql.executeInTransaction(tx -> {
+                  ColumnarResult flight = tx.executeQueryAndReturnColumns(LOCK_FLIGHT_SQL, flightInstanceId);
+                  tx.executeUpdate(MARK_CANCELLED_SQL, flightInstanceId);
+                  ColumnarResult batch = tx.executeQueryAndReturnColumns(CANCEL_BATCH_SQL, flightInstanceId, batchSize);
+                  int seats = 0;
+                  for (int row = 0; row < batch.getRowCount(); ++row)
+                     if (BookingEngine.STATUS_RESERVED.equals(batch.getString(row, 0)))
+                        ++seats;
+                  if (seats > 0) {
+                     released[0] = flight;
+                     released[1] = tx.executeQueryAndReturnColumns(RELEASE_SEATS_SQL, seats, flightInstanceId);
+                  }
+                  return batch.getRowCount();
+               });
+            } catch (SQLException e) {
+               if (++attempt >= MAX_ATTEMPTS || !BookingEngine.isRetryable(e))
+                  throw e;
+               BookingEngine.backoff(attempt);
+               continue;
+            }
+            reportReleased(released);
+            total += done;
+            if (done > 0) {
+               attempt = 0;
+               continue;
+            }
+
+            // an empty batch can also mean the remaining rows were locked by
+            // someone else and skipped; wait for them before giving up.
+            ColumnarResult remaining = this._esql.executeQueryAndReturnColumns(REMAINING_SQL, flightInstanceId);
+            if (remaining.getLong(0, 0) == 0)
+               return total;
+            if (++attempt >= MAX_ATTEMPTS)
+               throw new SQLException(remaining.getLong(0, 0) + " reservations of flight instance "
+                                      + flightInstanceId + " stayed locked, cancelled " + total);
+            BookingEngine.backoff(attempt);
+         }
+      } finally {
+         lock.unlock();
+      }
+   }//end cancelFlightInstance
+
+   /*
+    * Tells the sales rollup about seats a committed transaction released,
+    * given the locked FlightInstance row before and the SeatsSold after.
+    */
+   private void reportReleased(ColumnarResult[] released) {
+      ColumnarResult before = released[0];
+      ColumnarResult after = released[1];
+      if (before == null || after == null || after.getRowCount() == 0)
+         return;
+      long seats = after.getLong(0, 0) - before.getLong(0, 0);
+      this._esql.getSalesRollup().seatsSold(before.getString(0, 1), before.getDate(0, 2), seats, after.getLong(0, 1));
+   }
+
+   private ReentrantLock stripe(int flightInstanceId) {
+      int h = flightInstanceId * 0x9E3779B9;
+      return this._stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+   }
+}//end CancellationEngine
@@ -0,0 +1,368 @@
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This class holds a query result column by column, each column in a
+ * primitive array chosen from its SQL type:
+ *
+ *    SMALLINT, INTEGER           int[]
+ *    BIGINT                      long[]
+ *    NUMERIC, DECIMAL            BigDecimal[]
+ *    REAL                        float[]
+ *    FLOAT, DOUBLE               double[]
+ *    DATE                        long[] of epoch days
+ *    BOOLEAN, BIT                BitSet
+ *    anything else               String[]
+ *
+ * NULLs are tracked in a BitSet per column.  A result of n rows therefore
+ * costs a handful of arrays instead of n lists of boxed strings, and numbers
+ * can be read back without re-parsing them.  NUMERIC keeps every digit the
+ * server sent, since an unconstrained NUMERIC such as AVG(TicketCost) can
+ * hold more than a double does.
+ *
+ * Rows and columns are numbered from 0.  asRows() gives a List<List<String>>
+ * view for code written against executeQueryAndReturnResult; its strings are
+ * rendered on demand the way the driver's getString does (booleans as t/f,
+ * dates as YYYY-MM-DD).
+ */
+public class ColumnarResult {
+   private static final int KIND_INT = 0;
+   private static final int KIND_LONG = 1;
+   private static final int KIND_DOUBLE = 2;
+   private static final int KIND_DATE = 3;
+   private static final int KIND_BOOLEAN = 4;
+   private static final int KIND_STRING = 5;
+   private static final int KIND_DECIMAL = 6;
+   private static final int KIND_FLOAT = 7;
+
+   private final String[] _names;
+   private final int[] _kinds;
+   private final Object[] _columns;
+   private final BitSet[] _nulls;
+   private int _rowCount = 0;
+   private int _capacity;
+
+   private ColumnarResult(ResultSetMetaData rsmd, int initialCapacity) throws SQLException {
+      int numCol = rsmd.getColumnCount ();
+      this._names = new String[numCol];
+      this._kinds = new int[numCol];
+      this._columns = new Object[numCol];
+      this._nulls = new BitSet[numCol];
+      this._capacity = Math.max(16, initialCapacity);
+      for (int c = 0; c < numCol; ++c) {
+         this._names[c] = rsmd.getColumnName(c + 1);
+         this._kinds[c] = kindOf(rsmd.getColumnType(c + 1));
+         this._nulls[c] = new BitSet();
+         this._columns[c] = allocate(this._kinds[c], this._capacity);
+      }
+   }
+
+   /**
+    * Reads every row of the result set into columns and closes it.
+    *
+    * @param rs the result set to read
+    * @return the columnar copy of the rows
+    * @throws java.sql.SQLException when reading the result set fails
+    */
+   public static ColumnarResult read(ResultSet rs) throws SQLException {
+      try {
+         ColumnarResult result = new ColumnarResult(rs.getMetaData (), rs.getFetchSize());
+         while (rs.next())
+            result.append(rs);
+         return result;
+      } finally {
+         rs.close();
+      }
+   }//end read
+
+   private void append(ResultSet rs) throws SQLException {
+      if (this._rowCount == this._capacity)
+         grow();
+      int row = this._rowCount;
+      for (int c = 0; c < this._kinds.length; ++c) {
+         int i = c + 1;
+         switch (this._kinds[c]) {
+            case KIND_INT:
+               ((int[]) this._columns[c])[row] = rs.getInt(i);
+               break;
+            case KIND_LONG:
+               ((long[]) this._columns[c])[row] = rs.getLong(i);
+               break;
+            case KIND_DOUBLE:
+               ((double[]) this._columns[c])[row] = rs.getDouble(i);
+               break;
+            case KIND_FLOAT:
+               ((float[]) this._columns[c])[row] = rs.getFloat(i);
+               break;
+            case KIND_DECIMAL:
+               ((BigDecimal[]) this._columns[c])[row] = rs.getBigDecimal(i);
+               break;
+            case KIND_DATE:
+               Date date = rs.getDate(i);
+               if (date != null)
+                  ((long[]) this._columns[c])[row] = date.toLocalDate().toEpochDay();
+               break;
+            case KIND_BOOLEAN:
+               if (rs.getBoolean(i))
+                  ((BitSet) this._columns[c]).set(row);
+               break;
+            default:
+               ((String[]) this._columns[c])[row] = rs.getString(i);
+               break;
+         }
+         if (rs.wasNull())
+            this._nulls[c].set(row);
+      }
+      ++this._rowCount;
+   }//end append
+
+   private void grow() {
+      int capacity = this._capacity * 2;
+      for (int c = 0; c < this._columns.length; ++c) {
+         Object column = this._columns[c];
+         if (column instanceof int[])
+            this._columns[c] = Arrays.copyOf((int[]) column, capacity);
+         else if (column instanceof long[])
+            this._columns[c] = Arrays.copyOf((long[]) column, capacity);
+         else if (column instanceof double[])
+            this._columns[c] = Arrays.copyOf((double[]) column, capacity);
+         else if (column instanceof float[])
+            this._columns[c] = Arrays.copyOf((float[]) column, capacity);
+         else if (column instanceof BigDecimal[])
+            this._columns[c] = Arrays.copyOf((BigDecimal[]) column, capacity);
+         else if (column instanceof String[])
+            this._columns[c] = Arrays.copyOf((String[]) column, capacity);
+      }
+      this._capacity = capacity;
+   }
+
+   private static int kindOf(int sqlType) {
+      switch (sqlType) {
+         case Types.TINYINT:
+         case Types.SMALLINT:
+         case Types.INTEGER:
+            return KIND_INT;
+         case Types.BIGINT:
+            return KIND_LONG;
+         case Types.NUMERIC:
+         case Types.DECIMAL:
+            return KIND_DECIMAL;
+         case Types.REAL:
+            // float4; widened to double it would print digits the server never had
+            return KIND_FLOAT;
+         case Types.FLOAT:
+         case Types.DOUBLE:
+            return KIND_DOUBLE;
+         case Types.DATE:
+            return KIND_DATE;
+         case Types.BOOLEAN:
+         case Types.BIT:
+            return KIND_BOOLEAN;
+         default:
+            return KIND_STRING;
+      }
+   }
+
+   private static Object allocate(int kind, int capacity) {
+      switch (kind) {
+         case KIND_INT: return new int[capacity];
+         case KIND_LONG: return new long[capacity];
+         case KIND_DOUBLE: return new double[capacity];
+         case KIND_FLOAT: return new float[capacity];
+         case KIND_DECIMAL: return new BigDecimal[capacity];
+         case KIND_DATE: return new long[capacity];
+         case KIND_BOOLEAN: return new BitSet(capacity);
+         default: return new String[capacity];
+      }
+   }
+
+   public int getRowCount() { return this._rowCount; }
+   public int getColumnCount() { return this._names.length; }
+   public String getColumnName(int col) { return this._names[col]; }
+
+   /**
+    * @return the index of the named column (case-insensitive), or -1
+    */
+   public int getColumnIndex(String name) {
+      for (int c = 0; c < this._names.length; ++c)
+         if (this._names[c].equalsIgnoreCase(name))
+            return c;
+      return -1;
+   }
+
+   /**
+    * @return whether the column holds numbers (int, long, float, double or NUMERIC)
+    */
+   public boolean isNumericColumn(int col) {
+      int kind = this._kinds[col];
+      return kind == KIND_INT || kind == KIND_LONG || kind == KIND_DOUBLE || kind == KIND_FLOAT
+             || kind == KIND_DECIMAL;
+   }
+
+   /**
+    * @return whether the column holds booleans
+    */
+   public boolean isBooleanColumn(int col) {
+      return this._kinds[col] == KIND_BOOLEAN;
+   }
+
+   public boolean isNull(int row, int col) {
+      checkRow(row);
+      return this._nulls[col].get(row);
+   }
+
+   /**
+    * @return the value of an integer column, 0 when it is NULL
+    */
+   public int getInt(int row, int col) {
+      checkRow(row);
+      Object column = this._columns[col];
+      if (column instanceof int[])
+         return ((int[]) column)[row];
+      if (column instanceof long[] && this._kinds[col] == KIND_LONG)
+         return Math.toIntExact(((long[]) column)[row]);
+      throw typeMismatch(col, "int");
+   }
+
+   /**
+    * @return the value of an integer column widened to long, 0 when it is NULL
+    */
+   public long getLong(int row, int col) {
+      checkRow(row);
+      Object column = this._columns[col];
+      if (column instanceof int[])
+         return ((int[]) column)[row];
+      if (column instanceof long[] && this._kinds[col] == KIND_LONG)
+         return ((long[]) column)[row];
+      throw typeMismatch(col, "long");
+   }
+
+   /**
+    * @return the value of a numeric column, 0 when it is NULL
+    */
+   public double getDouble(int row, int col) {
+      checkRow(row);
+      switch (this._kinds[col]) {
+         case KIND_DOUBLE: return ((double[]) this._columns[col])[row];
+         case KIND_FLOAT: return ((float[]) this._columns[col])[row];
+         case KIND_DECIMAL: {
+            BigDecimal value = ((BigDecimal[]) this._columns[col])[row];
+            return value == null ? 0 : value.doubleValue();
+         }
+         case KIND_INT: return ((int[]) this._columns[col])[row];
+         case KIND_LONG: return ((long[]) this._columns[col])[row];
+         default: throw typeMismatch(col, "double");
+      }
+   }
+
+   /**
+    * @return the exact value of a NUMERIC column, or null when it is NULL
+    */
+   public BigDecimal getBigDecimal(int row, int col) {
+      checkRow(row);
+      switch (this._kinds[col]) {
+         case KIND_DECIMAL: return ((BigDecimal[]) this._columns[col])[row];
+         case KIND_INT: return isNull(row, col) ? null : BigDecimal.valueOf(((int[]) this._columns[col])[row]);
+         case KIND_LONG: return isNull(row, col) ? null : BigDecimal.valueOf(((long[]) this._columns[col])[row]);
+         default: throw typeMismatch(col, "BigDecimal");
+      }
+   }
+
+   /**
+    * @return the value of a boolean column, false when it is NULL
+    */
+   public boolean getBoolean(int row, int col) {
+      checkRow(row);
+      if (this._kinds[col] != KIND_BOOLEAN)
+         throw typeMismatch(col, "boolean");
+      return ((BitSet) this._columns[col]).get(row);
+   }
+
+   /**
+    * @return the value of a date column as days since 1970-01-01
+    */
+   public long getEpochDay(int row, int col) {
+      checkRow(row);
+      if (this._kinds[col] != KIND_DATE)
+         throw typeMismatch(col, "date");
+      return ((long[]) this._columns[col])[row];
+   }
+
+   /**
+    * @return the value of a date column, or null when it is NULL
+    */
+   public LocalDate getDate(int row, int col) {
+      return isNull(row, col) ? null : LocalDate.ofEpochDay(getEpochDay(row, col));
+   }
+
+   /**
+    * Renders any column the way ResultSet.getString would.
+    *
+    * @return the value as text, or null when it is NULL
+    */
+   public String getString(int row, int col) {
+      if (isNull(row, col))
+         return null;
+      switch (this._kinds[col]) {
+         case KIND_INT:
+            return Integer.toString(((int[]) this._columns[col])[row]);
+         case KIND_LONG:
+            return Long.toString(((long[]) this._columns[col])[row]);
+         case KIND_DOUBLE:
+            return BigDecimal.valueOf(((double[]) this._columns[col])[row]).stripTrailingZeros().toPlainString();
+         case KIND_FLOAT: {
+            float value = ((float[]) this._columns[col])[row];
+            if (Float.isNaN(value) || Float.isInfinite(value))
+               return Float.toString(value);
+            return new BigDecimal(Float.toString(value)).stripTrailingZeros().toPlainString();
+         }
+         case KIND_DECIMAL:
+            // the digits and scale the server sent
+            return ((BigDecimal[]) this._columns[col])[row].toPlainString();
+         case KIND_DATE:
+            return LocalDate.ofEpochDay(((long[]) this._columns[col])[row]).toString();
+         case KIND_BOOLEAN:
+            return ((BitSet) this._columns[col]).get(row) ? "t" : "f";
+         default:
+            return ((String[]) this._columns[col])[row];
+      }
+   }//end getString
+
+   /**
+    * @return a read-only row view compatible with executeQueryAndReturnResult
+    */
+   public List<List<String>> asRows() {
+      return new AbstractList<List<String>>() {
+         @Override
+         public List<String> get(final int row) {
+            checkRow(row);
+            return new AbstractList<String>() {
+               @Override
+               public String get(int col) { return getString(row, col); }
+               @Override
+               public int size() { return getColumnCount(); }
+            };
+         }
+         @Override
+         public int size() { return getRowCount(); }
+      };
+   }//end asRows
+
+   private void checkRow(int row) {
+      if (row < 0 || row >= this._rowCount)
+         throw new IndexOutOfBoundsException("row " + row + " of " + this._rowCount);
+   }
+
+   private IllegalStateException typeMismatch(int col, String wanted) {
+      return new IllegalStateException("column " + this._names[col] + " cannot be read as " + wanted);
+   }
+}//end ColumnarResult
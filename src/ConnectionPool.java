@@ -0,0 +1,397 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections shared
+ * by every feature of AirlineManagement.  Callers borrow a connection, run
+ * their statements and release it again.
+ *
+ * The pool keeps at least minSize connections open and never more than
+ * maxSize.  A background housekeeper closes connections that stay idle for
+ * longer than the idle timeout, tops the pool back up to minSize and reports
+ * connections that have been borrowed for longer than the leak threshold.
+ * Connections are validated before they are handed out, so a connection that
+ * was dropped by the server is replaced instead of failing the feature.
+ *
+ * Settings are read from system properties (-Dairline.pool.max=20 ...):
+ *    airline.pool.min            connections opened up front (default 1)
+ *    airline.pool.max            upper bound on open connections (default 10)
+ *    airline.pool.idleTimeout    idle time in ms before eviction (default 300000)
+ *    airline.pool.borrowTimeout  max wait in ms for a free connection (default 30000)
+ *    airline.pool.leakThreshold  borrow time in ms reported as a leak (default 60000, 0 disables)
+ *    airline.pool.leakTrace      report the stack that borrowed a leaked connection (default false)
+ *    airline.pool.validateAfter  idle time in ms after which a borrow re-validates (default 1000)
+ *    airline.pool.statementCache prepared statements cached per connection (default 64)
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection together with the bookkeeping the pool needs.
+    */
+   public static class PooledConnection {
+      private final Connection _connection;
+      private final long _createdAt;
+      private volatile long _lastReleased;
+      private volatile long _borrowedAt;
+      private volatile String _borrowedBy;
+      private volatile Throwable _borrowTrace;
+      private volatile boolean _leakReported;
+      private volatile boolean _broken;
+      private final StatementCache _statements;
+
+      PooledConnection(Connection connection, int statementCacheSize) {
+         this._connection = connection;
+         this._createdAt = System.currentTimeMillis();
+         this._lastReleased = this._createdAt;
+         this._statements = new StatementCache(statementCacheSize);
+      }
+
+      /**
+       * @return the underlying JDBC connection
+       */
+      public Connection getConnection() {
+         return this._connection;
+      }
+
+      /**
+       * @return the prepared statements cached on this connection
+       */
+      public StatementCache getStatementCache() {
+         return this._statements;
+      }
+   }//end PooledConnection
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _idleTimeoutMillis;
+   private final long _borrowTimeoutMillis;
+   private final long _leakThresholdMillis;
+   // capturing a stack trace costs every borrow, so it is opt-in
+   private final boolean _leakTrace = Boolean.getBoolean("airline.pool.leakTrace");
+   private final long _validateAfterMillis;
+   private final int _statementCacheSize = Integer.getInteger("airline.pool.statementCache", 64);
+
+   // idle connections, most recently released first.
+   private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+   // connections currently handed out to callers.
+   private final Set<PooledConnection> _borrowed = ConcurrentHashMap.newKeySet();
+   // one permit per connection a caller may hold at the same time.
+   private final Semaphore _permits;
+   private final AtomicInteger _open = new AtomicInteger();
+   private final ScheduledExecutorService _housekeeper;
+   private volatile boolean _closed = false;
+
+   // metrics
+   private final AtomicLong _borrows = new AtomicLong();
+   private final AtomicLong _waits = new AtomicLong();
+   private final AtomicLong _waitNanosTotal = new AtomicLong();
+   private final AtomicLong _waitNanosMax = new AtomicLong();
+   private final AtomicLong _timeouts = new AtomicLong();
+   private final AtomicLong _created = new AtomicLong();
+   private final AtomicLong _evicted = new AtomicLong();
+   private final AtomicLong _invalidated = new AtomicLong();
+   private final AtomicLong _leaks = new AtomicLong();
+
+   /**
+    * Creates a new pool and opens the minimum number of connections.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when the initial connections cannot be made
+    */
+   public ConnectionPool(String url, String user, String passwd) throws SQLException {
+      this(url, user, passwd,
+           Integer.getInteger("airline.pool.min", 1),
+           Integer.getInteger("airline.pool.max", 10),
+           Long.getLong("airline.pool.idleTimeout", 300000L),
+           Long.getLong("airline.pool.borrowTimeout", 30000L),
+           Long.getLong("airline.pool.leakThreshold", 60000L),
+           Long.getLong("airline.pool.validateAfter", 1000L));
+   }
+
+   public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+                         long idleTimeoutMillis, long borrowTimeoutMillis,
+                         long leakThresholdMillis, long validateAfterMillis) throws SQLException {
+      if (maxSize < 1 || minSize < 0 || minSize > maxSize)
+         throw new IllegalArgumentException("invalid pool size min=" + minSize + " max=" + maxSize);
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._idleTimeoutMillis = idleTimeoutMillis;
+      this._borrowTimeoutMillis = borrowTimeoutMillis;
+      this._leakThresholdMillis = leakThresholdMillis;
+      this._validateAfterMillis = validateAfterMillis;
+      this._permits = new Semaphore(maxSize, true);
+
+      for (int i = 0; i < minSize; ++i)
+         this._idle.offerLast(open());
+
+      this._housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "connection-pool-housekeeper");
+         t.setDaemon(true);
+         return t;
+      });
+      long period = Math.max(1000L, Math.min(idleTimeoutMillis,
+                             leakThresholdMillis > 0 ? leakThresholdMillis : Long.MAX_VALUE) / 2);
+      this._housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a validated connection, waiting up to the borrow timeout for one
+    * to become available.  Every borrowed connection must be handed back with
+    * release().
+    *
+    * @return a connection reserved for the caller
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public PooledConnection borrow() throws SQLException {
+      if (this._closed)
+         throw new SQLException("Connection pool is closed");
+
+      long start = System.nanoTime();
+      try {
+         if (!this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            // a timed out wait counts towards the average and maximum wait too
+            recordWait(System.nanoTime() - start);
+            this._timeouts.incrementAndGet();
+            throw new SQLException("Timed out after " + this._borrowTimeoutMillis
+                                   + " ms waiting for a database connection");
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }
+      recordWait(System.nanoTime() - start);
+
+      try {
+         PooledConnection pc;
+         while ((pc = this._idle.pollFirst()) != null) {
+            if (validate(pc))
+               break;
+            close(pc);
+            this._invalidated.incrementAndGet();
+         }
+         if (pc == null)
+            pc = open();
+
+         pc._borrowedAt = System.currentTimeMillis();
+         pc._leakReported = false;
+         pc._borrowedBy = Thread.currentThread().getName();
+         pc._borrowTrace = this._leakThresholdMillis > 0 && this._leakTrace
+                           ? new Throwable("connection borrowed by " + pc._borrowedBy)
+                           : null;
+         this._borrowed.add(pc);
+         this._borrows.incrementAndGet();
+         return pc;
+      } catch (SQLException | RuntimeException e) {
+         this._permits.release();
+         throw e;
+      }
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection to the pool.  Connections that were marked
+    * broken are closed instead of being reused.
+    *
+    * @param pc the connection obtained from borrow(), may be null
+    */
+   public void release(PooledConnection pc) {
+      if (pc == null || !this._borrowed.remove(pc))
+         return;
+      try {
+         if (pc._broken || this._closed || this._idle.size() >= this._maxSize) {
+            close(pc);
+         } else {
+            pc._borrowTrace = null;
+            pc._lastReleased = System.currentTimeMillis();
+            this._idle.offerFirst(pc);
+         }
+      } finally {
+         this._permits.release();
+      }
+   }//end release
+
+   /**
+    * Marks the connection as unusable if the failure means the session is
+    * gone (SQLState class 08, connection exception).  It is then closed when
+    * released rather than handed to the next caller.
+    *
+    * @param pc the borrowed connection
+    * @param e the failure raised while using it
+    */
+   public void discardIfBroken(PooledConnection pc, SQLException e) {
+      String state = e.getSQLState();
+      boolean broken = state != null && state.startsWith("08");
+      if (!broken) {
+         try {
+            broken = pc._connection.isClosed();
+         } catch (SQLException ignored) {
+            broken = true;
+         }
+      }
+      if (broken) {
+         pc._broken = true;
+         this._invalidated.incrementAndGet();
+      }
+   }//end discardIfBroken
+
+   /**
+    * Closes every idle connection and stops the housekeeper.  Connections that
+    * are still borrowed are closed as they are released.
+    */
+   public void close() {
+      this._closed = true;
+      this._housekeeper.shutdownNow();
+      PooledConnection pc;
+      while ((pc = this._idle.pollFirst()) != null)
+         close(pc);
+   }//end close
+
+   /**
+    * Opens a connection to the database of the pool that is not part of
+    * it, for background work that must not hold one of its connections.
+    * The caller closes it.
+    *
+    * @return the new connection
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection openUnpooled() throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }
+
+   private PooledConnection open() throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+      this._open.incrementAndGet();
+      this._created.incrementAndGet();
+      return new PooledConnection(connection, this._statementCacheSize);
+   }
+
+   private void close(PooledConnection pc) {
+      try {
+         pc._statements.close();
+         pc._connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      } finally {
+         this._open.decrementAndGet();
+      }
+   }
+
+   private boolean validate(PooledConnection pc) {
+      try {
+         if (pc._connection.isClosed())
+            return false;
+         if (System.currentTimeMillis() - pc._lastReleased < this._validateAfterMillis)
+            return true;
+         Statement stmt = pc._connection.createStatement();
+         try {
+            stmt.execute("SELECT 1");
+         } finally {
+            stmt.close();
+         }
+         return true;
+      } catch (SQLException e) {
+         return false;
+      }
+   }//end validate
+
+   private void recordWait(long nanos) {
+      this._waits.incrementAndGet();
+      this._waitNanosTotal.addAndGet(nanos);
+      long max;
+      while (nanos > (max = this._waitNanosMax.get()))
+         if (this._waitNanosMax.compareAndSet(max, nanos))
+            break;
+   }
+
+   /*
+    * Evicts idle connections, refills the pool to its minimum size and reports
+    * connections that look leaked.
+    */
+   private void housekeep() {
+      long now = System.currentTimeMillis();
+
+      Iterator<PooledConnection> it = this._idle.descendingIterator();
+      while (it.hasNext() && this._open.get() > this._minSize) {
+         PooledConnection pc = it.next();
+         if (now - pc._lastReleased >= this._idleTimeoutMillis && this._idle.removeLastOccurrence(pc)) {
+            close(pc);
+            this._evicted.incrementAndGet();
+         }
+      }
+
+      try {
+         while (!this._closed && this._open.get() < this._minSize)
+            this._idle.offerLast(open());
+      } catch (SQLException e) {
+         System.err.println("Connection pool: unable to refill: " + e.getMessage());
+      }
+
+      if (this._leakThresholdMillis > 0) {
+         for (PooledConnection pc : this._borrowed) {
+            if (!pc._leakReported && now - pc._borrowedAt >= this._leakThresholdMillis) {
+               pc._leakReported = true;
+               this._leaks.incrementAndGet();
+               System.err.println("Connection pool: connection held by " + pc._borrowedBy + " for "
+                                  + (now - pc._borrowedAt) + " ms, possible leak");
+               Throwable trace = pc._borrowTrace;
+               if (trace != null)
+                  trace.printStackTrace();
+            }
+         }
+      }
+   }//end housekeep
+
+   public int getOpenCount() { return this._open.get(); }
+   public int getIdleCount() { return this._idle.size(); }
+   public int getBorrowedCount() { return this._borrowed.size(); }
+   public int getMaxSize() { return this._maxSize; }
+   public long getBorrowCount() { return this._borrows.get(); }
+   public long getTimeoutCount() { return this._timeouts.get(); }
+   public long getLeakCount() { return this._leaks.get(); }
+
+   /**
+    * @return the average time callers waited for a connection, in
+    *         milliseconds, timed out waits included
+    */
+   public double getAverageWaitMillis() {
+      long waits = this._waits.get();
+      return waits == 0 ? 0.0 : this._waitNanosTotal.get() / 1e6 / waits;
+   }
+
+   /**
+    * @return the longest time a caller waited for a connection, in milliseconds
+    */
+   public double getMaxWaitMillis() {
+      return this._waitNanosMax.get() / 1e6;
+   }
+
+   @Override
+   public String toString() {
+      return String.format(
+         "open=%d idle=%d borrowed=%d max=%d borrows=%d avgWait=%.3fms maxWait=%.3fms " +
+         "timeouts=%d created=%d evicted=%d invalidated=%d leaks=%d",
+         getOpenCount(), getIdleCount(), getBorrowedCount(), this._maxSize, this._borrows.get(),
+         getAverageWaitMillis(), getMaxWaitMillis(), this._timeouts.get(), this._created.get(),
+         this._evicted.get(), this._invalidated.get(), this._leaks.get());
+   }
+}//end ConnectionPool
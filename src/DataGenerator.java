@@ -0,0 +1,643 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class generates a dataset shaped like the CSV files in data/ at any
+ * size, for measuring the application against realistic volumes.  Scale 1
+ * has as many customers (500) and about as many reservations (3,000) as
+ * data/; both grow linearly with the scale, so scale 100000 gives some 300
+ * million reservations.  Flights, planes and crews grow with the square
+ * root of the scale, and the number of days flown makes up the rest.
+ *
+ * The data is skewed the way airline data is:
+ *
+ *    cities are drawn from a Zipf distribution, so a few hubs have most
+ *       of the routes;
+ *    each flight has a popularity drawn from a Zipf distribution, so a few
+ *       hot routes sell out and build waitlists;
+ *    demand peaks on Fridays and Sundays, in the summer and around the
+ *       turn of the year, and punctuality drops on those days;
+ *    a small share of the customers makes a large share of the bookings.
+ *
+ * Every table is consistent with the others: SeatsSold of each instance is
+ * the number of its reservations with status reserved, reservations beyond
+ * the seats are waitlisted, and every foreign key points at a generated row.
+ *
+ * The output depends only on the seed and the scale.  Each table is
+ * generated by its own stream, and each flight instance draws from a
+ * random generator seeded from its id, so tables can be produced in
+ * parallel and in any order and still agree.
+ *
+ * sources() feeds BulkLoader straight from generator threads through
+ * pipes, without temporary files; writeFiles() writes the CSV files instead.
+ *
+ * Usage: java AirlineManagement generate <dbname> <port> <user> [--scale F] [--seed N] [--parallel N] [--truncate]
+ *    or: java AirlineManagement generate --out <dir> [--scale F] [--seed N]
+ */
+public class DataGenerator {
+
+   /**
+    * Writes the CSV text of one table, header line first.
+    */
+   interface Table {
+      void write(Writer out) throws IOException;
+   }
+
+   private static final String[] CITIES = {
+      "New York", "Los Angeles", "Chicago", "Dallas", "Atlanta", "Denver", "San Francisco", "Seattle",
+      "Miami", "Boston", "Las Vegas", "Phoenix", "Houston", "Orlando", "Charlotte", "Minneapolis",
+      "Detroit", "Philadelphia", "Washington", "Salt Lake City", "San Diego", "Portland", "Tampa",
+      "Nashville", "Austin", "Baltimore", "St. Louis", "Honolulu", "Anchorage", "New Orleans",
+      "Kansas City", "Cleveland", "Pittsburgh", "Raleigh", "Sacramento", "San Antonio", "Indianapolis",
+      "Columbus", "Milwaukee", "Albuquerque"
+   };
+   private static final String[][] PLANE_MODELS = {
+      // make, model, seats
+      { "Boeing", "737", "160" },
+      { "Airbus", "A320", "150" },
+      { "Boeing", "787", "250" },
+      { "Airbus", "A350", "300" },
+      { "Embraer", "E190", "100" },
+   };
+   private static final String[] FIRST_NAMES = {
+      "James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael", "Linda", "David", "Elizabeth",
+      "William", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Daniel", "Karen",
+      "Maria", "Wei", "Aisha", "Carlos", "Priya", "Kenji", "Fatima", "Olga", "Ahmed", "Sofia"
+   };
+   private static final String[] LAST_NAMES = {
+      "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+      "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin",
+      "Lee", "Perez", "Thompson", "White", "Harris", "Chen", "Nguyen", "Patel", "Kim", "Hawkins"
+   };
+   private static final String[] STREETS = {
+      "Main", "Oak", "Pine", "Maple", "Cedar", "Elm", "Washington", "Lake", "Hill", "Park", "Lewis", "River"
+   };
+   private static final String[] DAY_NAMES = {
+      "Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday"
+   };
+   // demand of each day of the week, Sunday first
+   private static final double[] WEEKDAY_DEMAND = { 1.3, 1.0, 0.8, 0.85, 1.05, 1.35, 0.9 };
+
+   private static final LocalDate FIRST_DAY = LocalDate.of(2025, 1, 1);
+   private static final int REPAIR_CODES = 10;
+   private static final double CANCEL_RATE = 0.05;
+
+   // random streams, one per table
+   private static final long PLANES = 1, CREW = 2, CUSTOMERS = 3, FLIGHTS = 4, INSTANCES = 5,
+                             RESERVATIONS = 6, REPAIRS = 7, REQUESTS = 8;
+
+   private final long _seed;
+   private final long _customers;
+   private final long _repairs;
+   private final long _requests;
+   private final int _planes;
+   private final int _pilots;
+   private final int _technicians;
+
+   // flights, by index
+   private final int _flights;
+   private final int[] _from;
+   private final int[] _to;
+   private final int[] _plane;
+   private final int[] _dayMask;
+   private final int[] _departure;
+   private final int[] _duration;
+   private final double[] _fare;
+   private final double[] _popularity;
+
+   // days, by index from FIRST_DAY
+   private final int _days;
+   private final int[] _dayOfWeek;
+   private final double[] _dayDemand;
+   private final boolean[] _peak;
+   private final String[] _dates;
+
+   // requests per unit of demand weight, so the total is about the target
+   private final double _demandScale;
+   private final long _instanceCount;
+
+   /*
+    * The figures of one flight instance, derived from its id alone.
+    */
+   private static final class Instance {
+      long id;
+      int flight;
+      int day;
+      int seatsTotal;
+      int reserved;
+      int waitlisted;
+      int cancelled;
+      boolean departedOnTime;
+      boolean arrivedOnTime;
+      int stops;
+      double ticketCost;
+   }//end Instance
+
+   /**
+    * @param seed the seed every value is derived from
+    * @param scale the size of the dataset relative to data/
+    */
+   public DataGenerator(long seed, double scale) {
+      if (!(scale > 0))
+         throw new IllegalArgumentException("scale must be positive");
+      this._seed = seed;
+      double root = Math.sqrt(scale);
+      long reservations = Math.max(1, Math.round(3000 * scale));
+      this._customers = Math.max(1, Math.round(500 * scale));
+      this._flights = (int) Math.max(10, Math.ceil(10 * root));
+      this._planes = Math.max(5, this._flights / 2);
+      this._pilots = Math.max(10, this._flights);
+      this._technicians = Math.max(10, this._flights / 2);
+
+      SplittableRandom r = random(FLIGHTS, 0, 0);
+      this._from = new int[this._flights];
+      this._to = new int[this._flights];
+      this._plane = new int[this._flights];
+      this._dayMask = new int[this._flights];
+      this._departure = new int[this._flights];
+      this._duration = new int[this._flights];
+      this._fare = new double[this._flights];
+      this._popularity = new double[this._flights];
+      double flightsPerDay = 0;
+      double seats = 0;
+      for (int f = 0; f < this._flights; ++f) {
+         this._from[f] = zipf(r, CITIES.length, 1.0);
+         do {
+            this._to[f] = zipf(r, CITIES.length, 1.0);
+         } while (this._to[f] == this._from[f]);
+         this._plane[f] = r.nextInt(this._planes);
+         // four to seven days a week
+         int days = 4 + r.nextInt(4);
+         int mask = 0;
+         while (Integer.bitCount(mask) < days)
+            mask |= 1 << r.nextInt(7);
+         this._dayMask[f] = mask;
+         this._departure[f] = 6 * 60 + 5 * r.nextInt(16 * 12);
+         this._duration[f] = 60 + 5 * r.nextInt(5 * 12 + 1);
+         this._fare[f] = 80 + this._duration[f] * (0.8 + 0.8 * r.nextDouble());
+         this._popularity[f] = 1.0 / Math.pow(1 + r.nextInt(this._flights), 0.7);
+         flightsPerDay += days / 7.0;
+         seats += planeSeats(this._plane[f]);
+      }
+
+      // enough days to hold the reservations at about 85% of the seats
+      double demandPerInstance = 0.85 * seats / this._flights;
+      this._days = (int) Math.max(7, Math.ceil(reservations / (demandPerInstance * flightsPerDay)));
+      this._dayOfWeek = new int[this._days];
+      this._dayDemand = new double[this._days];
+      this._peak = new boolean[this._days];
+      this._dates = new String[this._days];
+      for (int d = 0; d < this._days; ++d) {
+         LocalDate date = FIRST_DAY.plusDays(d);
+         int dow = date.getDayOfWeek().getValue() % 7;
+         double season = seasonalDemand(date);
+         this._dayOfWeek[d] = dow;
+         this._dayDemand[d] = WEEKDAY_DEMAND[dow] * season;
+         this._peak[d] = this._dayDemand[d] > 1.25;
+         this._dates[d] = date.toString();
+      }
+
+      double weight = 0;
+      long instances = 0;
+      for (int f = 0; f < this._flights; ++f)
+         for (int d = 0; d < this._days; ++d)
+            if ((this._dayMask[f] & (1 << this._dayOfWeek[d])) != 0) {
+               weight += this._popularity[f] * this._dayDemand[d];
+               ++instances;
+            }
+      this._demandScale = reservations / weight;
+      this._instanceCount = instances;
+      this._repairs = Math.max(15, this._planes * (long) this._days / 10);
+      this._requests = Math.max(20, this._planes * (long) this._days / 8);
+   }//end DataGenerator
+
+   /**
+    * @return the tables in load order, each writing its CSV text
+    */
+   Map<String, Table> tables() {
+      Map<String, Table> tables = new LinkedHashMap<String, Table>();
+      tables.put("Plane", this::writePlanes);
+      tables.put("Pilot", out -> writeCrew(out, "PilotID", "P", this._pilots, 0));
+      tables.put("Technician", out -> writeCrew(out, "TechnicianID", "T", this._technicians, 1));
+      tables.put("Customer", this::writeCustomers);
+      tables.put("Flight", this::writeFlights);
+      tables.put("Schedule", this::writeSchedule);
+      tables.put("FlightInstance", this::writeInstances);
+      tables.put("Reservation", this::writeReservations);
+      tables.put("Repair", out -> writeRepairs(out, "RepairID,PlaneID,RepairCode,RepairDate,TechnicianID",
+                                                this._repairs, REPAIRS, "T", this._technicians));
+      tables.put("MaintenanceRequest", out -> writeRepairs(out, "RequestID,PlaneID,RepairCode,RequestDate,PilotID",
+                                                          this._requests, REQUESTS, "P", this._pilots));
+      return tables;
+   }
+
+   /**
+    * Returns sources that generate each table on its own thread as
+    * BulkLoader reads it.  A failure of the generator is reported by the
+    * reader instead of ending the table early.
+    *
+    * @return the sources keyed by table name
+    */
+   public Map<String, BulkLoader.Source> sources() {
+      Map<String, BulkLoader.Source> sources = new LinkedHashMap<String, BulkLoader.Source>();
+      for (final Map.Entry<String, Table> table : tables().entrySet())
+         sources.put(table.getKey(), () -> pipe(table.getKey(), table.getValue()));
+      return sources;
+   }
+
+   /**
+    * Writes every table to <dir>/<table>.csv, several tables at a time.
+    *
+    * @throws java.io.IOException when a file cannot be written
+    */
+   public void writeFiles(File dir, int parallelism) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Cannot create " + dir);
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+      try {
+         List<Future<?>> writes = new ArrayList<Future<?>>();
+         for (final Map.Entry<String, Table> table : tables().entrySet()) {
+            final File file = new File(dir, table.getKey() + ".csv");
+            writes.add(executor.submit(() -> {
+               try (Writer out = new BufferedWriter(
+                       new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+                  table.getValue().write(out);
+               }
+               return null;
+            }));
+         }
+         for (Future<?> write : writes)
+            write.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while writing " + dir, e);
+      } catch (java.util.concurrent.ExecutionException e) {
+         Throwable cause = e.getCause();
+         throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+      } finally {
+         executor.shutdownNow();
+      }
+   }//end writeFiles
+
+   /**
+    * @return the number of flight instances the dataset has
+    */
+   public long getInstanceCount() {
+      return this._instanceCount;
+   }
+
+   /**
+    * @return the number of days the dataset covers, from 2025-01-01
+    */
+   public int getDayCount() {
+      return this._days;
+   }
+
+   // ---------------------------------------------------------------- tables
+
+   private void writePlanes(Writer out) throws IOException {
+      SplittableRandom r = random(PLANES, 0, 0);
+      StringBuilder line = new StringBuilder(64).append("PlaneID,Make,Model,Year,LastRepairDate\n");
+      for (int p = 0; p < this._planes; ++p) {
+         String[] model = PLANE_MODELS[p % PLANE_MODELS.length];
+         line.append(planeId(p)).append(',').append(model[0]).append(',').append(model[1]).append(',')
+             .append(1995 + r.nextInt(30)).append(',').append(FIRST_DAY.minusDays(1 + r.nextInt(365))).append('\n');
+         out.append(line);
+         line.setLength(0);
+      }
+   }
+
+   private void writeCrew(Writer out, String idColumn, String prefix, int count, int stream) throws IOException {
+      SplittableRandom r = random(CREW, stream, 0);
+      StringBuilder line = new StringBuilder(64).append(idColumn).append(",Name\n");
+      for (int i = 0; i < count; ++i) {
+         line.append(id(prefix, i + 1)).append(',')
+             .append(FIRST_NAMES[r.nextInt(FIRST_NAMES.length)]).append(' ')
+             .append(LAST_NAMES[r.nextInt(LAST_NAMES.length)]).append('\n');
+         out.append(line);
+         line.setLength(0);
+      }
+   }
+
+   private void writeCustomers(Writer out) throws IOException {
+      SplittableRandom r = random(CUSTOMERS, 0, 0);
+      StringBuilder line = new StringBuilder(128).append("CustomerID,FirstName,LastName,Gender,DOB,Address,Phone,Zip\n");
+      for (long c = 1; c <= this._customers; ++c) {
+         int zip = 10000 + r.nextInt(90000);
+         line.append(c).append(',')
+             .append(FIRST_NAMES[r.nextInt(FIRST_NAMES.length)]).append(',')
+             .append(LAST_NAMES[r.nextInt(LAST_NAMES.length)]).append(',')
+             .append(r.nextBoolean() ? 'F' : 'M').append(',')
+             .append(LocalDate.of(1940, 1, 1).plusDays(r.nextInt(65 * 365))).append(',')
+             .append(1 + r.nextInt(9999)).append(' ').append(STREETS[r.nextInt(STREETS.length)])
+             .append(" St ").append(CITIES[r.nextInt(CITIES.length)]).append(',')
+             .append(200 + r.nextInt(800)).append('.').append(100 + r.nextInt(900)).append('.')
+             .append(1000 + r.nextInt(9000)).append(',')
+             .append(zip).append('\n');
+         out.append(line);
+         line.setLength(0);
+      }
+   }
+
+   private void writeFlights(Writer out) throws IOException {
+      StringBuilder line = new StringBuilder(64).append("FlightNumber,PlaneID,DepartureCity,ArrivalCity\n");
+      for (int f = 0; f < this._flights; ++f) {
+         line.append(flightNumber(f)).append(',').append(planeId(this._plane[f])).append(',')
+             .append(CITIES[this._from[f]]).append(',').append(CITIES[this._to[f]]).append('\n');
+         out.append(line);
+         line.setLength(0);
+      }
+   }
+
+   private void writeSchedule(Writer out) throws IOException {
+      StringBuilder line = new StringBuilder(64).append("ScheduleID,FlightNumber,DayOfWeek,DepartureTime,ArrivalTime\n");
+      int id = 0;
+      for (int f = 0; f < this._flights; ++f) {
+         for (int dow = 0; dow < 7; ++dow) {
+            if ((this._dayMask[f] & (1 << dow)) == 0)
+               continue;
+            line.append(++id).append(',').append(flightNumber(f)).append(',').append(DAY_NAMES[dow]).append(',');
+            appendTime(line, this._departure[f]).append(',');
+            appendTime(line, (this._departure[f] + this._duration[f]) % (24 * 60)).append('\n');
+            out.append(line);
+            line.setLength(0);
+         }
+      }
+   }
+
+   private void writeInstances(Writer out) throws IOException {
+      StringBuilder line = new StringBuilder(96).append(
+         "FlightInstanceID,FlightNumber,FlightDate,DepartedOnTime,ArrivedOnTime,SeatsTotal,SeatsSold,NumOfStops,TicketCost\n");
+      Instance instance = new Instance();
+      long id = 0;
+      for (int f = 0; f < this._flights; ++f) {
+         for (int d = 0; d < this._days; ++d) {
+            if ((this._dayMask[f] & (1 << this._dayOfWeek[d])) == 0)
+               continue;
+            instance(++id, f, d, instance);
+            long cents = Math.round(instance.ticketCost * 100);
+            line.append(id).append(',').append(flightNumber(f)).append(',').append(this._dates[d]).append(',')
+                .append(instance.departedOnTime ? '1' : '0').append(',')
+                .append(instance.arrivedOnTime ? '1' : '0').append(',')
+                .append(instance.seatsTotal).append(',').append(instance.reserved).append(',')
+                .append(instance.stops).append(',')
+                .append(cents / 100).append('.').append(cents % 100 < 10 ? "0" : "").append(cents % 100).append('\n');
+            out.append(line);
+            line.setLength(0);
+         }
+      }
+   }//end writeInstances
+
+   private void writeReservations(Writer out) throws IOException {
+      StringBuilder line = new StringBuilder(64).append("ReservationID,CustomerID,FlightInstanceID,Status\n");
+      Instance instance = new Instance();
+      // frequent flyers: 2% of the customers make 20% of the bookings
+      long frequent = Math.max(1, this._customers / 50);
+      long next = 0;
+      long id = 0;
+      for (int f = 0; f < this._flights; ++f) {
+         for (int d = 0; d < this._days; ++d) {
+            if ((this._dayMask[f] & (1 << this._dayOfWeek[d])) == 0)
+               continue;
+            instance(++id, f, d, instance);
+            SplittableRandom r = random(RESERVATIONS, id, 0);
+            int total = instance.reserved + instance.waitlisted + instance.cancelled;
+            for (int k = 0; k < total; ++k) {
+               long customer = r.nextInt(5) == 0 ? 1 + r.nextLong(frequent) : 1 + r.nextLong(this._customers);
+               String status = k < instance.reserved ? BookingEngine.STATUS_RESERVED
+                  : k < instance.reserved + instance.waitlisted ? BookingEngine.STATUS_WAITLIST
+                  : CancellationEngine.STATUS_CANCELLED;
+               // a timestamp of 0 keeps these ids apart from the ones ReservationIdGenerator issues
+               line.append(ReservationIdGenerator.format(++next)).append(',').append(customer).append(',')
+                   .append(id).append(',').append(status).append('\n');
+               out.append(line);
+               line.setLength(0);
+            }
+         }
+      }
+   }//end writeReservations
+
+   private void writeRepairs(Writer out, String header, long count, long stream, String crewPrefix, int crew)
+         throws IOException {
+      SplittableRandom r = random(stream, 0, 0);
+      StringBuilder line = new StringBuilder(64).append(header).append('\n');
+      for (long i = 1; i <= count; ++i) {
+         line.append(i).append(',').append(planeId(r.nextInt(this._planes))).append(',')
+             .append(id("RC", 1 + zipf(r, REPAIR_CODES, 1.0))).append(',')
+             .append(this._dates[r.nextInt(this._days)]).append(',')
+             .append(id(crewPrefix, 1 + r.nextInt(crew))).append('\n');
+         out.append(line);
+         line.setLength(0);
+      }
+   }
+
+   // ---------------------------------------------------------------- model
+
+   /*
+    * Fills the figures of the instance of flight f on day d.
+    */
+   private void instance(long id, int f, int d, Instance out) {
+      SplittableRandom r = random(INSTANCES, id, 0);
+      out.id = id;
+      out.flight = f;
+      out.day = d;
+      out.seatsTotal = planeSeats(this._plane[f]);
+      double mean = this._demandScale * this._popularity[f] * this._dayDemand[d];
+      int requests = (int) Math.round(mean * (0.6 + 0.8 * r.nextDouble()));
+      out.cancelled = (int) Math.round(requests * CANCEL_RATE * 2 * r.nextDouble());
+      int active = requests - out.cancelled;
+      out.reserved = Math.min(active, out.seatsTotal);
+      out.waitlisted = active - out.reserved;
+      out.departedOnTime = r.nextDouble() < (this._peak[d] ? 0.75 : 0.88);
+      out.arrivedOnTime = r.nextDouble() < (out.departedOnTime ? 0.92 : 0.35);
+      double stops = r.nextDouble();
+      out.stops = stops < 0.82 ? 0 : stops < 0.97 ? 1 : 2;
+      double load = out.seatsTotal == 0 ? 0 : (double) active / out.seatsTotal;
+      out.ticketCost = this._fare[f] * (0.8 + 0.5 * Math.min(load, 1.5));
+   }//end instance
+
+   private int planeSeats(int plane) {
+      return Integer.parseInt(PLANE_MODELS[plane % PLANE_MODELS.length][2]);
+   }
+
+   private static double seasonalDemand(LocalDate date) {
+      int month = date.getMonthValue();
+      int day = date.getDayOfMonth();
+      if ((month == 12 && day >= 15) || (month == 1 && day <= 5))
+         return 1.4;
+      if (month >= 6 && month <= 8)
+         return 1.25;
+      return 1.0;
+   }
+
+   /*
+    * A value in [0, n) drawn with probability proportional to 1 / (k + 1)^s.
+    */
+   private static int zipf(SplittableRandom r, int n, double s) {
+      double total = 0;
+      for (int k = 1; k <= n; ++k)
+         total += 1 / Math.pow(k, s);
+      double target = r.nextDouble() * total;
+      for (int k = 1; k <= n; ++k) {
+         target -= 1 / Math.pow(k, s);
+         if (target <= 0)
+            return k - 1;
+      }
+      return n - 1;
+   }
+
+   /*
+    * A generator for one stream of the dataset; the same arguments always
+    * give the same values.
+    */
+   private SplittableRandom random(long stream, long a, long b) {
+      long h = this._seed;
+      h = mix(h ^ stream * 0x9E3779B97F4A7C15L);
+      h = mix(h ^ a);
+      h = mix(h ^ b);
+      return new SplittableRandom(h);
+   }
+
+   private static long mix(long z) {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   private static StringBuilder appendTime(StringBuilder line, int minute) {
+      int hours = minute / 60;
+      int minutes = minute % 60;
+      return line.append(hours).append(':').append(minutes < 10 ? "0" : "").append(minutes);
+   }
+
+   private static String flightNumber(int f) {
+      return "F" + (100 + f);
+   }
+
+   private static String planeId(int p) {
+      return id("PL", p + 1);
+   }
+
+   private static String id(String prefix, long n) {
+      return n < 10 ? prefix + "00" + n : n < 100 ? prefix + "0" + n : prefix + n;
+   }
+
+   // ---------------------------------------------------------------- pipes
+
+   /*
+    * Starts a thread writing the table into a pipe and returns its reading
+    * end.  A generator that fails makes the reader fail too.
+    */
+   private static Reader pipe(String name, final Table table) throws IOException {
+      final PipedReader in = new PipedReader(1 << 16);
+      final PipedWriter sink = new PipedWriter(in);
+      final Throwable[] failure = new Throwable[1];
+      Thread producer = new Thread(() -> {
+         try (Writer out = new BufferedWriter(sink, 1 << 16)) {
+            table.write(out);
+         } catch (Throwable e) {
+            synchronized (failure) {
+               failure[0] = e;
+            }
+         }
+      }, "generate-" + name);
+      producer.setDaemon(true);
+      producer.start();
+      return new Reader() {
+         @Override
+         public int read(char[] buf, int off, int len) throws IOException {
+            int n = in.read(buf, off, len);
+            if (n < 0) {
+               synchronized (failure) {
+                  if (failure[0] != null)
+                     throw new IOException("Generating " + name + " failed: " + failure[0].getMessage(), failure[0]);
+               }
+            }
+            return n;
+         }
+
+         @Override
+         public void close() throws IOException {
+            in.close();
+         }
+      };
+   }//end pipe
+
+   public static void main(String[] args) {
+      List<String> positional = new ArrayList<String>();
+      double scale = 1;
+      long seed = 42;
+      int parallelism = Runtime.getRuntime().availableProcessors();
+      boolean truncate = false;
+      File outDir = null;
+      for (int i = 0; i < args.length; ++i) {
+         if (args[i].equals("--scale") && i + 1 < args.length)
+            scale = Double.parseDouble(args[++i]);
+         else if (args[i].equals("--seed") && i + 1 < args.length)
+            seed = Long.parseLong(args[++i]);
+         else if (args[i].equals("--parallel") && i + 1 < args.length)
+            parallelism = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--out") && i + 1 < args.length)
+            outDir = new File(args[++i]);
+         else if (args[i].equals("--truncate"))
+            truncate = true;
+         else
+            positional.add(args[i]);
+      }
+      if (outDir == null ? positional.size() != 3 : !positional.isEmpty()) {
+         System.err.println("Usage: java AirlineManagement generate <dbname> <port> <user> "
+                            + "[--scale F] [--seed N] [--parallel N] [--truncate]\n"
+                            + "   or: java AirlineManagement generate --out <dir> [--scale F] [--seed N]");
+         return;
+      }
+
+      AirlineManagement esql = null;
+      try {
+         DataGenerator generator = new DataGenerator(seed, scale);
+         System.out.printf("Scale %s, seed %d: %d flight instances over %d days%n",
+                           scale, seed, generator.getInstanceCount(), generator.getDayCount());
+         long start = System.nanoTime();
+         if (outDir != null) {
+            generator.writeFiles(outDir, parallelism);
+            System.out.printf("Wrote %s in %.2f s%n", outDir, (System.nanoTime() - start) / 1e9);
+            return;
+         }
+
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(positional.get(0), positional.get(1), positional.get(2), "");
+         BulkLoader loader = new BulkLoader(esql.getPool(), parallelism);
+         List<BulkLoader.TableStats> stats = loader.load(generator.sources(), truncate);
+         long nanos = System.nanoTime() - start;
+         long rows = 0;
+         for (BulkLoader.TableStats table : stats)
+            rows += table.rows;
+         System.out.printf("Loaded %d rows into %d tables in %.2f s (%.0f rows/s)%n",
+                           rows, stats.size(), nanos / 1e9, rows * 1e9 / Math.max(1, nanos));
+
+         // the on-time summary is derived from FlightInstance
+         esql.getOnTimeStats().rebuild();
+      } catch (Exception e) {
+         System.err.println("Error - Data generation failed: " + e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+}//end DataGenerator
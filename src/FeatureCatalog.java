@@ -0,0 +1,281 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class describes feature1 .. feature19 and the user commands without
+ * their keyboard prompts, so they can be driven by something other than the
+ * interactive menu.  Each entry names the role allowed to use it (the same
+ * gating the menu applies with role.equalsIgnoreCase), the arguments it
+ * takes in prompt order, and a handler that runs the same statements as the
+ * menu feature and returns its result.
+ *
+ * Query handlers return a ColumnarResult, or a list of rows as maps keyed
+ * like its columns when the reference cache answers them; write handlers
+ * return a Map with the outcome.  Dates are passed as YYYY-MM-DD strings.
+ */
+public class FeatureCatalog {
+
+   /**
+    * Runs a feature with already parsed arguments.
+    */
+   public interface Handler {
+      Object run(AirlineManagement esql, String[] args) throws SQLException;
+   }
+
+   /**
+    * One feature of the menu.
+    */
+   public static final class Feature {
+      public final int number;
+      public final String name;
+      public final String role;
+      public final String[] params;
+      public final boolean write;
+      private final Handler _handler;
+
+      Feature(int number, String name, String role, boolean write, Handler handler, String... params) {
+         this.number = number;
+         this.name = name;
+         this.role = role;
+         this.write = write;
+         this.params = params;
+         this._handler = handler;
+      }
+
+      /**
+       * @return whether a user with the role may run this feature
+       */
+      public boolean allows(String role) {
+         return role != null && role.equalsIgnoreCase(this.role);
+      }
+
+      /**
+       * Runs the feature.
+       *
+       * @param esql the database to run against
+       * @param args the arguments, in the order of params
+       * @return a ColumnarResult or list of rows for queries, a Map for writes
+       * @throws java.sql.SQLException when a statement fails
+       * @throws IllegalArgumentException when an argument is missing or malformed
+       */
+      public Object run(AirlineManagement esql, String... args) throws SQLException {
+         if (args.length != this.params.length)
+            throw new IllegalArgumentException(this.name + " expects " + this.params.length
+                                               + " argument(s): " + String.join(", ", this.params));
+         for (int i = 0; i < args.length; ++i)
+            if (args[i] == null)
+               throw new IllegalArgumentException("missing argument " + this.params[i]);
+         long started = FeatureMetrics.begin(this.number);
+         try {
+            return this._handler.run(esql, args);
+         } catch (SQLException | RuntimeException e) {
+            FeatureMetrics.failed();
+            throw e;
+         } finally {
+            FeatureMetrics.end(started);
+         }
+      }
+   }//end Feature
+
+   static final String MANAGEMENT = "Management";
+   static final String CUSTOMER = "Customer";
+   static final String PILOT = "Pilot";
+   static final String TECHNICIAN = "Technician";
+
+   private static final Map<Integer, Feature> FEATURES = new LinkedHashMap<Integer, Feature>();
+
+   static {
+      // management
+      add(new Feature(1, "View Flights", MANAGEMENT, false,
+         (esql, a) -> {
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+            for (ReferenceCache.Flight f : esql.getReferenceCache().getFlights())
+               rows.add(row("flightnumber", f.flightNumber, "planeid", f.planeId,
+                             "departurecity", f.departureCity, "arrivalcity", f.arrivalCity));
+            return rows;
+         }));
+      add(new Feature(2, "View Flight Schedule", MANAGEMENT, false,
+         (esql, a) -> {
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+            for (ReferenceCache.Schedule s : esql.getReferenceCache().getSchedule(a[0]))
+               rows.add(row("dayofweek", s.dayOfWeek, "departuretime", s.departureTime,
+                             "arrivaltime", s.arrivalTime));
+            return rows;
+         },
+         "flightNumber"));
+      add(new Feature(3, "View Flight Seats", MANAGEMENT, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE3_SQL, a[0], date(a[1])),
+         "flightNumber", "date"));
+      add(new Feature(4, "View Flight Status", MANAGEMENT, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE4_SQL, a[0], date(a[1])),
+         "flightNumber", "date"));
+      add(new Feature(5, "View Flights of the Day", MANAGEMENT, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE5_SQL, date(a[0])),
+         "date"));
+      add(new Feature(6, "View Flight Passengers", MANAGEMENT, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE6_SQL, a[0], date(a[1])),
+         "flightNumber", "date"));
+      add(new Feature(7, "View Travelers Using Flight Reservation Number", MANAGEMENT, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE7_SQL, a[0]),
+         "reservationId"));
+      add(new Feature(8, "View Plane Stats", MANAGEMENT, false,
+         (esql, a) -> {
+            ReferenceCache.Plane p = esql.getReferenceCache().getPlane(a[0]);
+            return p == null ? Collections.emptyList()
+                             : Collections.singletonList(row("planeid", p.planeId, "make", p.make,
+                                                             "model", p.model, "lastrepairdate", p.lastRepairDate));
+         },
+         "planeId"));
+      add(new Feature(9, "View Technician Repairs", MANAGEMENT, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE9_SQL, a[0]),
+         "technicianId"));
+      add(new Feature(10, "View Flight Repairs", MANAGEMENT, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE10_SQL, a[0], date(a[1]), date(a[2])),
+         "planeId", "startDate", "endDate"));
+      add(new Feature(11, "View Flight Stats", MANAGEMENT, false,
+         (esql, a) -> Collections.singletonList(AirlineManagement.flightSales(esql, a[0], date(a[1]), date(a[2]))),
+         "flightNumber", "startDate", "endDate"));
+      add(new Feature(22, "Cancel a Flight", MANAGEMENT, true,
+         (esql, a) -> {
+            long cancelled = esql.getCancellationEngine().cancelFlight(a[0], date(a[1]));
+            Map<String, Object> out = new LinkedHashMap<String, Object>();
+            out.put("found", cancelled >= 0);
+            out.put("cancelled", Math.max(cancelled, 0));
+            return out;
+         },
+         "flightNumber", "date"));
+      add(new Feature(23, "Update Flight Status", MANAGEMENT, true,
+         (esql, a) -> {
+            boolean found = esql.getOnTimeStats().updateStatus(integer(a[0]), status(a[1]), status(a[2]));
+            Map<String, Object> out = new LinkedHashMap<String, Object>();
+            out.put("found", found);
+            return out;
+         },
+         "flightInstanceId", "departedOnTime", "arrivedOnTime"));
+
+      // customer
+      add(new Feature(12, "Search Flights", CUSTOMER, false,
+         (esql, a) -> {
+            // connections are listed when no direct flight exists, as in the menu
+            List<Map<String, Object>> rows = AirlineManagement.searchFlights(esql, a[0], a[1], date(a[2]));
+            return rows.isEmpty() ? AirlineManagement.searchConnections(esql, a[0], a[1], date(a[2])) : rows;
+         },
+         "departureCity", "arrivalCity", "date"));
+      add(new Feature(13, "View Flight Cost", CUSTOMER, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE13_SQL, a[0]),
+         "flightNumber"));
+      add(new Feature(14, "View Plane Type", CUSTOMER, false,
+         (esql, a) -> {
+            ReferenceCache.Plane p = esql.getReferenceCache().getPlaneOfFlight(a[0]);
+            return p == null ? Collections.emptyList()
+                             : Collections.singletonList(row("make", p.make, "model", p.model));
+         },
+         "flightNumber"));
+      add(new Feature(15, "Make a Reservation", CUSTOMER, true,
+         (esql, a) -> {
+            BookingEngine.Booking booking = esql.getBookingEngine().book(a[0], date(a[1]), integer(a[2]));
+            Map<String, Object> out = new LinkedHashMap<String, Object>();
+            out.put("found", booking != null);
+            if (booking != null) {
+               out.put("reservationId", booking.reservationId);
+               out.put("flightInstanceId", booking.flightInstanceId);
+               out.put("status", booking.status);
+            }
+            return out;
+         },
+         "flightNumber", "date", "customerId"));
+      add(new Feature(21, "Cancel a Reservation", CUSTOMER, true,
+         (esql, a) -> {
+            CancellationEngine.Cancellation cancellation = esql.getCancellationEngine().cancel(a[0]);
+            Map<String, Object> out = new LinkedHashMap<String, Object>();
+            out.put("found", cancellation != null);
+            if (cancellation != null) {
+               out.put("reservationId", cancellation.reservationId);
+               out.put("previousStatus", cancellation.previousStatus);
+               out.put("promotedReservationId", cancellation.promotedReservationId);
+            }
+            return out;
+         },
+         "reservationId"));
+
+      // pilot
+      add(new Feature(16, "Maintenance Request", PILOT, true,
+         (esql, a) -> {
+            ColumnarResult request = AirlineManagement.submitMaintenanceRequest(esql, a[0], a[1], a[2], date(a[3]));
+            Map<String, Object> out = new LinkedHashMap<String, Object>();
+            out.put("requestId", request.getInt(0, 0));
+            out.put("request", request);
+            return out;
+         },
+         "pilotId", "planeId", "repairCode", "date"));
+
+      // technician
+      add(new Feature(17, "Show Repair Dates", TECHNICIAN, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE17_SQL, a[0], date(a[1]), date(a[2])),
+         "planeId", "startDate", "endDate"));
+      add(new Feature(18, "Show Maintenance Requests", TECHNICIAN, false,
+         (esql, a) -> esql.executeQueryAndReturnColumns(AirlineManagement.FEATURE18_SQL, a[0]),
+         "pilotId"));
+      add(new Feature(19, "Log Repair", TECHNICIAN, true,
+         (esql, a) -> {
+            ColumnarResult repair = AirlineManagement.logRepair(esql, a[0], a[1], a[2], date(a[3]));
+            Map<String, Object> out = new LinkedHashMap<String, Object>();
+            out.put("repairId", repair.getInt(0, 0));
+            out.put("repair", repair);
+            return out;
+         },
+         "technicianId", "planeId", "repairCode", "date"));
+   }
+
+   private FeatureCatalog() {
+   }
+
+   private static void add(Feature feature) {
+      FEATURES.put(feature.number, feature);
+   }
+
+   /**
+    * @return the feature with the menu number, or null
+    */
+   public static Feature get(int number) {
+      return FEATURES.get(number);
+   }
+
+   /**
+    * @return every feature in menu order
+    */
+   public static Iterable<Feature> all() {
+      return FEATURES.values();
+   }
+
+   /*
+    * A row of a cached feature, keyed by column name the way the database
+    * reports the column.
+    */
+   private static Map<String, Object> row(Object... namesAndValues) {
+      Map<String, Object> row = new LinkedHashMap<String, Object>();
+      for (int i = 0; i < namesAndValues.length; i += 2)
+         row.put((String) namesAndValues[i], namesAndValues[i + 1]);
+      return row;
+   }
+
+   static java.sql.Date date(String value) {
+      return AirlineManagement.parseDate(value);
+   }
+
+   static Boolean status(String value) {
+      return AirlineManagement.parseStatus(value);
+   }
+
+   static int integer(String value) {
+      try {
+         return Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Invalid number '" + value + "'");
+      }
+   }
+}//end FeatureCatalog
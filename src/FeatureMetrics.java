@@ -0,0 +1,412 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class records how long each feature and each statement helper takes,
+ * so slow features can be found in production.  For every feature of
+ * FeatureCatalog, log in and user creation it counts calls, failures,
+ * database round trips and rows fetched or changed, and keeps a latency
+ * histogram; the execute* helpers of AirlineManagement and the statements
+ * of transactions get the same figures.
+ *
+ * The feature being run is kept per thread, so a statement is charged to
+ * the feature that issued it wherever in the code it runs.  Time the
+ * interactive menu spends waiting for the user to type is left out of a
+ * feature's latency.
+ *
+ * Histograms have 8 buckets per power of two of nanoseconds, so a reported
+ * percentile is at most 12.5% above the true value.  Recording increments an
+ * AtomicLongArray slot and a few LongAdders: it takes no lock and allocates
+ * nothing once a thread has recorded its first value.
+ *
+ * Each figure set is a JMX MBean named airline:type=FeatureMetrics,name=...
+ * (airline:type=StatementMetrics for the helpers).  With
+ * airline.metrics.dumpSeconds set, a text report is also written every that
+ * many seconds to standard error or to the file airline.metrics.file.
+ */
+public class FeatureMetrics {
+
+   /**
+    * The JMX view of one set of figures.
+    */
+   public interface StatsMBean {
+      String getName();
+      long getCalls();
+      long getErrors();
+      long getRoundTrips();
+      long getRowsFetched();
+      double getMeanMicros();
+      double getP50Micros();
+      double getP99Micros();
+      double getP999Micros();
+      double getMaxMicros();
+      void reset();
+   }
+
+   /**
+    * The calls, failures, round trips, rows and latencies of a feature or
+    * a statement helper.
+    */
+   public static final class Stats implements StatsMBean {
+      // 8 sub-buckets for each power of two up to 2^63
+      private static final int SUB_BITS = 3;
+      private static final int SUB = 1 << SUB_BITS;
+      private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+      private final String _name;
+      private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+      private final LongAdder _calls = new LongAdder();
+      private final LongAdder _errors = new LongAdder();
+      private final LongAdder _roundTrips = new LongAdder();
+      private final LongAdder _rows = new LongAdder();
+      private final LongAdder _totalNanos = new LongAdder();
+      private final LongAccumulator _maxNanos = new LongAccumulator(Math::max, 0);
+
+      Stats(String name) {
+         this._name = name;
+      }
+
+      void record(long nanos, boolean failed) {
+         long value = Math.max(0, nanos);
+         this._buckets.incrementAndGet(bucketOf(value));
+         this._calls.increment();
+         this._totalNanos.add(value);
+         this._maxNanos.accumulate(value);
+         if (failed)
+            this._errors.increment();
+      }
+
+      static int bucketOf(long nanos) {
+         if (nanos < SUB)
+            return (int) nanos;
+         int msb = 63 - Long.numberOfLeadingZeros(nanos);
+         return (msb - SUB_BITS + 1) * SUB + (int) ((nanos >>> (msb - SUB_BITS)) & (SUB - 1));
+      }
+
+      /*
+       * The largest value the bucket holds.
+       */
+      static long upperBoundOf(int bucket) {
+         if (bucket < SUB)
+            return bucket;
+         int msb = bucket / SUB + SUB_BITS - 1;
+         long lower = (long) (SUB + bucket % SUB) << (msb - SUB_BITS);
+         return lower + (1L << (msb - SUB_BITS)) - 1;
+      }
+
+      /**
+       * @return the latency under which the fraction p of the calls
+       *         completed, in microseconds, or 0 without calls
+       */
+      public double percentileMicros(double p) {
+         long total = 0;
+         long[] counts = new long[BUCKETS];
+         for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = this._buckets.get(i);
+            total += counts[i];
+         }
+         if (total == 0)
+            return 0;
+         long target = Math.max(1, (long) Math.ceil(p * total));
+         long seen = 0;
+         for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= target)
+               return Math.min(upperBoundOf(i), this._maxNanos.get()) / 1e3;
+         }
+         return this._maxNanos.get() / 1e3;
+      }
+
+      @Override public String getName() { return this._name; }
+      @Override public long getCalls() { return this._calls.sum(); }
+      @Override public long getErrors() { return this._errors.sum(); }
+      @Override public long getRoundTrips() { return this._roundTrips.sum(); }
+      @Override public long getRowsFetched() { return this._rows.sum(); }
+      @Override public double getP50Micros() { return percentileMicros(0.50); }
+      @Override public double getP99Micros() { return percentileMicros(0.99); }
+      @Override public double getP999Micros() { return percentileMicros(0.999); }
+      @Override public double getMaxMicros() { return this._maxNanos.get() / 1e3; }
+
+      @Override
+      public double getMeanMicros() {
+         long calls = this._calls.sum();
+         return calls == 0 ? 0 : this._totalNanos.sum() / 1e3 / calls;
+      }
+
+      @Override
+      public void reset() {
+         for (int i = 0; i < BUCKETS; ++i)
+            this._buckets.set(i, 0);
+         this._calls.reset();
+         this._errors.reset();
+         this._roundTrips.reset();
+         this._rows.reset();
+         this._totalNanos.reset();
+         this._maxNanos.reset();
+      }
+   }//end Stats
+
+   // features: 0 is work outside any feature, 1 to LAST_FEATURE the menu
+   // features; 20 is the menu's log out and has no figures
+   static final int OUTSIDE = 0;
+   static final int LAST_FEATURE = 23;
+   static final int LOGIN = LAST_FEATURE + 1;
+   static final int CREATE_USER = LAST_FEATURE + 2;
+   private static final int FEATURES = LAST_FEATURE + 3;
+
+   // statement helpers
+   static final int UPDATE = 0;
+   static final int PRINT = 1;
+   static final int RESULT = 2;
+   static final int COUNT = 3;
+   static final int COLUMNS = 4;
+   static final int STREAM = 5;
+   static final int TRANSACTION = 6;
+   static final int TX_STATEMENT = 7;
+   static final int RETURNING = 8;
+   private static final String[] HELPER_NAMES = {
+      "executeUpdate", "executeQueryAndPrintResult", "executeQueryAndReturnResult", "executeQuery",
+      "executeQueryAndReturnColumns", "executeQueryAndStreamResult", "executeInTransaction",
+      "transaction statement", "executeUpdateAndReturnColumns"
+   };
+
+   private static final Stats[] FEATURE_STATS = new Stats[FEATURES];
+   private static final Stats[] HELPER_STATS = new Stats[HELPER_NAMES.length];
+
+   static {
+      FEATURE_STATS[OUTSIDE] = new Stats("other");
+      for (FeatureCatalog.Feature f : FeatureCatalog.all())
+         FEATURE_STATS[f.number] = new Stats("feature" + f.number);
+      FEATURE_STATS[LOGIN] = new Stats("login");
+      FEATURE_STATS[CREATE_USER] = new Stats("createUser");
+      for (int h = 0; h < HELPER_NAMES.length; ++h)
+         HELPER_STATS[h] = new Stats(HELPER_NAMES[h]);
+   }
+
+   // per thread: the feature running, and the nanoseconds it spent waiting for input
+   private static final ThreadLocal<long[]> CURRENT = ThreadLocal.withInitial(() -> new long[] { OUTSIDE, 0 });
+
+   private static boolean _installed = false;
+
+   private FeatureMetrics() {
+   }
+
+   /**
+    * Registers the MBeans and starts the periodic report, once per process.
+    * A platform without JMX only loses the MBeans.
+    */
+   static synchronized void install() {
+      if (_installed)
+         return;
+      _installed = true;
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         for (Stats stats : FEATURE_STATS)
+            if (stats != null)
+               server.registerMBean(stats, new ObjectName("airline:type=FeatureMetrics,name=" + stats.getName()));
+         for (Stats stats : HELPER_STATS)
+            server.registerMBean(stats, new ObjectName("airline:type=StatementMetrics,name=" + ObjectName.quote(stats.getName())));
+      } catch (Exception | LinkageError e) {
+         System.err.println("Feature metrics are not available through JMX: " + e.getMessage());
+      }
+
+      long period = Long.getLong("airline.metrics.dumpSeconds", 0);
+      if (period > 0) {
+         final String file = System.getProperty("airline.metrics.file");
+         ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "feature-metrics");
+            t.setDaemon(true);
+            return t;
+         });
+         dumper.scheduleAtFixedRate(() -> dump(file), period, period, TimeUnit.SECONDS);
+      }
+   }//end install
+
+   /**
+    * Marks the start of a menu feature on this thread.  Any other number,
+    * such as the menu's log out or a choice that does not exist, is not
+    * recorded.
+    *
+    * @param feature a feature of FeatureCatalog
+    * @return the start time to hand to end()
+    */
+   static long begin(int feature) {
+      return start(feature > 0 && feature <= LAST_FEATURE && FEATURE_STATS[feature] != null ? feature : OUTSIDE);
+   }
+
+   /**
+    * Marks the start of a log in on this thread.
+    *
+    * @return the start time to hand to end()
+    */
+   static long beginLogin() {
+      return start(LOGIN);
+   }
+
+   /**
+    * Marks the start of a user creation on this thread.
+    *
+    * @return the start time to hand to end()
+    */
+   static long beginCreateUser() {
+      return start(CREATE_USER);
+   }
+
+   private static long start(int feature) {
+      long[] current = CURRENT.get();
+      current[0] = feature;
+      current[1] = 0;
+      return System.nanoTime();
+   }
+
+   /**
+    * Records the feature begun on this thread, unless it was discarded.
+    */
+   static void end(long started) {
+      long[] current = CURRENT.get();
+      int feature = (int) current[0];
+      if (feature != OUTSIDE)
+         FEATURE_STATS[feature].record(System.nanoTime() - started - current[1], false);
+      current[0] = OUTSIDE;
+   }
+
+   /**
+    * Records the feature begun on this thread as the given number of calls
+    * that ran together, e.g. as one JDBC batch, each taking an equal share
+    * of the time.
+    */
+   static void endBatch(long started, int calls) {
+      long[] current = CURRENT.get();
+      int feature = (int) current[0];
+      if (feature != OUTSIDE && calls > 0) {
+         long share = (System.nanoTime() - started - current[1]) / calls;
+         for (int i = 0; i < calls; ++i)
+            FEATURE_STATS[feature].record(share, false);
+      }
+      current[0] = OUTSIDE;
+   }
+
+   /**
+    * Leaves the feature begun on this thread out of the figures, e.g. when
+    * the user was not allowed to run it.
+    */
+   static void discard() {
+      CURRENT.get()[0] = OUTSIDE;
+   }
+
+   /**
+    * Counts a failure of the feature running on this thread.
+    */
+   static void failed() {
+      FEATURE_STATS[(int) CURRENT.get()[0]]._errors.increment();
+   }
+
+   /**
+    * Leaves time spent waiting for input out of the running feature.
+    */
+   static void waited(long nanos) {
+      CURRENT.get()[1] += nanos;
+   }
+
+   /**
+    * Records a statement sent to the database: a round trip for the running
+    * feature and a call of the helper.
+    *
+    * @param helper the helper that ran it
+    * @param started System.nanoTime() before it was sent
+    * @param rows the rows fetched or changed, or -1 when it failed
+    * @return the nanoseconds the statement took
+    */
+   static long statement(int helper, long started, long rows) {
+      long nanos = System.nanoTime() - started;
+      HELPER_STATS[helper].record(nanos, rows < 0);
+      Stats feature = FEATURE_STATS[(int) CURRENT.get()[0]];
+      feature._roundTrips.increment();
+      if (rows > 0)
+         feature._rows.add(rows);
+      return nanos;
+   }
+
+   /**
+    * Records a call of a helper that sends its statements through another
+    * helper, so its round trips are already counted.
+    */
+   static void call(int helper, long started, boolean failed) {
+      HELPER_STATS[helper].record(System.nanoTime() - started, failed);
+   }
+
+   /**
+    * Adds rows fetched after the statement was recorded, as a cursor reads
+    * them.
+    */
+   static void rowsFetched(long rows) {
+      if (rows > 0)
+         FEATURE_STATS[(int) CURRENT.get()[0]]._rows.add(rows);
+   }
+
+   /**
+    * @return the name of the feature running on this thread
+    */
+   static String currentFeature() {
+      return FEATURE_STATS[(int) CURRENT.get()[0]].getName();
+   }
+
+   /**
+    * @return the figures of a feature (1 to LAST_FEATURE, LOGIN, CREATE_USER)
+    */
+   static Stats feature(int feature) {
+      return FEATURE_STATS[feature];
+   }
+
+   /**
+    * @return the figures of a statement helper
+    */
+   static Stats helper(int helper) {
+      return HELPER_STATS[helper];
+   }
+
+   /**
+    * @return a table of every feature and helper that was called
+    */
+   public static String report() {
+      StringWriter text = new StringWriter();
+      PrintWriter out = new PrintWriter(text);
+      out.printf("%-30s%10s%8s%12s%12s%12s%12s%12s%12s%12s%n", "name", "calls", "errors", "roundTrips",
+                 "rows", "mean(us)", "p50(us)", "p99(us)", "p999(us)", "max(us)");
+      for (Stats[] group : new Stats[][] { FEATURE_STATS, HELPER_STATS })
+         for (Stats s : group)
+            if (s != null && (s.getCalls() > 0 || s.getRoundTrips() > 0))
+               out.printf("%-30s%10d%8d%12d%12d%12.1f%12.1f%12.1f%12.1f%12.1f%n", s.getName(), s.getCalls(),
+                          s.getErrors(), s.getRoundTrips(), s.getRowsFetched(), s.getMeanMicros(),
+                          s.getP50Micros(), s.getP99Micros(), s.getP999Micros(), s.getMaxMicros());
+      out.flush();
+      return text.toString();
+   }
+
+   private static void dump(String file) {
+      String report = java.time.LocalDateTime.now() + "\n" + report();
+      if (file == null) {
+         System.err.print(report);
+         return;
+      }
+      try (OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+         out.write(report);
+         out.write('\n');
+      } catch (IOException e) {
+         System.err.println("Unable to write feature metrics to " + file + ": " + e.getMessage());
+      }
+   }
+}//end FeatureMetrics
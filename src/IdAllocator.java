@@ -0,0 +1,225 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class hands out primary keys for one table with the hi/lo scheme.
+ * A database sequence that increments by the block size supplies the first
+ * id of each block; each value reserves the block [value, value + blockSize)
+ * for this process alone.
+ * Ids within a block are taken from an AtomicLong, so nextId() does no
+ * locking and no database work.  Once half of a block is used the next block
+ * is fetched in the background, and a caller only waits on the database when
+ * a block runs out before its successor has arrived.
+ *
+ * Several processes can share a table safely because each one draws its own
+ * blocks from the sequence.  Ids are unique but not contiguous: the unused
+ * part of a block is lost when the process exits.
+ *
+ * The block size is stored in the sequence as its increment, so every
+ * process uses the same one: the sequence is created on first use with
+ * INCREMENT BY airline.idBlockSize, starting above the largest id already in
+ * the table, and an allocator whose block size differs from the increment of
+ * an existing sequence refuses to hand out ids.
+ *
+ * Rows written with ids that did not come from the sequence, such as the
+ * rows BulkLoader and DataGenerator load, can lie above it.  Whatever loads
+ * rows into one of the ALLOCATED tables must call realign() afterwards, so
+ * the sequence hands out blocks above the loaded ids.
+ */
+public class IdAllocator {
+
+   private static final class Block {
+      final AtomicLong next;
+      final long end;
+      final long refillAt;
+
+      Block(long start, long size) {
+         this.next = new AtomicLong(start);
+         this.end = start + size;
+         this.refillAt = start + size / 2;
+      }
+   }//end Block
+
+   // fetches blocks for every allocator off the callers' threads.
+   private static final ExecutorService REFILL = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "id-allocator-refill");
+      t.setDaemon(true);
+      return t;
+   });
+
+   // the tables whose ids come from an allocator, with their id columns
+   static final String[][] ALLOCATED = {
+      { "MaintenanceRequest", "RequestID" },
+      { "Repair", "RepairID" },
+   };
+
+   static final String INCREMENT_SQL =
+      "SELECT seqincrement FROM pg_sequence WHERE seqrelid = CAST(? AS regclass)";
+
+   private final AirlineManagement _esql;
+   private final String _table;
+   private final String _column;
+   private final String _sequence;
+   private final long _blockSize;
+
+   private final AtomicReference<Block> _current = new AtomicReference<Block>();
+   private final AtomicReference<CompletableFuture<Block>> _pending = new AtomicReference<CompletableFuture<Block>>();
+   private volatile boolean _sequenceReady = false;
+
+   /**
+    * @param esql the database the sequence lives in
+    * @param table the table the ids are for
+    * @param column the id column of the table
+    * @param blockSize the number of ids reserved per sequence value
+    */
+   public IdAllocator(AirlineManagement esql, String table, String column, int blockSize) {
+      if (blockSize < 1)
+         throw new IllegalArgumentException("block size must be positive");
+      this._esql = esql;
+      this._table = table;
+      this._column = column;
+      this._sequence = sequenceName(table, column);
+      this._blockSize = blockSize;
+   }
+
+   /**
+    * @return a new id, never handed out before
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public long nextId() throws SQLException {
+      while (true) {
+         Block block = this._current.get();
+         if (block != null) {
+            long id = block.next.getAndIncrement();
+            if (id < block.end) {
+               if (id == block.refillAt)
+                  prefetch();
+               return id;
+            }
+         }
+         advance(block);
+      }
+   }//end nextId
+
+   /**
+    * @return a new id that fits an INTEGER column
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public int nextIntId() throws SQLException {
+      return Math.toIntExact(nextId());
+   }
+
+   /*
+    * Starts fetching the next block unless a fetch is already pending.
+    */
+   private void prefetch() {
+      final CompletableFuture<Block> future = new CompletableFuture<Block>();
+      if (!this._pending.compareAndSet(null, future))
+         return;
+      REFILL.execute(() -> {
+         try {
+            future.complete(fetchBlock());
+         } catch (Throwable t) {
+            future.completeExceptionally(t);
+         }
+      });
+   }
+
+   /*
+    * Replaces the exhausted block with the pending one, waiting for it if it
+    * has not arrived yet.
+    */
+   private void advance(Block exhausted) throws SQLException {
+      prefetch();
+      CompletableFuture<Block> future = this._pending.get();
+      if (future == null)
+         return;  // another caller installed the next block meanwhile
+      Block next;
+      try {
+         next = future.join();
+      } catch (CompletionException e) {
+         this._pending.compareAndSet(future, null);
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         throw new SQLException("Unable to reserve ids for " + this._table + ": " + cause.getMessage(), cause);
+      }
+      if (this._current.compareAndSet(exhausted, next))
+         this._pending.compareAndSet(future, null);
+   }//end advance
+
+   /**
+    * Moves the sequence of a table past the largest id in it, so blocks
+    * handed out afterwards do not collide with rows loaded behind the
+    * allocator's back.  The sequence is only ever moved forward, because a
+    * running process may still hold a block below it.  Does nothing when the
+    * table has no allocator or its sequence has not been created yet.
+    *
+    * @param connection the connection the rows were loaded on
+    * @param table the table the rows were loaded into
+    * @throws java.sql.SQLException when the sequence cannot be read or set
+    */
+   public static void realign(Connection connection, String table) throws SQLException {
+      String column = null;
+      for (String[] allocated : ALLOCATED)
+         if (allocated[0].equalsIgnoreCase(table))
+            column = allocated[1];
+      if (column == null)
+         return;
+      String sequence = sequenceName(table, column);
+      PreparedStatement exists = connection.prepareStatement("SELECT to_regclass(?) IS NOT NULL");
+      try {
+         exists.setString(1, sequence);
+         ResultSet rs = exists.executeQuery();
+         if (!rs.next() || !rs.getBoolean(1))
+            return;
+      } finally {
+         exists.close();
+      }
+      Statement stmt = connection.createStatement();
+      try {
+         stmt.executeQuery(
+            "SELECT setval('" + sequence + "', m.next, false) " +
+            "FROM " + sequence + " s, pg_sequence p, " +
+            "     (SELECT COALESCE(MAX(" + column + "), 0) + 1 AS next FROM " + table + ") m " +
+            "WHERE p.seqrelid = '" + sequence + "'::regclass " +
+            "  AND m.next > CASE WHEN s.is_called THEN s.last_value + p.seqincrement ELSE s.last_value END").close();
+      } finally {
+         stmt.close();
+      }
+   }//end realign
+
+   private static String sequenceName(String table, String column) {
+      return (table + "_" + column + "_hilo").toLowerCase();
+   }
+
+   private Block fetchBlock() throws SQLException {
+      if (!this._sequenceReady)
+         createSequence();
+      return new Block(this._esql.getNextSeqVal(this._sequence), this._blockSize);
+   }
+
+   private void createSequence() throws SQLException {
+      ColumnarResult max = this._esql.executeQueryAndReturnColumns(
+         "SELECT COALESCE(MAX(" + this._column + "), 0) FROM " + this._table);
+      long start = max.getLong(0, 0) + 1;
+      this._esql.executeUpdate("CREATE SEQUENCE IF NOT EXISTS " + this._sequence
+                               + " INCREMENT BY " + this._blockSize + " MINVALUE 1 START WITH " + start);
+      // a sequence created by a process with another block size would hand out overlapping blocks
+      long increment = this._esql.executeQueryAndReturnColumns(INCREMENT_SQL, this._sequence).getLong(0, 0);
+      if (increment != this._blockSize)
+         throw new SQLException("Sequence " + this._sequence + " reserves blocks of " + increment
+                                + " ids but airline.idBlockSize is " + this._blockSize
+                                + "; use the same block size everywhere");
+      this._sequenceReady = true;
+   }
+}//end IdAllocator
@@ -0,0 +1,124 @@
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * This class writes values as JSON text.  It knows the few shapes the
+ * services of this project return: null, strings, numbers, booleans, maps,
+ * collections, arrays of objects and ColumnarResult, which becomes an array
+ * of objects keyed by column name with numbers and booleans kept typed.
+ */
+public class Json {
+
+   private Json() {
+   }
+
+   /**
+    * @return the value as JSON text
+    */
+   public static String toJson(Object value) {
+      StringBuilder out = new StringBuilder(256);
+      write(value, out);
+      return out.toString();
+   }
+
+   /**
+    * Appends the value as JSON text.
+    */
+   public static void write(Object value, StringBuilder out) {
+      if (value == null) {
+         out.append("null");
+      } else if (value instanceof CharSequence) {
+         quote(value.toString(), out);
+      } else if (value instanceof Number || value instanceof Boolean) {
+         out.append(value);
+      } else if (value instanceof ColumnarResult) {
+         writeRows((ColumnarResult) value, out);
+      } else if (value instanceof Map) {
+         out.append('{');
+         boolean first = true;
+         for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            if (!first)
+               out.append(',');
+            first = false;
+            quote(String.valueOf(entry.getKey()), out);
+            out.append(':');
+            write(entry.getValue(), out);
+         }
+         out.append('}');
+      } else if (value instanceof Collection) {
+         out.append('[');
+         boolean first = true;
+         for (Object item : (Collection<?>) value) {
+            if (!first)
+               out.append(',');
+            first = false;
+            write(item, out);
+         }
+         out.append(']');
+      } else if (value instanceof Object[]) {
+         out.append('[');
+         Object[] items = (Object[]) value;
+         for (int i = 0; i < items.length; ++i) {
+            if (i > 0)
+               out.append(',');
+            write(items[i], out);
+         }
+         out.append(']');
+      } else {
+         quote(value.toString(), out);
+      }
+   }//end write
+
+   private static void writeRows(ColumnarResult result, StringBuilder out) {
+      out.append('[');
+      for (int row = 0; row < result.getRowCount(); ++row) {
+         if (row > 0)
+            out.append(',');
+         out.append('{');
+         for (int col = 0; col < result.getColumnCount(); ++col) {
+            if (col > 0)
+               out.append(',');
+            quote(result.getColumnName(col), out);
+            out.append(':');
+            writeCell(result, row, col, out);
+         }
+         out.append('}');
+      }
+      out.append(']');
+   }
+
+   private static void writeCell(ColumnarResult result, int row, int col, StringBuilder out) {
+      if (result.isNull(row, col))
+         out.append("null");
+      else if (result.isBooleanColumn(col))
+         out.append(result.getBoolean(row, col));
+      else if (result.isNumericColumn(col))
+         out.append(result.getString(row, col));
+      else
+         quote(result.getString(row, col), out);
+   }
+
+   /**
+    * Appends the string as a quoted JSON string.
+    */
+   public static void quote(String s, StringBuilder out) {
+      out.append('"');
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+               if (c < 0x20) {
+                  out.append(String.format("\\u%04x", (int) c));
+               } else {
+                  out.append(c);
+               }
+         }
+      }
+      out.append('"');
+   }
+}//end Json
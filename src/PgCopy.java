@@ -0,0 +1,117 @@
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This class gives access to the PostgreSQL COPY protocol of the JDBC driver
+ * (org.postgresql.copy.CopyManager).  The driver is looked up reflectively so
+ * the project still compiles against older driver jars that predate the copy
+ * API, such as the bundled pg73 driver; calling it with such a driver fails
+ * with a SQLException, so callers check isSupported() first and fall back to
+ * plain statements.
+ */
+public class PgCopy {
+   private static Method _getCopyApi;
+   private static Method _copyIn;
+   private static Method _copyOut;
+   private static Boolean _supported;
+
+   private PgCopy() {
+   }
+
+   /**
+    * @return whether the driver on the classpath has the copy API
+    */
+   public static synchronized boolean isSupported() {
+      if (_supported == null) {
+         try {
+            init();
+            _supported = Boolean.TRUE;
+         } catch (SQLException e) {
+            _supported = Boolean.FALSE;
+         }
+      }
+      return _supported.booleanValue();
+   }
+
+   /**
+    * Streams rows into the database with COPY ... FROM STDIN.
+    *
+    * @param connection the connection to copy on
+    * @param sql the COPY ... FROM STDIN statement
+    * @param data the rows in the format named by the statement
+    * @return the number of rows copied
+    * @throws java.sql.SQLException when the copy fails
+    */
+   public static long copyIn(Connection connection, String sql, Reader data) throws SQLException {
+      init();
+      return ((Number) invoke(_copyIn, copyApi(connection), sql, data)).longValue();
+   }
+
+   /**
+    * Streams rows out of the database with COPY ... TO STDOUT.
+    *
+    * @param connection the connection to copy on
+    * @param sql the COPY ... TO STDOUT statement
+    * @param out where the raw bytes sent by the server are written
+    * @return the number of rows copied
+    * @throws java.sql.SQLException when the copy fails
+    */
+   public static long copyOut(Connection connection, String sql, OutputStream out) throws SQLException {
+      init();
+      return ((Number) invoke(_copyOut, copyApi(connection), sql, out)).longValue();
+   }
+
+   /**
+    * Quotes a value as a SQL string literal, for statements such as COPY that
+    * cannot take bind parameters.  The literal is an escape string (E'...')
+    * with quotes and backslashes doubled, which reads the same whatever
+    * standard_conforming_strings is set to.
+    *
+    * @param value the value to quote
+    * @return the quoted literal
+    */
+   public static String literal(String value) {
+      if (value.indexOf('\0') >= 0)
+         throw new IllegalArgumentException("NUL character in SQL literal");
+      return "E'" + value.replace("\\", "\\\\").replace("'", "''") + "'";
+   }
+
+   private static synchronized void init() throws SQLException {
+      if (_getCopyApi != null)
+         return;
+      try {
+         Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+         Class<?> copyManager = Class.forName("org.postgresql.copy.CopyManager");
+         _copyIn = copyManager.getMethod("copyIn", String.class, Reader.class);
+         _copyOut = copyManager.getMethod("copyOut", String.class, OutputStream.class);
+         _getCopyApi = pgConnection.getMethod("getCopyAPI");
+      } catch (ReflectiveOperationException e) {
+         throw new SQLException("The PostgreSQL driver on the classpath does not support COPY "
+                                + "(org.postgresql.copy.CopyManager not found)");
+      }
+   }
+
+   private static Object copyApi(Connection connection) throws SQLException {
+      Object pgConnection = connection;
+      if (!_getCopyApi.getDeclaringClass().isInstance(connection))
+         pgConnection = connection.unwrap(_getCopyApi.getDeclaringClass());
+      return invoke(_getCopyApi, pgConnection);
+   }
+
+   private static Object invoke(Method method, Object target, Object... args) throws SQLException {
+      try {
+         return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         throw new SQLException(cause.getMessage(), cause);
+      } catch (IllegalAccessException e) {
+         throw new SQLException(e.getMessage(), e);
+      }
+   }
+}//end PgCopy
@@ -0,0 +1,178 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class checks that the queries the features run per request are
+ * planned through indexes.  It runs EXPLAIN for each of them, with
+ * parameters taken from the data, and reports every sequential scan of a
+ * table holding more than airline.plancheck.minRows rows (default 10000).
+ * The process exits with status 1 when any query scans such a table, so a
+ * build can run it after loading a scaled dataset and fail on a plan
+ * regression.
+ *
+ * The planner prefers sequential scans on small tables, so the check is
+ * only meaningful on a database of realistic size; the seed data in data/
+ * is far too small.  Tables are analyzed first so the planner sees their
+ * current size.
+ *
+ * Queries that read a whole table on purpose (the loads of ReferenceCache,
+ * SalesRollup, OnTimeStats and the fares of ItinerarySearch) are not checked.
+ *
+ * Usage: java AirlineManagement plancheck <dbname> <port> <user>
+ */
+public class QueryPlanCheck {
+
+   static final long MIN_ROWS = Long.getLong("airline.plancheck.minRows", 10000);
+
+   static final String TABLE_SIZES_SQL =
+      "SELECT c.relname, c.reltuples FROM pg_class c " +
+      "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+      "WHERE c.relkind = 'r' AND n.nspname = current_schema()";
+
+   // one row of data the queries are explained with
+   static final String SAMPLE_SQL =
+      "SELECT fi.FlightInstanceID, fi.FlightNumber, fi.FlightDate, COALESCE(fi.NumOfStops, 0), " +
+      "       f.PlaneID, " +
+      "       (SELECT ReservationID FROM Reservation LIMIT 1), " +
+      "       (SELECT CustomerID FROM Customer LIMIT 1), " +
+      "       (SELECT TechnicianID FROM Repair LIMIT 1), " +
+      "       (SELECT PilotID FROM MaintenanceRequest LIMIT 1), " +
+      "       (SELECT RequestID FROM MaintenanceRequest LIMIT 1), " +
+      "       (SELECT RepairID FROM Repair LIMIT 1), " +
+      "       (SELECT login FROM Users LIMIT 1) " +
+      "FROM FlightInstance fi JOIN Flight f ON f.FlightNumber = fi.FlightNumber " +
+      "LIMIT 1";
+
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+
+   private final AirlineManagement _esql;
+
+   public QueryPlanCheck(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @return the checked queries by name, each with the parameters to
+    *         explain it with
+    * @throws java.sql.SQLException when no sample data can be read
+    */
+   Map<String, Object[]> queries() throws SQLException {
+      ColumnarResult sample = this._esql.executeQueryAndReturnColumns(SAMPLE_SQL);
+      if (sample.getRowCount() == 0)
+         throw new SQLException("FlightInstance is empty, load a dataset first");
+      Integer instance = sample.getInt(0, 0);
+      String flight = sample.getString(0, 1);
+      Date date = Date.valueOf(sample.getDate(0, 2));
+      Date yearLater = Date.valueOf(sample.getDate(0, 2).plusYears(1));
+      Integer stops = sample.getInt(0, 3);
+      String plane = sample.getString(0, 4);
+      String reservation = orElse(sample, 5, "R0001");
+      Integer customer = sample.isNull(0, 6) ? 1 : sample.getInt(0, 6);
+      String technician = orElse(sample, 7, "T001");
+      String pilot = orElse(sample, 8, "P001");
+      String login = orElse(sample, 11, "nobody");
+
+      Map<String, Object[]> queries = new LinkedHashMap<String, Object[]>();
+      queries.put("login", new Object[] { AirlineManagement.LOGIN_SQL, login, "" });
+      queries.put("create user", new Object[] { AirlineManagement.CREATE_USER_SQL, login, "", "", login });
+      queries.put("feature2 schedule", new Object[] { ReferenceCache.SCHEDULE_SQL, flight });
+      queries.put("feature3", new Object[] { AirlineManagement.FEATURE3_SQL, flight, date });
+      queries.put("feature4", new Object[] { AirlineManagement.FEATURE4_SQL, flight, date });
+      queries.put("feature5", new Object[] { AirlineManagement.FEATURE5_SQL, date });
+      queries.put("feature6", new Object[] { AirlineManagement.FEATURE6_SQL, flight, date });
+      queries.put("feature7", new Object[] { AirlineManagement.FEATURE7_SQL, reservation });
+      queries.put("feature9", new Object[] { AirlineManagement.FEATURE9_SQL, technician });
+      queries.put("feature10", new Object[] { AirlineManagement.FEATURE10_SQL, plane, date, yearLater });
+      queries.put("feature13", new Object[] { AirlineManagement.FEATURE13_SQL, flight });
+      queries.put("feature15 booking", new Object[] { BookingEngine.BOOK_SQL, flight, date, reservation, customer });
+      queries.put("feature17", new Object[] { AirlineManagement.FEATURE17_SQL, plane, date, yearLater });
+      queries.put("feature18", new Object[] { AirlineManagement.FEATURE18_SQL, pilot });
+      queries.put("cancel find", new Object[] { CancellationEngine.FIND_SQL, reservation });
+      queries.put("cancel find flight", new Object[] { CancellationEngine.FIND_INSTANCE_SQL, flight, date });
+      queries.put("cancel lock flight", new Object[] { CancellationEngine.LOCK_FLIGHT_SQL, instance });
+      queries.put("cancel promote", new Object[] { CancellationEngine.PROMOTE_SQL, instance });
+      queries.put("cancel batch", new Object[] { CancellationEngine.CANCEL_BATCH_SQL, instance, 100 });
+      queries.put("cancel remaining", new Object[] { CancellationEngine.REMAINING_SQL, instance });
+      queries.put("on-time bucket", new Object[] { OnTimeStats.BUCKET_SQL, flight, date, stops });
+      return queries;
+   }//end queries
+
+   /**
+    * Explains every checked query.
+    *
+    * @return the sequential scans of large tables, as "query: table"
+    * @throws java.sql.SQLException when a query cannot be explained
+    */
+   public List<String> check() throws SQLException {
+      this._esql.executeUpdate("ANALYZE");
+      Map<String, Double> sizes = new HashMap<String, Double>();
+      ColumnarResult tables = this._esql.executeQueryAndReturnColumns(TABLE_SIZES_SQL);
+      for (int r = 0; r < tables.getRowCount(); ++r)
+         sizes.put(tables.getString(r, 0).toLowerCase(Locale.ROOT), tables.getDouble(r, 1));
+
+      List<String> failures = new ArrayList<String>();
+      for (Map.Entry<String, Object[]> query : queries().entrySet()) {
+         Object[] sqlAndParams = query.getValue();
+         Object[] params = java.util.Arrays.copyOfRange(sqlAndParams, 1, sqlAndParams.length);
+         ColumnarResult plan = this._esql.executeQueryAndReturnColumns("EXPLAIN " + sqlAndParams[0], params);
+         boolean failed = false;
+         for (int r = 0; r < plan.getRowCount(); ++r) {
+            Matcher m = SEQ_SCAN.matcher(plan.getString(r, 0));
+            while (m.find()) {
+               String table = m.group(1).toLowerCase(Locale.ROOT);
+               Double rows = sizes.get(table);
+               if (rows != null && rows > MIN_ROWS) {
+                  failures.add(query.getKey() + ": " + table);
+                  failed = true;
+               }
+            }
+         }
+         System.out.printf("%-22s%s%n", query.getKey(), failed ? "SEQ SCAN" : "ok");
+         if (failed)
+            for (int r = 0; r < plan.getRowCount(); ++r)
+               System.out.println("      " + plan.getString(r, 0));
+      }
+      return failures;
+   }//end check
+
+   private static String orElse(ColumnarResult sample, int col, String otherwise) {
+      return sample.isNull(0, col) ? otherwise : sample.getString(0, col);
+   }
+
+   public static void main(String[] args) {
+      if (args.length != 3) {
+         System.err.println("Usage: java AirlineManagement plancheck <dbname> <port> <user>");
+         System.exit(2);
+      }
+      AirlineManagement esql = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(args[0], args[1], args[2], "");
+         List<String> failures = new QueryPlanCheck(esql).check();
+         if (failures.isEmpty()) {
+            System.out.println("No sequential scans of tables over " + MIN_ROWS + " rows");
+         } else {
+            System.out.println("Sequential scans of large tables:");
+            for (String failure : failures)
+               System.out.println("   " + failure);
+            status = 1;
+         }
+      } catch (Exception e) {
+         System.err.println("Error - Plan check failed: " + e.getMessage());
+         status = 2;
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+      System.exit(status);
+   }//end main
+}//end QueryPlanCheck
@@ -0,0 +1,542 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the small reference tables (Flight, Plane, Schedule,
+ * Pilot and Technician) in memory, so the features that only read them
+ * (feature1, feature2, feature8 and feature14) need no round trip.
+ *
+ * The tables are loaded on first use in one transaction and replaced as a
+ * whole by refresh().  Once a load is older than airline.cache.ttl seconds
+ * (default 300, 0 turns it off) the next lookup still answers from memory
+ * and starts a reload in the background.  A key that is not in memory is
+ * read through from the database and kept until the next load, so a row
+ * added since the last load is found as well; a flight that turns out to
+ * have no schedule is remembered as such.
+ *
+ * Keys are compared without surrounding blanks.  City names, flight numbers,
+ * plane ids and day names are interned, so the copies held here and in the
+ * structures built from them share one String each.
+ *
+ * Lookups are lock free and safe from many threads.  Hits and misses are
+ * counted; a miss is a lookup that had to go to the database.
+ *
+ * Structures derived from the flights, like RouteIndex, register a
+ * Listener and are told about each flight whose row or schedule differs
+ * from the previous load, so they can be updated flight by flight instead
+ * of being rebuilt.
+ */
+public class ReferenceCache {
+
+   /**
+    * Told about flights that were added, changed or removed.
+    */
+   public interface Listener {
+      /**
+       * @param flightNumber the flight number
+       * @param flight the flight as it is now, or null when it is gone
+       * @param schedule its schedule from Sunday to Saturday, possibly empty
+       */
+      void flightChanged(String flightNumber, Flight flight, List<Schedule> schedule);
+   }
+
+   /**
+    * A row of Flight.
+    */
+   public static final class Flight {
+      public final String flightNumber;
+      public final String planeId;
+      public final String departureCity;
+      public final String arrivalCity;
+
+      Flight(String flightNumber, String planeId, String departureCity, String arrivalCity) {
+         this.flightNumber = intern(flightNumber);
+         this.planeId = intern(planeId);
+         this.departureCity = intern(departureCity);
+         this.arrivalCity = intern(arrivalCity);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Flight))
+            return false;
+         Flight f = (Flight) o;
+         return Objects.equals(this.flightNumber, f.flightNumber) && Objects.equals(this.planeId, f.planeId)
+                && Objects.equals(this.departureCity, f.departureCity) && Objects.equals(this.arrivalCity, f.arrivalCity);
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hash(this.flightNumber, this.planeId, this.departureCity, this.arrivalCity);
+      }
+   }//end Flight
+
+   /**
+    * A row of Plane.
+    */
+   public static final class Plane {
+      public final String planeId;
+      public final String make;
+      public final String model;
+      public final String lastRepairDate;
+
+      Plane(String planeId, String make, String model, String lastRepairDate) {
+         this.planeId = intern(planeId);
+         this.make = intern(make);
+         this.model = intern(model);
+         this.lastRepairDate = lastRepairDate;
+      }
+   }//end Plane
+
+   /**
+    * A row of Schedule.
+    */
+   public static final class Schedule {
+      public final String flightNumber;
+      public final String dayOfWeek;
+      public final String departureTime;
+      public final String arrivalTime;
+
+      Schedule(String flightNumber, String dayOfWeek, String departureTime, String arrivalTime) {
+         this.flightNumber = intern(flightNumber);
+         this.dayOfWeek = intern(dayOfWeek);
+         this.departureTime = departureTime;
+         this.arrivalTime = arrivalTime;
+      }
+
+      /**
+       * @return 1 for Sunday through 7 for Saturday, 8 for anything else
+       */
+      public int dayNumber() {
+         return ReferenceCache.dayNumber(this.dayOfWeek);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Schedule))
+            return false;
+         Schedule s = (Schedule) o;
+         return Objects.equals(this.flightNumber, s.flightNumber) && Objects.equals(this.dayOfWeek, s.dayOfWeek)
+                && Objects.equals(this.departureTime, s.departureTime) && Objects.equals(this.arrivalTime, s.arrivalTime);
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hash(this.flightNumber, this.dayOfWeek, this.departureTime, this.arrivalTime);
+      }
+   }//end Schedule
+
+   static final String FLIGHTS_SQL =
+      "SELECT FlightNumber, PlaneID, DepartureCity, ArrivalCity FROM Flight ORDER BY FlightNumber";
+   static final String FLIGHT_SQL =
+      "SELECT FlightNumber, PlaneID, DepartureCity, ArrivalCity FROM Flight WHERE FlightNumber = ?";
+   static final String PLANES_SQL =
+      "SELECT PlaneID, Make, Model, LastRepairDate FROM Plane";
+   static final String PLANE_SQL =
+      "SELECT PlaneID, Make, Model, LastRepairDate FROM Plane WHERE PlaneID = ?";
+   static final String SCHEDULES_SQL =
+      "SELECT FlightNumber, DayOfWeek, DepartureTime, ArrivalTime FROM Schedule";
+   static final String SCHEDULE_SQL =
+      "SELECT FlightNumber, DayOfWeek, DepartureTime, ArrivalTime FROM Schedule WHERE FlightNumber = ?";
+   static final String PILOTS_SQL = "SELECT PilotID, Name FROM Pilot";
+   static final String PILOT_SQL = "SELECT PilotID, Name FROM Pilot WHERE PilotID = ?";
+   static final String TECHNICIANS_SQL = "SELECT TechnicianID, Name FROM Technician";
+   static final String TECHNICIAN_SQL = "SELECT TechnicianID, Name FROM Technician WHERE TechnicianID = ?";
+
+   private static final String[] DAYS =
+      { "Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday" };
+
+   private static final Comparator<Schedule> BY_DAY = Comparator.comparingInt(Schedule::dayNumber);
+
+   private static final Schedule[] NO_SCHEDULE = new Schedule[0];
+
+   /*
+    * One load of the tables.  The array of flights is what the load saw; the
+    * maps also receive rows read through after it.
+    */
+   private static final class Tables {
+      final long loadedAt = System.nanoTime();
+      final Flight[] flights;
+      final Map<String, Flight> flightsByNumber = new ConcurrentHashMap<String, Flight>();
+      final Map<String, Plane> planes = new ConcurrentHashMap<String, Plane>();
+      final Map<String, Schedule[]> schedules = new ConcurrentHashMap<String, Schedule[]>();
+      final Map<String, String> pilots = new ConcurrentHashMap<String, String>();
+      final Map<String, String> technicians = new ConcurrentHashMap<String, String>();
+
+      Tables(Flight[] flights) {
+         this.flights = flights;
+      }
+   }//end Tables
+
+   private final AirlineManagement _esql;
+   private final BackgroundReloader _reloader;
+   private final Object _loadLock = new Object();
+   private volatile Tables _tables;
+   private final List<Listener> _listeners = new CopyOnWriteArrayList<Listener>();
+
+   private final LongAdder _hits = new LongAdder();
+   private final LongAdder _misses = new LongAdder();
+   private final LongAdder _loads = new LongAdder();
+   private volatile long _lastLoadNanos;
+
+   public ReferenceCache(AirlineManagement esql) {
+      this(esql, Long.getLong("airline.cache.ttl", 300), TimeUnit.SECONDS);
+   }
+
+   /**
+    * @param esql the database the tables are read from
+    * @param ttl how long a load is used before it is reloaded, 0 for ever
+    */
+   public ReferenceCache(AirlineManagement esql, long ttl, TimeUnit unit) {
+      this._esql = esql;
+      this._reloader = new BackgroundReloader(unit.toNanos(ttl), this::refresh);
+   }
+
+   /**
+    * Reloads every table now.  Lookups keep using the previous load until
+    * the new one is complete.
+    *
+    * @throws java.sql.SQLException when a table cannot be read
+    */
+   public void refresh() throws SQLException {
+      synchronized (this._loadLock) {
+         long start = System.nanoTime();
+         Tables previous = this._tables;
+         Tables tables = this._esql.executeInTransaction(tx -> load(tx));
+         this._tables = tables;
+         this._lastLoadNanos = System.nanoTime() - start;
+         this._loads.increment();
+         if (!this._listeners.isEmpty())
+            notifyChanges(previous, tables);
+      }
+   }
+
+   /**
+    * Reads one flight and its schedule again, for callers that changed them.
+    *
+    * @throws java.sql.SQLException when the flight cannot be read
+    */
+   public void reload(String flightNumber) throws SQLException {
+      Tables tables = tables();
+      String key = key(flightNumber);
+      tables.flightsByNumber.remove(key);
+      tables.schedules.remove(key);
+      Flight flight = getFlight(key);
+      if (flight == null) {
+         notifyChanged(key, null, Collections.<Schedule>emptyList());
+         return;
+      }
+      // getSchedule reports the flight to the listeners
+      getSchedule(key);
+   }
+
+   /**
+    * Drops the loaded tables; the next lookup loads them again.
+    */
+   public void invalidate() {
+      this._tables = null;
+   }
+
+   /**
+    * Registers a listener and tells it about every flight already loaded.
+    */
+   public void addListener(Listener listener) {
+      synchronized (this._loadLock) {
+         this._listeners.add(listener);
+         Tables tables = this._tables;
+         if (tables != null)
+            for (Flight flight : tables.flightsByNumber.values())
+               listener.flightChanged(flight.flightNumber, flight, scheduleOf(tables, key(flight.flightNumber)));
+      }
+   }
+
+   public void removeListener(Listener listener) {
+      this._listeners.remove(listener);
+   }
+
+   /*
+    * Reports the flights whose row or schedule differ between two loads.
+    */
+   private void notifyChanges(Tables previous, Tables tables) {
+      for (Map.Entry<String, Flight> entry : tables.flightsByNumber.entrySet()) {
+         String key = entry.getKey();
+         Flight flight = entry.getValue();
+         List<Schedule> schedule = scheduleOf(tables, key);
+         if (previous != null && flight.equals(previous.flightsByNumber.get(key))
+             && schedule.equals(scheduleOf(previous, key)))
+            continue;
+         notifyChanged(flight.flightNumber, flight, schedule);
+      }
+      if (previous != null)
+         for (String key : previous.flightsByNumber.keySet())
+            if (!tables.flightsByNumber.containsKey(key))
+               notifyChanged(key, null, Collections.<Schedule>emptyList());
+   }
+
+   private void notifyChanged(String flightNumber, Flight flight, List<Schedule> schedule) {
+      for (Listener listener : this._listeners)
+         listener.flightChanged(flightNumber, flight, schedule);
+   }
+
+   private static List<Schedule> scheduleOf(Tables tables, String key) {
+      Schedule[] schedule = tables.schedules.get(key);
+      return schedule == null ? Collections.<Schedule>emptyList() : Arrays.asList(schedule);
+   }
+
+   private static Tables load(Transaction tx) throws SQLException {
+      ColumnarResult rows = tx.executeQueryAndReturnColumns(FLIGHTS_SQL);
+      Flight[] flights = new Flight[rows.getRowCount()];
+      for (int r = 0; r < flights.length; ++r)
+         flights[r] = flight(rows, r);
+      Tables tables = new Tables(flights);
+      for (Flight flight : flights)
+         tables.flightsByNumber.put(key(flight.flightNumber), flight);
+
+      rows = tx.executeQueryAndReturnColumns(PLANES_SQL);
+      for (int r = 0; r < rows.getRowCount(); ++r) {
+         Plane plane = plane(rows, r);
+         tables.planes.put(key(plane.planeId), plane);
+      }
+
+      rows = tx.executeQueryAndReturnColumns(SCHEDULES_SQL);
+      Map<String, List<Schedule>> byFlight = new HashMap<String, List<Schedule>>();
+      for (int r = 0; r < rows.getRowCount(); ++r) {
+         Schedule schedule = schedule(rows, r);
+         byFlight.computeIfAbsent(key(schedule.flightNumber), k -> new ArrayList<Schedule>()).add(schedule);
+      }
+      for (Map.Entry<String, List<Schedule>> entry : byFlight.entrySet())
+         tables.schedules.put(entry.getKey(), sortByDay(entry.getValue()));
+      // flights without a schedule are known too
+      for (Flight flight : flights)
+         tables.schedules.putIfAbsent(key(flight.flightNumber), NO_SCHEDULE);
+
+      readNames(tx.executeQueryAndReturnColumns(PILOTS_SQL), tables.pilots);
+      readNames(tx.executeQueryAndReturnColumns(TECHNICIANS_SQL), tables.technicians);
+      return tables;
+   }//end load
+
+   /*
+    * The current load, loading the tables if there is none and starting a
+    * background reload when it is stale.
+    */
+   private Tables tables() throws SQLException {
+      Tables tables = this._tables;
+      if (tables == null) {
+         synchronized (this._loadLock) {
+            if (this._tables == null)
+               refresh();
+            return this._tables;
+         }
+      }
+      this._reloader.reloadIfExpired(tables.loadedAt);
+      return tables;
+   }//end tables
+
+   /**
+    * @return every flight, ordered by flight number
+    * @throws java.sql.SQLException when the tables cannot be loaded
+    */
+   public List<Flight> getFlights() throws SQLException {
+      Tables tables = tables();
+      this._hits.increment();
+      return Arrays.asList(tables.flights);
+   }
+
+   /**
+    * @return the flight, or null when there is no such flight
+    * @throws java.sql.SQLException when the flight cannot be read
+    */
+   public Flight getFlight(String flightNumber) throws SQLException {
+      Tables tables = tables();
+      String key = key(flightNumber);
+      Flight flight = tables.flightsByNumber.get(key);
+      if (flight != null) {
+         this._hits.increment();
+         return flight;
+      }
+      this._misses.increment();
+      ColumnarResult rows = this._esql.executeQueryAndReturnColumns(FLIGHT_SQL, key);
+      if (rows.getRowCount() == 0)
+         return null;
+      flight = flight(rows, 0);
+      tables.flightsByNumber.put(key, flight);
+      notifyChanged(flight.flightNumber, flight, scheduleOf(tables, key));
+      return flight;
+   }//end getFlight
+
+   /**
+    * @return the schedule of the flight from Sunday to Saturday, empty when
+    *         the flight has none or does not exist
+    * @throws java.sql.SQLException when the schedule cannot be read
+    */
+   public List<Schedule> getSchedule(String flightNumber) throws SQLException {
+      Tables tables = tables();
+      String key = key(flightNumber);
+      Schedule[] schedule = tables.schedules.get(key);
+      if (schedule != null) {
+         this._hits.increment();
+         return Arrays.asList(schedule);
+      }
+      this._misses.increment();
+      ColumnarResult rows = this._esql.executeQueryAndReturnColumns(SCHEDULE_SQL, key);
+      List<Schedule> read = new ArrayList<Schedule>(rows.getRowCount());
+      for (int r = 0; r < rows.getRowCount(); ++r)
+         read.add(schedule(rows, r));
+      schedule = read.isEmpty() ? NO_SCHEDULE : sortByDay(read);
+      // only flights the cache knows are kept, so lookups of made up flight
+      // numbers cannot grow the map
+      Flight flight = tables.flightsByNumber.get(key);
+      if (flight != null) {
+         tables.schedules.put(key, schedule);
+         notifyChanged(flight.flightNumber, flight, Arrays.asList(schedule));
+      }
+      return Arrays.asList(schedule);
+   }//end getSchedule
+
+   /**
+    * @return the plane, or null when there is no such plane
+    * @throws java.sql.SQLException when the plane cannot be read
+    */
+   public Plane getPlane(String planeId) throws SQLException {
+      Tables tables = tables();
+      String key = key(planeId);
+      Plane plane = tables.planes.get(key);
+      if (plane != null) {
+         this._hits.increment();
+         return plane;
+      }
+      this._misses.increment();
+      ColumnarResult rows = this._esql.executeQueryAndReturnColumns(PLANE_SQL, key);
+      if (rows.getRowCount() == 0)
+         return null;
+      plane = plane(rows, 0);
+      tables.planes.put(key, plane);
+      return plane;
+   }//end getPlane
+
+   /**
+    * @return the plane flying the flight, or null when there is no such
+    *         flight or plane
+    * @throws java.sql.SQLException when the flight or plane cannot be read
+    */
+   public Plane getPlaneOfFlight(String flightNumber) throws SQLException {
+      Flight flight = getFlight(flightNumber);
+      return flight == null || flight.planeId == null ? null : getPlane(flight.planeId);
+   }
+
+   /**
+    * @return the name of the pilot, or null when there is no such pilot
+    * @throws java.sql.SQLException when the pilot cannot be read
+    */
+   public String getPilotName(String pilotId) throws SQLException {
+      return name(tables().pilots, PILOT_SQL, pilotId);
+   }
+
+   /**
+    * @return the name of the technician, or null when there is no such technician
+    * @throws java.sql.SQLException when the technician cannot be read
+    */
+   public String getTechnicianName(String technicianId) throws SQLException {
+      return name(tables().technicians, TECHNICIAN_SQL, technicianId);
+   }
+
+   private String name(Map<String, String> names, String sql, String id) throws SQLException {
+      String key = key(id);
+      String name = names.get(key);
+      if (name != null) {
+         this._hits.increment();
+         return name;
+      }
+      this._misses.increment();
+      ColumnarResult rows = this._esql.executeQueryAndReturnColumns(sql, key);
+      if (rows.getRowCount() == 0)
+         return null;
+      name = rows.getString(0, 1);
+      if (name != null)
+         names.put(key, name);
+      return name;
+   }
+
+   private static void readNames(ColumnarResult rows, Map<String, String> names) {
+      for (int r = 0; r < rows.getRowCount(); ++r) {
+         String id = rows.getString(r, 0);
+         String name = rows.getString(r, 1);
+         if (id != null && name != null)
+            names.put(key(id), name);
+      }
+   }
+
+   private static Flight flight(ColumnarResult rows, int r) {
+      return new Flight(rows.getString(r, 0), rows.getString(r, 1), rows.getString(r, 2), rows.getString(r, 3));
+   }
+
+   private static Plane plane(ColumnarResult rows, int r) {
+      return new Plane(rows.getString(r, 0), rows.getString(r, 1), rows.getString(r, 2), rows.getString(r, 3));
+   }
+
+   private static Schedule schedule(ColumnarResult rows, int r) {
+      return new Schedule(rows.getString(r, 0), rows.getString(r, 1), rows.getString(r, 2), rows.getString(r, 3));
+   }
+
+   private static Schedule[] sortByDay(List<Schedule> schedule) {
+      Schedule[] sorted = schedule.toArray(new Schedule[schedule.size()]);
+      Arrays.sort(sorted, BY_DAY);
+      return sorted;
+   }
+
+   /**
+    * @return 1 for Sunday through 7 for Saturday, 8 for anything else, the
+    *         order feature2 lists a schedule in
+    */
+   static int dayNumber(String dayOfWeek) {
+      if (dayOfWeek != null) {
+         String day = dayOfWeek.trim();
+         for (int d = 0; d < DAYS.length; ++d)
+            if (DAYS[d].equalsIgnoreCase(day))
+               return d + 1;
+      }
+      return DAYS.length + 1;
+   }
+
+   private static String key(String value) {
+      return value == null ? "" : value.trim();
+   }
+
+   private static String intern(String value) {
+      return value == null ? null : value.intern();
+   }
+
+   public long getHitCount() { return this._hits.sum(); }
+   public long getMissCount() { return this._misses.sum(); }
+   public long getLoadCount() { return this._loads.sum(); }
+
+   /**
+    * @return the fraction of lookups answered from memory
+    */
+   public double getHitRatio() {
+      long hits = this._hits.sum();
+      long total = hits + this._misses.sum();
+      return total == 0 ? 0.0 : (double) hits / total;
+   }
+
+   @Override
+   public String toString() {
+      Tables tables = this._tables;
+      return String.format("flights=%d planes=%d hits=%d misses=%d hitRatio=%.3f loads=%d lastLoad=%.1fms",
+                           tables == null ? 0 : tables.flightsByNumber.size(),
+                           tables == null ? 0 : tables.planes.size(),
+                           getHitCount(), getMissCount(), getHitRatio(), getLoadCount(),
+                           this._lastLoadNanos / 1e6);
+   }
+}//end ReferenceCache
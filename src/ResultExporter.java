@@ -0,0 +1,451 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class exports the results of feature queries to files for other
+ * systems: the passenger manifest of a flight (feature6), the flights of a
+ * day (feature5) and seat sales per flight over a date range (feature11).
+ *
+ * The query runs as COPY (...) TO STDOUT WITH (FORMAT csv) and the bytes
+ * the server sends are written to a FileChannel as they arrive, optionally
+ * through gzip, so no row is turned into Java strings.  JSON lines are
+ * transcoded from the CSV bytes on the fly: one object per row, keyed by the
+ * lowercase column names, with numbers and booleans unquoted and NULL as
+ * null.  With a driver that has no copy API, such as the bundled pg73
+ * driver, the query is streamed as a plain SELECT instead and its rows are
+ * written out as the same CSV text.
+ *
+ * The file is written under a .part name and renamed when the export
+ * completes, so a reader never sees half an export.
+ *
+ * Usage: java AirlineManagement export <dbname> <port> <user> <export> <args>
+ *           [--format csv|json] [--gzip] [--out file]
+ *
+ *    manifest <flightNumber> <date>
+ *    flights <date>
+ *    stats <startDate> <endDate> [flightNumber]
+ */
+public class ResultExporter {
+
+   public enum Format { CSV, JSON }
+
+   static final String STATS_SQL =
+      "SELECT FlightNumber, COUNT(*) AS NumDays, SUM(SeatsSold) AS TotalTicketsSold, " +
+      "SUM(SeatsTotal - SeatsSold) AS TotalTicketsUnsold " +
+      "FROM FlightInstance " +
+      "WHERE FlightDate BETWEEN ? AND ? " +
+      "GROUP BY FlightNumber " +
+      "ORDER BY FlightNumber";
+   static final String FLIGHT_STATS_SQL =
+      "SELECT FlightNumber, COUNT(*) AS NumDays, SUM(SeatsSold) AS TotalTicketsSold, " +
+      "SUM(SeatsTotal - SeatsSold) AS TotalTicketsUnsold " +
+      "FROM FlightInstance " +
+      "WHERE FlightDate BETWEEN ? AND ? AND FlightNumber = ? " +
+      "GROUP BY FlightNumber";
+
+   private static final int BUFFER_SIZE = 1 << 16;
+
+   private final AirlineManagement _esql;
+
+   public ResultExporter(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @param name manifest, flights or stats
+    * @param args the arguments of the export, as listed in the usage
+    * @return the query of the export followed by its parameters
+    * @throws IllegalArgumentException when the export or its arguments are unknown
+    */
+   static Object[] query(String name, List<String> args) {
+      switch (name.toLowerCase(Locale.ROOT)) {
+         case "manifest":
+            if (args.size() == 2)
+               return new Object[] { AirlineManagement.FEATURE6_SQL, args.get(0), AirlineManagement.parseDate(args.get(1)) };
+            throw new IllegalArgumentException("manifest takes <flightNumber> <date>");
+         case "flights":
+            if (args.size() == 1)
+               return new Object[] { AirlineManagement.FEATURE5_SQL, AirlineManagement.parseDate(args.get(0)) };
+            throw new IllegalArgumentException("flights takes <date>");
+         case "stats":
+            if (args.size() == 2)
+               return new Object[] { STATS_SQL, AirlineManagement.parseDate(args.get(0)), AirlineManagement.parseDate(args.get(1)) };
+            if (args.size() == 3)
+               return new Object[] { FLIGHT_STATS_SQL, AirlineManagement.parseDate(args.get(0)),
+                                     AirlineManagement.parseDate(args.get(1)), args.get(2) };
+            throw new IllegalArgumentException("stats takes <startDate> <endDate> [flightNumber]");
+         default:
+            throw new IllegalArgumentException("Unknown export " + name + ", expected manifest, flights or stats");
+      }
+   }//end query
+
+   /**
+    * Writes the rows of a query to a file.
+    *
+    * @param sql the query, with ? placeholders
+    * @param params the values of the placeholders
+    * @param format CSV with a header line, or JSON lines
+    * @param gzip whether the file is compressed
+    * @param file the file written
+    * @return the number of rows exported
+    * @throws java.sql.SQLException when the query fails
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public long export(String sql, Object[] params, Format format, boolean gzip, Path file)
+         throws SQLException, IOException {
+      String query = inline(sql, params);
+      String copy = "COPY (" + query + ") TO STDOUT WITH (FORMAT csv" + (format == Format.CSV ? ", HEADER)" : ")");
+      // the JSON keys and which values go unquoted come from the result's columns
+      ColumnarResult columns = format == Format.JSON
+         ? this._esql.executeQueryAndReturnColumns("SELECT * FROM (" + query + ") t LIMIT 0") : null;
+
+      Path part = file.resolveSibling(file.getFileName() + ".part");
+      boolean done = false;
+      ConnectionPool.PooledConnection pc = null;
+      try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+         OutputStream out = Channels.newOutputStream(channel);
+         if (gzip)
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+         out = columns == null ? new BufferedOutputStream(out, BUFFER_SIZE) : new JsonLinesOutputStream(out, columns);
+
+         long rows;
+         if (PgCopy.isSupported()) {
+            pc = this._esql.getPool().borrow();
+            rows = PgCopy.copyOut(pc.getConnection(), copy, out);
+         } else {
+            rows = select(sql, params, format == Format.CSV, out);
+         }
+         out.close();
+         done = true;
+         return rows;
+      } catch (SQLException e) {
+         if (pc != null)
+            this._esql.getPool().discardIfBroken(pc, e);
+         throw e;
+      } finally {
+         if (pc != null)
+            this._esql.getPool().release(pc);
+         if (done)
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         else
+            Files.deleteIfExists(part);
+      }
+   }//end export
+
+   /*
+    * Streams the rows of the query and writes them as COPY writes CSV: NULL
+    * as an unquoted empty field and a field quoted when it is empty or holds
+    * a comma, quote or line break.
+    */
+   private long select(String sql, Object[] params, boolean header, OutputStream out)
+         throws SQLException, IOException {
+      try (ResultCursor cursor = this._esql.executeQueryAndStreamResult(sql, params)) {
+         StringBuilder line = new StringBuilder(256);
+         if (header) {
+            appendCsv(cursor.getColumnNames(), line);
+            out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+         }
+         for (List<String> row : cursor) {
+            line.setLength(0);
+            appendCsv(row, line);
+            out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+         }
+         return cursor.getRowCount();
+      } catch (IllegalStateException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw e;
+      }
+   }//end select
+
+   private static void appendCsv(List<String> values, StringBuilder out) {
+      for (int i = 0; i < values.size(); ++i) {
+         if (i > 0)
+            out.append(',');
+         String value = values.get(i);
+         if (value == null)
+            continue;
+         if (value.isEmpty() || value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+             || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0)
+            out.append('"').append(value.replace("\"", "\"\"")).append('"');
+         else
+            out.append(value);
+      }
+      out.append('\n');
+   }
+
+   /*
+    * The query with each ? replaced by its parameter as a literal, since
+    * COPY takes no bind parameters.
+    */
+   static String inline(String sql, Object[] params) {
+      StringBuilder out = new StringBuilder(sql.length() + 16 * params.length);
+      int next = 0;
+      boolean quoted = false;
+      for (int i = 0; i < sql.length(); ++i) {
+         char c = sql.charAt(i);
+         if (c == '\'')
+            quoted = !quoted;
+         if (c != '?' || quoted) {
+            out.append(c);
+            continue;
+         }
+         if (next == params.length)
+            throw new IllegalArgumentException("More placeholders than parameters in " + sql);
+         Object param = params[next++];
+         if (param == null)
+            out.append("NULL");
+         else if (param instanceof Number)
+            out.append(param);
+         else if (param instanceof java.sql.Date)
+            out.append(PgCopy.literal(param.toString())).append("::date");
+         else
+            out.append(PgCopy.literal(param.toString()));
+      }
+      if (next != params.length)
+         throw new IllegalArgumentException("More parameters than placeholders in " + sql);
+      return out.toString();
+   }//end inline
+
+   /**
+    * Turns the CSV bytes of COPY (comma separated, " quoted, NULL as an
+    * unquoted empty field) into one JSON object per line, byte by byte.
+    * UTF-8 sequences pass through untouched.
+    */
+   static class JsonLinesOutputStream extends OutputStream {
+      private static final int FIELD_START = 0;
+      private static final int UNQUOTED = 1;
+      private static final int QUOTED = 2;
+      private static final int QUOTE_IN_QUOTED = 3;
+
+      private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+      private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+      private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+      private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+      private final OutputStream _out;
+      private final byte[][] _keys;      // {"name": for the first column, ,"name": for the others
+      private final boolean[] _raw;      // numbers, written unquoted
+      private final boolean[] _boolean;  // t or f, written as true or false
+      private final byte[] _buffer = new byte[BUFFER_SIZE];
+      private int _length = 0;
+      private int _column = 0;
+      private int _state = FIELD_START;
+
+      JsonLinesOutputStream(OutputStream out, ColumnarResult columns) {
+         this._out = out;
+         int count = columns.getColumnCount();
+         this._keys = new byte[count][];
+         this._raw = new boolean[count];
+         this._boolean = new boolean[count];
+         for (int c = 0; c < count; ++c) {
+            StringBuilder key = new StringBuilder(c == 0 ? "{" : ",");
+            Json.quote(columns.getColumnName(c).toLowerCase(Locale.ROOT), key);
+            this._keys[c] = key.append(':').toString().getBytes(StandardCharsets.UTF_8);
+            this._raw[c] = columns.isNumericColumn(c);
+            this._boolean[c] = columns.isBooleanColumn(c);
+         }
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+         accept((byte) b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+         for (int i = off; i < off + len; ++i)
+            accept(b[i]);
+      }
+
+      private void accept(byte b) throws IOException {
+         // rows end with \r\n when the server runs on Windows
+         if (b == '\r' && this._state != QUOTED)
+            return;
+         switch (this._state) {
+            case FIELD_START:
+               if (this._column >= this._keys.length)
+                  throw new IOException("More columns in the COPY output than the query returns");
+               put(this._keys[this._column]);
+               if (b == ',' || b == '\n') {
+                  put(NULL);
+                  endField(b);
+               } else if (b == '"') {
+                  if (!this._raw[this._column] && !this._boolean[this._column])
+                     put((byte) '"');
+                  this._state = QUOTED;
+               } else {
+                  if (this._boolean[this._column])
+                     put(b == 't' ? TRUE : FALSE);
+                  else if (this._raw[this._column])
+                     put(b);
+                  else
+                     putEscaped((byte) '"', b);
+                  this._state = UNQUOTED;
+               }
+               break;
+            case UNQUOTED:
+               if (b == ',' || b == '\n')
+                  endValue(b);
+               else if (!this._boolean[this._column])
+                  escape(b);
+               break;
+            case QUOTED:
+               if (b == '"')
+                  this._state = QUOTE_IN_QUOTED;
+               else
+                  escape(b);
+               break;
+            case QUOTE_IN_QUOTED:
+               if (b == '"') {
+                  escape(b);
+                  this._state = QUOTED;
+               } else {
+                  endValue(b);
+               }
+               break;
+         }
+      }//end accept
+
+      /*
+       * Closes the value that b, a comma or the end of the line, follows.
+       */
+      private void endValue(byte b) throws IOException {
+         if (!this._raw[this._column] && !this._boolean[this._column])
+            put((byte) '"');
+         endField(b);
+      }
+
+      private void endField(byte b) throws IOException {
+         this._state = FIELD_START;
+         if (b == ',') {
+            ++this._column;
+         } else {
+            put((byte) '}');
+            put((byte) '\n');
+            this._column = 0;
+         }
+      }
+
+      /*
+       * Writes a byte of a value, escaped when the value is a JSON string.
+       */
+      private void escape(byte b) throws IOException {
+         if (this._raw[this._column])
+            put(b);
+         else
+            putEscaped((byte) 0, b);
+      }
+
+      private void putEscaped(byte prefix, byte b) throws IOException {
+         if (prefix != 0)
+            put(prefix);
+         switch (b) {
+            case '"': put((byte) '\\'); put((byte) '"'); break;
+            case '\\': put((byte) '\\'); put((byte) '\\'); break;
+            case '\n': put((byte) '\\'); put((byte) 'n'); break;
+            case '\r': put((byte) '\\'); put((byte) 'r'); break;
+            case '\t': put((byte) '\\'); put((byte) 't'); break;
+            default:
+               // bytes of multi-byte UTF-8 characters are negative and pass through
+               if (b >= 0 && b < 0x20) {
+                  put((byte) '\\'); put((byte) 'u'); put((byte) '0'); put((byte) '0');
+                  put(HEX[b >> 4]); put(HEX[b & 0xf]);
+               } else {
+                  put(b);
+               }
+         }
+      }
+
+      private void put(byte b) throws IOException {
+         if (this._length == this._buffer.length)
+            drain();
+         this._buffer[this._length++] = b;
+      }
+
+      private void put(byte[] bytes) throws IOException {
+         for (byte b : bytes)
+            put(b);
+      }
+
+      private void drain() throws IOException {
+         this._out.write(this._buffer, 0, this._length);
+         this._length = 0;
+      }
+
+      @Override
+      public void flush() throws IOException {
+         drain();
+         this._out.flush();
+      }
+
+      @Override
+      public void close() throws IOException {
+         if (this._state != FIELD_START || this._column != 0)
+            throw new IOException("The COPY output ended in the middle of a row");
+         drain();
+         this._out.close();
+      }
+   }//end JsonLinesOutputStream
+
+   public static void main(String[] args) {
+      List<String> positional = new ArrayList<String>();
+      Format format = Format.CSV;
+      boolean gzip = false;
+      String out = null;
+      for (int i = 0; i < args.length; ++i) {
+         if (args[i].equals("--format") && i + 1 < args.length)
+            format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+         else if (args[i].equals("--gzip"))
+            gzip = true;
+         else if (args[i].equals("--out") && i + 1 < args.length)
+            out = args[++i];
+         else
+            positional.add(args[i]);
+      }
+      if (positional.size() < 5) {
+         System.err.println("Usage: java AirlineManagement export <dbname> <port> <user> <export> <args> "
+                            + "[--format csv|json] [--gzip] [--out file]\n"
+                            + "   manifest <flightNumber> <date>\n"
+                            + "   flights <date>\n"
+                            + "   stats <startDate> <endDate> [flightNumber]");
+         return;
+      }
+
+      AirlineManagement esql = null;
+      try {
+         String name = positional.get(3).toLowerCase(Locale.ROOT);
+         Object[] query = query(name, positional.subList(4, positional.size()));
+         if (out == null)
+            out = name + (format == Format.CSV ? ".csv" : ".jsonl") + (gzip ? ".gz" : "");
+
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(positional.get(0), positional.get(1), positional.get(2), "");
+         long start = System.nanoTime();
+         long rows = new ResultExporter(esql).export((String) query[0], Arrays.copyOfRange(query, 1, query.length),
+                                                     format, gzip, Paths.get(out));
+         System.out.printf("Exported %d rows to %s in %.2f s%n", rows, out, (System.nanoTime() - start) / 1e9);
+      } catch (Exception e) {
+         System.err.println("Error - Export failed: " + e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+}//end ResultExporter
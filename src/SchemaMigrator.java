@@ -0,0 +1,226 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class brings a database to the schema the application expects.  The
+ * schema is a list of numbered migrations; the table schema_version records
+ * the migrations applied, and migrate() applies the missing ones in order,
+ * each in its own transaction together with its schema_version row.  The
+ * statements use IF NOT EXISTS, so a database whose tables were created by
+ * hand is adopted without harm.
+ *
+ * Version 1 creates the tables the CSV files in data/ are loaded into.
+ * Version 2 adds the indexes the features read through:
+ *
+ *    FlightInstance (FlightNumber, FlightDate)   features 3, 4, 6, 13, booking
+ *    FlightInstance (FlightDate, FlightNumber)   feature 5, in its order
+ *    Reservation (FlightInstanceID, Status)      feature 6, cancellation, waitlist promotion
+ *    Repair (PlaneID, RepairDate)                features 10 and 17
+ *    Repair (TechnicianID)                       feature 9
+ *    MaintenanceRequest (PilotID)                feature 18
+ *    Schedule (FlightNumber)                     feature 2 and ReferenceCache reads
+ *
+ * and FlightOnTimeDaily, the summary OnTimeStats keeps.  Version 3 records
+ * when each reservation was made (Reservation.BookedAt), the order in which
+ * CancellationEngine promotes the waitlist; existing rows get the time of
+ * the migration.  Version 4 installs the trigger that keeps FlightOnTimeDaily
+ * up to date with FlightInstance, and refills the table while FlightInstance
+ * is locked.  Version 5 adds FlightInstance.Cancelled, which
+ * CancellationEngine sets when a whole flight instance is cancelled and
+ * BookingEngine checks before it books.
+ *
+ * The indexes leave out SeatsSold: every booking updates it, and an index
+ * holding it would keep those updates from being HOT updates.
+ *
+ * Usage: java AirlineManagement migrate <dbname> <port> <user>
+ */
+public class SchemaMigrator {
+
+   /**
+    * One version of the schema.
+    */
+   static final class Migration {
+      final int version;
+      final String description;
+      final String[] statements;
+
+      Migration(int version, String description, String... statements) {
+         this.version = version;
+         this.description = description;
+         this.statements = statements;
+      }
+   }//end Migration
+
+   static final String CREATE_VERSION_SQL =
+      "CREATE TABLE IF NOT EXISTS schema_version ( " +
+      "   version INTEGER PRIMARY KEY, " +
+      "   description TEXT NOT NULL, " +
+      "   applied_at TIMESTAMP NOT NULL DEFAULT now() " +
+      ")";
+   // keeps two migrators from applying the same version at once
+   static final String LOCK_VERSION_SQL =
+      "LOCK TABLE schema_version IN SHARE ROW EXCLUSIVE MODE";
+   static final String CURRENT_VERSION_SQL =
+      "SELECT COALESCE(MAX(version), 0) FROM schema_version";
+   static final String RECORD_VERSION_SQL =
+      "INSERT INTO schema_version (version, description) VALUES (?, ?)";
+
+   static final Migration[] MIGRATIONS = {
+      new Migration(1, "tables",
+         "CREATE TABLE IF NOT EXISTS Users ( " +
+         "   login TEXT PRIMARY KEY, " +
+         "   password TEXT NOT NULL, " +
+         "   userType TEXT NOT NULL)",
+         "CREATE TABLE IF NOT EXISTS Customer ( " +
+         "   CustomerID INTEGER PRIMARY KEY, " +
+         "   FirstName TEXT, " +
+         "   LastName TEXT, " +
+         "   Gender TEXT, " +
+         "   DOB DATE, " +
+         "   Address TEXT, " +
+         "   Phone TEXT, " +
+         "   Zip TEXT)",
+         "CREATE TABLE IF NOT EXISTS Plane ( " +
+         "   PlaneID TEXT PRIMARY KEY, " +
+         "   Make TEXT, " +
+         "   Model TEXT, " +
+         "   Year INTEGER, " +
+         "   LastRepairDate DATE)",
+         "CREATE TABLE IF NOT EXISTS Pilot ( " +
+         "   PilotID TEXT PRIMARY KEY, " +
+         "   Name TEXT)",
+         "CREATE TABLE IF NOT EXISTS Technician ( " +
+         "   TechnicianID TEXT PRIMARY KEY, " +
+         "   Name TEXT)",
+         "CREATE TABLE IF NOT EXISTS Flight ( " +
+         "   FlightNumber TEXT PRIMARY KEY, " +
+         "   PlaneID TEXT REFERENCES Plane (PlaneID), " +
+         "   DepartureCity TEXT, " +
+         "   ArrivalCity TEXT)",
+         "CREATE TABLE IF NOT EXISTS Schedule ( " +
+         "   ScheduleID INTEGER PRIMARY KEY, " +
+         "   FlightNumber TEXT REFERENCES Flight (FlightNumber), " +
+         "   DayOfWeek TEXT, " +
+         "   DepartureTime TIME, " +
+         "   ArrivalTime TIME)",
+         "CREATE TABLE IF NOT EXISTS FlightInstance ( " +
+         "   FlightInstanceID INTEGER PRIMARY KEY, " +
+         "   FlightNumber TEXT REFERENCES Flight (FlightNumber), " +
+         "   FlightDate DATE, " +
+         "   DepartedOnTime BOOLEAN, " +
+         "   ArrivedOnTime BOOLEAN, " +
+         "   SeatsTotal INTEGER, " +
+         "   SeatsSold INTEGER, " +
+         "   NumOfStops INTEGER, " +
+         "   TicketCost NUMERIC(10, 2))",
+         "CREATE TABLE IF NOT EXISTS Reservation ( " +
+         "   ReservationID TEXT PRIMARY KEY, " +
+         "   CustomerID INTEGER REFERENCES Customer (CustomerID), " +
+         "   FlightInstanceID INTEGER REFERENCES FlightInstance (FlightInstanceID), " +
+         "   Status TEXT)",
+         "CREATE TABLE IF NOT EXISTS MaintenanceRequest ( " +
+         "   RequestID INTEGER PRIMARY KEY, " +
+         "   PlaneID TEXT REFERENCES Plane (PlaneID), " +
+         "   RepairCode TEXT, " +
+         "   RequestDate DATE, " +
+         "   PilotID TEXT REFERENCES Pilot (PilotID))",
+         "CREATE TABLE IF NOT EXISTS Repair ( " +
+         "   RepairID INTEGER PRIMARY KEY, " +
+         "   PlaneID TEXT REFERENCES Plane (PlaneID), " +
+         "   RepairCode TEXT, " +
+         "   RepairDate DATE, " +
+         "   TechnicianID TEXT REFERENCES Technician (TechnicianID))"),
+      new Migration(2, "feature indexes and on-time summary",
+         "CREATE INDEX IF NOT EXISTS flightinstance_flight_date_idx " +
+         "ON FlightInstance (FlightNumber, FlightDate) INCLUDE (TicketCost)",
+         "CREATE INDEX IF NOT EXISTS flightinstance_date_flight_idx " +
+         "ON FlightInstance (FlightDate, FlightNumber)",
+         "CREATE INDEX IF NOT EXISTS reservation_instance_status_idx " +
+         "ON Reservation (FlightInstanceID, Status)",
+         "CREATE INDEX IF NOT EXISTS repair_plane_date_idx " +
+         "ON Repair (PlaneID, RepairDate) INCLUDE (RepairCode)",
+         "CREATE INDEX IF NOT EXISTS repair_technician_idx " +
+         "ON Repair (TechnicianID)",
+         "CREATE INDEX IF NOT EXISTS maintenancerequest_pilot_idx " +
+         "ON MaintenanceRequest (PilotID)",
+         "CREATE INDEX IF NOT EXISTS schedule_flight_idx " +
+         "ON Schedule (FlightNumber)",
+         OnTimeStats.CREATE_SQL),
+      new Migration(3, "booking time of reservations",
+         "ALTER TABLE Reservation ADD COLUMN IF NOT EXISTS BookedAt TIMESTAMPTZ NOT NULL DEFAULT now()"),
+      new Migration(4, "on-time summary trigger", OnTimeStats.INSTALL_SQL),
+      new Migration(5, "cancelled flight instances",
+         "ALTER TABLE FlightInstance ADD COLUMN IF NOT EXISTS Cancelled BOOLEAN NOT NULL DEFAULT false"),
+   };
+
+   private final AirlineManagement _esql;
+
+   public SchemaMigrator(AirlineManagement esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @return the latest version the migrations define
+    */
+   public static int latestVersion() {
+      return MIGRATIONS[MIGRATIONS.length - 1].version;
+   }
+
+   /**
+    * @return the version of the schema, 0 when no migration was applied
+    * @throws java.sql.SQLException when schema_version cannot be read
+    */
+   public int currentVersion() throws SQLException {
+      this._esql.executeUpdate(CREATE_VERSION_SQL);
+      return (int) this._esql.executeQueryAndReturnColumns(CURRENT_VERSION_SQL).getLong(0, 0);
+   }
+
+   /**
+    * Applies the migrations the database has not seen, oldest first.  A
+    * migration that fails is rolled back and stops the run; the ones before
+    * it stay applied.
+    *
+    * @return the migrations applied by this call
+    * @throws java.sql.SQLException when a migration fails
+    */
+   public List<Migration> migrate() throws SQLException {
+      this._esql.executeUpdate(CREATE_VERSION_SQL);
+      List<Migration> applied = new ArrayList<Migration>();
+      for (final Migration migration : MIGRATIONS) {
+         boolean ran = this._esql.executeInTransaction(tx -> {
+            tx.executeUpdate(LOCK_VERSION_SQL);
+            if (tx.executeQueryAndReturnColumns(CURRENT_VERSION_SQL).getLong(0, 0) >= migration.version)
+               return false;
+            for (String statement : migration.statements)
+               tx.executeUpdate(statement);
+            tx.executeUpdate(RECORD_VERSION_SQL, migration.version, migration.description);
+            return true;
+         });
+         if (ran)
+            applied.add(migration);
+      }
+      return applied;
+   }//end migrate
+
+   public static void main(String[] args) {
+      if (args.length != 3) {
+         System.err.println("Usage: java AirlineManagement migrate <dbname> <port> <user>");
+         return;
+      }
+      AirlineManagement esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new AirlineManagement(args[0], args[1], args[2], "");
+         List<Migration> applied = new SchemaMigrator(esql).migrate();
+         for (Migration migration : applied)
+            System.out.printf("Applied version %d: %s%n", migration.version, migration.description);
+         System.out.printf("Schema is at version %d%n", latestVersion());
+      } catch (Exception e) {
+         System.err.println("Error - Migration failed: " + e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+}//end SchemaMigrator
@@ -0,0 +1,370 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class prints rows as a table.  The table is described by a printf
+ * style format such as "%-15s %-10s%n", which is parsed once per format
+ * string and cached.  Only %s and %d conversions with an optional - flag and
+ * width are understood, plus %n and %%.
+ *
+ * The widths of the format are minimums.  The first airline.table.sampleRows
+ * lines (default 100, the header included) are held back, each column is
+ * widened to the longest value among them, and from then on rows are
+ * written as they come.  Columns without a width (plain %s) are not padded.
+ *
+ * Rows are written into a char buffer of airline.table.bufferChars
+ * characters (default 32768), reused by the thread, and encoded and written
+ * in one call when it fills up and when the table is closed.  By default
+ * the table goes to System.out, so it follows System.setOut.
+ */
+public class TableRenderer implements Closeable {
+
+   static final int SAMPLE_ROWS = Integer.getInteger("airline.table.sampleRows", 100);
+   static final int BUFFER_CHARS = Integer.getInteger("airline.table.bufferChars", 32768);
+
+   // the encoding System.out uses
+   private static final Charset OUT_CHARSET = System.getProperty("sun.stdout.encoding") == null
+      ? Charset.defaultCharset() : Charset.forName(System.getProperty("sun.stdout.encoding"));
+
+   private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+
+   private static final Map<String, Layout> LAYOUTS = new ConcurrentHashMap<String, Layout>();
+
+   /*
+    * A parsed format: the text around the columns and how each column is
+    * padded.
+    */
+   static final class Layout {
+      final char[][] literals;     // before column 0, between the columns, after the last
+      final int[] widths;          // 0 when the column is not padded
+      final boolean[] leftAligned;
+
+      Layout(List<String> literals, List<Integer> widths, List<Boolean> leftAligned) {
+         this.literals = new char[literals.size()][];
+         for (int i = 0; i < this.literals.length; ++i)
+            this.literals[i] = literals.get(i).toCharArray();
+         this.widths = new int[widths.size()];
+         this.leftAligned = new boolean[widths.size()];
+         for (int i = 0; i < this.widths.length; ++i) {
+            this.widths[i] = widths.get(i);
+            this.leftAligned[i] = leftAligned.get(i);
+         }
+      }
+   }//end Layout
+
+   /*
+    * The char and byte buffers of a thread, lent to one table at a time.
+    */
+   private static final class Buffers {
+      final char[] chars = new char[BUFFER_CHARS];
+      final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_CHARS * 2);
+      final CharsetEncoder encoder = OUT_CHARSET.newEncoder()
+         .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+      boolean lent = false;
+   }
+
+   private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+   private final Layout _layout;
+   private final WritableByteChannel _out;
+   private final Buffers _buffers;
+   private final int[] _widths;
+   // lines held back: the cells of a row, or the String of a free line
+   private List<Object> _sample = new ArrayList<Object>();
+   private int _length = 0;
+   private int _rowCount = 0;
+
+   /**
+    * Creates a table printed to System.out.
+    *
+    * @param format the printf style format of one row
+    */
+   public TableRenderer(String format) {
+      this(format, Channels.newChannel(System.out));
+   }
+
+   /**
+    * @param format the printf style format of one row
+    * @param out where the table is written; it is not closed
+    */
+   public TableRenderer(String format, WritableByteChannel out) {
+      this._layout = layout(format);
+      this._out = out;
+      Buffers buffers = BUFFERS.get();
+      // a table opened while another is still open on the thread gets its own
+      this._buffers = buffers.lent ? new Buffers() : buffers;
+      this._buffers.lent = true;
+      this._widths = this._layout.widths.clone();
+   }
+
+   /**
+    * @return the format parsed, from the cache when it was parsed before
+    * @throws IllegalArgumentException when the format uses anything but %s, %d, %n and %%
+    */
+   static Layout layout(String format) {
+      Layout layout = LAYOUTS.get(format);
+      if (layout == null) {
+         layout = parse(format);
+         LAYOUTS.put(format, layout);
+      }
+      return layout;
+   }
+
+   /**
+    * @return the format of unpadded columns each followed by a tab, as
+    *         executeQueryAndPrintResult prints them
+    */
+   static String tabSeparated(int columns) {
+      StringBuilder format = new StringBuilder(columns * 3 + 2);
+      for (int c = 0; c < columns; ++c)
+         format.append("%s\t");
+      return format.append("%n").toString();
+   }
+
+   private static Layout parse(String format) {
+      List<String> literals = new ArrayList<String>();
+      List<Integer> widths = new ArrayList<Integer>();
+      List<Boolean> leftAligned = new ArrayList<Boolean>();
+      StringBuilder literal = new StringBuilder();
+      for (int i = 0; i < format.length(); ++i) {
+         char c = format.charAt(i);
+         if (c != '%') {
+            literal.append(c);
+            continue;
+         }
+         int start = i++;
+         boolean left = i < format.length() && format.charAt(i) == '-';
+         if (left)
+            ++i;
+         int width = 0;
+         while (i < format.length() && Character.isDigit(format.charAt(i)))
+            width = width * 10 + (format.charAt(i++) - '0');
+         char conversion = i < format.length() ? format.charAt(i) : ' ';
+         if (conversion == 'n' && i == start + 1) {
+            literal.append(System.lineSeparator());
+         } else if (conversion == '%' && i == start + 1) {
+            literal.append('%');
+         } else if (conversion == 's' || conversion == 'd') {
+            literals.add(literal.toString());
+            literal.setLength(0);
+            widths.add(width);
+            leftAligned.add(left);
+         } else {
+            throw new IllegalArgumentException("Unsupported table format " + format.substring(start, Math.min(i + 1, format.length())));
+         }
+      }
+      literals.add(literal.toString());
+      return new Layout(literals, widths, leftAligned);
+   }//end parse
+
+   /**
+    * Prints the column names.
+    */
+   public void header(Object... names) {
+      cells(names);
+   }
+
+   /**
+    * Prints a row; null values print as "null".
+    */
+   public void row(Object... values) {
+      cells(values);
+      ++this._rowCount;
+   }
+
+   /**
+    * Prints a row; null values print as "null".
+    */
+   public void row(List<?> values) {
+      row(values.toArray());
+   }
+
+   /**
+    * Prints a line of text that is not part of the columns, e.g. a detail
+    * under the row before it.
+    */
+   public void line(String text) {
+      if (this._sample != null) {
+         this._sample.add(text);
+         return;
+      }
+      append(text);
+      append(LINE_SEPARATOR);
+   }
+
+   /**
+    * Prints every row, as they are read when the rows come from a cursor.
+    *
+    * @return the number of rows printed
+    */
+   public int rows(Iterable<? extends List<?>> rows) {
+      int count = 0;
+      for (List<?> values : rows) {
+         row(values);
+         ++count;
+      }
+      return count;
+   }
+
+   /**
+    * @return the number of rows printed so far, the header excluded
+    */
+   public int getRowCount() {
+      return this._rowCount;
+   }
+
+   /**
+    * Writes the rows still held back or buffered.
+    */
+   public void flush() {
+      endSample();
+      write();
+   }
+
+   /**
+    * Writes the rest of the table and returns the buffers to the thread.
+    */
+   @Override
+   public void close() {
+      try {
+         flush();
+      } finally {
+         this._buffers.lent = false;
+      }
+   }
+
+   private void cells(Object[] values) {
+      if (values.length != this._widths.length)
+         throw new IllegalArgumentException("Expected " + this._widths.length + " values, got " + values.length);
+      if (this._sample == null) {
+         append(values);
+         return;
+      }
+      String[] text = new String[values.length];
+      for (int c = 0; c < values.length; ++c) {
+         text[c] = String.valueOf(values[c]);
+         if (this._widths[c] > 0)
+            this._widths[c] = Math.max(this._widths[c], text[c].length());
+      }
+      this._sample.add(text);
+      if (this._sample.size() >= SAMPLE_ROWS)
+         endSample();
+   }
+
+   /*
+    * Fixes the widths and prints the lines held back.
+    */
+   private void endSample() {
+      if (this._sample == null)
+         return;
+      List<Object> sample = this._sample;
+      this._sample = null;
+      for (Object line : sample) {
+         if (line instanceof String) {
+            append((String) line);
+            append(LINE_SEPARATOR);
+         } else {
+            append((String[]) line);
+         }
+      }
+   }
+
+   private void append(Object[] values) {
+      char[][] literals = this._layout.literals;
+      for (int c = 0; c < values.length; ++c) {
+         append(literals[c]);
+         String text = String.valueOf(values[c]);
+         int padding = this._widths[c] - text.length();
+         if (padding > 0 && !this._layout.leftAligned[c])
+            pad(padding);
+         append(text);
+         if (padding > 0 && this._layout.leftAligned[c])
+            pad(padding);
+      }
+      append(literals[values.length]);
+   }
+
+   private void append(char[] text) {
+      int done = 0;
+      while (done < text.length) {
+         int n = Math.min(text.length - done, room());
+         System.arraycopy(text, done, this._buffers.chars, this._length, n);
+         this._length += n;
+         done += n;
+      }
+   }
+
+   private void append(String text) {
+      int done = 0;
+      while (done < text.length()) {
+         int n = Math.min(text.length() - done, room());
+         text.getChars(done, done + n, this._buffers.chars, this._length);
+         this._length += n;
+         done += n;
+      }
+   }
+
+   private void pad(int count) {
+      while (count > 0) {
+         int n = Math.min(count, room());
+         Arrays.fill(this._buffers.chars, this._length, this._length + n, ' ');
+         this._length += n;
+         count -= n;
+      }
+   }
+
+   /*
+    * The chars left in the buffer, after writing it out when it is full.
+    */
+   private int room() {
+      if (this._length == this._buffers.chars.length)
+         write();
+      return this._buffers.chars.length - this._length;
+   }
+
+   /*
+    * Encodes the buffered chars and writes them to the channel.
+    */
+   private void write() {
+      if (this._length == 0)
+         return;
+      CharBuffer chars = CharBuffer.wrap(this._buffers.chars, 0, this._length);
+      ByteBuffer bytes = this._buffers.bytes;
+      CharsetEncoder encoder = this._buffers.encoder;
+      encoder.reset();
+      try {
+         boolean flushing = false;
+         while (true) {
+            bytes.clear();
+            CoderResult result = flushing ? encoder.flush(bytes) : encoder.encode(chars, bytes, true);
+            if (!flushing && result.isUnderflow()) {
+               flushing = true;
+               result = encoder.flush(bytes);
+            }
+            bytes.flip();
+            while (bytes.hasRemaining())
+               this._out.write(bytes);
+            if (result.isUnderflow())
+               break;
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      } finally {
+         this._length = 0;
+      }
+   }//end write
+}//end TableRenderer
@@ -0,0 +1,69 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * This class is a PostgreSQL snapshot as txid_current_snapshot() shows it,
+ * xmin:xmax:xip1,xip2,...  It tells whether a transaction, known by the
+ * txid_current() it returned, had committed when the snapshot was taken.
+ *
+ * The in-memory summaries (OnTimeStats, SalesRollup) reload from the
+ * database while this process keeps reporting the changes it commits.  A
+ * change reported during a reload is applied to the new load as well
+ * unless the snapshot of the load already saw its transaction, so it is
+ * neither lost nor counted twice.
+ */
+public class TxnSnapshot {
+
+   // the snapshot is taken by the first query of a repeatable read transaction
+   static final String REPEATABLE_READ_SQL = "SET TRANSACTION ISOLATION LEVEL REPEATABLE READ";
+   static final String CURRENT_SQL = "SELECT txid_current_snapshot()::text";
+
+   private final long _xmin;
+   private final long _xmax;
+   private final long[] _inProgress;
+
+   TxnSnapshot(long xmin, long xmax, long[] inProgress) {
+      this._xmin = xmin;
+      this._xmax = xmax;
+      this._inProgress = inProgress.clone();
+      Arrays.sort(this._inProgress);
+   }
+
+   /**
+    * Takes the snapshot the rest of the transaction reads with.  It must be
+    * the first work of the transaction.
+    *
+    * @throws java.sql.SQLException when the snapshot cannot be read
+    */
+   static TxnSnapshot take(Transaction tx) throws SQLException {
+      tx.executeUpdate(REPEATABLE_READ_SQL);
+      return parse(tx.executeQueryAndReturnColumns(CURRENT_SQL).getString(0, 0));
+   }
+
+   /**
+    * @param text a snapshot as txid_current_snapshot() prints it
+    */
+   static TxnSnapshot parse(String text) {
+      String[] parts = text.trim().split(":", -1);
+      if (parts.length != 3)
+         throw new IllegalArgumentException("not a snapshot: " + text);
+      long[] inProgress = new long[0];
+      if (!parts[2].isEmpty()) {
+         String[] ids = parts[2].split(",");
+         inProgress = new long[ids.length];
+         for (int i = 0; i < ids.length; ++i)
+            inProgress[i] = Long.parseLong(ids[i]);
+      }
+      return new TxnSnapshot(Long.parseLong(parts[0]), Long.parseLong(parts[1]), inProgress);
+   }
+
+   /**
+    * @param txid what txid_current() returned in the transaction
+    * @return whether the transaction had committed when the snapshot was taken
+    */
+   boolean sees(long txid) {
+      if (txid < this._xmin)
+         return true;
+      return txid < this._xmax && Arrays.binarySearch(this._inProgress, txid) < 0;
+   }
+}//end TxnSnapshot